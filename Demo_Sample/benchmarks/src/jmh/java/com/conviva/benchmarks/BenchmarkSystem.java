@@ -0,0 +1,115 @@
+package com.conviva.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.conviva.api.SystemFactory;
+import com.conviva.api.SystemSettings;
+import com.conviva.api.system.ICallbackInterface;
+import com.conviva.api.system.ICancelTimer;
+import com.conviva.api.system.IHttpInterface;
+import com.conviva.api.system.ILoggingInterface;
+import com.conviva.api.system.IStorageInterface;
+import com.conviva.api.system.ITimerInterface;
+import com.conviva.api.system.SystemInterface;
+import com.conviva.platforms.jvm.JvmGraphicalInterface;
+import com.conviva.platforms.jvm.JvmMetadataInterface;
+import com.conviva.platforms.jvm.JvmTimeInterface;
+
+/**
+ * Stand-in system interfaces for the benchmarks.<br>
+ * Timers never fire and HTTP requests are dropped, so that only the code under
+ * measurement runs: the benchmarks drive heartbeats themselves. Storage is in memory
+ * and completes synchronously. Time, metadata and visibility come from the JVM platform.
+ */
+public final class BenchmarkSystem {
+    public static final String CUSTOMER_KEY = "benchmark";
+
+    private BenchmarkSystem() {
+    }
+
+    public static SystemInterface buildSystemInterface() {
+        return new SystemInterface(new JvmTimeInterface(), new Timer(), new Http(), new Storage(),
+                new JvmMetadataInterface(), new Logging(), new JvmGraphicalInterface());
+    }
+
+    /**
+     * @param logLevel Console log level, messages below it are suppressed.
+     * @return A SystemFactory backed by the stand-in interfaces.
+     */
+    public static SystemFactory buildSystemFactory(SystemSettings.LogLevel logLevel) {
+        SystemSettings systemSettings = new SystemSettings();
+        systemSettings.logLevel = logLevel;
+        return new SystemFactory(buildSystemInterface(), systemSettings);
+    }
+
+    static class Timer implements ITimerInterface {
+        private static final ICancelTimer NEVER_FIRES = new ICancelTimer() {
+            @Override
+            public boolean cancel() {
+                return true;
+            }
+        };
+
+        @Override
+        public ICancelTimer createTimer(Runnable timerAction, int intervalMs, String actionName) {
+            return NEVER_FIRES;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    static class Http implements IHttpInterface {
+        @Override
+        public void makeRequest(String httpMethod, String url, String data, String contentType,
+                                int timeoutMs, ICallbackInterface callback) {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    static class Storage implements IStorageInterface {
+        private final Map<String, String> _data = new HashMap<String, String>();
+
+        @Override
+        public synchronized void saveData(String storageSpace, String storageKey, String data,
+                                          ICallbackInterface callback) {
+            _data.put(storageSpace + "." + storageKey, data);
+            callback.done(true, null);
+        }
+
+        @Override
+        public synchronized void loadData(String storageSpace, String storageKey, ICallbackInterface callback) {
+            String data = _data.get(storageSpace + "." + storageKey);
+            callback.done(data != null, data);
+        }
+
+        @Override
+        public synchronized void deleteData(String storageSpace, String storageKey, ICallbackInterface callback) {
+            _data.remove(storageSpace + "." + storageKey);
+            callback.done(true, null);
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    static class Logging implements ILoggingInterface {
+        // Keeps the formatted messages reachable so that formatting is not optimized away
+        volatile String lastMessage = null;
+
+        @Override
+        public void consoleLog(String message, SystemSettings.LogLevel logLevel) {
+            lastMessage = message;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
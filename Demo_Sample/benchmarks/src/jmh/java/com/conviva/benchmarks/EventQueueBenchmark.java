@@ -0,0 +1,74 @@
+package com.conviva.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.conviva.session.EventQueue;
+import com.conviva.session.EventRecord;
+
+/**
+ * EventQueue under contention: several player threads enqueue events while
+ * the heartbeat thread flushes them, as when the player reports state changes
+ * during a heartbeat.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventQueueBenchmark {
+    private EventQueue _eventQueue;
+
+    @Setup
+    public void setup() {
+        _eventQueue = new EventQueue();
+    }
+
+    @Benchmark
+    @Group("maps")
+    @GroupThreads(3)
+    public void enqueueMap() {
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("br", 4500);
+        _eventQueue.enqueueEvent("CwsStateChangeEvent", data, 1000);
+    }
+
+    @Benchmark
+    @Group("maps")
+    @GroupThreads(1)
+    public void flushMaps(Blackhole blackhole) {
+        flush(blackhole);
+    }
+
+    @Benchmark
+    @Group("records")
+    @GroupThreads(3)
+    public void enqueueRecord() {
+        EventRecord record = _eventQueue.obtainRecord();
+        _eventQueue.enqueueEvent("CwsStateChangeEvent", record, 1000);
+    }
+
+    @Benchmark
+    @Group("records")
+    @GroupThreads(1)
+    public void flushRecords(Blackhole blackhole) {
+        flush(blackhole);
+    }
+
+    private void flush(Blackhole blackhole) {
+        List<Object> events = _eventQueue.flushEvents();
+        blackhole.consume(events.size());
+        _eventQueue.recycle(events);
+    }
+}
@@ -0,0 +1,69 @@
+package com.conviva.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heartbeat shaped maps, with the fields and nesting of a session heartbeat
+ * of a playing video and a configurable number of events.
+ */
+public final class HeartbeatFixture {
+    private HeartbeatFixture() {
+    }
+
+    public static Map<String, Object> build(int eventCount) {
+        Map<String, Object> heartbeat = new HashMap<String, Object>();
+        heartbeat.put("t", "CwsSessionHb");
+        heartbeat.put("cid", BenchmarkSystem.CUSTOMER_KEY);
+        heartbeat.put("clid", "1234567890.987654321.1122334455.5544332211");
+        heartbeat.put("sid", 1953312749);
+        heartbeat.put("seq", 42);
+        heartbeat.put("pver", "2.5");
+        heartbeat.put("clv", "2.141.0.36143");
+        heartbeat.put("iid", 305419896);
+        heartbeat.put("an", "Benchmark asset \"live\" \u00e9dition");
+        heartbeat.put("vid", "viewer-0001");
+        heartbeat.put("url", "https://cdn.example.com/live/master.m3u8?token=abcdef");
+        heartbeat.put("st", 600000);
+        heartbeat.put("sst", 1.5e12);
+        heartbeat.put("ps", 3);
+        heartbeat.put("br", 4500);
+        heartbeat.put("pht", 598750L);
+        heartbeat.put("bl", 12000);
+        heartbeat.put("efps", 30);
+        heartbeat.put("rfpsavg", 29.97);
+        heartbeat.put("ct", "Ethernet");
+        heartbeat.put("ss", 1000);
+        heartbeat.put("lv", true);
+
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("show", "benchmark");
+        tags.put("episode", "12");
+        tags.put("genre", "sports");
+        heartbeat.put("tags", tags);
+
+        Map<String, Object> caps = new HashMap<String, Object>();
+        caps.put("sa", true);
+        caps.put("ra", false);
+        heartbeat.put("caps", caps);
+
+        List<Object> events = new ArrayList<Object>();
+        for (int i = 0; i < eventCount; i++) {
+            Map<String, Object> event = new HashMap<String, Object>();
+            Map<String, Object> oldValue = new HashMap<String, Object>();
+            Map<String, Object> newValue = new HashMap<String, Object>();
+            oldValue.put("br", 3000 + i);
+            newValue.put("br", 4500 + i);
+            event.put("t", "CwsStateChangeEvent");
+            event.put("st", 1000 * i);
+            event.put("seq", i);
+            event.put("old", oldValue);
+            event.put("new", newValue);
+            events.add(event);
+        }
+        heartbeat.put("evs", events);
+        return heartbeat;
+    }
+}
@@ -0,0 +1,67 @@
+package com.conviva.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.conviva.json.SimpleJsonInterface;
+import com.conviva.json.StreamingJsonInterface;
+import com.conviva.json.Utf8JsonWriter;
+
+/**
+ * Heartbeat encoding with SimpleJsonInterface and StreamingJsonInterface,
+ * and decoding of a heartbeat response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+    private static final String RESPONSE = "{\"t\":\"CwsSessionHbResponse\",\"sid\":1953312749,\"seq\":42,"
+            + "\"clid\":\"1234567890.987654321.1122334455.5544332211\",\"err\":\"ok\",\"cfg\":{\"slg\":false,\"hbi\":20,"
+            + "\"gw\":\"https://benchmark.cws.conviva.com\",\"fp\":\"\"},\"evs\":[]}";
+
+    /// Events carried by the heartbeat
+    @Param({"0", "10", "100"})
+    public int eventCount;
+
+    private Map<String, Object> _heartbeat;
+    private final SimpleJsonInterface _simpleJson = new SimpleJsonInterface();
+    private final StreamingJsonInterface _streamingJson = new StreamingJsonInterface();
+    private final Utf8JsonWriter _writer = new Utf8JsonWriter();
+
+    @Setup
+    public void setup() {
+        _heartbeat = HeartbeatFixture.build(eventCount);
+    }
+
+    @Benchmark
+    public String encodeSimple() {
+        return _simpleJson.encode(_heartbeat);
+    }
+
+    @Benchmark
+    public String encodeStreamingToString() {
+        return _streamingJson.encode(_heartbeat);
+    }
+
+    /// The path used by Session: UTF-8 bytes into a reused buffer
+    @Benchmark
+    public int encodeStreamingToBytes() {
+        _writer.reset();
+        _streamingJson.encode(_heartbeat, _writer);
+        return _writer.length();
+    }
+
+    @Benchmark
+    public Map<String, Object> decodeResponse() {
+        return _simpleJson.decode(RESPONSE);
+    }
+}
@@ -0,0 +1,44 @@
+package com.conviva.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.conviva.api.SystemFactory;
+import com.conviva.api.SystemSettings;
+import com.conviva.utils.Logger;
+
+/**
+ * Logger.log below the console log level, which should cost next to nothing,
+ * and at an enabled level, which formats the message for the console.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggerBenchmark {
+    private Logger _logger;
+    private int _sessionTime = 0;
+
+    @Setup
+    public void setup() {
+        SystemFactory systemFactory = BenchmarkSystem.buildSystemFactory(SystemSettings.LogLevel.WARNING);
+        _logger = systemFactory.buildLogger();
+        _logger.setModuleName("Benchmark");
+    }
+
+    @Benchmark
+    public void suppressed() {
+        _logger.debug("Heartbeat sent, session time " + (_sessionTime++));
+    }
+
+    @Benchmark
+    public void enabled() {
+        _logger.error("Heartbeat failed, session time " + (_sessionTime++));
+    }
+}
@@ -0,0 +1,67 @@
+package com.conviva.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.conviva.api.Client;
+import com.conviva.api.ClientSettings;
+import com.conviva.api.ContentMetadata;
+import com.conviva.api.ConvivaException;
+import com.conviva.api.SystemFactory;
+import com.conviva.api.SystemSettings;
+
+/**
+ * Construction of a Client and of monitoring sessions through the SystemFactory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionFactoryBenchmark {
+    private Client _client;
+    private ContentMetadata _contentMetadata;
+
+    @Setup
+    public void setup() {
+        _client = buildClient();
+        _contentMetadata = new ContentMetadata();
+        _contentMetadata.assetName = "Benchmark asset";
+        _contentMetadata.streamUrl = "https://cdn.example.com/live/master.m3u8";
+        _contentMetadata.streamType = ContentMetadata.StreamType.LIVE;
+        _contentMetadata.defaultBitrateKbps = 4500;
+        _contentMetadata.viewerId = "viewer-0001";
+        _contentMetadata.applicationName = "benchmarks";
+    }
+
+    @TearDown
+    public void tearDown() throws ConvivaException {
+        _client.release();
+    }
+
+    @Benchmark
+    public Client createClient() throws ConvivaException {
+        Client client = buildClient();
+        client.release();
+        return client;
+    }
+
+    /// A session with its Monitor, EventQueue and heartbeat timer, then its cleanup
+    @Benchmark
+    public int createAndCleanupSession() throws ConvivaException {
+        int sessionKey = _client.createSession(_contentMetadata);
+        _client.cleanupSession(sessionKey);
+        return sessionKey;
+    }
+
+    static Client buildClient() {
+        SystemFactory systemFactory = BenchmarkSystem.buildSystemFactory(SystemSettings.LogLevel.NONE);
+        return new Client(new ClientSettings(BenchmarkSystem.CUSTOMER_KEY), systemFactory);
+    }
+}
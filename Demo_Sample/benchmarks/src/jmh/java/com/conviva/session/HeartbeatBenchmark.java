@@ -0,0 +1,113 @@
+package com.conviva.session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.conviva.api.Client;
+import com.conviva.api.ClientSettings;
+import com.conviva.api.ContentMetadata;
+import com.conviva.api.ConvivaException;
+import com.conviva.api.SystemFactory;
+import com.conviva.api.SystemSettings;
+import com.conviva.api.player.PlayerStateManager;
+import com.conviva.benchmarks.BenchmarkSystem;
+import com.conviva.utils.Config;
+
+/**
+ * Heartbeat building of a video session with a playing player attached, as done by
+ * the heartbeat timer, with and without player events since the previous heartbeat,
+ * and followed by the encoding. Lives in the session package to reach prepareHeartbeat().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeartbeatBenchmark {
+    private Client _client;
+    private SessionFactory _sessionFactory;
+    private Session _session;
+    private PlayerStateManager _playerStateManager;
+    private boolean _highBitrate = false;
+
+    @Setup
+    public void setup() throws ConvivaException {
+        SystemFactory systemFactory = BenchmarkSystem.buildSystemFactory(SystemSettings.LogLevel.NONE);
+        ClientSettings clientSettings = new ClientSettings(BenchmarkSystem.CUSTOMER_KEY);
+        _client = new Client(clientSettings, systemFactory);
+        Config config = systemFactory.buildConfig(_client);
+        config.load();
+        _sessionFactory = systemFactory.buildSessionFactory(_client, clientSettings, config);
+
+        ContentMetadata contentMetadata = new ContentMetadata();
+        contentMetadata.assetName = "Benchmark asset";
+        contentMetadata.streamUrl = "https://cdn.example.com/live/master.m3u8";
+        contentMetadata.streamType = ContentMetadata.StreamType.LIVE;
+        contentMetadata.viewerId = "viewer-0001";
+        contentMetadata.applicationName = "benchmarks";
+        contentMetadata.custom = new HashMap<String, String>();
+        contentMetadata.custom.put("show", "benchmark");
+        contentMetadata.custom.put("genre", "sports");
+        _session = _sessionFactory.getSession(_sessionFactory.makeVideoSession(contentMetadata));
+
+        _playerStateManager = new PlayerStateManager(systemFactory);
+        _session.attachPlayer(_playerStateManager);
+        _playerStateManager.setPlayerType("BenchmarkPlayer");
+        _playerStateManager.setPlayerVersion("1.0");
+        _playerStateManager.setDuration(3600);
+        _playerStateManager.setEncodedFrameRate(30);
+        _playerStateManager.setRenderedFrameRate(30);
+        _playerStateManager.setVideoWidth(1920);
+        _playerStateManager.setVideoHeight(1080);
+        _playerStateManager.setBitrateKbps(4500);
+        _playerStateManager.setPlayerState(PlayerStateManager.PlayerState.PLAYING);
+        // Drop the events of the setup
+        _session.prepareHeartbeat();
+    }
+
+    @TearDown
+    public void tearDown() throws ConvivaException {
+        _sessionFactory.cleanup();
+        _client.release();
+    }
+
+    /// Steady playback: no events since the previous heartbeat
+    @Benchmark
+    public Map<String, Object> makeHeartbeat() {
+        return _session.prepareHeartbeat();
+    }
+
+    /// An ABR switch since the previous heartbeat: bitrate, resolution and buffering events
+    @Benchmark
+    public Map<String, Object> makeHeartbeatWithEvents() throws ConvivaException {
+        switchBitrate();
+        return _session.prepareHeartbeat();
+    }
+
+    /// Heartbeat build and encoding, the HTTP request is dropped by the stand-in interface
+    @Benchmark
+    public void makeAndEncodeHeartbeat() throws ConvivaException {
+        switchBitrate();
+        Map<String, Object> heartbeat = _session.prepareHeartbeat();
+        if (heartbeat != null) {
+            _session.encodeAndPostHeartbeat(heartbeat);
+        }
+    }
+
+    private void switchBitrate() throws ConvivaException {
+        _highBitrate = !_highBitrate;
+        _playerStateManager.setPlayerState(PlayerStateManager.PlayerState.BUFFERING);
+        _playerStateManager.setBitrateKbps(_highBitrate ? 6000 : 4500);
+        _playerStateManager.setVideoWidth(_highBitrate ? 2560 : 1920);
+        _playerStateManager.setVideoHeight(_highBitrate ? 1440 : 1080);
+        _playerStateManager.setPlayerState(PlayerStateManager.PlayerState.PLAYING);
+    }
+}
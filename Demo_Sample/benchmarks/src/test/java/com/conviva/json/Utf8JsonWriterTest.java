@@ -0,0 +1,246 @@
+package com.conviva.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+public class Utf8JsonWriterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void heartbeatIsByteForByteTheSameAsJsonSimple() {
+        assertSameAsJsonSimple(fixture());
+    }
+
+    @Test
+    public void scalarsAreTheSameAsJsonSimple() {
+        Object[] values = {
+            null, true, false, "", "text",
+            0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0L, Long.MIN_VALUE, Long.MAX_VALUE,
+            (short) -7, (byte) 127,
+            0.0, -0.0, 0.1, 1.5, -2.0, 1e20, 1e-7, 123456789.123, Double.MIN_VALUE, Double.MAX_VALUE,
+            1.1f, -0.0f, Float.MAX_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Float.NaN, Float.POSITIVE_INFINITY,
+            new BigDecimal("1.50"), new BigInteger("123456789012345678901234567890"),
+            new Object() {
+                @Override
+                public String toString() {
+                    return "caf\u00e9 \ud83d\ude00 raw";
+                }
+            }
+        };
+        for (Object value : values) {
+            assertSameAsJsonSimple(value);
+        }
+    }
+
+    @Test
+    public void escapesAreTheSameAsJsonSimple() {
+        String[] values = {
+            "\"quoted\"", "back\\slash", "http://host/path", "\b\f\n\r\t",
+            "\u0000\u0001\u001f", "\u007f\u0080\u009f\u00a0", "\u1fff\u2000\u2028\u2029\u20ac\u20ff\u2100",
+            "caf\u00e9", "\u07ff\u0800\uffff", "\u4e2d\u6587"
+        };
+        for (String value : values) {
+            assertSameAsJsonSimple(value);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void surrogatesAreTheSameAsJsonSimple() {
+        String[] values = {
+            "\ud83d\ude00", "\udbff\udfff", "a\ud83d\ude00b",
+            // Unpaired, replaced by '?' like String.getBytes()
+            "\ud83d", "\ude00", "a\ud83db", "\ude00\ud83d", "\ud83d\ud83d\ude00", "\ud83d\ude00\ude00", "end\ud83d"
+        };
+        for (String value : values) {
+            assertSameAsJsonSimple(value);
+            // Also in keys and in text written as is
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put(value, 1);
+            assertSameAsJsonSimple(map);
+            JSONArray array = new JSONArray();
+            array.add(value);
+            assertSameAsJsonSimple(array);
+        }
+    }
+
+    @Test
+    public void randomStringsAreTheSameAsJsonSimple() {
+        Random random = new Random(1);
+        // Favor the ranges escaped or encoded differently
+        char[][] ranges = {
+            { 0x00, 0x7F }, { 0x7F, 0xA0 }, { 0xA0, 0x800 }, { 0x800, 0xD800 }, { 0xD800, 0xE000 },
+            { 0xE000, 0xFFFF }, { 0x2000, 0x2100 }
+        };
+        for (int i = 0; i < 10000; i++) {
+            char[] chars = new char[random.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                char[] range = ranges[random.nextInt(ranges.length)];
+                chars[j] = (char) (range[0] + random.nextInt(range[1] - range[0] + 1));
+            }
+            assertSameAsJsonSimple(new String(chars));
+        }
+    }
+
+    @Test
+    public void writableIsTheSameAsTheEquivalentMap() {
+        Utf8JsonWriter writer = new Utf8JsonWriter();
+        writer.writeValue(new Nested(10));
+        assertEquals(JSONValue.toJSONString(new Nested(10).toMap()), writer.toString());
+    }
+
+    @Test
+    public void integersWithoutStrings() {
+        long[] values = { 0, 9, 10, -9, -10, 99, 100, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+        Utf8JsonWriter writer = new Utf8JsonWriter();
+        for (long value : values) {
+            writer.reset();
+            writer.writeLong(value);
+            assertEquals(Long.toString(value), writer.toString());
+        }
+    }
+
+    @Test
+    public void nullMapAndList() {
+        Utf8JsonWriter writer = new Utf8JsonWriter();
+        writer.writeMap(null);
+        writer.writeList(null);
+        assertEquals("nullnull", writer.toString());
+    }
+
+    @Test
+    public void bufferGrowsAndIsReusedAfterReset() {
+        Utf8JsonWriter writer = new Utf8JsonWriter(1);
+        Map<String, Object> heartbeat = fixture();
+        writer.writeMap(heartbeat);
+        byte[] expected = JSONValue.toJSONString(heartbeat).getBytes(UTF_8);
+        assertArrayEquals(expected, Arrays.copyOf(writer.buffer(), writer.length()));
+
+        byte[] buffer = writer.buffer();
+        writer.reset();
+        assertEquals(0, writer.length());
+        writer.writeMap(heartbeat);
+        assertSame(buffer, writer.buffer());
+        assertArrayEquals(expected, Arrays.copyOf(writer.buffer(), writer.length()));
+    }
+
+    private static void assertSameAsJsonSimple(Object value) {
+        Utf8JsonWriter writer = new Utf8JsonWriter(16);
+        writer.writeValue(value);
+        String json = JSONValue.toJSONString(value);
+        assertArrayEquals(json, json.getBytes(UTF_8), Arrays.copyOf(writer.buffer(), writer.length()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> fixture() {
+        Map<String, Object> platformMetadata = new LinkedHashMap<String, Object>();
+        platformMetadata.put("os", "Android");
+        platformMetadata.put("osv", "13");
+        platformMetadata.put("dvma", "Google");
+        platformMetadata.put("dvmo", "Pixel \"7\" Pro");
+
+        Map<String, Object> newState = new LinkedHashMap<String, Object>();
+        newState.put("ps", 3);
+        newState.put("br", 2500);
+        Map<String, Object> event = new LinkedHashMap<String, Object>();
+        event.put("t", "CwsStateChangeEvent");
+        event.put("seq", 3);
+        event.put("st", 1523L);
+        event.put("new", newState);
+        event.put("old", null);
+
+        Map<String, Object> errorEvent = new LinkedHashMap<String, Object>();
+        errorEvent.put("t", "CwsErrorEvent");
+        errorEvent.put("err", "Network error:\n\tconnection reset\u0000 at http://cdn.example.com/a\\b.m3u8");
+        errorEvent.put("ft", true);
+
+        List<Object> events = new ArrayList<Object>();
+        events.add(event);
+        events.add(errorEvent);
+
+        Map<String, Object> tags = new LinkedHashMap<String, Object>();
+        tags.put("title", "Caf\u00e9 \u4e2d\u6587 \ud83d\ude00 \u2028 \u20ac");
+        tags.put("broken", "lone \ud83d surrogate \ude00");
+        tags.put("ctrl", "\u001f\u007f\u0085\u009f");
+        tags.put("k\u00e9y \"quoted\"", "");
+
+        JSONArray resources = new JSONArray();
+        resources.add("https://cdn.example.com/");
+        resources.add(1.5);
+
+        Map<String, Object> heartbeat = new LinkedHashMap<String, Object>();
+        heartbeat.put("t", "CwsSessionHb");
+        heartbeat.put("cid", "c3.customer");
+        heartbeat.put("sid", 1234567890);
+        heartbeat.put("iid", -987654321);
+        heartbeat.put("st", 10025L);
+        heartbeat.put("sst", 1419552000123.0);
+        heartbeat.put("cts", 1.419552000123E12);
+        heartbeat.put("bl", 1.25);
+        heartbeat.put("fps", 29.97f);
+        heartbeat.put("ad", false);
+        heartbeat.put("lv", true);
+        heartbeat.put("cdn", null);
+        heartbeat.put("nan", Double.NaN);
+        heartbeat.put("pm", platformMetadata);
+        heartbeat.put("evs", events);
+        heartbeat.put("tags", tags);
+        heartbeat.put("res", resources);
+        heartbeat.put("empty", new HashMap<String, Object>());
+        heartbeat.put("list", Arrays.asList(1, "two", null, Arrays.asList(3.0, false), new ArrayList<Object>()));
+        return heartbeat;
+    }
+
+    /// Objects nested deeper than the initial depth of the writer
+    private static final class Nested implements IJsonWritable {
+        private final int _depth;
+
+        Nested(int depth) {
+            _depth = depth;
+        }
+
+        @Override
+        public void writeJson(IJsonWriter writer) {
+            writer.beginObject(_depth > 0 ? 4 : 3);
+            writer.name("d");
+            writer.value(_depth);
+            writer.name("s");
+            writer.value("\u00e9\ud83d\ude00/");
+            writer.name("n");
+            writer.value((String) null);
+            if (_depth > 0) {
+                writer.name("child");
+                new Nested(_depth - 1).writeJson(writer);
+            }
+            writer.endObject();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("d", (long) _depth);
+            map.put("s", "\u00e9\ud83d\ude00/");
+            map.put("n", null);
+            if (_depth > 0) {
+                map.put("child", new Nested(_depth - 1).toMap());
+            }
+            return map;
+        }
+    }
+}
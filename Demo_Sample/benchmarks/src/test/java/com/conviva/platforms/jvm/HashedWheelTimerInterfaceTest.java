@@ -0,0 +1,312 @@
+package com.conviva.platforms.jvm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.conviva.api.system.ICancelTimer;
+
+public class HashedWheelTimerInterfaceTest {
+    private final List<HashedWheelTimerInterface> _timers = new ArrayList<HashedWheelTimerInterface>();
+
+    @After
+    public void tearDown() {
+        for (HashedWheelTimerInterface timer : _timers) {
+            timer.release();
+        }
+    }
+
+    private HashedWheelTimerInterface buildTimer(int tickMs, int wheelSize, int jitterPercent) {
+        HashedWheelTimerInterface timer = new HashedWheelTimerInterface(tickMs, wheelSize, jitterPercent);
+        _timers.add(timer);
+        return timer;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidTick() {
+        new HashedWheelTimerInterface(0, 16, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidJitter() {
+        new HashedWheelTimerInterface(10, 16, 101);
+    }
+
+    @Test
+    public void recurringTimerFiresRepeatedly() throws Exception {
+        HashedWheelTimerInterface timer = buildTimer(5, 64, 0);
+        final CountDownLatch fired = new CountDownLatch(5);
+        ICancelTimer cancel = timer.createTimer(new CountDown(fired), 20, "test");
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(cancel.cancel());
+    }
+
+    @Test
+    public void timerLongerThanARotationWaitsForItsRound() throws Exception {
+        // 4 buckets of 5 ms: a rotation takes 20 ms, the timer expires on the sixth one
+        HashedWheelTimerInterface timer = buildTimer(5, 4, 0);
+        final AtomicLong firedNanos = new AtomicLong(0);
+        final CountDownLatch fired = new CountDownLatch(1);
+        long startNanos = System.nanoTime();
+        timer.createTimer(new Runnable() {
+            @Override
+            public void run() {
+                if (firedNanos.compareAndSet(0, System.nanoTime())) {
+                    fired.countDown();
+                }
+            }
+        }, 110, "test");
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(firedNanos.get() - startNanos);
+        assertTrue("fired after " + elapsedMs + " ms", elapsedMs >= 110);
+    }
+
+    @Test
+    public void timersOfTheSameBucketExpireInDifferentRounds() throws Exception {
+        // 30 ms and 30 + 8 * 10 ms land in the same bucket of a 8 x 10 ms wheel
+        HashedWheelTimerInterface timer = buildTimer(10, 8, 0);
+        final AtomicReference<String> order = new AtomicReference<String>("");
+        final CountDownLatch fired = new CountDownLatch(2);
+        timer.createTimer(new Append(order, "long", fired), 110, "long");
+        timer.createTimer(new Append(order, "short", fired), 30, "short");
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(order.get(), order.get().startsWith("short"));
+        assertTrue(order.get(), order.get().contains("long"));
+    }
+
+    @Test
+    public void cancelledTimerNeverFires() throws Exception {
+        HashedWheelTimerInterface timer = buildTimer(5, 64, 0);
+        final AtomicInteger runs = new AtomicInteger(0);
+        ICancelTimer cancel = timer.createTimer(new Increment(runs), 30, "test");
+        assertEquals(1, timer.getActiveCount());
+        assertTrue(cancel.cancel());
+        assertFalse(cancel.cancel());
+        assertEquals(0, timer.getActiveCount());
+        Thread.sleep(100);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void timerCancelledByItsActionStops() throws Exception {
+        HashedWheelTimerInterface timer = buildTimer(5, 64, 0);
+        final AtomicInteger runs = new AtomicInteger(0);
+        final AtomicReference<ICancelTimer> self = new AtomicReference<ICancelTimer>();
+        final CountDownLatch created = new CountDownLatch(1);
+        self.set(timer.createTimer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    created.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                runs.incrementAndGet();
+                self.get().cancel();
+            }
+        }, 10, "test"));
+        created.countDown();
+        Thread.sleep(150);
+        assertEquals(1, runs.get());
+        assertEquals(0, timer.getActiveCount());
+    }
+
+    @Test
+    public void failingActionKeepsTheWheelRunning() throws Exception {
+        HashedWheelTimerInterface timer = buildTimer(5, 64, 0);
+        final AtomicInteger failures = new AtomicInteger(0);
+        timer.createTimer(new Runnable() {
+            @Override
+            public void run() {
+                failures.incrementAndGet();
+                throw new IllegalStateException("expected by the test");
+            }
+        }, 10, "failing");
+        CountDownLatch fired = new CountDownLatch(3);
+        timer.createTimer(new CountDown(fired), 10, "test");
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(failures.get() >= 2);
+    }
+
+    @Test
+    public void releasedTimerStopsFiring() throws Exception {
+        HashedWheelTimerInterface timer = buildTimer(5, 64, 0);
+        final AtomicInteger runs = new AtomicInteger(0);
+        final CountDownLatch fired = new CountDownLatch(1);
+        timer.createTimer(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                fired.countDown();
+            }
+        }, 10, "test");
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        timer.release();
+        // Let an action already started complete
+        Thread.sleep(30);
+        int runsAtRelease = runs.get();
+        Thread.sleep(100);
+        assertEquals(runsAtRelease, runs.get());
+    }
+
+    @Test
+    public void recurringTimerKeepsItsRateWithJitter() throws Exception {
+        HashedWheelTimerInterface timer = buildTimer(5, 64, 50);
+        final AtomicInteger runs = new AtomicInteger(0);
+        ICancelTimer cancel = timer.createTimer(new Increment(runs), 50, "test");
+        Thread.sleep(1000);
+        cancel.cancel();
+        // Periods restart from the nominal times, the jitter does not add up
+        assertTrue("fired " + runs.get() + " times", runs.get() >= 15 && runs.get() <= 21);
+    }
+
+    @Test
+    public void manyTimersCreatedAndCancelledConcurrently() throws Exception {
+        final HashedWheelTimerInterface timer = buildTimer(5, 32, 10);
+        final int threads = 8;
+        final int perThread = 500;
+        final CountDownLatch fired = new CountDownLatch(threads * perThread);
+        final AtomicInteger cancelledRuns = new AtomicInteger(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] creators = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            creators[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        // Each fires once then cancels itself, and a second timer is cancelled before firing
+                        FireOnce action = new FireOnce(fired);
+                        action.setCancel(timer.createTimer(action, 20 + (seed * perThread + i) % 200, "fire"));
+                        ICancelTimer cancelled = timer.createTimer(new Increment(cancelledRuns), 300, "cancelled");
+                        cancelled.cancel();
+                    }
+                }
+            });
+            creators[t].start();
+        }
+        start.countDown();
+        for (Thread creator : creators) {
+            creator.join();
+        }
+        assertTrue("timers not fired: " + fired.getCount(), fired.await(10, TimeUnit.SECONDS));
+        Thread.sleep(350);
+        assertEquals(0, cancelledRuns.get());
+        assertEquals(0, timer.getActiveCount());
+    }
+
+    @Test
+    public void actionsRunOnTheExecutor() throws Exception {
+        Assume.assumeTrue(JvmExecutor.isVirtualThreadSupported());
+        JvmExecutor executor = JvmExecutor.newVirtualThreadExecutor();
+        HashedWheelTimerInterface timer = new HashedWheelTimerInterface(5, 64, 0, executor);
+        _timers.add(timer);
+        final AtomicReference<String> threadName = new AtomicReference<String>();
+        final CountDownLatch fired = new CountDownLatch(1);
+        ICancelTimer cancel = timer.createTimer(new Runnable() {
+            @Override
+            public void run() {
+                threadName.compareAndSet(null, Thread.currentThread().getName());
+                fired.countDown();
+            }
+        }, 10, "test");
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        cancel.cancel();
+        assertNotEquals("ConvivaTimerWheel", threadName.get());
+        executor.release();
+    }
+
+    private static final class CountDown implements Runnable {
+        private final CountDownLatch _latch;
+
+        CountDown(CountDownLatch latch) {
+            _latch = latch;
+        }
+
+        @Override
+        public void run() {
+            _latch.countDown();
+        }
+    }
+
+    private static final class Increment implements Runnable {
+        private final AtomicInteger _count;
+
+        Increment(AtomicInteger count) {
+            _count = count;
+        }
+
+        @Override
+        public void run() {
+            _count.incrementAndGet();
+        }
+    }
+
+    private static final class Append implements Runnable {
+        private final AtomicReference<String> _order;
+        private final String _name;
+        private final CountDownLatch _latch;
+        private boolean _fired = false;
+
+        Append(AtomicReference<String> order, String name, CountDownLatch latch) {
+            _order = order;
+            _name = name;
+            _latch = latch;
+        }
+
+        @Override
+        public void run() {
+            // Only the first expiration, later ones come from the recurrence
+            if (!_fired) {
+                _fired = true;
+                _order.set(_order.get() + _name + " ");
+                _latch.countDown();
+            }
+        }
+    }
+
+    private static final class FireOnce implements Runnable {
+        private final CountDownLatch _latch;
+        private final CountDownLatch _created = new CountDownLatch(1);
+        private volatile ICancelTimer _cancel;
+
+        FireOnce(CountDownLatch latch) {
+            _latch = latch;
+        }
+
+        void setCancel(ICancelTimer cancel) {
+            _cancel = cancel;
+            _created.countDown();
+        }
+
+        @Override
+        public void run() {
+            try {
+                _created.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (_cancel.cancel()) {
+                _latch.countDown();
+            }
+        }
+    }
+}
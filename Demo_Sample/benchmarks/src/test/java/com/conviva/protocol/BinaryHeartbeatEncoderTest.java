@@ -0,0 +1,474 @@
+package com.conviva.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import com.conviva.json.IJsonWritable;
+import com.conviva.json.IJsonWriter;
+
+public class BinaryHeartbeatEncoderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void encodesTheHeaderKeyTableAndBody() {
+        Map<String, Object> heartbeat = new LinkedHashMap<String, Object>();
+        heartbeat.put("a", 1);
+        BinaryHeartbeatEncoder.EncodedHeartbeat encoded = new BinaryHeartbeatEncoder().encode(heartbeat);
+        byte[] expected = {
+            'C', 'H', (byte) Protocol.BINARY_HEARTBEAT_VERSION,
+            1, 0, 1, 'a', // one key defined: id 0, "a"
+            BinaryHeartbeatEncoder.TAG_MAP, 1, 0, BinaryHeartbeatEncoder.TAG_INT, 2
+        };
+        assertArrayEquals(expected, Arrays.copyOf(encoded.data, encoded.length));
+    }
+
+    @Test
+    public void integersAreZigzagVarints() {
+        assertIntegerBytes(0, 0x00);
+        assertIntegerBytes(-1, 0x01);
+        assertIntegerBytes(1, 0x02);
+        assertIntegerBytes(63, 0x7E);
+        assertIntegerBytes(-64, 0x7F);
+        // First values needing a second byte
+        assertIntegerBytes(64, 0x80, 0x01);
+        assertIntegerBytes(-65, 0x81, 0x01);
+        assertIntegerBytes(8191, 0xFE, 0x7F);
+        assertIntegerBytes(8192, 0x80, 0x80, 0x01);
+        assertIntegerBytes(Integer.MAX_VALUE, 0xFE, 0xFF, 0xFF, 0xFF, 0x0F);
+        assertIntegerBytes(Integer.MIN_VALUE, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        assertIntegerBytes(Long.MAX_VALUE, 0xFE, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        assertIntegerBytes(Long.MIN_VALUE, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+    }
+
+    @Test
+    public void integerBoundariesRoundTrip() {
+        long[] values = {
+            0, 1, -1, 63, 64, -64, -65, 127, 128, 8191, 8192, -8193,
+            Short.MIN_VALUE, Short.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+            (long) Integer.MAX_VALUE + 1, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE + 1
+        };
+        for (long value : values) {
+            assertEquals(value, roundTrip(value));
+        }
+        assertEquals(-5L, roundTrip((short) -5));
+        assertEquals(-5L, roundTrip((byte) -5));
+        assertEquals(-5L, roundTrip(-5));
+    }
+
+    @Test
+    public void doubles() {
+        assertEquals(BinaryHeartbeatEncoder.TAG_DOUBLE, tagOf(1.5));
+        assertEquals(1.5, roundTrip(1.5));
+        assertEquals(-1e-300, roundTrip(-1e-300));
+        assertEquals(Double.MAX_VALUE, roundTrip(Double.MAX_VALUE));
+        // Integral doubles are sent as varints
+        assertEquals(BinaryHeartbeatEncoder.TAG_DOUBLE_INT, tagOf(1419552000123.0));
+        assertEquals(1419552000123.0, roundTrip(1419552000123.0));
+        assertEquals(-3.0, roundTrip(-3.0));
+        assertEquals(0.0, roundTrip(-0.0));
+        assertEquals(BinaryHeartbeatEncoder.TAG_DOUBLE_INT, tagOf(9007199254740991.0));
+        // From 2^53 on, integral doubles keep the 8 bytes form
+        assertEquals(BinaryHeartbeatEncoder.TAG_DOUBLE, tagOf(9007199254740992.0));
+        assertEquals(9007199254740992.0, roundTrip(9007199254740992.0));
+        assertEquals(2.5f, ((Double) roundTrip(2.5f)).floatValue(), 0);
+        // Like JSON
+        assertEquals(BinaryHeartbeatEncoder.TAG_NULL, tagOf(Double.NaN));
+        assertEquals(BinaryHeartbeatEncoder.TAG_NULL, tagOf(Double.POSITIVE_INFINITY));
+        assertEquals(BinaryHeartbeatEncoder.TAG_NULL, tagOf(Float.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void stringsAreUtf8() {
+        assertStringBytes("", new byte[0]);
+        assertStringBytes("a/\"", new byte[] { 'a', '/', '"' });
+        assertStringBytes("\u00e9", bytes(0xC3, 0xA9));
+        assertStringBytes("\u07ff", bytes(0xDF, 0xBF));
+        assertStringBytes("\u0800", bytes(0xE0, 0xA0, 0x80));
+        assertStringBytes("\u20ac", bytes(0xE2, 0x82, 0xAC));
+        assertStringBytes("\uffff", bytes(0xEF, 0xBF, 0xBF));
+        // Surrogate pairs are one 4 bytes code point
+        assertStringBytes("\ud83d\ude00", bytes(0xF0, 0x9F, 0x98, 0x80));
+        assertStringBytes("\udbff\udfff", bytes(0xF4, 0x8F, 0xBF, 0xBF));
+    }
+
+    @Test
+    public void unpairedSurrogatesAreReplaced() {
+        String[] values = {
+            "\ud83d", "\ude00", "a\ud83db", "a\ude00\ud83d", "\ude00\ud83d\ude00", "\ud83d\ud83d\ude00", "end\ud83d"
+        };
+        for (String value : values) {
+            // Same as String.getBytes()
+            assertStringBytes(value, value.getBytes(UTF_8));
+        }
+    }
+
+    @Test
+    public void stringsRoundTrip() {
+        String[] values = {
+            "", "ascii", "tab\tnew\nline", "caf\u00e9", "\u4e2d\u6587", "\u2028\u2029", "\ud83d\ude00 emoji",
+            "\u0000nul", "\u007f\u0080\u009f"
+        };
+        for (String value : values) {
+            assertEquals(value, roundTrip(value));
+        }
+        // Long enough for a 2 bytes length and to grow the buffers
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append((char) ('a' + i % 26)).append('\u20ac');
+        }
+        assertEquals(builder.toString(), roundTrip(builder.toString()));
+    }
+
+    @Test
+    public void heartbeatRoundTrip() {
+        BinaryHeartbeatEncoder encoder = new BinaryHeartbeatEncoder();
+        Decoder decoder = new Decoder();
+        Map<String, Object> heartbeat = fixture();
+        BinaryHeartbeatEncoder.EncodedHeartbeat encoded = encoder.encode(heartbeat);
+        assertEquals(normalize(heartbeat), decoder.decode(encoded));
+    }
+
+    @Test
+    public void keysAreDefinedUntilAcknowledged() {
+        BinaryHeartbeatEncoder encoder = new BinaryHeartbeatEncoder();
+        Decoder decoder = new Decoder();
+        Map<String, Object> heartbeat = fixture();
+
+        BinaryHeartbeatEncoder.EncodedHeartbeat first = encoder.encode(heartbeat);
+        int keyCount = decoder.decodeKeyCount(first);
+        decoder.decode(first);
+        encoder.release(first);
+        // Not committed: the keys are defined again
+        BinaryHeartbeatEncoder.EncodedHeartbeat second = encoder.encode(heartbeat);
+        assertEquals(keyCount, decoder.decodeKeyCount(second));
+        encoder.commit(second);
+        encoder.release(second);
+
+        heartbeat.put("newKey", "value");
+        BinaryHeartbeatEncoder.EncodedHeartbeat third = encoder.encode(heartbeat);
+        assertEquals(1, decoder.decodeKeyCount(third));
+        // The decoder resolves the other keys from the previous heartbeats
+        assertEquals(normalize(heartbeat), decoder.decode(third));
+    }
+
+    @Test
+    public void platformMetadataIsReferencedOnceAcknowledged() {
+        BinaryHeartbeatEncoder encoder = new BinaryHeartbeatEncoder();
+        Decoder decoder = new Decoder();
+        Map<String, Object> heartbeat = fixture();
+
+        BinaryHeartbeatEncoder.EncodedHeartbeat first = encoder.encode(heartbeat);
+        assertEquals(BinaryHeartbeatEncoder.TAG_PM_DEF, decoder.platformMetadataTag(first));
+        decoder.decode(first);
+        encoder.commit(first);
+        encoder.release(first);
+
+        BinaryHeartbeatEncoder.EncodedHeartbeat second = encoder.encode(heartbeat);
+        assertEquals(BinaryHeartbeatEncoder.TAG_PM_REF, decoder.platformMetadataTag(second));
+        assertEquals(normalize(heartbeat), decoder.decode(second));
+        encoder.commit(second);
+        encoder.release(second);
+
+        // A change is defined again, with a new id
+        @SuppressWarnings("unchecked")
+        Map<String, Object> platformMetadata = new LinkedHashMap<String, Object>((Map<String, Object>) heartbeat.get("pm"));
+        platformMetadata.put("os", "Android 14");
+        heartbeat.put("pm", platformMetadata);
+        BinaryHeartbeatEncoder.EncodedHeartbeat third = encoder.encode(heartbeat);
+        assertEquals(BinaryHeartbeatEncoder.TAG_PM_DEF, decoder.platformMetadataTag(third));
+        assertEquals(normalize(heartbeat), decoder.decode(third));
+    }
+
+    @Test
+    public void outputBufferIsReusedOnceReleased() {
+        BinaryHeartbeatEncoder encoder = new BinaryHeartbeatEncoder();
+        Map<String, Object> heartbeat = fixture();
+        BinaryHeartbeatEncoder.EncodedHeartbeat first = encoder.encode(heartbeat);
+        // Still in flight
+        BinaryHeartbeatEncoder.EncodedHeartbeat second = encoder.encode(heartbeat);
+        assertNotSame(first.data, second.data);
+        encoder.release(second);
+        BinaryHeartbeatEncoder.EncodedHeartbeat third = encoder.encode(heartbeat);
+        assertSame(second.data, third.data);
+        assertArrayEquals(Arrays.copyOf(first.data, first.length), Arrays.copyOf(third.data, third.length));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> fixture() {
+        Map<String, Object> platformMetadata = new LinkedHashMap<String, Object>();
+        platformMetadata.put("os", "Android");
+        platformMetadata.put("osv", "13");
+        platformMetadata.put("dvma", "Google");
+
+        Map<String, Object> event = new LinkedHashMap<String, Object>();
+        event.put("t", "CwsStateChangeEvent");
+        event.put("seq", 3);
+        event.put("st", 1523);
+        Map<String, Object> newState = new LinkedHashMap<String, Object>();
+        newState.put("ps", 3);
+        event.put("new", newState);
+
+        List<Object> events = new ArrayList<Object>();
+        events.add(event);
+        events.add(null);
+
+        Map<String, Object> tags = new HashMap<String, Object>();
+        tags.put("title", "caf\u00e9 \ud83d\ude00 \"quoted\"");
+        tags.put("empty", "");
+
+        Map<String, Object> heartbeat = new LinkedHashMap<String, Object>();
+        heartbeat.put("t", "CwsSessionHb");
+        heartbeat.put("sid", 1234567890);
+        heartbeat.put("st", 10025L);
+        heartbeat.put("cts", 1419552000123.0);
+        heartbeat.put("bl", 1.25);
+        heartbeat.put("sf", (short) 7);
+        heartbeat.put("ad", false);
+        heartbeat.put("lv", true);
+        heartbeat.put("cdn", null);
+        heartbeat.put("pm", platformMetadata);
+        heartbeat.put("evs", events);
+        heartbeat.put("tags", tags);
+        heartbeat.put("sst", new SessionStart());
+        JSONObject json = new JSONObject();
+        json.put("k", "v");
+        heartbeat.put("raw", json);
+        return heartbeat;
+    }
+
+    /// The fixture as decoded: integers as Long, other numbers as Double, typed objects as maps
+    private static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof JSONObject) {
+            return ((JSONObject) value).toJSONString();
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof SessionStart) {
+            return normalize(((SessionStart) value).toMap());
+        } else if (value instanceof Map) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(String.valueOf(entry.getKey()), normalize(entry.getValue()));
+            }
+            return map;
+        } else if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object item : (List<?>) value) {
+                list.add(normalize(item));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static Object roundTrip(Object value) {
+        Map<String, Object> heartbeat = new LinkedHashMap<String, Object>();
+        heartbeat.put("v", value);
+        return new Decoder().decode(new BinaryHeartbeatEncoder().encode(heartbeat)).get("v");
+    }
+
+    /// Bytes of the value of a heartbeat holding a single key "v"
+    private static byte[] valueBytes(Object value) {
+        Map<String, Object> heartbeat = new LinkedHashMap<String, Object>();
+        heartbeat.put("v", value);
+        BinaryHeartbeatEncoder.EncodedHeartbeat encoded = new BinaryHeartbeatEncoder().encode(heartbeat);
+        // Header, key table of "v", map tag, map size and key id
+        int start = 3 + 4 + 3;
+        return Arrays.copyOfRange(encoded.data, start, encoded.length);
+    }
+
+    private static int tagOf(Object value) {
+        return valueBytes(value)[0];
+    }
+
+    private static void assertIntegerBytes(long value, int... expected) {
+        byte[] bytes = valueBytes(value);
+        assertEquals(BinaryHeartbeatEncoder.TAG_INT, bytes[0]);
+        assertArrayEquals("varint of " + value, bytes(expected), Arrays.copyOfRange(bytes, 1, bytes.length));
+    }
+
+    private static void assertStringBytes(String value, byte[] expected) {
+        byte[] bytes = valueBytes(value);
+        assertEquals(BinaryHeartbeatEncoder.TAG_STRING, bytes[0]);
+        // Lengths below 128 fit a single byte
+        assertEquals(expected.length, bytes[1]);
+        assertArrayEquals(expected, Arrays.copyOfRange(bytes, 2, bytes.length));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    /// A typed object written through IJsonWriter
+    private static final class SessionStart implements IJsonWritable {
+        @Override
+        public void writeJson(IJsonWriter writer) {
+            writer.beginObject(3);
+            writer.name("ts");
+            writer.value(1419552000000L);
+            writer.name("ok");
+            writer.value(true);
+            writer.name("err");
+            writer.value((String) null);
+            writer.endObject();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("ts", 1419552000000L);
+            map.put("ok", true);
+            map.put("err", null);
+            return map;
+        }
+    }
+
+    /// Reads the binary format back, keeping the keys and platform metadata defined by the heartbeats, as the server does
+    private static final class Decoder {
+        private final Map<Long, String> _keys = new HashMap<Long, String>();
+        private final Map<Long, Object> _platformMetadata = new HashMap<Long, Object>();
+        private byte[] _data;
+        private int _position;
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decode(BinaryHeartbeatEncoder.EncodedHeartbeat encoded) {
+            readKeyTable(encoded);
+            Object value = readValue();
+            assertEquals("trailing bytes", encoded.length, _position);
+            return (Map<String, Object>) value;
+        }
+
+        int decodeKeyCount(BinaryHeartbeatEncoder.EncodedHeartbeat encoded) {
+            return readKeyTable(encoded);
+        }
+
+        /// Tag of the value of "pm"
+        int platformMetadataTag(BinaryHeartbeatEncoder.EncodedHeartbeat encoded) {
+            readKeyTable(encoded);
+            assertEquals(BinaryHeartbeatEncoder.TAG_MAP, readByte());
+            long size = readVarint();
+            for (long i = 0; i < size; i++) {
+                String key = _keys.get(readVarint());
+                if ("pm".equals(key)) {
+                    return readByte();
+                }
+                readValue();
+            }
+            throw new AssertionError("no platform metadata");
+        }
+
+        private int readKeyTable(BinaryHeartbeatEncoder.EncodedHeartbeat encoded) {
+            _data = encoded.data;
+            _position = 0;
+            assertEquals('C', readByte());
+            assertEquals('H', readByte());
+            assertEquals(Protocol.BINARY_HEARTBEAT_VERSION, readByte());
+            int keyCount = (int) readVarint();
+            for (int i = 0; i < keyCount; i++) {
+                long id = readVarint();
+                _keys.put(id, readString());
+            }
+            return keyCount;
+        }
+
+        private Object readValue() {
+            int tag = readByte();
+            switch (tag) {
+            case BinaryHeartbeatEncoder.TAG_NULL:
+                return null;
+            case BinaryHeartbeatEncoder.TAG_FALSE:
+                return false;
+            case BinaryHeartbeatEncoder.TAG_TRUE:
+                return true;
+            case BinaryHeartbeatEncoder.TAG_INT:
+                return readSignedVarint();
+            case BinaryHeartbeatEncoder.TAG_DOUBLE_INT:
+                return (double) readSignedVarint();
+            case BinaryHeartbeatEncoder.TAG_DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | readByte();
+                }
+                return Double.longBitsToDouble(bits);
+            case BinaryHeartbeatEncoder.TAG_STRING:
+            case BinaryHeartbeatEncoder.TAG_JSON:
+                return readString();
+            case BinaryHeartbeatEncoder.TAG_MAP:
+                Map<String, Object> map = new HashMap<String, Object>();
+                long size = readVarint();
+                for (long i = 0; i < size; i++) {
+                    String key = _keys.get(readVarint());
+                    if (key == null) {
+                        throw new AssertionError("undefined key");
+                    }
+                    map.put(key, readValue());
+                }
+                return map;
+            case BinaryHeartbeatEncoder.TAG_LIST:
+                List<Object> list = new ArrayList<Object>();
+                long length = readVarint();
+                for (long i = 0; i < length; i++) {
+                    list.add(readValue());
+                }
+                return list;
+            case BinaryHeartbeatEncoder.TAG_PM_DEF:
+                long id = readVarint();
+                Object platformMetadata = readValue();
+                _platformMetadata.put(id, platformMetadata);
+                return platformMetadata;
+            case BinaryHeartbeatEncoder.TAG_PM_REF:
+                Object known = _platformMetadata.get(readVarint());
+                if (known == null) {
+                    throw new AssertionError("undefined platform metadata");
+                }
+                return known;
+            default:
+                throw new AssertionError("unknown tag " + tag);
+            }
+        }
+
+        private int readByte() {
+            return _data[_position++] & 0xFF;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private long readSignedVarint() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private String readString() {
+            int length = (int) readVarint();
+            String value = new String(_data, _position, length, UTF_8);
+            _position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.conviva.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SessionRegistryTest {
+    // Slots of the smallest table
+    private static final int MIN_MASK = 15;
+
+    @Test
+    public void putGetRemove() {
+        SessionRegistry registry = new SessionRegistry();
+        assertNull(registry.get(1));
+        assertTrue(registry.put(1, null, 101));
+        assertTrue(registry.put(2, null, 102));
+        assertEquals(2, registry.size());
+
+        SessionRegistry.Entry entry = registry.get(1);
+        assertNotNull(entry);
+        assertEquals(1, entry.getKey());
+        assertEquals(101, entry.getInternalId());
+        assertNull(registry.getSession(1));
+
+        SessionRegistry.Entry removed = registry.remove(1);
+        assertEquals(101, removed.getInternalId());
+        assertNull(registry.get(1));
+        assertNull(registry.remove(1));
+        assertEquals(102, registry.get(2).getInternalId());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void duplicateKeyIsRejected() {
+        SessionRegistry registry = new SessionRegistry();
+        assertTrue(registry.put(7, null, 1));
+        assertFalse(registry.put(7, null, 2));
+        assertEquals(1, registry.get(7).getInternalId());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void negativeKeys() {
+        SessionRegistry registry = new SessionRegistry();
+        assertTrue(registry.put(-1, null, 1));
+        assertTrue(registry.put(Integer.MIN_VALUE, null, 2));
+        assertTrue(registry.put(Integer.MAX_VALUE, null, 3));
+        assertEquals(1, registry.get(-1).getInternalId());
+        assertEquals(2, registry.get(Integer.MIN_VALUE).getInternalId());
+        assertEquals(3, registry.get(Integer.MAX_VALUE).getInternalId());
+    }
+
+    @Test
+    public void lookupsProbePastTombstones() {
+        int[] keys = collidingKeys(4);
+        SessionRegistry registry = new SessionRegistry();
+        for (int key : keys) {
+            assertTrue(registry.put(key, null, key));
+        }
+        // Removing the first keys of the probe sequence leaves tombstones in front of the others
+        assertNotNull(registry.remove(keys[0]));
+        assertNotNull(registry.remove(keys[1]));
+        assertNull(registry.get(keys[0]));
+        assertNull(registry.get(keys[1]));
+        assertEquals(keys[2], registry.get(keys[2]).getInternalId());
+        assertEquals(keys[3], registry.get(keys[3]).getInternalId());
+        assertEquals(keys[3], registry.remove(keys[3]).getInternalId());
+        assertNull(registry.get(keys[3]));
+    }
+
+    @Test
+    public void putReusesTombstones() {
+        int[] keys = collidingKeys(3);
+        SessionRegistry registry = new SessionRegistry();
+        for (int key : keys) {
+            registry.put(key, null, key);
+        }
+        registry.remove(keys[0]);
+        // Still registered behind the tombstone: not added twice
+        assertFalse(registry.put(keys[2], null, -1));
+        assertTrue(registry.put(keys[0], null, -2));
+        assertEquals(-2, registry.get(keys[0]).getInternalId());
+        assertEquals(keys[1], registry.get(keys[1]).getInternalId());
+        assertEquals(keys[2], registry.get(keys[2]).getInternalId());
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    public void growsPastManyKeys() {
+        SessionRegistry registry = new SessionRegistry();
+        for (int key = 0; key < 5000; key++) {
+            assertTrue(registry.put(key, null, key + 1));
+        }
+        assertEquals(5000, registry.size());
+        for (int key = 0; key < 5000; key++) {
+            assertEquals(key + 1, registry.get(key).getInternalId());
+        }
+        assertNull(registry.get(5000));
+        for (int key = 0; key < 5000; key += 2) {
+            assertNotNull(registry.remove(key));
+        }
+        assertEquals(2500, registry.size());
+        for (int key = 0; key < 5000; key++) {
+            assertEquals(key % 2 == 0, registry.get(key) == null);
+        }
+    }
+
+    @Test
+    public void churnDoesNotLoseEntries() {
+        SessionRegistry registry = new SessionRegistry();
+        // Sessions created and cleaned up one after the other, as a long lived client does
+        for (int key = 0; key < 100000; key++) {
+            assertTrue(registry.put(key, null, key));
+            if (key >= 5) {
+                assertEquals(key - 5, registry.remove(key - 5).getInternalId());
+            }
+            assertEquals(Math.min(key + 1, 5), registry.size());
+        }
+        for (int key = 100000 - 5; key < 100000; key++) {
+            assertEquals(key, registry.get(key).getInternalId());
+        }
+        assertNull(registry.get(100000 - 6));
+    }
+
+    @Test
+    public void clearAndSnapshot() {
+        SessionRegistry registry = new SessionRegistry();
+        for (int key = 0; key < 40; key++) {
+            registry.put(key, null, key);
+        }
+        registry.remove(10);
+        registry.remove(20);
+        SessionRegistry.Entry[] entries = registry.snapshot();
+        assertEquals(38, entries.length);
+        Set<Integer> keys = new HashSet<Integer>();
+        for (SessionRegistry.Entry entry : entries) {
+            assertTrue(keys.add(entry.getKey()));
+        }
+        assertFalse(keys.contains(10));
+        assertFalse(keys.contains(20));
+
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.snapshot().length);
+        assertNull(registry.get(0));
+        assertTrue(registry.put(0, null, 1));
+    }
+
+    @Test
+    public void readersFindStableKeysWhileOtherKeysChurn() throws Exception {
+        final SessionRegistry registry = new SessionRegistry();
+        final int stableKeys = 64;
+        for (int key = 0; key < stableKeys; key++) {
+            registry.put(key, null, key);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < 2; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Each writer churns its own keys, growing and shrinking the table
+                    int base = (writer + 1) * 1000000;
+                    for (int round = 0; round < 1000; round++) {
+                        for (int i = 0; i < 100; i++) {
+                            if (!registry.put(base + round * 100 + i, null, i)) {
+                                failure.compareAndSet(null, "put failed");
+                            }
+                        }
+                        for (int i = 0; i < 100; i++) {
+                            if (registry.remove(base + round * 100 + i) == null) {
+                                failure.compareAndSet(null, "remove failed");
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!done.get()) {
+                        for (int key = 0; key < stableKeys; key++) {
+                            SessionRegistry.Entry entry = registry.get(key);
+                            if (entry == null || entry.getInternalId() != key) {
+                                failure.compareAndSet(null, "lost key " + key);
+                            }
+                        }
+                        if (registry.get(-1) != null) {
+                            failure.compareAndSet(null, "found a key never registered");
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(stableKeys, registry.size());
+    }
+
+    /// Keys falling in the same slot of the smallest table, so that they share a probe sequence
+    private static int[] collidingKeys(int count) {
+        int[] keys = new int[count];
+        int found = 0;
+        for (int key = 0; found < count; key++) {
+            if (slot(key, MIN_MASK) == slot(0, MIN_MASK)) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    /// Same spreading as SessionRegistry
+    private static int slot(int key, int mask) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
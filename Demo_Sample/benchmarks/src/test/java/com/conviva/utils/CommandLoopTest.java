@@ -0,0 +1,238 @@
+package com.conviva.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.conviva.api.SystemSettings;
+import com.conviva.platforms.jvm.JvmLoggingInterface;
+import com.conviva.platforms.jvm.JvmTimeInterface;
+
+public class CommandLoopTest {
+    private final List<CommandLoop> _loops = new ArrayList<CommandLoop>();
+
+    @After
+    public void tearDown() {
+        for (CommandLoop loop : _loops) {
+            loop.stop();
+        }
+    }
+
+    private CommandLoop buildLoop() {
+        SystemSettings settings = new SystemSettings();
+        settings.logLevel = SystemSettings.LogLevel.NONE;
+        Logger logger = new Logger(new JvmLoggingInterface(), new JvmTimeInterface(), settings, new LogBuffer(), "test");
+        CommandLoop loop = new CommandLoop(logger, new MetricsRegistry(), "CommandLoopTest");
+        _loops.add(loop);
+        return loop;
+    }
+
+    @Test
+    public void runsCommandsInPostOrder() {
+        CommandLoop loop = buildLoop();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            assertTrue(loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(value);
+                }
+            }));
+        }
+        loop.stop();
+        assertEquals(1000, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void postAndWaitReturnsOnceTheCommandHasRun() {
+        CommandLoop loop = buildLoop();
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final AtomicBoolean onLoopThread = new AtomicBoolean(false);
+        final CommandLoop target = loop;
+        assertTrue(loop.postAndWait(new Runnable() {
+            @Override
+            public void run() {
+                onLoopThread.set(target.isLoopThread());
+                ran.set(true);
+            }
+        }));
+        assertTrue(ran.get());
+        assertTrue(onLoopThread.get());
+        assertFalse(loop.isLoopThread());
+    }
+
+    @Test
+    public void postAndWaitFromTheLoopThreadRunsRightAway() {
+        final CommandLoop loop = buildLoop();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        loop.postAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // Waiting for a command queued behind the running one would never return
+                loop.postAndWait(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add("inner");
+                    }
+                });
+                order.add("outer");
+            }
+        });
+        assertEquals(2, order.size());
+        assertEquals("inner", order.get(0));
+        assertEquals("outer", order.get(1));
+    }
+
+    @Test
+    public void commandsArePostedAndDroppedAfterStop() {
+        CommandLoop loop = buildLoop();
+        final AtomicInteger runs = new AtomicInteger(0);
+        Runnable count = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        loop.stop();
+        assertFalse(loop.post(count));
+        assertFalse(loop.postAndWait(count));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void commandsQueuedBeforeStopStillRun() throws Exception {
+        CommandLoop loop = buildLoop();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger(0);
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            });
+        }
+        Thread stopper = new Thread(new StopLoop(loop));
+        stopper.start();
+        release.countDown();
+        stopper.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(stopper.isAlive());
+        assertEquals(100, runs.get());
+    }
+
+    @Test
+    public void failingCommandDoesNotStopTheLoop() {
+        CommandLoop loop = buildLoop();
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        assertTrue(loop.postAndWait(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected by the test");
+            }
+        }));
+        assertTrue(loop.postAndWait(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }));
+        assertTrue(ran.get());
+    }
+
+    @Test
+    public void wakesUpAfterIdling() throws Exception {
+        CommandLoop loop = buildLoop();
+        final AtomicInteger runs = new AtomicInteger(0);
+        for (int i = 0; i < 20; i++) {
+            // Let the loop park between the commands
+            Thread.sleep(2);
+            assertTrue(loop.postAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            }));
+        }
+        assertEquals(20, runs.get());
+    }
+
+    @Test
+    public void commandsAcceptedWhileStoppingAreNeverStranded() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final CommandLoop loop = buildLoop();
+            final int posters = 4;
+            final AtomicInteger accepted = new AtomicInteger(0);
+            final AtomicInteger runs = new AtomicInteger(0);
+            final CountDownLatch start = new CountDownLatch(1);
+            final Runnable count = new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            };
+            Thread[] threads = new Thread[posters];
+            for (int p = 0; p < posters; p++) {
+                threads[p] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        while (loop.post(count)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+                threads[p].start();
+            }
+            start.countDown();
+            Thread.sleep(round % 3);
+            loop.stop();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // Every command whose post returned true has run before stop() returned
+            assertEquals("round " + round, accepted.get(), runs.get());
+        }
+    }
+
+    private static final class StopLoop implements Runnable {
+        private final CommandLoop _loop;
+
+        StopLoop(CommandLoop loop) {
+            _loop = loop;
+        }
+
+        @Override
+        public void run() {
+            _loop.stop();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.conviva.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+    // gamma = 2: bucket k holds (2^(k-1), 2^k] and estimates its values as 2^(k+1) / 3
+    private static final double HALVING_ACCURACY = 1.0 / 3;
+    private static final double DELTA = 1e-12;
+
+    /// A value in the middle of bucket k of a sketch with gamma = 2
+    private static double inBucket(int k) {
+        return 0.75 * Math.pow(2, k);
+    }
+
+    /// Estimate of bucket k of a sketch with gamma = 2
+    private static double estimateOf(int k) {
+        return 2 * Math.pow(2, k) / 3;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidAccuracy() {
+        new QuantileSketch(1, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBucketCount() {
+        new QuantileSketch(0.01, 0);
+    }
+
+    @Test
+    public void settings() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertEquals(QuantileSketch.DEFAULT_RELATIVE_ACCURACY, sketch.getRelativeAccuracy(), 0);
+        assertEquals(QuantileSketch.DEFAULT_MAX_BUCKETS, sketch.getMaxBuckets());
+        assertEquals(32, new QuantileSketch(0.05, 32).getMaxBuckets());
+    }
+
+    @Test
+    public void emptySketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertEquals(0, sketch.getCount());
+        assertEquals(0, sketch.getMin(), 0);
+        assertEquals(0, sketch.getMax(), 0);
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+    }
+
+    @Test
+    public void zeroNegativeAndNaNValues() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(Double.NaN);
+        assertEquals(0, sketch.getCount());
+        sketch.add(-5);
+        sketch.add(0);
+        sketch.add(0);
+        sketch.add(100);
+        assertEquals(4, sketch.getCount());
+        assertEquals(-5, sketch.getQuantile(0), 0);
+        assertEquals(-5, sketch.getMin(), 0);
+        // Values lower than or equal to 0 are estimated as 0
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertEquals(100, sketch.getQuantile(1), 0);
+        assertEquals(100, sketch.getMax(), 0);
+    }
+
+    @Test
+    public void quantilesAreWithinTheRelativeAccuracy() {
+        Random random = new Random(42);
+        int count = 100000;
+        double[] values = new double[count];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < count; i++) {
+            // Log uniform over 1 to 1e6, 345 buckets at 2%: nothing is collapsed
+            values[i] = Math.exp(random.nextDouble() * Math.log(1e6));
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        double[] quantiles = { 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99, 0.999 };
+        for (double quantile : quantiles) {
+            double exact = values[(int) (quantile * (count - 1))];
+            double estimate = sketch.getQuantile(quantile);
+            double error = Math.abs(estimate - exact) / exact;
+            assertTrue("p" + quantile + " off by " + error, error <= QuantileSketch.DEFAULT_RELATIVE_ACCURACY + DELTA);
+        }
+        assertEquals(values[0], sketch.getQuantile(0), 0);
+        assertEquals(values[count - 1], sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void slideUpCollapsesTheLowestBuckets() {
+        QuantileSketch sketch = new QuantileSketch(HALVING_ACCURACY, 8);
+        // The first value centers the buckets: -4 to 3
+        sketch.add(inBucket(0));
+        sketch.add(inBucket(-4));
+        sketch.add(inBucket(0));
+        assertEquals(inBucket(-4), sketch.getQuantile(0.1), DELTA);
+
+        // Bucket 5 moves the window to -2 to 5, -4 to -2 are collapsed into -2
+        sketch.add(inBucket(5));
+        assertEquals(4, sketch.getCount());
+        assertEquals(estimateOf(-2), sketch.getQuantile(0.1), DELTA);
+        assertEquals(estimateOf(0), sketch.getQuantile(0.5), DELTA);
+        assertEquals(inBucket(5), sketch.getQuantile(1), 0);
+        // The low extreme is still exact
+        assertEquals(inBucket(-4), sketch.getQuantile(0), 0);
+    }
+
+    @Test
+    public void slideUpFurtherThanTheBucketCountCollapsesEverything() {
+        QuantileSketch sketch = new QuantileSketch(HALVING_ACCURACY, 4);
+        // Buckets -2 to 1
+        sketch.add(inBucket(-2));
+        sketch.add(inBucket(0));
+        // Bucket 10 moves the window to 7 to 10, all the previous values are collapsed into 7
+        sketch.add(inBucket(10));
+        assertEquals(3, sketch.getCount());
+        assertEquals(estimateOf(7), sketch.getQuantile(0.25), DELTA);
+        assertEquals(estimateOf(7), sketch.getQuantile(0.5), DELTA);
+        sketch.add(inBucket(10));
+        assertEquals(estimateOf(10), sketch.getQuantile(0.9), DELTA);
+        assertEquals(inBucket(10), sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void slideDownKeepsTheHighBuckets() {
+        QuantileSketch sketch = new QuantileSketch(HALVING_ACCURACY, 8);
+        // Buckets -4 to 3
+        sketch.add(inBucket(0));
+        // Each moves the window one bucket down, bucket 0 stays within it
+        sketch.add(inBucket(-5));
+        sketch.add(inBucket(-6));
+        sketch.add(inBucket(1));
+        assertEquals(4, sketch.getCount());
+        assertEquals(estimateOf(-5), sketch.getQuantile(0.34), DELTA);
+        assertEquals(estimateOf(0), sketch.getQuantile(0.67), DELTA);
+        assertEquals(inBucket(-6), sketch.getQuantile(0), 0);
+        assertEquals(inBucket(1), sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void slideDownLimitedByTheHighestBucketCountsInTheLowestOne() {
+        QuantileSketch sketch = new QuantileSketch(HALVING_ACCURACY, 4);
+        // Buckets -2 to 1, with 1 in use: the window cannot move down
+        sketch.add(inBucket(0));
+        sketch.add(inBucket(1));
+        sketch.add(inBucket(-5));
+        assertEquals(3, sketch.getCount());
+        // Counted in bucket -2, the high quantiles are unchanged
+        assertEquals(estimateOf(-2), sketch.getQuantile(0.1), DELTA);
+        assertEquals(estimateOf(0), sketch.getQuantile(0.5), DELTA);
+        assertEquals(inBucket(1), sketch.getQuantile(1), 0);
+        assertEquals(inBucket(-5), sketch.getQuantile(0), 0);
+    }
+
+    @Test
+    public void mergeMatchesASingleSketch() {
+        Random random = new Random(7);
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < 10000; i++) {
+            double low = 1 + random.nextDouble() * 100;
+            double high = 1000 + random.nextDouble() * 10000;
+            first.add(low);
+            second.add(high);
+            all.add(low);
+            all.add(high);
+        }
+        second.add(0);
+        all.add(0);
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMin(), first.getMin(), 0);
+        assertEquals(all.getMax(), first.getMax(), 0);
+        for (double quantile = 0; quantile <= 1; quantile += 0.05) {
+            assertEquals("p" + quantile, all.getQuantile(quantile), first.getQuantile(quantile), DELTA);
+        }
+    }
+
+    @Test
+    public void mergeIntoAnEmptySketchAndOfAnEmptySketch() {
+        QuantileSketch empty = new QuantileSketch();
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(3);
+        sketch.add(30);
+        sketch.merge(empty);
+        assertEquals(2, sketch.getCount());
+
+        empty.merge(sketch);
+        assertEquals(2, empty.getCount());
+        assertEquals(3, empty.getMin(), 0);
+        assertEquals(30, empty.getMax(), 0);
+        assertEquals(sketch.getQuantile(0.5), empty.getQuantile(0.5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergeRejectsDifferentSettings() {
+        new QuantileSketch(0.02, 512).merge(new QuantileSketch(0.02, 256));
+    }
+
+    @Test
+    public void clearForgetsTheValues() {
+        QuantileSketch sketch = new QuantileSketch(HALVING_ACCURACY, 4);
+        sketch.add(inBucket(10));
+        sketch.add(-1);
+        sketch.clear();
+        assertEquals(0, sketch.getCount());
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        // The buckets are centered on the next first value again
+        sketch.add(0.3);
+        sketch.add(inBucket(0));
+        assertEquals(estimateOf(-1), sketch.getQuantile(0.1), DELTA);
+        assertEquals(inBucket(0), sketch.getQuantile(1), 0);
+    }
+}
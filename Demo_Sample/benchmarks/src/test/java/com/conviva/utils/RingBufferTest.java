@@ -0,0 +1,184 @@
+package com.conviva.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+    private static final int PRODUCERS = 4;
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(5);
+        for (int i = 0; i < 8; i++) {
+            buffer.offer(i);
+        }
+        assertEquals(8, buffer.size());
+        List<Integer> out = new ArrayList<Integer>();
+        assertEquals(8, buffer.drain(out));
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void drainsInOfferOrder() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(16);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, buffer.offer(i));
+        }
+        List<Integer> out = new ArrayList<Integer>();
+        assertEquals(10, buffer.drain(out));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), out);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.drain(out));
+    }
+
+    @Test
+    public void overwritesTheOldestItemsWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(i);
+        }
+        assertEquals(4, buffer.size());
+        List<Integer> out = new ArrayList<Integer>();
+        assertEquals(4, buffer.drain(out));
+        assertEquals(Arrays.asList(6, 7, 8, 9), out);
+        assertEquals(6, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void drainStopsAtAClaimedPositionNotPublishedYet() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(8);
+        buffer.offer(0);
+        long claimed = buffer.claim();
+        buffer.offer(2);
+        List<Integer> out = new ArrayList<Integer>();
+        assertEquals(1, buffer.drain(out));
+        assertEquals(Arrays.asList(0), out);
+
+        buffer.publish(claimed, 1);
+        out.clear();
+        assertEquals(2, buffer.drain(out));
+        assertEquals(Arrays.asList(1, 2), out);
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void itemPublishedAfterBeingOverwrittenIsDropped() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(2);
+        long claimed = buffer.claim();
+        buffer.offer(1);
+        buffer.offer(2);
+        // Position 2 took the slot of the claimed position 0
+        buffer.publish(claimed, 0);
+        List<Integer> out = new ArrayList<Integer>();
+        assertEquals(2, buffer.drain(out));
+        assertEquals(Arrays.asList(1, 2), out);
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void wrapsAroundManyTimes() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+        List<Integer> out = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            buffer.offer(i);
+            if (i % 3 == 2) {
+                buffer.drain(out);
+            }
+        }
+        buffer.drain(out);
+        assertEquals(1000, out.size());
+        for (int i = 0; i < out.size(); i++) {
+            assertEquals(i, out.get(i).intValue());
+        }
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void concurrentProducersWithoutOverflowDeliverEveryItemOnce() throws Exception {
+        final int perProducer = 20000;
+        List<long[]> drained = runProducers(PRODUCERS * perProducer * 2, perProducer);
+        boolean[][] seen = new boolean[PRODUCERS][perProducer];
+        for (long[] item : drained) {
+            int producer = (int) item[0];
+            int index = (int) item[1];
+            assertFalse("duplicate item", seen[producer][index]);
+            seen[producer][index] = true;
+        }
+        assertEquals(PRODUCERS * perProducer, drained.size());
+    }
+
+    @Test
+    public void concurrentProducersWithOverflowAccountForEveryItem() throws Exception {
+        final int perProducer = 100000;
+        RingBuffer<long[]> buffer = new RingBuffer<long[]>(64);
+        List<long[]> drained = runProducers(buffer, perProducer);
+        assertEquals(PRODUCERS * perProducer, drained.size() + buffer.getDroppedCount());
+
+        // Items of a producer come out in the order it offered them, each at most once
+        long[] last = new long[PRODUCERS];
+        Arrays.fill(last, -1);
+        for (long[] item : drained) {
+            int producer = (int) item[0];
+            assertTrue("out of order or duplicate item", item[1] > last[producer]);
+            last[producer] = item[1];
+        }
+    }
+
+    private static List<long[]> runProducers(int capacity, int perProducer) throws Exception {
+        RingBuffer<long[]> buffer = new RingBuffer<long[]>(capacity);
+        List<long[]> drained = runProducers(buffer, perProducer);
+        assertEquals(0, buffer.getDroppedCount());
+        return drained;
+    }
+
+    /// Offer perProducer items from each producer thread while draining concurrently, then drain the rest
+    private static List<long[]> runProducers(final RingBuffer<long[]> buffer, final int perProducer)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perProducer; i++) {
+                            buffer.offer(new long[] {producer, i});
+                        }
+                    } catch (InterruptedException e) {
+                        failed.set(true);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        List<long[]> drained = new ArrayList<long[]>();
+        start.countDown();
+        boolean producing = true;
+        while (producing) {
+            producing = false;
+            for (Thread producer : producers) {
+                producing |= producer.isAlive();
+            }
+            buffer.drain(drained);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        buffer.drain(drained);
+        assertFalse(failed.get());
+        assertEquals(0, buffer.size());
+        return drained;
+    }
+}
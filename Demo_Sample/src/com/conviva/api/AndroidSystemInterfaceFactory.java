@@ -1,16 +1,21 @@
 package com.conviva.api;
 
+import java.io.File;
+import java.io.IOException;
+
+import com.conviva.api.system.ISpoolInterface;
 import com.conviva.api.system.SystemInterface;
 import com.conviva.platforms.android.AndroidGraphicalInterface;
 import com.conviva.platforms.android.AndroidHttpInterface;
 import com.conviva.platforms.android.AndroidHttpsInterface;
 import com.conviva.platforms.android.AndroidLoggingInterface;
 import com.conviva.platforms.android.AndroidMetadataInterface;
+import com.conviva.platforms.android.AndroidNetworkInterface;
 import com.conviva.platforms.android.AndroidStorageInterface;
 import com.conviva.platforms.android.AndroidSystemUtils;
 import com.conviva.platforms.android.AndroidTimeInterface;
 import com.conviva.platforms.android.AndroidTimerInterface;
-import com.conviva.platforms.android.AndroidNetworkUtils;
+import com.conviva.platforms.spool.MappedFileSpoolInterface;
 
 import android.content.Context;
 
@@ -26,16 +31,7 @@ public class AndroidSystemInterfaceFactory {
 	 * @return SystemInterface instance for Android
 	 */
 	public static SystemInterface build(Context context) {
-		// TODO refactoring into System Interface
-        AndroidNetworkUtils.initWithContext(context);
-		AndroidSystemUtils.initWithContext(context);
-		return 	new SystemInterface(new AndroidTimeInterface(), 
-									new AndroidTimerInterface(), 
-									new AndroidHttpInterface(), 
-									new AndroidStorageInterface(context), 
-									new AndroidMetadataInterface(context), 
-									new AndroidLoggingInterface(), 
-									new AndroidGraphicalInterface(context));
+		return build(context, false);
 	}
 
         /**
@@ -44,7 +40,6 @@ public class AndroidSystemInterfaceFactory {
          * @return SystemInterface instance for Android
          */
 	public static SystemInterface buildSecure(Context context) {
-		AndroidNetworkUtils.initWithContext(context);
 		AndroidSystemUtils.initWithContext(context);
 		return 	new SystemInterface(new AndroidTimeInterface(),
 				new AndroidTimerInterface(),
@@ -52,6 +47,39 @@ public class AndroidSystemInterfaceFactory {
 				new AndroidStorageInterface(context),
 				new AndroidMetadataInterface(context),
 				new AndroidLoggingInterface(),
-				new AndroidGraphicalInterface(context));
+				new AndroidGraphicalInterface(context),
+				null,
+				null,
+				new AndroidNetworkInterface(context));
+	}
+
+	/**
+	 * Builds a System Interface factory for Android with {@link AndroidHttpInterface}.
+	 * @param context Android Context
+	 * @param spoolHeartbeats Whether heartbeats that could not be sent are kept in a file and sent later.
+	 * @return SystemInterface instance for Android
+	 */
+	public static SystemInterface build(Context context, boolean spoolHeartbeats) {
+		AndroidSystemUtils.initWithContext(context);
+		return 	new SystemInterface(new AndroidTimeInterface(), 
+									new AndroidTimerInterface(), 
+									new AndroidHttpInterface(), 
+									new AndroidStorageInterface(context), 
+									new AndroidMetadataInterface(context), 
+									new AndroidLoggingInterface(), 
+									new AndroidGraphicalInterface(context),
+									spoolHeartbeats ? buildSpoolInterface(context) : null,
+									null,
+									new AndroidNetworkInterface(context));
+	}
+
+	private static ISpoolInterface buildSpoolInterface(Context context) {
+		try {
+			return new MappedFileSpoolInterface(new File(context.getFilesDir(), "conviva_heartbeats.spool"),
+					MappedFileSpoolInterface.DEFAULT_CAPACITY);
+		} catch (IOException e) {
+			// Heartbeats are not spooled
+			return null;
+		}
 	}
 }
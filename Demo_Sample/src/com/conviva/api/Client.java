@@ -3,12 +3,14 @@ package com.conviva.api;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
 import com.conviva.api.player.PlayerStateManager;
 import com.conviva.session.Session;
 import com.conviva.session.SessionFactory;
+import com.conviva.utils.CommandLoop;
 import com.conviva.utils.Config;
 import com.conviva.utils.ExceptionCatcher;
 import com.conviva.utils.Logger;
@@ -124,7 +126,7 @@ public class Client {
     private int _globalSessionKey = -1;
     private ClientSettings _settings = null;
     private ExceptionCatcher _exceptionCatcher = null;
-    private boolean _released = false;
+    private volatile boolean _released = false;
     
     private Config _config = null;
     private int _id = -1;
@@ -250,7 +252,8 @@ public class Client {
 				return null;
 			}
         }
-    	_exceptionCatcher.runProtected(new MyCallable(), "Client.release");
+        // Waits for the calls queued before, see SystemSettings.asyncApiCalls
+    	_exceptionCatcher.runProtectedAndWait(new MyCallable(), "Client.release");
     }
 
     /** 
@@ -259,7 +262,8 @@ public class Client {
      * Unless your application can display multiple videos concurrently, you should only ever have one active monitoring session.
      * See tutorial 3-integrating-with-the-video-application
      * @param contentMetadata An instance of ContentMetadata containing the content metadata for this session.
-     * @return Opaque identifier for the newly created session. Will be Client.NO_SESSION_KEY if session creation failed
+     * @return Opaque identifier for the newly created session. Will be Client.NO_SESSION_KEY if session creation failed,
+     * unless SystemSettings.asyncApiCalls or SystemSettings.sessionShards is set: the session is then created after the identifier is returned.
      * @throws ConvivaException When Conviva internal exception happens during session creations.
      */
     public int createSession(final ContentMetadata contentMetadata) throws ConvivaException
@@ -268,11 +272,14 @@ public class Client {
         
         if (!isInitialized()) return sid; // everything has been cleaned up already, just do nothing to prevent exceptions
 
+        // Copied now, the application may change it before the session is created
+        final ContentMetadata sessionMetadata = new ContentMetadata(contentMetadata);
+        final int sessionKey = _sessionFactory.reserveSessionKey();
         class MyCallable implements Callable<Void> {
         	int id = Client.NO_SESSION_KEY;
 			@Override
 			public Void call() throws Exception {
-                id = _sessionFactory.makeVideoSession(contentMetadata); // "this" bind
+                id = _sessionFactory.makeVideoSession(sessionMetadata, sessionKey); // "this" bind
 				return null;
 			}
 			
@@ -282,8 +289,9 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.createSession");
-    	return myCallable.getSessionId();
+        CommandLoop shard = _sessionFactory.getShard(sessionKey);
+    	_exceptionCatcher.runProtectedAsync(shard, myCallable, "Client.createSession");
+    	return shard != null || _exceptionCatcher.isAsync() ? sessionKey : myCallable.getSessionId();
     }
 
     /**
@@ -291,7 +299,8 @@ public class Client {
      * Use when an ad playback starts for a particular content session.
      * @param contentSessionKey An identifier of the content session to which ad session belongs.
      * @param adMetadata An instance of ContentMetadata containing the ad metadata for this session.
-     * @return Opaque identifier for the newly created ad session. Will be Client.NO_SESSION_KEY if session creation failed
+     * @return Opaque identifier for the newly created ad session. Will be Client.NO_SESSION_KEY if session creation failed,
+     * unless SystemSettings.asyncApiCalls or SystemSettings.sessionShards is set: the session is then created after the identifier is returned.
      * @throws ConvivaException When Conviva internal exception happens during session creations.
      */
     public int createAdSession(final int contentSessionKey, final ContentMetadata adMetadata) throws ConvivaException
@@ -299,12 +308,16 @@ public class Client {
         int sid = Client.NO_SESSION_KEY;
 
         if (!isInitialized()) return sid; // everything has been cleaned up already, just do nothing to prevent exceptions
+        if (contentSessionKey == Client.NO_SESSION_KEY) return sid;
 
+        final ContentMetadata sessionMetadata = new ContentMetadata(adMetadata);
+        // Same shard as the content session: created after it, and its calls are ordered with the content ones
+        final int sessionKey = _sessionFactory.reserveSessionKey(contentSessionKey);
         class MyCallable implements Callable<Void> {
             int id = Client.NO_SESSION_KEY;
             @Override
             public Void call() throws Exception {
-                id = _sessionFactory.makeAdSession(contentSessionKey, adMetadata);
+                id = _sessionFactory.makeAdSession(contentSessionKey, sessionMetadata, sessionKey);
                 return null;
             }
 
@@ -314,8 +327,9 @@ public class Client {
         }
 
         MyCallable myCallable = new MyCallable();
-        _exceptionCatcher.runProtected(myCallable, "Client.createAdSession");
-        return myCallable.getSessionId();
+        CommandLoop shard = _sessionFactory.getShard(sessionKey);
+        _exceptionCatcher.runProtectedAsync(shard, myCallable, "Client.createAdSession");
+        return shard != null || _exceptionCatcher.isAsync() ? sessionKey : myCallable.getSessionId();
     }
     
     
@@ -342,7 +356,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.reportError");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.reportError");
     }
     
     /** 
@@ -359,19 +373,20 @@ public class Client {
     {
         if (!isInitialized()) return; // everything has been cleaned up already, just do nothing to prevent exceptions
 
+        final ContentMetadata newMetadata = contentMetadata != null ? new ContentMetadata(contentMetadata) : null;
         class MyCallable implements Callable<Void> {
             @Override
             public Void call() throws Exception {
                 Session session = _sessionFactory.getVideoSession(sessionKey); // "this" bind
                 if (session != null) {
-                    session.updateContentMetadata(contentMetadata);
+                    session.updateContentMetadata(newMetadata);
                 }
                 return null;
             }
         }
 
         MyCallable myCallable = new MyCallable();
-        _exceptionCatcher.runProtected(myCallable, "Client.updateContentMetadata");
+        _exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.updateContentMetadata");
     }
     
     
@@ -398,7 +413,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.detachPlayer");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.detachPlayer");
     }
     
     /** 
@@ -430,7 +445,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.attachPlayer");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.attachPlayer");
     }
     
     /** 
@@ -455,7 +470,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.contentPreload");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.contentPreload");
     }
 
 
@@ -481,7 +496,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.contentStart");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.contentStart");
     }
     
     
@@ -496,6 +511,7 @@ public class Client {
     	
         if (!isInitialized()) return; // everything has been cleaned up already, just do nothing to prevent exceptions
 
+        final Map<String, Object> eventAttributes = attributes != null ? new HashMap<String, Object>(attributes) : null;
         class MyCallable implements Callable<Void> {
 			@Override
 			public Void call() throws Exception {
@@ -510,14 +526,16 @@ public class Client {
                 }
                 Session session = _sessionFactory.getSession(sKey); // "this" bind
                 if (session != null) {
-                    session.sendCustomEvent(eventName, attributes);
+                    session.sendCustomEvent(eventName, eventAttributes);
                 }
 				return null;
 			}
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.sendCustomEvent");
+        // The global session is not sharded
+        CommandLoop shard = sessionKey != Client.NO_SESSION_KEY ? _sessionFactory.getShard(sessionKey) : null;
+    	_exceptionCatcher.runProtectedAsync(shard, myCallable, "Client.sendCustomEvent");
     }
 
     
@@ -547,7 +565,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.adStart");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.adStart");
     }
 
     /** 
@@ -570,7 +588,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.adEnd");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.adEnd");
     }
     
     /** 
@@ -595,7 +613,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.cleanupSession");
+    	_exceptionCatcher.runProtectedAsync(_sessionFactory.getShard(sessionKey), myCallable, "Client.cleanupSession");
     }
 
     
@@ -633,7 +651,7 @@ public class Client {
         }
         
         MyCallable myCallable = new MyCallable();
-    	_exceptionCatcher.runProtected(myCallable, "Client.releasePlayerStateManager");
+    	_exceptionCatcher.runProtectedAsync(myCallable, "Client.releasePlayerStateManager");
     }
     
     /**
@@ -1,11 +1,10 @@
 package com.conviva.api;
 
-import android.util.Log;
-
 import com.conviva.utils.Lang;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.logging.Logger;
 
 /**
  * Settings for the client instance. This class handles setting for client
@@ -31,6 +30,50 @@ public class ClientSettings {
      */
     public String gatewayUrl = ClientSettings.defaultProductionGatewayUrl;
 
+    /**
+     * Whether heartbeats of all the sessions of the Client are sent together.
+     * When enabled, heartbeats of concurrent sessions (content, ad and global)
+     * are aligned on a single timer and posted in a single request per interval.
+     * Requires a Conviva platform accepting batched heartbeats.
+     */
+    public boolean batchHeartbeats = false;
+
+    /**
+     * Whether heartbeats are posted in the compact binary format instead of JSON.
+     * Keys and platform metadata are then sent once per session and referenced afterwards.
+     * Batched heartbeats are always sent as JSON.
+     * Requires a Conviva platform accepting binary heartbeats.
+     */
+    public boolean binaryHeartbeats = false;
+
+    /**
+     * Whether heartbeats only hold the fields that changed since the last heartbeat
+     * acknowledged by the Conviva platform. Full heartbeats are sent until then,
+     * and whenever the Conviva platform requests one.
+     * Requires a Conviva platform accepting delta heartbeats.
+     */
+    public boolean deltaHeartbeats = false;
+
+    /**
+     * Whether heartbeats carry a summary of the quality of experience computed by the library:
+     * join time, rebuffering, average bitrate, bitrate switches and rendered frame rate percentiles.
+     */
+    public boolean qoeSummary = false;
+
+    /**
+     * Maximum random deviation of each heartbeat interval, in percent of the interval.
+     * Spreads the heartbeats of sessions started at the same time. Between 0 and 50,
+     * 0 (the default) keeps the heartbeats on a fixed interval.
+     */
+    public int heartbeatJitterPercent = ClientSettings.defaultHeartbeatJitterPercent;
+
+    /**
+     * Whether the heartbeat interval adapts to the player activity.
+     * When enabled, heartbeats are sent up to twice as often while the player state
+     * keeps changing, and half as often while paused, stopped or not visible.
+     */
+    public boolean adaptiveHeartbeat = false;
+
     /**
      * ClientSettings constructor
      * See tutorial 3-integrating-with-the-video-application
@@ -38,7 +81,7 @@ public class ClientSettings {
      */
     public ClientSettings(String customerKey) {
         if ((customerKey == null) || (customerKey.isEmpty())) {
-            Log.e("CONVIVA : ","SDK NOT ready due to lack of customerKey");
+            Logger.getLogger("CONVIVA").severe("SDK NOT ready due to lack of customerKey");
             return;
         }
         this.customerKey = customerKey;
@@ -53,6 +96,12 @@ public class ClientSettings {
         this(clientSettings.customerKey);
         this.gatewayUrl = clientSettings.gatewayUrl;
         this.heartbeatInterval = clientSettings.heartbeatInterval;
+        this.batchHeartbeats = clientSettings.batchHeartbeats;
+        this.binaryHeartbeats = clientSettings.binaryHeartbeats;
+        this.deltaHeartbeats = clientSettings.deltaHeartbeats;
+        this.qoeSummary = clientSettings.qoeSummary;
+        this.heartbeatJitterPercent = clientSettings.heartbeatJitterPercent;
+        this.adaptiveHeartbeat = clientSettings.adaptiveHeartbeat;
         this.sanitize();
     }
 
@@ -68,6 +117,10 @@ public class ClientSettings {
             this.heartbeatInterval = sanitizedHeartbeatInterval;
         }
 
+        if (this.heartbeatJitterPercent < 0 || this.heartbeatJitterPercent > 50) {
+            this.heartbeatJitterPercent = ClientSettings.defaultHeartbeatJitterPercent;
+        }
+
         String gwUrl = this.gatewayUrl;
         this.gatewayUrl = "https://" + this.customerKey + ".cws.conviva.com";   // Changing default to https://<customerKey>.cws.conviva.com instead
                                                                                         // of defaultProductionGatewayUrl
@@ -87,4 +140,7 @@ public class ClientSettings {
     // The interval between heartbeats.
     public static final int defaultProductionHeartbeatInterval = 20;
 
+    // The random deviation of the heartbeat interval, in percent.
+    public static final int defaultHeartbeatJitterPercent = 0;
+
 }
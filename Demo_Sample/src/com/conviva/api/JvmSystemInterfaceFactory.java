@@ -0,0 +1,99 @@
+package com.conviva.api;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.conviva.api.system.ISpoolInterface;
+import com.conviva.api.system.SystemInterface;
+import com.conviva.platforms.jvm.HashedWheelTimerInterface;
+import com.conviva.platforms.jvm.JvmExecutor;
+import com.conviva.platforms.jvm.JvmGraphicalInterface;
+import com.conviva.platforms.jvm.JvmHttpInterface;
+import com.conviva.platforms.jvm.JvmLoggingInterface;
+import com.conviva.platforms.jvm.JvmMetadataInterface;
+import com.conviva.platforms.jvm.JvmStorageInterface;
+import com.conviva.platforms.jvm.JvmTimeInterface;
+import com.conviva.platforms.spool.MappedFileSpoolInterface;
+
+/**
+ * Default JvmSystemInterfaceFactory provided by Conviva.
+ * You can use this to get an instance of SystemInterface on plain Java runtimes,
+ * for instance to run sessions headless in server side player emulators or load generators.
+ * Alternatively you can develop your own SystemInterface.
+ */
+public class JvmSystemInterfaceFactory {
+	/**
+	 * Threads running the blocking I/O of the Conviva library.
+	 */
+	public static enum ExecutionMode {
+		/** A bounded pool of platform threads for HTTP, storage on the calling thread, timer actions on the timer thread. */
+		PLATFORM_THREADS,
+		/** A virtual thread for each HTTP request, storage operation and timer action, when the runtime supports them. */
+		VIRTUAL_THREADS
+	}
+
+	/**
+	 * Builds a System Interface factory for plain Java runtimes.
+	 * @param dataDirectory Directory where the Conviva library keeps its data, created if needed.
+	 * @return SystemInterface instance for plain Java runtimes
+	 */
+	public static SystemInterface build(File dataDirectory) {
+		return build(dataDirectory, false);
+	}
+
+	/**
+	 * Builds a System Interface factory for plain Java runtimes.
+	 * @param dataDirectory Directory where the Conviva library keeps its data, created if needed.
+	 * @param spoolHeartbeats Whether heartbeats that could not be sent are kept in a file and sent later.
+	 * @return SystemInterface instance for plain Java runtimes
+	 */
+	public static SystemInterface build(File dataDirectory, boolean spoolHeartbeats) {
+		return build(dataDirectory, spoolHeartbeats, ExecutionMode.PLATFORM_THREADS);
+	}
+
+	/**
+	 * Builds a System Interface factory for plain Java runtimes.
+	 * With VIRTUAL_THREADS, the HTTP requests of a session still running when it is cleaned up are cancelled.
+	 * @param dataDirectory Directory where the Conviva library keeps its data, created if needed.
+	 * @param spoolHeartbeats Whether heartbeats that could not be sent are kept in a file and sent later.
+	 * @param executionMode Threads running the blocking I/O, PLATFORM_THREADS if the runtime has no virtual threads.
+	 * @return SystemInterface instance for plain Java runtimes
+	 */
+	public static SystemInterface build(File dataDirectory, boolean spoolHeartbeats, ExecutionMode executionMode) {
+		final JvmExecutor executor = executionMode == ExecutionMode.VIRTUAL_THREADS ?
+				JvmExecutor.newVirtualThreadExecutor() : null;
+		return 	new SystemInterface(new JvmTimeInterface(),
+				new HashedWheelTimerInterface(HashedWheelTimerInterface.DEFAULT_TICK_MS,
+						HashedWheelTimerInterface.DEFAULT_WHEEL_SIZE, 0, executor),
+				executor != null ? new JvmHttpInterface(executor) : new JvmHttpInterface(),
+				new JvmStorageInterface(dataDirectory, executor),
+				new JvmMetadataInterface(),
+				new JvmLoggingInterface(),
+				new JvmGraphicalInterface(),
+				spoolHeartbeats ? buildSpoolInterface(dataDirectory) : null,
+				null,
+				null) {
+			@Override
+			public void release() {
+				super.release();
+				// Only the interfaces above use the executor, it ends with them
+				if (executor != null) {
+					executor.release();
+				}
+			}
+		};
+	}
+
+	private static ISpoolInterface buildSpoolInterface(File dataDirectory) {
+		try {
+			if (!dataDirectory.isDirectory() && !dataDirectory.mkdirs()) {
+				return null;
+			}
+			return new MappedFileSpoolInterface(new File(dataDirectory, "conviva_heartbeats.spool"),
+					MappedFileSpoolInterface.DEFAULT_CAPACITY);
+		} catch (IOException e) {
+			// Heartbeats are not spooled
+			return null;
+		}
+	}
+}
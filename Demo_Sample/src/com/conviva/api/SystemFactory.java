@@ -1,16 +1,21 @@
 package com.conviva.api;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
-import com.conviva.platforms.android.AndroidNetworkUtils;
 import com.conviva.protocol.Protocol;
 import com.conviva.session.SessionFactory;
 import com.conviva.utils.CallbackWithTimeout;
+import com.conviva.utils.CommandLoop;
 import com.conviva.utils.ExceptionCatcher;
+import com.conviva.utils.HeartbeatSpool;
 import com.conviva.utils.HttpClient;
+import com.conviva.utils.LogBuffer;
 import com.conviva.utils.Logger;
+import com.conviva.utils.MetricsRegistry;
 import com.conviva.utils.Ping;
 import com.conviva.utils.Storage;
 import com.conviva.utils.SystemMetadata;
@@ -20,7 +25,7 @@ import com.conviva.utils.Config;
 import com.conviva.api.Client;
 import com.conviva.api.system.*;
 import com.conviva.json.IJsonInterface;
-import com.conviva.json.SimpleJsonInterface;
+import com.conviva.json.StreamingJsonInterface;
 
 /**
  * Provides access to system information and utilities according to chosen settings.
@@ -34,10 +39,32 @@ public class SystemFactory {
 	private IMetadataInterface _metadataInterface;
 	private ILoggingInterface _loggingInterface;
 	private IGraphicalInterface _graphicalInterface;
+	private ISpoolInterface _spoolInterface;
+	private IMetricsInterface _metricsInterface;
+	private INetworkInterface _networkInterface;
 	private SystemSettings _settings;
 	private String _packageName = null;
-    private List<String> _logBuffer = new LinkedList<String>();
+    private LogBuffer _logBuffer = new LogBuffer();
     private ClientSettings _clientSettings;
+    private MetricsRegistry _metricsRegistry = new MetricsRegistry();
+
+    // Services shared by the client and all its sessions, built on first use.
+    // Loggers are not shared as they carry the module name and session id of their owner.
+    private final Object _servicesLock = new Object();
+    private Map<String, Integer> _creationCounts = new HashMap<String, Integer>();
+    private HttpClient _httpClient = null;
+    private Ping _ping = null;
+    private ExceptionCatcher _exceptionCatcher = null;
+    private Time _time = null;
+    private Timer _timer = null;
+    private CallbackWithTimeout _callbackWithTimeout = null;
+    private Storage _storage = null;
+    private SystemMetadata _systemMetadata = null;
+    private Protocol _protocol = null;
+    private IJsonInterface _jsonInterface = null;
+    // Kept across configure(), its thread only ends with release()
+    private CommandLoop _commandLoop = null;
+    private CommandLoop[] _sessionShards = null;
     
     /**
      * Constructs SystemFactory
@@ -56,6 +83,9 @@ public class SystemFactory {
         this._metadataInterface = this._systemInterface.getMetadataInterface();
         this._loggingInterface = this._systemInterface.getLoggingInterface();
         this._graphicalInterface = this._systemInterface.getGraphicalInterface();
+        this._spoolInterface = this._systemInterface.getSpoolInterface();
+        this._metricsInterface = this._systemInterface.getMetricsInterface();
+        this._networkInterface = this._systemInterface.getNetworkInterface();
         
         if (systemSettings == null)
         	systemSettings = new SystemSettings();
@@ -71,12 +101,31 @@ public class SystemFactory {
     public void configure(String name, ClientSettings clientSettings) {
         this._packageName = name;
         this._clientSettings = clientSettings;
+        // Services built before were bound to the previous name and settings
+        this.releaseServices();
     }
 
     /** 
      * Unloads this SystemFactory.
      */    
     public void release() {
+        CommandLoop commandLoop;
+        CommandLoop[] sessionShards;
+        synchronized (_servicesLock) {
+            commandLoop = _commandLoop;
+            _commandLoop = null;
+            sessionShards = _sessionShards;
+            _sessionShards = null;
+        }
+        // Calls queued before are still run, with the system interfaces
+        if (commandLoop != null) {
+            commandLoop.stop();
+        }
+        if (sessionShards != null) {
+            for (CommandLoop shard : sessionShards) {
+                shard.stop();
+            }
+        }
         this._systemInterface.release();
         this._systemInterface = null;
 
@@ -84,14 +133,47 @@ public class SystemFactory {
         this._settings = null;
 
         this._logBuffer = null;
-        AndroidNetworkUtils.release();
+        this.releaseServices();
     };
 
+    private void releaseServices() {
+        synchronized (_servicesLock) {
+            _httpClient = null;
+            _ping = null;
+            _exceptionCatcher = null;
+            _time = null;
+            _timer = null;
+            _callbackWithTimeout = null;
+            _storage = null;
+            _systemMetadata = null;
+            _protocol = null;
+            _jsonInterface = null;
+        }
+    }
+
+    private void countCreation(String service) {
+        synchronized (_servicesLock) {
+            Integer count = _creationCounts.get(service);
+            _creationCounts.put(service, count != null ? count + 1 : 1);
+        }
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use. Number of instances built so far for each service.
+     */
+    public Map<String, Integer> getCreationCounts() {
+        synchronized (_servicesLock) {
+            return new HashMap<String, Integer>(_creationCounts);
+        }
+    }
+
     /*
      * Internal: Do not use
      * @return Internal: Do not use.
      */
     public Logger buildLogger() {
+        countCreation("Logger");
         return new Logger(_loggingInterface, _timeInterface, getSettings(), _logBuffer, _packageName);
     }
 
@@ -111,7 +193,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public Ping buildPing() {
-        return new Ping(this.buildLogger(), this.buildHttpClient(), _clientSettings); 
+        synchronized (_servicesLock) {
+            if (_ping == null) {
+                _ping = new Ping(this.buildLogger(), this.buildHttpClient(), _clientSettings);
+                countCreation("Ping");
+            }
+            return _ping;
+        }
     }
 
     /*
@@ -119,7 +207,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public CallbackWithTimeout buildCallbackWithTimeout() {
-        return new CallbackWithTimeout(this.buildTimer());
+        synchronized (_servicesLock) {
+            if (_callbackWithTimeout == null) {
+                _callbackWithTimeout = new CallbackWithTimeout(this.buildTimer());
+                countCreation("CallbackWithTimeout");
+            }
+            return _callbackWithTimeout;
+        }
     }
 
     /*
@@ -127,7 +221,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public HttpClient buildHttpClient() {
-        return new HttpClient(this.buildLogger(), this._httpInterface, this.getSettings()); //, this.buildTimer());
+        synchronized (_servicesLock) {
+            if (_httpClient == null) {
+                _httpClient = new HttpClient(this.buildLogger(), this._httpInterface, this.getSettings(), _metricsRegistry); //, this.buildTimer());
+                countCreation("HttpClient");
+            }
+            return _httpClient;
+        }
     }
 
     /*
@@ -135,7 +235,45 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public ExceptionCatcher buildExceptionCatcher() {
-        return new ExceptionCatcher(this.buildLogger(), this.buildPing(), this.getSettings());
+        synchronized (_servicesLock) {
+            if (_exceptionCatcher == null) {
+                _exceptionCatcher = new ExceptionCatcher(this.buildLogger(), this.buildPing(), this.getSettings(), _metricsRegistry,
+                        this.buildCommandLoop());
+                countCreation("ExceptionCatcher");
+            }
+            return _exceptionCatcher;
+        }
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use. Null unless SystemSettings.asyncApiCalls is set.
+     */
+    public CommandLoop buildCommandLoop() {
+        synchronized (_servicesLock) {
+            if (_commandLoop == null && _settings != null && _settings.asyncApiCalls) {
+                _commandLoop = new CommandLoop(this.buildLogger(), _metricsRegistry);
+                countCreation("CommandLoop");
+            }
+            return _commandLoop;
+        }
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use. Null unless SystemSettings.sessionShards is set.
+     */
+    public CommandLoop[] buildSessionShards() {
+        synchronized (_servicesLock) {
+            if (_sessionShards == null && _settings != null && _settings.sessionShards > 0) {
+                _sessionShards = new CommandLoop[_settings.sessionShards];
+                for (int i = 0; i < _sessionShards.length; i++) {
+                    _sessionShards[i] = new CommandLoop(this.buildLogger(), _metricsRegistry, CommandLoop.THREAD_NAME + "-" + i);
+                }
+                countCreation("SessionShards");
+            }
+            return _sessionShards;
+        }
     }
 
     /*
@@ -143,7 +281,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public Time buildTime() {
-        return new Time(this._timeInterface);
+        synchronized (_servicesLock) {
+            if (_time == null) {
+                _time = new Time(this._timeInterface);
+                countCreation("Time");
+            }
+            return _time;
+        }
     }
 
     /*
@@ -151,7 +295,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public Timer buildTimer() {
-        return new Timer(this.buildLogger(), this._timerInterface, this.buildExceptionCatcher());
+        synchronized (_servicesLock) {
+            if (_timer == null) {
+                _timer = new Timer(this.buildLogger(), this._timerInterface, this.buildExceptionCatcher(), _metricsRegistry);
+                countCreation("Timer");
+            }
+            return _timer;
+        }
     }
 
     /*
@@ -159,7 +309,27 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public Storage buildStorage() {
-        return new Storage(this.buildLogger(), this._storageInterface, this.buildCallbackWithTimeout(), this.getSettings());
+        synchronized (_servicesLock) {
+            if (_storage == null) {
+                _storage = new Storage(this.buildLogger(), this._storageInterface, this.buildCallbackWithTimeout(), this.getSettings());
+                countCreation("Storage");
+            }
+            return _storage;
+        }
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use. Null when the SystemInterface has no ISpoolInterface.
+     */
+    public HeartbeatSpool buildHeartbeatSpool() {
+        if (this._spoolInterface == null) {
+            return null;
+        }
+        Logger logger = this.buildLogger();
+        logger.setModuleName("HeartbeatSpool");
+        return new HeartbeatSpool(logger, this._spoolInterface, this.buildHttpClient(), this.buildTimer(),
+                this.buildTime(), this._clientSettings.gatewayUrl + Protocol.gatewayPath, HeartbeatSpool.DEFAULT_MAX_AGE_MS);
     }
 
     /*
@@ -176,7 +346,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public SystemMetadata buildSystemMetadata() {
-        return new SystemMetadata(this.buildLogger(), this._metadataInterface, this.buildExceptionCatcher());
+        synchronized (_servicesLock) {
+            if (_systemMetadata == null) {
+                _systemMetadata = new SystemMetadata(this.buildLogger(), this._metadataInterface, this.buildExceptionCatcher());
+                countCreation("SystemMetadata");
+            }
+            return _systemMetadata;
+        }
     }
 
     /*
@@ -184,7 +360,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public Protocol buildProtocol() {
-        return new Protocol();
+        synchronized (_servicesLock) {
+            if (_protocol == null) {
+                _protocol = new Protocol();
+                countCreation("Protocol");
+            }
+            return _protocol;
+        }
     }
     
     /*
@@ -202,7 +384,13 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public IJsonInterface buildJsonInterface() {
-        return new SimpleJsonInterface();
+        synchronized (_servicesLock) {
+            if (_jsonInterface == null) {
+                _jsonInterface = new StreamingJsonInterface();
+                countCreation("JsonInterface");
+            }
+            return _jsonInterface;
+        }
     }
 
     /*
@@ -210,11 +398,63 @@ public class SystemFactory {
      * @return Internal: Do not use.
      */
     public List<String> getLogBuffer() {
-    	LinkedList<String> cloneLogBuffer = (LinkedList<String>) ((LinkedList<String>)this._logBuffer).clone();
-    	this._logBuffer.clear();
-        return cloneLogBuffer;
+        LogBuffer logBuffer = this._logBuffer;
+        return logBuffer != null ? logBuffer.snapshot() : new ArrayList<String>();
     };
 
+    /*
+     * Internal: Do not use
+     * @param sendLogs Internal: Do not use.
+     */
+    public void setSendLogs(boolean sendLogs) {
+        LogBuffer logBuffer = this._logBuffer;
+        if (logBuffer != null) {
+            logBuffer.setEnabled(sendLogs);
+        }
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use.
+     */
+    public long getDroppedLogCount() {
+        LogBuffer logBuffer = this._logBuffer;
+        return logBuffer != null ? logBuffer.getDroppedCount() : 0;
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use.
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return this._metricsRegistry;
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use. Null when the SystemInterface has no IMetricsInterface.
+     */
+    public IMetricsInterface getMetricsInterface() {
+        return this._metricsInterface;
+    }
+
+    /*
+     * Internal: Do not use
+     * @return Internal: Do not use. Null when the SystemInterface has no INetworkInterface.
+     */
+    public INetworkInterface getNetworkInterface() {
+        return this._networkInterface;
+    }
+
+    /**
+     * Read the metrics measuring the Conviva library itself.
+     * @return Counters and gauges by name as Long, histograms by name as maps
+     * with count, mean, p50, p90, p99 and max.
+     */
+    public Map<String, Object> getMetricsSnapshot() {
+        return this._metricsRegistry.snapshot();
+    }
+
     /*
      * Internal: Do not use
      * @return Internal: Do not use.
@@ -28,6 +28,42 @@ public class SystemSettings {
      * The default value will work for the overwhelming majority of devices.
      */
     public int httpTimeout = SystemSettings.defaultHttpTimeout;
+
+    /**
+     * Compression applied to the body of heartbeat requests.<br>
+     * Only used when the HttpInterface accepts bodies as bytes, see {@link com.conviva.api.system.IBytesHttpInterface}.
+     * Requires a Conviva platform accepting compressed requests.
+     */
+    public HttpCompression httpCompression = SystemSettings.defaultHttpCompression;
+
+    /**
+     * Minimum size of a request body to be compressed, in bytes.<br>
+     * Small heartbeats do not shrink enough to be worth the CPU cost.
+     */
+    public int httpCompressionThreshold = SystemSettings.defaultHttpCompressionThreshold;
+
+    /**
+     * Whether the compression state is kept between requests when httpCompression is enabled.<br>
+     * Each session keeps its own Deflater, which saves allocating one per request at the cost
+     * of keeping its native memory until the session ends.
+     */
+    public boolean reuseHttpCompressor = SystemSettings.defaultReuseHttpCompressor;
+
+    /**
+     * Whether the calls to Client and PlayerStateManager only queue their work for a dedicated thread of the Conviva library.<br>
+     * The calling thread, usually the UI thread of the player, then never waits for heartbeats to be built, encoded or sent.
+     * Calls still run in order. Exceptions of queued calls are not thrown to the caller, they are logged and reported with a ping.
+     * Session keys are returned right away and session creation failures are only logged.
+     */
+    public boolean asyncApiCalls = SystemSettings.defaultAsyncApiCalls;
+
+    /**
+     * Number of threads the sessions are spread over, by session key, 0 to disable.<br>
+     * Each session then runs on a single thread with its Monitor, event queue and heartbeat timer: the calls about a session,
+     * its timers and its HTTP responses are queued for that thread. Meant for applications running many sessions at once,
+     * with about one shard per core. Session keys are returned right away and session creation failures are only logged.
+     */
+    public int sessionShards = SystemSettings.defaultSessionShards;
 	
 	
 	/**
@@ -46,6 +82,18 @@ public class SystemSettings {
 		NONE
 	}
 
+	/**
+	 * Possible compression of HTTP request bodies.
+	 */
+	public static enum HttpCompression {
+	    /** Bodies are sent as is. */
+		NONE,
+	    /** Bodies are sent with Content-Encoding: gzip. */
+		GZIP,
+	    /** Bodies are sent with Content-Encoding: deflate (zlib format). */
+		DEFLATE
+	}
+
 	//  Enable logging to device console
 	public static final LogLevel defaultDevelopmentLogLevel = LogLevel.DEBUG;
 	public static final LogLevel defaultProductionLogLevel = LogLevel.ERROR;
@@ -59,5 +107,20 @@ public class SystemSettings {
 
 	// The maximum amont of time we wait before giving up / cancelling HTTP requests.
 	public static final int defaultHttpTimeout = 10;
+
+	// Request bodies are not compressed unless enabled.
+	public static final HttpCompression defaultHttpCompression = HttpCompression.NONE;
+
+	// Bodies smaller than this are not compressed, in bytes.
+	public static final int defaultHttpCompressionThreshold = 1024;
+
+	// A Deflater is created and ended for each compressed request unless enabled.
+	public static final boolean defaultReuseHttpCompressor = false;
+
+	// API calls run on the calling thread unless enabled.
+	public static final boolean defaultAsyncApiCalls = false;
+
+	// Sessions run on the calling threads and timer threads unless enabled.
+	public static final int defaultSessionShards = 0;
 	
 }
@@ -3,8 +3,6 @@
  */
 package com.conviva.api.player;
 
-import android.util.Log;
-
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -18,9 +16,11 @@ import com.conviva.api.ConvivaException;
 import com.conviva.api.SystemFactory;
 import com.conviva.api.SystemSettings;
 import com.conviva.internal.StreamerError;
+import com.conviva.session.IBatchMonitorNotifier;
 import com.conviva.session.IMonitorNotifier;
 import com.conviva.session.Monitor;
 import com.conviva.session.Monitor.InternalPlayerState;
+import com.conviva.utils.CommandLoop;
 import com.conviva.utils.ExceptionCatcher;
 import com.conviva.utils.Logger;
 import com.conviva.utils.Sanitize;
@@ -56,6 +56,8 @@ public class PlayerStateManager implements IModuleVersion {
     private SystemFactory _systemFactory;
     private ExceptionCatcher _exceptionCatcher;
 	private IMonitorNotifier _monitorNotifier = null;    
+    // Thread of the attached session when sessions are sharded, calls are queued there
+    private volatile CommandLoop _sessionLoop = null;
     // Private state values
 	private int _bitrateKbps = -2;
     private int _videoWidth = -1;
@@ -87,7 +89,7 @@ public class PlayerStateManager implements IModuleVersion {
     public PlayerStateManager(SystemFactory systemFactory) {
 
         if(systemFactory == null) {
-            Log.e("CONVIVA : ","SystemFactory is null");
+            java.util.logging.Logger.getLogger("CONVIVA").severe("SystemFactory is null");
             return;
         }
     	_systemFactory = systemFactory;
@@ -103,7 +105,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void release() throws ConvivaException {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
             	if (_monitorNotifier != null) {
@@ -130,8 +132,19 @@ public class PlayerStateManager implements IModuleVersion {
     public void setRenderedFrameRate(final int renderedFrameRate)
     {
         _renderedFrameRate = Sanitize.Integer(renderedFrameRate, -1, Integer.MAX_VALUE, -1);
-        if(_monitorNotifier != null) {
-            _monitorNotifier.onRenderedFramerateUpdate(_renderedFrameRate);
+        final int sanitizedFrameRate = _renderedFrameRate;
+        try {
+            _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if(_monitorNotifier != null) {
+                        _monitorNotifier.onRenderedFramerateUpdate(sanitizedFrameRate);
+                    }
+                    return null;
+                }
+            }, "PlayerStateManager.setRenderedFrameRate");
+        } catch (ConvivaException e) {
+            log("Error set rendered frame rate " + e.getMessage(), SystemSettings.LogLevel.ERROR);
         }
     }
     
@@ -154,7 +167,7 @@ public class PlayerStateManager implements IModuleVersion {
 	 //In future when we plan to remove these API's completely, we need to rename these API's if required and keep the functionalities intact.
     @Deprecated
     public void setEncodedFrameRate(final int encodedFrameRate) throws ConvivaException {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws ConvivaException {
                 _encodedFrameRate = encodedFrameRate;
@@ -188,7 +201,7 @@ public class PlayerStateManager implements IModuleVersion {
     //In future when we plan to remove these API's completely, we need to rename these API's if required and keep the functionality intact.
     @Deprecated
     public void setDuration(final int duration) throws ConvivaException {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 _duration = duration;
@@ -241,9 +254,21 @@ public class PlayerStateManager implements IModuleVersion {
      * @return Internal: Do not use.
      */
     public boolean setMonitoringNotifier(IMonitorNotifier monitor, int sessionId) {
+        return setMonitoringNotifier(monitor, sessionId, null);
+    }
+
+    /*
+     * Internal: Do not use
+	 * @param monitor Internal: Do not use.
+	 * @param sessionId Internal: Do not use.
+	 * @param sessionLoop Internal: Do not use.
+     * @return Internal: Do not use.
+     */
+    public boolean setMonitoringNotifier(IMonitorNotifier monitor, int sessionId, CommandLoop sessionLoop) {
     	if (_monitorNotifier != null)
     		return false;
         _monitorNotifier = monitor;
+        _sessionLoop = sessionLoop;
         if (_logger != null) {
         	_logger.setSessionId(sessionId);
         }
@@ -257,6 +282,7 @@ public class PlayerStateManager implements IModuleVersion {
      */
     public void removeMonitoringNotifier() {
         _monitorNotifier = null;
+        _sessionLoop = null;
         if (_logger != null) {
         	_logger.setSessionId(-1);
         }
@@ -300,7 +326,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setPlayerState(final PlayerState newState) throws ConvivaException {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws ConvivaException {
             	if (PlayerStateManager.isValidPlayerState(newState)) {
@@ -356,7 +382,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setBitrateKbps(final int newBitrateKbps) throws ConvivaException {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call(){
             	int sanitizedBitrateKbps = newBitrateKbps;
@@ -377,7 +403,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setVideoWidth(final int newVideoWidth) throws ConvivaException {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 _videoWidth = newVideoWidth;
@@ -395,7 +421,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setVideoHeight(final int newVideoHeight) throws ConvivaException {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 _videoHeight = newVideoHeight;
@@ -413,7 +439,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setCDNServerIP(final String newCDNServerIP) throws ConvivaException {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 if (newCDNServerIP == null) {
@@ -428,6 +454,167 @@ public class PlayerStateManager implements IModuleVersion {
         }, "PlayerStateManager.setVideoWidth");
     }
 
+    /**
+     * Changes of the related video player, reported together with {@link #apply()}.<br>
+     * Use it when several values change at once, for example on a bitrate switch: the changes
+     * are applied in one call and reported to Conviva in a single state change event.
+     * Values that are not set are left unchanged.
+     */
+    public static final class Update {
+        private final PlayerStateManager _playerStateManager;
+        private int _changedFields = 0;
+        private PlayerState _playerState = null;
+        private int _bitrateKbps = -1;
+        private int _videoWidth = -1;
+        private int _videoHeight = -1;
+        private String _CDNServerIP = null;
+
+        private Update(PlayerStateManager playerStateManager) {
+            _playerStateManager = playerStateManager;
+        }
+
+        /**
+         * @param newState New player state, see {@link PlayerStateManager#setPlayerState(PlayerState)}.
+         * @return This update.
+         */
+        public Update setPlayerState(PlayerState newState) {
+            _playerState = newState;
+            _changedFields |= IBatchMonitorNotifier.UPDATE_PLAYER_STATE;
+            return this;
+        }
+
+        /**
+         * @param newBitrateKbps New bitrate, see {@link PlayerStateManager#setBitrateKbps(int)}.
+         * @return This update.
+         */
+        public Update setBitrateKbps(int newBitrateKbps) {
+            _bitrateKbps = newBitrateKbps;
+            _changedFields |= IBatchMonitorNotifier.UPDATE_BITRATE;
+            return this;
+        }
+
+        /**
+         * @param newVideoWidth New width of the video.
+         * @return This update.
+         */
+        public Update setVideoWidth(int newVideoWidth) {
+            _videoWidth = newVideoWidth;
+            _changedFields |= IBatchMonitorNotifier.UPDATE_VIDEO_WIDTH;
+            return this;
+        }
+
+        /**
+         * @param newVideoHeight New height of the video.
+         * @return This update.
+         */
+        public Update setVideoHeight(int newVideoHeight) {
+            _videoHeight = newVideoHeight;
+            _changedFields |= IBatchMonitorNotifier.UPDATE_VIDEO_HEIGHT;
+            return this;
+        }
+
+        /**
+         * @param newCDNServerIP New CDN server IP.
+         * @return This update.
+         */
+        public Update setCDNServerIP(String newCDNServerIP) {
+            _CDNServerIP = newCDNServerIP;
+            _changedFields |= IBatchMonitorNotifier.UPDATE_CDN_SERVER_IP;
+            return this;
+        }
+
+        /**
+         * Reports the changes set so far. The update can be changed and applied again afterwards.
+         * @throws ConvivaException When Conviva internal exception happens.
+         */
+        public void apply() throws ConvivaException {
+            _playerStateManager.applyUpdate(_changedFields, _playerState, _bitrateKbps,
+                    _videoWidth, _videoHeight, _CDNServerIP);
+        }
+    }
+
+    /**
+     * Starts an update of several values of the related video player.<br>
+     * <code>update().setBitrateKbps(br).setVideoWidth(w).setVideoHeight(h).apply()</code>
+     * reports the same values as the separate setters, in a single state change event.
+     * @return An empty update, reported when applied.
+     */
+    public Update update() {
+        return new Update(this);
+    }
+
+    private void applyUpdate(final int changedFields, final PlayerState newState, final int newBitrateKbps,
+                             final int newVideoWidth, final int newVideoHeight, final String newCDNServerIP)
+            throws ConvivaException {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // Same checks as the separate setters, invalid values are dropped from the update
+                int validFields = changedFields;
+                if ((validFields & IBatchMonitorNotifier.UPDATE_PLAYER_STATE) != 0) {
+                    if (PlayerStateManager.isValidPlayerState(newState)) {
+                        _playerState = newState;
+                    } else {
+                        log("PlayerStateManager.update(): invalid state: " + newState, SystemSettings.LogLevel.ERROR);
+                        validFields &= ~IBatchMonitorNotifier.UPDATE_PLAYER_STATE;
+                    }
+                }
+                if ((validFields & IBatchMonitorNotifier.UPDATE_BITRATE) != 0) {
+                    if (newBitrateKbps >= -1) {
+                        _bitrateKbps = newBitrateKbps;
+                    } else {
+                        validFields &= ~IBatchMonitorNotifier.UPDATE_BITRATE;
+                    }
+                }
+                if ((validFields & IBatchMonitorNotifier.UPDATE_VIDEO_WIDTH) != 0) {
+                    _videoWidth = newVideoWidth;
+                }
+                if ((validFields & IBatchMonitorNotifier.UPDATE_VIDEO_HEIGHT) != 0) {
+                    _videoHeight = newVideoHeight;
+                }
+                if ((validFields & IBatchMonitorNotifier.UPDATE_CDN_SERVER_IP) != 0) {
+                    if (newCDNServerIP != null) {
+                        _CDNServerIP = newCDNServerIP;
+                    } else {
+                        validFields &= ~IBatchMonitorNotifier.UPDATE_CDN_SERVER_IP;
+                    }
+                }
+                if (_monitorNotifier != null && validFields != 0) {
+                    InternalPlayerState internalState = (validFields & IBatchMonitorNotifier.UPDATE_PLAYER_STATE) != 0 ?
+                            convertToInternalPlayerState(newState) : null;
+                    if (_monitorNotifier instanceof IBatchMonitorNotifier) {
+                        ((IBatchMonitorNotifier) _monitorNotifier).updatePlayerState(validFields, internalState,
+                                newBitrateKbps, newVideoWidth, newVideoHeight, newCDNServerIP);
+                    } else {
+                        notifyUpdate(validFields, internalState, newBitrateKbps, newVideoWidth, newVideoHeight,
+                                newCDNServerIP);
+                    }
+                }
+                return null;
+            }
+        }, "PlayerStateManager.update");
+    }
+
+    /// @brief Signal the changes of an update one by one, to a notifier without batched updates
+    private void notifyUpdate(int validFields, InternalPlayerState newState, int newBitrateKbps,
+                              int newVideoWidth, int newVideoHeight, String newCDNServerIP) {
+        if ((validFields & IBatchMonitorNotifier.UPDATE_PLAYER_STATE) != 0) {
+            _monitorNotifier.setPlayerState(newState);
+        }
+        if ((validFields & IBatchMonitorNotifier.UPDATE_BITRATE) != 0) {
+            _monitorNotifier.setBitrateKbps(newBitrateKbps);
+        }
+        if ((validFields & IBatchMonitorNotifier.UPDATE_VIDEO_WIDTH) != 0) {
+            _monitorNotifier.setVideoWidth(newVideoWidth);
+        }
+        if ((validFields & IBatchMonitorNotifier.UPDATE_VIDEO_HEIGHT) != 0) {
+            _monitorNotifier.setVideoHeight(newVideoHeight);
+        }
+        if ((validFields & IBatchMonitorNotifier.UPDATE_CDN_SERVER_IP) != 0) {
+            _monitorNotifier.setCDNServerIP(newCDNServerIP);
+        }
+    }
+
     // private
     private void setError(StreamerError error)  {
     	_lastError = error;
@@ -447,7 +634,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void sendError(final String errMessage, final Client.ErrorSeverity severity) throws ConvivaException  {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
             	StreamerError error = new StreamerError(errMessage, severity);    	
@@ -462,7 +649,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void reset() throws ConvivaException {
-    	_exceptionCatcher.runProtected(new Callable<Void>() {
+    	_exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call()  {
                 _bitrateKbps = -1;
@@ -486,7 +673,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setPlayerSeekStart(final int seekToPos) throws ConvivaException  {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws ConvivaException {
                 if(_monitorNotifier != null) {
@@ -503,7 +690,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setPlayerSeekEnd() throws ConvivaException  {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws ConvivaException {
                 if(_monitorNotifier != null) {
@@ -520,7 +707,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setUserSeekButtonUp() throws ConvivaException  {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws ConvivaException {
                 if(_monitorNotifier != null) {
@@ -537,7 +724,7 @@ public class PlayerStateManager implements IModuleVersion {
      * @throws ConvivaException When Conviva internal exception happens.
      */
     public void setUserSeekButtonDown() throws ConvivaException  {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws ConvivaException {
                 if(_monitorNotifier != null) {
@@ -692,7 +879,7 @@ public class PlayerStateManager implements IModuleVersion {
 	 * @throws ConvivaException When Conviva internal exception happens.
      */
     public void updateContentMetadata(final ContentMetadata _contentMetadata) throws ConvivaException {
-        _exceptionCatcher.runProtected(new Callable<Void>() {
+        _exceptionCatcher.runProtectedAsync(_sessionLoop, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
                 if (_monitorNotifier != null) {
@@ -0,0 +1,24 @@
+package com.conviva.api.system;
+
+/**
+ * Optional extension of {@link IHttpInterface} accepting request bodies as
+ * UTF-8 bytes. When the HttpInterface implements it, heartbeats are posted
+ * without being converted to a String first.
+ */
+
+public interface IBytesHttpInterface extends IHttpInterface {
+
+    /**
+     * Send an HTTP request with a body already encoded.
+     * The implementation must not keep a reference to data after calling the callback.
+     * @param httpMethod "POST" or "GET".
+     * @param url Where to make the HTTP request to.
+     * @param data Buffer holding the body to send along for POST requests.
+     * @param length Number of bytes of data to send, starting at index 0.
+     * @param contentType Content type to be used in HTTP headers.
+     * @param contentEncoding Content-Encoding header value when data is compressed ("gzip" or "deflate"), otherwise null.
+     * @param timeoutMs Timeout to apply to the request, in milliseconds. The request must be cancelled after that amount of time has passed.
+     * @param callback Callback to call when done.
+     */
+	public void makeRequest(String httpMethod, String url, byte[] data, int length, String contentType, String contentEncoding, int timeoutMs, ICallbackInterface callback);
+}
@@ -6,6 +6,12 @@ package com.conviva.api.system;
 
 public interface IHttpInterface {
 
+    /**
+     * Start of the callback message when the server answered with a status other than 200,
+     * followed by the status code. Other failures are handled as network errors and retried.
+     */
+    public static final String STATUS_ERROR_PREFIX = "Status code in HTTP response is not OK: ";
+
     /** 
      * Send an HTTP request. HTTPS should be handled as well.
      * Will be called regularly when Conviva monitoring sessions are active.
@@ -0,0 +1,30 @@
+package com.conviva.api.system;
+
+import java.util.Map;
+
+/**
+ * IMetricsInterface - Optional receiver of the metrics measuring the Conviva library itself:
+ * heartbeat build and encode times, HTTP round trips, event queue depth, caught
+ * exceptions and timer lag.<br>
+ * Called periodically from a Conviva timer, implementations must return quickly.
+ */
+
+public interface IMetricsInterface {
+    /**
+     * Interval between two reports.
+     * @return Interval in milliseconds, reports are disabled if 0 or less.
+     */
+	public int getReportIntervalMs();
+
+    /**
+     * Latest values of the metrics.
+     * @param metrics Counters and gauges by name as Long, histograms by name as maps
+     * with count, mean, p50, p90, p99 and max. Owned by the receiver.
+     */
+	public void report(Map<String, Object> metrics);
+
+    /** 
+     * Notification that Conviva no longer needs this MetricsInterface.
+     */
+	public void release();
+}
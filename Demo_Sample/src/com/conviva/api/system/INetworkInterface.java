@@ -0,0 +1,33 @@
+package com.conviva.api.system;
+
+/**
+ * INetworkInterface - Optional source of information about the network connection
+ * of the device, reported with the heartbeats.<br>
+ * Without it, the connection type, link encryption and signal strength are not reported.
+ * Called from the heartbeat timer, implementations must return quickly.
+ */
+
+public interface INetworkInterface {
+    /**
+     * Type of the active connection, for instance "WiFi" or "Ethernet".
+     * @return The connection type, null if unknown.
+     */
+	public String getConnectionType();
+
+    /**
+     * Encryption of the wireless link, for instance "WPA2".
+     * @return The link encryption, null if unknown or not wireless.
+     */
+	public String getLinkEncryption();
+
+    /**
+     * Strength of the wireless or cellular signal.
+     * @return The signal strength.
+     */
+	public int getSignalStrength();
+
+    /**
+     * Notification that Conviva no longer needs this NetworkInterface.
+     */
+	public void release();
+}
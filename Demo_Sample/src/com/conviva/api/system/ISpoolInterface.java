@@ -0,0 +1,48 @@
+package com.conviva.api.system;
+
+/**
+ * ISpoolInterface - Optional durable queue of records, used by the Conviva library
+ * to keep heartbeats that could not be sent until the Conviva platform is reachable again.<br>
+ * Records are read back in the order they were appended.
+ * Calls are synchronous and may come from several threads.
+ */
+
+public interface ISpoolInterface {
+    /**
+     * Append a record at the end of the spool.
+     * When the spool is full, the oldest records must be dropped to make room.
+     * @param data Buffer holding the record.
+     * @param length Number of bytes of data, starting at index 0.
+     * @param timestampMs Time the record was created, in milliseconds since epoch.
+     * @return false if the record could not be stored at all.
+     */
+	public boolean append(byte[] data, int length, long timestampMs);
+
+    /**
+     * Read the oldest record without removing it.
+     * @return A copy of the oldest record, null when the spool is empty.
+     */
+	public byte[] peek();
+
+    /**
+     * Time the oldest record was created.
+     * @return Milliseconds since epoch, -1 when the spool is empty.
+     */
+	public long peekTimestamp();
+
+    /**
+     * Remove the oldest record.
+     */
+	public void remove();
+
+    /**
+     * Number of records in the spool.
+     * @return The number of records.
+     */
+	public int count();
+
+    /**
+     * Notification that this SpoolInterface is no longer needed.
+     */
+    public void release();
+}
@@ -13,6 +13,9 @@ public class SystemInterface {
 	private IMetadataInterface _metadataInterface = null;
 	private ILoggingInterface _loggingInterface = null;
 	private IGraphicalInterface _graphicalInterface = null;
+	private ISpoolInterface _spoolInterface = null;
+	private IMetricsInterface _metricsInterface = null;
+	private INetworkInterface _networkInterface = null;
 
 	/**
 	 * Whether the Class successfully initialized or not.
@@ -47,6 +50,15 @@ public class SystemInterface {
 	public IGraphicalInterface getGraphicalInterface() {
 		return this._graphicalInterface;
 	}
+	public ISpoolInterface getSpoolInterface() {
+		return this._spoolInterface;
+	}
+	public IMetricsInterface getMetricsInterface() {
+		return this._metricsInterface;
+	}
+	public INetworkInterface getNetworkInterface() {
+		return this._networkInterface;
+	}
 
 
     /**
@@ -67,7 +79,87 @@ public class SystemInterface {
 							IMetadataInterface metadataInterface,
 							ILoggingInterface loggingInterface,
 							IGraphicalInterface graphicalInterface) /* throws Exception */{
-		
+		this(timeInterface, timerInterface, httpInterface, storageInterface,
+				metadataInterface, loggingInterface, graphicalInterface, null, null, defaultNetworkInterface());
+	}
+
+    /**
+     * Constructs SystemInterface with a spool for heartbeats that could not be sent.
+     * Used by the Conviva library to access system information and utilities.
+     * @param timeInterface The ITimeInterface to use in this factory.
+     * @param timerInterface The ITimerInterface to use in this factory.
+     * @param httpInterface The IHttpInterface to use in this factory.
+     * @param storageInterface The IStorageInterface to use in this factory.
+     * @param metadataInterface The IMetadataInterface to use in this factory.
+     * @param loggingInterface The ILoggingInterface to use in this factory.
+     * @param graphicalInterface The IGraphicalInterface to use in this factory.
+     * @param spoolInterface The optional ISpoolInterface to use in this factory, can be null.
+     */
+	public SystemInterface(ITimeInterface timeInterface,
+							ITimerInterface timerInterface,
+							IHttpInterface httpInterface,
+							IStorageInterface storageInterface,
+							IMetadataInterface metadataInterface,
+							ILoggingInterface loggingInterface,
+							IGraphicalInterface graphicalInterface,
+							ISpoolInterface spoolInterface) {
+		this(timeInterface, timerInterface, httpInterface, storageInterface,
+				metadataInterface, loggingInterface, graphicalInterface, spoolInterface, null, defaultNetworkInterface());
+	}
+
+    /**
+     * Constructs SystemInterface with a spool for heartbeats that could not be sent
+     * and a receiver of the metrics of the library.
+     * Used by the Conviva library to access system information and utilities.
+     * @param timeInterface The ITimeInterface to use in this factory.
+     * @param timerInterface The ITimerInterface to use in this factory.
+     * @param httpInterface The IHttpInterface to use in this factory.
+     * @param storageInterface The IStorageInterface to use in this factory.
+     * @param metadataInterface The IMetadataInterface to use in this factory.
+     * @param loggingInterface The ILoggingInterface to use in this factory.
+     * @param graphicalInterface The IGraphicalInterface to use in this factory.
+     * @param spoolInterface The optional ISpoolInterface to use in this factory, can be null.
+     * @param metricsInterface The optional IMetricsInterface to use in this factory, can be null.
+     */
+	public SystemInterface(ITimeInterface timeInterface,
+							ITimerInterface timerInterface,
+							IHttpInterface httpInterface,
+							IStorageInterface storageInterface,
+							IMetadataInterface metadataInterface,
+							ILoggingInterface loggingInterface,
+							IGraphicalInterface graphicalInterface,
+							ISpoolInterface spoolInterface,
+							IMetricsInterface metricsInterface) {
+		this(timeInterface, timerInterface, httpInterface, storageInterface,
+				metadataInterface, loggingInterface, graphicalInterface, spoolInterface, metricsInterface,
+				defaultNetworkInterface());
+	}
+
+    /**
+     * Constructs SystemInterface with a spool for heartbeats that could not be sent,
+     * a receiver of the metrics of the library and a source of network information.
+     * Used by the Conviva library to access system information and utilities.
+     * @param timeInterface The ITimeInterface to use in this factory.
+     * @param timerInterface The ITimerInterface to use in this factory.
+     * @param httpInterface The IHttpInterface to use in this factory.
+     * @param storageInterface The IStorageInterface to use in this factory.
+     * @param metadataInterface The IMetadataInterface to use in this factory.
+     * @param loggingInterface The ILoggingInterface to use in this factory.
+     * @param graphicalInterface The IGraphicalInterface to use in this factory.
+     * @param spoolInterface The optional ISpoolInterface to use in this factory, can be null.
+     * @param metricsInterface The optional IMetricsInterface to use in this factory, can be null.
+     * @param networkInterface The optional INetworkInterface to use in this factory, can be null.
+     */
+	public SystemInterface(ITimeInterface timeInterface,
+							ITimerInterface timerInterface,
+							IHttpInterface httpInterface,
+							IStorageInterface storageInterface,
+							IMetadataInterface metadataInterface,
+							ILoggingInterface loggingInterface,
+							IGraphicalInterface graphicalInterface,
+							ISpoolInterface spoolInterface,
+							IMetricsInterface metricsInterface,
+							INetworkInterface networkInterface) {
 		if (timeInterface == null ||
 			timerInterface == null ||
 			httpInterface == null ||
@@ -85,8 +177,32 @@ public class SystemInterface {
 		_metadataInterface = metadataInterface;
 		_loggingInterface = loggingInterface;
 		_graphicalInterface = graphicalInterface;
+		_spoolInterface = spoolInterface;
+		_metricsInterface = metricsInterface;
+		_networkInterface = networkInterface;
 		initialized = true;
 	}
+
+	/**
+	 * Network information of the constructors without an INetworkInterface, read from
+	 * the Android system as the library did before INetworkInterface existed.
+	 * @return An AndroidNetworkInterface, null when not running on Android.
+	 */
+	private static INetworkInterface defaultNetworkInterface() {
+		try {
+			// Looked up by name, the Android platform classes are not part of the other builds
+			Class<?> networkInterfaceClass = Class.forName("com.conviva.platforms.android.AndroidNetworkInterface");
+			return (INetworkInterface) networkInterfaceClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// Such as a SecurityException, or a failure of the constructor
+			return null;
+		} catch (LinkageError e) {
+			// The Android classes it depends on are missing
+			return null;
+		}
+	}
 	
     /**
      * Releases resources held by SystemInterface
@@ -121,5 +237,17 @@ public class SystemInterface {
 			_graphicalInterface.release();
 			_graphicalInterface = null;
 		}
+		if (_spoolInterface != null) {
+			_spoolInterface.release();
+			_spoolInterface = null;
+		}
+		if (_metricsInterface != null) {
+			_metricsInterface.release();
+			_metricsInterface = null;
+		}
+		if (_networkInterface != null) {
+			_networkInterface.release();
+			_networkInterface = null;
+		}
 	}
 }
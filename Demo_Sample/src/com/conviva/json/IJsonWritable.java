@@ -0,0 +1,12 @@
+package com.conviva.json;
+
+/**
+ * Interface IJsonWritable implemented by objects serialized straight into an {@link IJsonWriter}.
+ */
+public interface IJsonWritable {
+    /**
+     * Write this object as a single JSON object.
+     * @param writer Destination of the object.
+     */
+    public void writeJson(IJsonWriter writer);
+}
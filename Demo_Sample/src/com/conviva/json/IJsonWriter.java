@@ -0,0 +1,42 @@
+package com.conviva.json;
+
+/**
+ * Interface IJsonWriter used by the Conviva library to serialize objects field by field,
+ * without building a Map first. See {@link IJsonWritable}.
+ */
+public interface IJsonWriter {
+    /**
+     * Start an object.
+     * @param fieldCount Number of fields that will be written before endObject().
+     */
+    public void beginObject(int fieldCount);
+
+    /**
+     * Write the name of the next field of the current object.
+     * @param name Field name.
+     */
+    public void name(String name);
+
+    /**
+     * Write an integer value.
+     * @param value The value.
+     */
+    public void value(long value);
+
+    /**
+     * Write a boolean value.
+     * @param value The value.
+     */
+    public void value(boolean value);
+
+    /**
+     * Write a string value, null is written as a JSON null.
+     * @param value The value.
+     */
+    public void value(String value);
+
+    /**
+     * End the current object.
+     */
+    public void endObject();
+}
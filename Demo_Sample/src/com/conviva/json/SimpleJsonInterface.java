@@ -5,8 +5,8 @@ import java.util.Map;
 import org.json.simple.JSONValue;
 
 /**
- * Default SimpleJsonInterface provided by Conviva. Alternatively you can
- * develop your own JsonInterface.
+ * SimpleJsonInterface provided by Conviva, encoding through an intermediate
+ * String. Alternatively you can develop your own JsonInterface.
  */
 public class SimpleJsonInterface implements IJsonInterface {
 
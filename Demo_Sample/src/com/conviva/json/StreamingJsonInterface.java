@@ -0,0 +1,42 @@
+package com.conviva.json;
+
+import java.util.Map;
+
+/**
+ * JsonInterface encoding directly into UTF-8 bytes with a {@link Utf8JsonWriter}.<br>
+ * Produces the same JSON as {@link SimpleJsonInterface}, and decodes the same way.
+ */
+public class StreamingJsonInterface implements IJsonInterface {
+    // Responses are small, they are decoded the same way as before
+    private final SimpleJsonInterface _decoder = new SimpleJsonInterface();
+
+	@Override
+	public String encode(Map<String, Object> map) {
+        Utf8JsonWriter writer = new Utf8JsonWriter();
+        if (!encode(map, writer)) {
+            return null;
+        }
+        return writer.toString();
+	}
+
+    /**
+     * Encode an object as UTF-8 JSON, appended to the writer.
+     * @param map An object to be encoded to JSON.
+     * @param writer Destination of the encoded bytes, usually reset and reused between calls.
+     * @return false if the object could not be encoded, the writer content is then undefined.
+     */
+    public boolean encode(Map<String, Object> map, Utf8JsonWriter writer) {
+        try {
+            writer.writeMap(map);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+	@Override
+	public Map<String, Object> decode(String json) {
+        return _decoder.decode(json);
+	}
+
+}
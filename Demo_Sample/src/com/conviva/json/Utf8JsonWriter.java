@@ -0,0 +1,338 @@
+package com.conviva.json;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+
+/**
+ * Writes JSON values straight into a growable UTF-8 byte buffer.<br>
+ * The output is byte for byte the same as org.json.simple.JSONValue, without
+ * building the intermediate String. The buffer is kept between calls to
+ * {@link #reset()}, so a writer reused for every heartbeat stops allocating
+ * once it has grown to the heartbeat size.
+ */
+public class Utf8JsonWriter implements IJsonWriter {
+    private static final int DEFAULT_CAPACITY = 2048;
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] LONG_MIN = { '-', '9', '2', '2', '3', '3', '7', '2', '0', '3', '6', '8', '5', '4', '7', '7', '5', '8', '0', '8' };
+
+    private byte[] _buffer;
+    private int _length = 0;
+    // Whether the object being written at each depth already has a field, for IJsonWriter
+    private boolean[] _hasField = new boolean[8];
+    private int _depth = 0;
+
+    public Utf8JsonWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Utf8JsonWriter(int initialCapacity) {
+        _buffer = new byte[initialCapacity > 0 ? initialCapacity : DEFAULT_CAPACITY];
+    }
+
+    /// @brief Forget the written bytes, keep the buffer
+    public void reset() {
+        _length = 0;
+        _depth = 0;
+    }
+
+    /**
+     * Returns the backing array, only the first {@link #length()} bytes are valid.
+     * @return The backing array.
+     */
+    public byte[] buffer() {
+        return _buffer;
+    }
+
+    /**
+     * Returns the number of bytes written since the last reset.
+     * @return The number of bytes written.
+     */
+    public int length() {
+        return _length;
+    }
+
+    /**
+     * Returns a copy of the written bytes decoded as a String.
+     * @return The JSON text.
+     */
+    @Override
+    public String toString() {
+        try {
+            return new String(_buffer, 0, _length, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Append the JSON representation of a value.
+     * @param value Map, List, String, Number, Boolean, IJsonWritable, JSONAware or null.
+     * Any other object is written as its toString(), like JSONValue does.
+     */
+    public void writeValue(Object value) {
+        if (value == null) {
+            writeRaw(NULL);
+        } else if (value instanceof IJsonWritable) {
+            ((IJsonWritable) value).writeJson(this);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            Double d = (Double) value;
+            if (d.isInfinite() || d.isNaN()) {
+                writeRaw(NULL);
+            } else {
+                writeAscii(d.toString());
+            }
+        } else if (value instanceof Float) {
+            Float f = (Float) value;
+            if (f.isInfinite() || f.isNaN()) {
+                writeRaw(NULL);
+            } else {
+                writeAscii(f.toString());
+            }
+        } else if (value instanceof Number) {
+            writeAscii(value.toString());
+        } else if (value instanceof Boolean) {
+            writeRaw(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof JSONAware) {
+            writeChars(((JSONAware) value).toJSONString());
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value);
+        } else if (value instanceof List) {
+            writeList((List<?>) value);
+        } else {
+            writeChars(value.toString());
+        }
+    }
+
+    /// @brief Append a JSON object
+    public void writeMap(Map<?, ?> map) {
+        if (map == null) {
+            writeRaw(NULL);
+            return;
+        }
+        writeByte('{');
+        boolean first = true;
+        Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<?, ?> entry = it.next();
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()));
+            writeByte(':');
+            writeValue(entry.getValue());
+        }
+        writeByte('}');
+    }
+
+    /// @brief Append a JSON array
+    public void writeList(List<?> list) {
+        if (list == null) {
+            writeRaw(NULL);
+            return;
+        }
+        writeByte('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeValue(list.get(i));
+        }
+        writeByte(']');
+    }
+
+    /// @brief Append a quoted and escaped JSON string
+    public void writeString(String s) {
+        writeByte('"');
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+            case '"': writeEscape('"'); break;
+            case '\\': writeEscape('\\'); break;
+            case '\b': writeEscape('b'); break;
+            case '\f': writeEscape('f'); break;
+            case '\n': writeEscape('n'); break;
+            case '\r': writeEscape('r'); break;
+            case '\t': writeEscape('t'); break;
+            case '/': writeEscape('/'); break;
+            default:
+                // Same ranges as JSONValue.escape()
+                if ((ch >= '\u0000' && ch <= '\u001F') || (ch >= '\u007F' && ch <= '\u009F')
+                        || (ch >= '\u2000' && ch <= '\u20FF')) {
+                    ensureCapacity(6);
+                    _buffer[_length++] = '\\';
+                    _buffer[_length++] = 'u';
+                    _buffer[_length++] = HEX_DIGITS[(ch >> 12) & 0xF];
+                    _buffer[_length++] = HEX_DIGITS[(ch >> 8) & 0xF];
+                    _buffer[_length++] = HEX_DIGITS[(ch >> 4) & 0xF];
+                    _buffer[_length++] = HEX_DIGITS[ch & 0xF];
+                } else {
+                    i = writeUtf8Char(s, i, ch);
+                }
+            }
+        }
+        writeByte('"');
+    }
+
+    /// @brief Append a decimal integer without going through a String
+    public void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeRaw(LONG_MIN);
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            _buffer[_length++] = '-';
+            value = -value;
+        }
+        int start = _length;
+        do {
+            _buffer[_length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first
+        for (int i = start, j = _length - 1; i < j; i++, j--) {
+            byte tmp = _buffer[i];
+            _buffer[i] = _buffer[j];
+            _buffer[j] = tmp;
+        }
+    }
+
+    @Override
+    public void beginObject(int fieldCount) {
+        writeByte('{');
+        if (_depth == _hasField.length) {
+            boolean[] hasField = new boolean[_depth * 2];
+            System.arraycopy(_hasField, 0, hasField, 0, _depth);
+            _hasField = hasField;
+        }
+        _hasField[_depth++] = false;
+    }
+
+    @Override
+    public void name(String name) {
+        if (_hasField[_depth - 1]) {
+            writeByte(',');
+        }
+        _hasField[_depth - 1] = true;
+        writeString(name);
+        writeByte(':');
+    }
+
+    @Override
+    public void value(long value) {
+        writeLong(value);
+    }
+
+    @Override
+    public void value(boolean value) {
+        writeRaw(value ? TRUE : FALSE);
+    }
+
+    @Override
+    public void value(String value) {
+        if (value == null) {
+            writeRaw(NULL);
+        } else {
+            writeString(value);
+        }
+    }
+
+    @Override
+    public void endObject() {
+        _depth--;
+        writeByte('}');
+    }
+
+    private void writeEscape(char ch) {
+        ensureCapacity(2);
+        _buffer[_length++] = '\\';
+        _buffer[_length++] = (byte) ch;
+    }
+
+    private void writeByte(char ch) {
+        ensureCapacity(1);
+        _buffer[_length++] = (byte) ch;
+    }
+
+    private void writeRaw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, _buffer, _length, bytes.length);
+        _length += bytes.length;
+    }
+
+    /// Only used for number representations, always ASCII
+    private void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            _buffer[_length++] = (byte) s.charAt(i);
+        }
+    }
+
+    /// Already serialized JSON text, UTF-8 encode it as is
+    private void writeChars(String s) {
+        if (s == null) {
+            writeRaw(NULL);
+            return;
+        }
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            i = writeUtf8Char(s, i, s.charAt(i));
+        }
+    }
+
+    /// Encode the character at index i, returns the index of the last char consumed.
+    /// Unpaired surrogates are replaced by '?' like String.getBytes("UTF-8").
+    private int writeUtf8Char(String s, int i, char ch) {
+        if (ch < 0x80) {
+            ensureCapacity(1);
+            _buffer[_length++] = (byte) ch;
+        } else if (ch < 0x800) {
+            ensureCapacity(2);
+            _buffer[_length++] = (byte) (0xC0 | (ch >> 6));
+            _buffer[_length++] = (byte) (0x80 | (ch & 0x3F));
+        } else if (Character.isHighSurrogate(ch) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(ch, s.charAt(i + 1));
+            ensureCapacity(4);
+            _buffer[_length++] = (byte) (0xF0 | (cp >> 18));
+            _buffer[_length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            _buffer[_length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            _buffer[_length++] = (byte) (0x80 | (cp & 0x3F));
+            return i + 1;
+        } else if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+            ensureCapacity(1);
+            _buffer[_length++] = '?';
+        } else {
+            ensureCapacity(3);
+            _buffer[_length++] = (byte) (0xE0 | (ch >> 12));
+            _buffer[_length++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+            _buffer[_length++] = (byte) (0x80 | (ch & 0x3F));
+        }
+        return i;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (_length + extra > _buffer.length) {
+            int capacity = Math.max(_buffer.length * 2, _length + extra);
+            byte[] buffer = new byte[capacity];
+            System.arraycopy(_buffer, 0, buffer, 0, _length);
+            _buffer = buffer;
+        }
+    }
+}
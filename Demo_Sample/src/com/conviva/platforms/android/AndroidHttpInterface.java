@@ -1,27 +1,48 @@
 package com.conviva.platforms.android;
 
+import com.conviva.api.system.IBytesHttpInterface;
 import com.conviva.api.system.ICallbackInterface;
 import com.conviva.api.system.IHttpInterface;
+import com.conviva.platforms.http.HTTPTask;
+import com.conviva.platforms.http.HTTPTaskPool;
 
 /**
  * Conviva provided helper class which implements {@link IHttpInterface} required methods.
+ * Requests are served by a bounded {@link HTTPTaskPool} reusing keep-alive connections.
  */
-public class AndroidHttpInterface implements IHttpInterface {
+public class AndroidHttpInterface implements IBytesHttpInterface {
+    private HTTPTaskPool _taskPool = null;
+
+    public AndroidHttpInterface() {
+        this(HTTPTaskPool.DEFAULT_MAX_WORKERS);
+    }
+
+    /**
+     * @param maxWorkers Maximum number of concurrent requests.
+     */
+    public AndroidHttpInterface(int maxWorkers) {
+        _taskPool = new HTTPTaskPool(maxWorkers, HTTPTaskPool.DEFAULT_MAX_PENDING);
+    }
 
 	@Override
 	public void makeRequest(String httpMethod, String url, String data,
 			String contentType, int timeoutMs, ICallbackInterface callback) {
         HTTPTask httpTask = new HTTPTask();
         httpTask.setState(httpMethod, url, data, contentType, timeoutMs, callback);
-        Thread thread = new Thread(httpTask);
-        if (thread != null) {
-            /// @todo: unnecessary thread creation and cleanup overhead per hb
-            thread.start();
-        }
+        _taskPool.execute(httpTask);
+	}
+
+	@Override
+	public void makeRequest(String httpMethod, String url, byte[] data, int length,
+			String contentType, String contentEncoding,
+			int timeoutMs, ICallbackInterface callback) {
+        HTTPTask httpTask = new HTTPTask();
+        httpTask.setState(httpMethod, url, data, length, contentType, contentEncoding, timeoutMs, callback);
+        _taskPool.execute(httpTask);
 	}
 
 	@Override
 	public void release() {
-		// Nothing to release
+		_taskPool.release();
 	}
 }
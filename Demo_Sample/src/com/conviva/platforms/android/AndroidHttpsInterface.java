@@ -1,7 +1,10 @@
 package com.conviva.platforms.android;
 
+import com.conviva.api.system.IBytesHttpInterface;
 import com.conviva.api.system.ICallbackInterface;
 import com.conviva.api.system.IHttpInterface;
+import com.conviva.platforms.http.HTTPTask;
+import com.conviva.platforms.http.HTTPTaskPool;
 
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -12,32 +15,59 @@ import java.net.URL;
  * Conviva provided helper class which implements {@link IHttpInterface}
  * required methods for https requests and drop any non-https requests.
  */
-public class AndroidHttpsInterface implements IHttpInterface {
+public class AndroidHttpsInterface implements IBytesHttpInterface {
+    private HTTPTaskPool _taskPool = null;
+
+    public AndroidHttpsInterface() {
+        this(HTTPTaskPool.DEFAULT_MAX_WORKERS);
+    }
+
+    /**
+     * @param maxWorkers Maximum number of concurrent requests.
+     */
+    public AndroidHttpsInterface(int maxWorkers) {
+        _taskPool = new HTTPTaskPool(maxWorkers, HTTPTaskPool.DEFAULT_MAX_PENDING);
+    }
 
     @Override
     public void makeRequest(String httpMethod, String url, String data,
                             String contentType, int timeoutMs, ICallbackInterface callback) {
+        if (!isHttps(url, callback)) {
+            return;
+        }
+        HTTPTask httpTask = new HTTPTask();
+        httpTask.setState(httpMethod, url, data, contentType, timeoutMs, callback);
+        _taskPool.execute(httpTask);
+    }
+
+    @Override
+    public void makeRequest(String httpMethod, String url, byte[] data, int length,
+                            String contentType, String contentEncoding,
+                            int timeoutMs, ICallbackInterface callback) {
+        if (!isHttps(url, callback)) {
+            return;
+        }
+        HTTPTask httpTask = new HTTPTask();
+        httpTask.setState(httpMethod, url, data, length, contentType, contentEncoding, timeoutMs, callback);
+        _taskPool.execute(httpTask);
+    }
+
+    private boolean isHttps(String url, ICallbackInterface callback) {
         try {
             URL netUrl = new URL(url);
             if (!netUrl.getProtocol().equals("https")) { // drop non-HTTPS requests
                 callback.done(false, "plaintext connections not allowed");
-                return;
+                return false;
             }
         } catch (MalformedURLException ex) {
             if (callback != null) callback.done(false, ex.toString());
-            return;
-        }
-        HTTPTask httpTask = new HTTPTask();
-        httpTask.setState(httpMethod, url, data, contentType, timeoutMs, callback);
-        Thread thread = new Thread(httpTask);
-        if (thread != null) {
-            /// @todo: unnecessary thread creation and cleanup overhead per hb
-            thread.start();
+            return false;
         }
+        return true;
     }
 
     @Override
     public void release() {
-        // Nothing to release
+        _taskPool.release();
     }
 }
@@ -0,0 +1,49 @@
+package com.conviva.platforms.android;
+
+import android.content.Context;
+
+import com.conviva.api.Client;
+import com.conviva.api.system.INetworkInterface;
+import com.conviva.api.system.SystemInterface;
+
+/**
+ * Conviva provided helper class which implements {@link INetworkInterface} required
+ * methods with {@link AndroidNetworkUtils}. The application can implement its own
+ * {@link INetworkInterface} conforming class for creating {@link SystemInterface}
+ * while creating a {@link Client}.
+ */
+public class AndroidNetworkInterface implements INetworkInterface {
+
+	public AndroidNetworkInterface(Context context) {
+		AndroidNetworkUtils.initWithContext(context);
+	}
+
+	/**
+	 * Uses the Context already given to the Conviva library, such as the one of
+	 * {@link com.conviva.api.AndroidSystemInterfaceFactory}. Used by the constructors of
+	 * {@link SystemInterface} which do not take an {@link INetworkInterface}.
+	 */
+	public AndroidNetworkInterface() {
+	}
+
+	@Override
+	public String getConnectionType() {
+		return AndroidNetworkUtils.getConnectionType();
+	}
+
+	@Override
+	public String getLinkEncryption() {
+		return AndroidNetworkUtils.getLinkEncryption();
+	}
+
+	@Override
+	public int getSignalStrength() {
+		return AndroidNetworkUtils.getSignalStrength();
+	}
+
+	@Override
+	public void release() {
+		AndroidNetworkUtils.release();
+	}
+
+}
@@ -1,5 +1,5 @@
 // Copyright (c) 2013, Conviva Inc.  All rights reserved.
-package com.conviva.utils;
+package com.conviva.platforms.android;
 
 import android.util.Log;
 
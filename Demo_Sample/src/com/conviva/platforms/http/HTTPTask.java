@@ -0,0 +1,220 @@
+package com.conviva.platforms.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import com.conviva.api.system.ICallbackInterface;
+import com.conviva.api.system.IHttpInterface;
+
+
+/**
+ * A task that makes an http request and waits for response asynchronously.
+ * Response bodies are always fully read and closed without disconnecting,
+ * so that the connection can go back to the HttpURLConnection keep-alive pool.
+ */
+public class HTTPTask implements Runnable {
+    private ICallbackInterface _callback = null;
+    private String _httpMethod;
+    private String _url;
+    private String _data;
+    private byte[] _dataBytes = null;
+    private int _dataLength = 0;
+    private String _contentEncoding = null;
+    private int _timeoutMs;
+    private String _contentT;
+    private String _userAgent = null;
+
+    public void setState(String httpMethod, String url, String data,
+            String contentT, int timeoutMs, ICallbackInterface callback) {
+        _httpMethod = httpMethod == null ? "POST" : httpMethod;
+        _url = url;
+        _data = data;
+        _contentT = contentT == null ? "application/json" : contentT;
+        _timeoutMs = timeoutMs;
+        _callback = callback;
+    }
+
+    /**
+     * Same as the String version, with a body already encoded in UTF-8.
+     * The buffer is released when the callback is called.
+     * @param contentEncoding Content-Encoding of the body, null when not compressed.
+     */
+    public void setState(String httpMethod, String url, byte[] data, int length,
+            String contentT, String contentEncoding, int timeoutMs, ICallbackInterface callback) {
+        setState(httpMethod, url, (String) null, contentT, timeoutMs, callback);
+        _dataBytes = data;
+        _dataLength = length;
+        _contentEncoding = contentEncoding;
+    }
+
+    /**
+     * Overrides the User-Agent header. Defaults to the Android default user agent.
+     * @param userAgent User-Agent header value.
+     */
+    public void setUserAgent(String userAgent) {
+        _userAgent = userAgent;
+    }
+
+    /**
+     * Notify the callback that this task will never run.
+     * @param message The reason for the failure.
+     */
+    public void reject(String message) {
+        callbackIfPresent(false, message);
+    }
+
+    @Override
+    public void run() {
+        ConnectionResult cr = handleConnection();
+        callbackIfPresent(cr.success, cr.message);
+    }
+
+    private class ConnectionResult  {
+        public boolean success;
+        public String message;
+
+        public ConnectionResult(boolean scs, String msg) {
+            success = scs;
+            message = msg;
+        }
+    }
+
+    private void callbackIfPresent(boolean success, String message) {
+        _dataBytes = null;
+        if (_callback != null) {
+            _callback.done(success, message);
+        }
+        _callback = null;
+    }
+
+    private ConnectionResult handleConnection () {
+        int code = -1;
+        String response = "";
+
+        URL url = null;
+        try {
+            url = new URL(_url);
+
+            HttpURLConnection urlConnection = null;
+
+            try {
+                urlConnection = (HttpURLConnection) url.openConnection();
+
+                urlConnection.setReadTimeout(_timeoutMs);
+                urlConnection.setConnectTimeout(_timeoutMs);
+//                urlConnection.setInstanceFollowRedirects(false);
+
+                try {
+                    urlConnection.setRequestMethod(_httpMethod);
+                } catch (ProtocolException ex) {
+                    // Never happens? Fallback to POST
+                    _httpMethod = "POST";
+                    urlConnection.setRequestMethod(_httpMethod);
+                }
+
+                urlConnection.setRequestProperty("Content-Type", _contentT);
+                if (_contentEncoding != null) {
+                    urlConnection.setRequestProperty("Content-Encoding", _contentEncoding);
+                }
+
+                // Can overwrite header User-Agent by following line.
+                // Defaults to the user agent of the platform, as AndroidSystemUtils.getDefaultUserAgent()
+                String userAgent = _userAgent != null ? _userAgent : System.getProperty("http.agent");
+                if (userAgent != null) {
+                    urlConnection.setRequestProperty("User-Agent", userAgent);
+                }
+
+                if (_httpMethod.equals("POST")) {
+                    urlConnection.setDoOutput(true);
+//                    urlConnection.setDoInput(true);
+                    urlConnection.setUseCaches(false);
+                    byte[] utf8Bytes = _dataBytes;
+                    int length = _dataLength;
+                    if (utf8Bytes == null) {
+                        utf8Bytes = _data.getBytes("UTF-8");
+                        length = utf8Bytes.length;
+                    }
+                    urlConnection.setFixedLengthStreamingMode(length);
+                    try {
+                        OutputStream out = new BufferedOutputStream(urlConnection.getOutputStream());
+                        out.write(utf8Bytes, 0, length);
+                        out.close();
+
+                        boolean reusable = false;
+                        try {
+                            urlConnection.connect();
+
+                            try {
+                                code = urlConnection.getResponseCode();
+                            } catch (IOException ex) {
+                                return new ConnectionResult(false, ex.toString());
+                            }
+
+                            try {
+                                InputStream in = code == HttpURLConnection.HTTP_OK ?
+                                        urlConnection.getInputStream() : urlConnection.getErrorStream();
+                                if (in != null) {
+                                    response = readFully(in);
+                                }
+                                // The body was consumed, the socket can serve the next request
+                                reusable = true;
+                            } catch (IOException ex) {
+                                return new ConnectionResult(false, ex.toString());
+                            } finally {}
+                        } catch (IOException ex) {
+                            return new ConnectionResult(false, ex.toString());
+                        } finally {
+                            if (!reusable) {
+                                urlConnection.disconnect();
+                            }
+                        }
+                    } catch (IOException ex) {
+                        return new ConnectionResult(false, ex.toString());
+                    } catch (IllegalStateException e) {
+                        return new ConnectionResult(false, e.toString());
+                    } finally {
+                    }
+                }
+            } catch (IOException ex) {
+                return new ConnectionResult(false, ex.toString());
+            } finally {}
+        } catch (MalformedURLException ex) {
+            return new ConnectionResult(false, ex.toString());
+        } catch(ArrayIndexOutOfBoundsException e) {
+            // TODO: Check what can cause this issue & how can it be resolved instead of catching an exception.
+            return new ConnectionResult(false, e.toString());
+        }  finally {}
+
+        if (code == HttpURLConnection.HTTP_OK) {
+            return new ConnectionResult(true, response);
+        } else {
+            return new ConnectionResult(false, IHttpInterface.STATUS_ERROR_PREFIX + code);
+        }
+    }
+
+    private static String readFully(InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream);
+        try {
+            byte[] contents = new byte[1024];
+            ByteArrayOutputStream inBytes = new ByteArrayOutputStream();
+            int bytesRead = 0;
+            while ((bytesRead = in.read(contents)) != -1) {
+                inBytes.write(contents, 0, bytesRead);
+            }
+            return new String(inBytes.toByteArray(), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+}
+
@@ -0,0 +1,95 @@
+package com.conviva.platforms.http;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of worker threads running {@link HTTPTask}s.<br>
+ * Workers are kept alive between heartbeats so that the underlying
+ * HttpURLConnection keep-alive cache can reuse the socket (and TLS session)
+ * to the gateway host instead of opening a new one per request.
+ */
+public class HTTPTaskPool {
+    /// Default number of concurrent requests, matches the HttpURLConnection
+    /// default of 5 idle connections kept per host (http.maxConnections), so
+    /// that the connection of every worker can go back to the keep-alive cache.
+    public static final int DEFAULT_MAX_WORKERS = 5;
+    /// Default number of requests waiting for a worker before rejecting.
+    public static final int DEFAULT_MAX_PENDING = 256;
+    /// Idle workers are stopped after that long without requests.
+    private static final int WORKER_KEEP_ALIVE_SEC = 60;
+
+    // Read by request threads while release() clears it
+    private volatile ThreadPoolExecutor _pool = null;
+
+    public HTTPTaskPool() {
+        this(DEFAULT_MAX_WORKERS, DEFAULT_MAX_PENDING);
+    }
+
+    public HTTPTaskPool(int maxWorkers, int maxPending) {
+        if (maxWorkers <= 0) maxWorkers = DEFAULT_MAX_WORKERS;
+        if (maxPending <= 0) maxPending = DEFAULT_MAX_PENDING;
+        _pool = new ThreadPoolExecutor(maxWorkers, maxWorkers,
+                WORKER_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(maxPending),
+                new WorkerThreadFactory());
+        _pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue an http task. Requests are served in submission order by the
+     * first available worker.
+     * @param httpTask Task to run.
+     * @return false if the pool is released or saturated, the task callback is
+     * then notified of the failure.
+     */
+    public boolean execute(HTTPTask httpTask) {
+        ThreadPoolExecutor pool = _pool;
+        if (pool != null) {
+            try {
+                pool.execute(httpTask);
+                return true;
+            } catch (RejectedExecutionException e) {
+                httpTask.reject("http request rejected: " + e.toString());
+                return false;
+            }
+        }
+        httpTask.reject("http request rejected: pool released");
+        return false;
+    }
+
+    /**
+     * Returns the number of worker threads currently alive.
+     * @return number of worker threads.
+     */
+    public int getWorkerCount() {
+        ThreadPoolExecutor pool = _pool;
+        return pool != null ? pool.getPoolSize() : 0;
+    }
+
+    /**
+     * Stop accepting requests. Requests already queued are still sent.
+     */
+    public synchronized void release() {
+        ThreadPoolExecutor pool = _pool;
+        if (pool != null) {
+            _pool = null;
+            pool.shutdown();
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger _count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ConvivaHttp-" + _count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
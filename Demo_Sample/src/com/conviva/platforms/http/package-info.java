@@ -0,0 +1,5 @@
+/**
+ * Contains the http request tasks and worker pool shared by the Android and
+ * plain Java implementations of the HTTP interface.
+ */
+package com.conviva.platforms.http;
@@ -0,0 +1,319 @@
+package com.conviva.platforms.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.conviva.api.system.ICancelTimer;
+import com.conviva.api.system.ITimerInterface;
+
+/**
+ * Conviva provided helper class which implements {@link ITimerInterface} for
+ * plain Java runtimes with a hashed timing wheel.<br>
+ * A single thread advances the wheel every tick and runs the expired timers,
+ * creating and cancelling a timer are O(1) whatever the number of timers, so
+ * timer overhead stays flat with thousands of sessions.<br>
+ * Timers fire with the precision of a tick. An optional jitter spreads every
+ * period of the recurring timers around its nominal time, so that sessions
+ * started together do not keep sending their heartbeats at the same time.
+ * Actions run on the wheel thread and must be short, unless a {@link JvmExecutor}
+ * is given: each action then runs on its own virtual thread and may block.
+ */
+public class HashedWheelTimerInterface implements ITimerInterface {
+    public static final int DEFAULT_TICK_MS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_STARTED = 1;
+    private static final int STATE_RELEASED = 2;
+
+    private static final int TIMER_WAITING = 0;
+    private static final int TIMER_CANCELLED = 1;
+
+    private final long _tickNanos;
+    private final int _mask;
+    private final Bucket[] _wheel;
+    private final int _jitterPercent;
+    private final long _startNanos;
+    private final Random _random = new Random();
+    private final Queue<WheelTimer> _newTimers = new ConcurrentLinkedQueue<WheelTimer>();
+    private final Queue<WheelTimer> _cancelledTimers = new ConcurrentLinkedQueue<WheelTimer>();
+    private final AtomicInteger _state = new AtomicInteger(STATE_INIT);
+    private final AtomicInteger _activeCount = new AtomicInteger(0);
+    private final JvmExecutor _actionExecutor;
+    private Thread _workerThread = null;
+
+    // Only used by the wheel thread
+    private long _tick = 0;
+    private final List<WheelTimer> _expired = new ArrayList<WheelTimer>();
+
+    public HashedWheelTimerInterface() {
+        this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, 0);
+    }
+
+    /**
+     * @param jitterPercent Maximum deviation of each period of a recurring timer, in percent of its interval.
+     */
+    public HashedWheelTimerInterface(int jitterPercent) {
+        this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, jitterPercent);
+    }
+
+    /**
+     * @param tickMs Duration of a tick of the wheel, the precision of the timers.
+     * @param wheelSize Number of buckets of the wheel, rounded up to a power of 2.
+     * @param jitterPercent Maximum deviation of each period of a recurring timer, in percent of its interval.
+     */
+    public HashedWheelTimerInterface(int tickMs, int wheelSize, int jitterPercent) {
+        this(tickMs, wheelSize, jitterPercent, null);
+    }
+
+    /**
+     * @param tickMs Duration of a tick of the wheel, the precision of the timers.
+     * @param wheelSize Number of buckets of the wheel, rounded up to a power of 2.
+     * @param jitterPercent Maximum deviation of each period of a recurring timer, in percent of its interval.
+     * @param actionExecutor Executor running the actions on virtual threads, null to run them on the wheel thread.
+     */
+    public HashedWheelTimerInterface(int tickMs, int wheelSize, int jitterPercent, JvmExecutor actionExecutor) {
+        if (tickMs <= 0 || wheelSize <= 0 || jitterPercent < 0 || jitterPercent > 100) {
+            throw new IllegalArgumentException("invalid timer wheel settings");
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        _mask = size - 1;
+        _wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            _wheel[i] = new Bucket();
+        }
+        _tickNanos = tickMs * 1000000L;
+        _jitterPercent = jitterPercent;
+        _startNanos = System.nanoTime();
+        _actionExecutor = actionExecutor;
+    }
+
+    @Override
+    public ICancelTimer createTimer(Runnable timerAction, int intervalMs, String actionName) {
+        start();
+        long intervalNanos = Math.max(intervalMs, 1) * 1000000L;
+        WheelTimer timer = new WheelTimer(timerAction, intervalNanos);
+        timer.nominalDeadline = elapsedNanos() + intervalNanos;
+        timer.deadline = withJitter(timer.nominalDeadline, intervalNanos);
+        _activeCount.incrementAndGet();
+        _newTimers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Number of timers created and not cancelled yet.
+     * @return The number of active timers.
+     */
+    public int getActiveCount() {
+        return _activeCount.get();
+    }
+
+    @Override
+    public void release() {
+        if (_state.getAndSet(STATE_RELEASED) == STATE_STARTED) {
+            _workerThread.interrupt();
+        }
+        _newTimers.clear();
+        _cancelledTimers.clear();
+    }
+
+    private void start() {
+        if (_state.get() == STATE_INIT && _state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+            _workerThread = new Thread(new Worker(), "ConvivaTimerWheel");
+            _workerThread.setDaemon(true);
+            _workerThread.start();
+        }
+    }
+
+    private long elapsedNanos() {
+        return System.nanoTime() - _startNanos;
+    }
+
+    private long withJitter(long nominalDeadline, long intervalNanos) {
+        if (_jitterPercent == 0) {
+            return nominalDeadline;
+        }
+        long maxJitter = intervalNanos * _jitterPercent / 100;
+        long jitter = (long) ((_random.nextDouble() * 2 - 1) * maxJitter);
+        return Math.max(nominalDeadline + jitter, elapsedNanos());
+    }
+
+    /// Put a timer in the bucket of its deadline, called by the wheel thread only
+    private void schedule(WheelTimer timer) {
+        long expirationTick = timer.deadline / _tickNanos;
+        timer.remainingRounds = (expirationTick - _tick) / _wheel.length;
+        // Timers already due go in the current bucket
+        long tick = Math.max(expirationTick, _tick);
+        _wheel[(int) (tick & _mask)].add(timer);
+    }
+
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            _tick = elapsedNanos() / _tickNanos;
+            while (_state.get() == STATE_STARTED) {
+                long now = waitForNextTick();
+                if (now < 0) {
+                    break;
+                }
+                removeCancelled();
+                scheduleNew();
+                _wheel[(int) (_tick & _mask)].expire(now, _expired);
+                _tick++;
+                runExpired();
+            }
+        }
+
+        private long waitForNextTick() {
+            long deadline = _tickNanos * (_tick + 1);
+            while (true) {
+                long now = elapsedNanos();
+                long sleepMs = (deadline - now + 999999) / 1000000;
+                if (sleepMs <= 0) {
+                    return now;
+                }
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    if (_state.get() == STATE_RELEASED) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void removeCancelled() {
+            WheelTimer timer;
+            while ((timer = _cancelledTimers.poll()) != null) {
+                if (timer.bucket != null) {
+                    timer.bucket.remove(timer);
+                }
+            }
+        }
+
+        private void scheduleNew() {
+            WheelTimer timer;
+            while ((timer = _newTimers.poll()) != null) {
+                if (timer.state.get() == TIMER_WAITING) {
+                    schedule(timer);
+                }
+            }
+        }
+
+        private void runExpired() {
+            for (int i = 0; i < _expired.size(); i++) {
+                WheelTimer timer = _expired.get(i);
+                if (timer.state.get() != TIMER_WAITING) {
+                    continue;
+                }
+                try {
+                    if (_actionExecutor != null) {
+                        _actionExecutor.execute(timer.action);
+                    } else {
+                        timer.action.run();
+                    }
+                } catch (Throwable t) {
+                    // Actions are protected by the library, keep the wheel running regardless
+                }
+                if (timer.state.get() == TIMER_WAITING) {
+                    // Fixed rate: the next period starts from the nominal time, not the jittered one
+                    timer.nominalDeadline += timer.intervalNanos;
+                    timer.deadline = withJitter(timer.nominalDeadline, timer.intervalNanos);
+                    schedule(timer);
+                }
+            }
+            _expired.clear();
+        }
+    }
+
+    /// A recurring timer, linked in the bucket of its next deadline
+    private final class WheelTimer implements ICancelTimer {
+        final Runnable action;
+        final long intervalNanos;
+        final AtomicInteger state = new AtomicInteger(TIMER_WAITING);
+        // Only used by the wheel thread once scheduled
+        long nominalDeadline;
+        long deadline;
+        long remainingRounds;
+        Bucket bucket;
+        WheelTimer next;
+        WheelTimer prev;
+
+        WheelTimer(Runnable action, long intervalNanos) {
+            this.action = action;
+            this.intervalNanos = intervalNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(TIMER_WAITING, TIMER_CANCELLED)) {
+                return false;
+            }
+            _activeCount.decrementAndGet();
+            if (_state.get() != STATE_RELEASED) {
+                _cancelledTimers.add(this);
+            }
+            return true;
+        }
+    }
+
+    /// Doubly linked list of the timers expiring in the same slot of the wheel
+    private static final class Bucket {
+        private WheelTimer _head;
+        private WheelTimer _tail;
+
+        void add(WheelTimer timer) {
+            timer.bucket = this;
+            if (_head == null) {
+                _head = _tail = timer;
+            } else {
+                _tail.next = timer;
+                timer.prev = _tail;
+                _tail = timer;
+            }
+        }
+
+        void remove(WheelTimer timer) {
+            WheelTimer next = timer.next;
+            if (timer.prev != null) {
+                timer.prev.next = next;
+            }
+            if (timer.next != null) {
+                timer.next.prev = timer.prev;
+            }
+            if (timer == _head) {
+                _head = next;
+            }
+            if (timer == _tail) {
+                _tail = timer.prev;
+            }
+            timer.prev = null;
+            timer.next = null;
+            timer.bucket = null;
+        }
+
+        /// Move the timers due in this round to the expired list, count down the others
+        void expire(long now, List<WheelTimer> expired) {
+            WheelTimer timer = _head;
+            while (timer != null) {
+                WheelTimer next = timer.next;
+                if (timer.state.get() != TIMER_WAITING) {
+                    remove(timer);
+                } else if (timer.remainingRounds <= 0 && timer.deadline <= now) {
+                    remove(timer);
+                    expired.add(timer);
+                } else if (timer.remainingRounds > 0) {
+                    timer.remainingRounds--;
+                }
+                timer = next;
+            }
+        }
+    }
+}
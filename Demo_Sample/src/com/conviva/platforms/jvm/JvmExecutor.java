@@ -0,0 +1,113 @@
+package com.conviva.platforms.jvm;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.conviva.utils.ExecutionScope;
+
+/**
+ * Runs the blocking I/O of the JVM platform interfaces on virtual threads, one per task.<br>
+ * A blocked virtual thread only holds a few kilobytes of heap instead of a platform thread
+ * stack, so thousands of sessions can wait on the network at the same time. Tasks started
+ * inside an {@link ExecutionScope} are cancelled when the scope is closed.<br>
+ * Virtual threads are looked up by reflection, as the library is built for older runtimes:
+ * newVirtualThreadExecutor() returns null when the runtime does not have them.
+ */
+public class JvmExecutor implements Executor {
+    private final ExecutorService _executorService;
+
+    private JvmExecutor(ExecutorService executorService) {
+        _executorService = executorService;
+    }
+
+    /**
+     * Builds an executor starting a virtual thread per task.
+     * @return The executor, null if the runtime does not support virtual threads.
+     */
+    public static JvmExecutor newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new JvmExecutor((ExecutorService) factory.invoke(null));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the runtime supports virtual threads.
+     * @return true on Java 21 and later.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Start a task owned by the current {@link ExecutionScope} of the calling thread, if any.
+     * @param task The task to run.
+     * @param onCancelled Run instead of the task when it is cancelled before starting, can be null.
+     * A task cancelled while running is interrupted and must handle it.
+     * @return The running task, already cancelled if the scope is closed or the executor released.
+     */
+    public Future<?> submit(final Runnable task, final Runnable onCancelled) {
+        final ExecutionScope scope = ExecutionScope.current();
+        final AtomicBoolean started = new AtomicBoolean(false);
+        FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                started.set(true);
+                task.run();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                if (scope != null) {
+                    scope.untrack(this);
+                }
+                if (isCancelled() && onCancelled != null && started.compareAndSet(false, true)) {
+                    onCancelled.run();
+                }
+            }
+        };
+        if (scope != null && !scope.track(future)) {
+            future.cancel(false);
+            return future;
+        }
+        try {
+            _executorService.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.cancel(false);
+        }
+        return future;
+    }
+
+    /**
+     * Start a task that belongs to no scope and runs to completion.
+     * @param task The task to run, dropped if the executor is released.
+     */
+    @Override
+    public void execute(Runnable task) {
+        try {
+            _executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Released
+        }
+    }
+
+    /**
+     * Stop accepting tasks. Running tasks complete.
+     */
+    public void release() {
+        _executorService.shutdown();
+    }
+}
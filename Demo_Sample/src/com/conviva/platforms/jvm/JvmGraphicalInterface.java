@@ -0,0 +1,36 @@
+package com.conviva.platforms.jvm;
+
+import com.conviva.api.system.IGraphicalInterface;
+
+/**
+ * Conviva provided helper class which implements {@link IGraphicalInterface} for
+ * headless Java runtimes: there is no screen to turn off nor to hide the player,
+ * so the player is always visible and heartbeats are never held back.
+ */
+public class JvmGraphicalInterface implements IGraphicalInterface {
+
+    @Override
+    public boolean inSleepingMode() {
+        return false;
+    }
+
+    @Override
+    public boolean isVisible() {
+        return true;
+    }
+
+    @Override
+    public boolean traceOverride() {
+        return false;
+    }
+
+    @Override
+    public boolean isDataSaverEnabled() {
+        return false;
+    }
+
+    @Override
+    public void release() {
+        // nothing to release
+    }
+}
@@ -0,0 +1,83 @@
+package com.conviva.platforms.jvm;
+
+import com.conviva.api.Client;
+import com.conviva.api.system.IBytesHttpInterface;
+import com.conviva.api.system.ICallbackInterface;
+import com.conviva.api.system.IHttpInterface;
+import com.conviva.platforms.http.HTTPTask;
+import com.conviva.platforms.http.HTTPTaskPool;
+
+/**
+ * Conviva provided helper class which implements {@link IHttpInterface} for
+ * plain Java runtimes. Requests are served by a bounded {@link HTTPTaskPool}
+ * reusing keep-alive connections, so the number of threads and sockets does
+ * not grow with the number of sessions.<br>
+ * Alternatively each request runs on its own virtual thread of a {@link JvmExecutor},
+ * and is cancelled with the {@link com.conviva.utils.ExecutionScope} of its session.
+ */
+public class JvmHttpInterface implements IBytesHttpInterface {
+    private HTTPTaskPool _taskPool = null;
+    private JvmExecutor _executor = null;
+    private String _userAgent = null;
+
+    public JvmHttpInterface() {
+        this(HTTPTaskPool.DEFAULT_MAX_WORKERS, HTTPTaskPool.DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param maxWorkers Maximum number of concurrent requests.
+     * @param maxPending Maximum number of requests waiting for a worker.
+     */
+    public JvmHttpInterface(int maxWorkers, int maxPending) {
+        _taskPool = new HTTPTaskPool(maxWorkers, maxPending);
+        _userAgent = "Conviva/" + Client.version + " Java/" + System.getProperty("java.version");
+    }
+
+    /**
+     * @param executor Executor running each request on a virtual thread, not released with this interface.
+     */
+    public JvmHttpInterface(JvmExecutor executor) {
+        _executor = executor;
+        _userAgent = "Conviva/" + Client.version + " Java/" + System.getProperty("java.version");
+    }
+
+    @Override
+    public void makeRequest(String httpMethod, String url, String data,
+                            String contentType, int timeoutMs, ICallbackInterface callback) {
+        HTTPTask httpTask = new HTTPTask();
+        httpTask.setState(httpMethod, url, data, contentType, timeoutMs, callback);
+        httpTask.setUserAgent(_userAgent);
+        execute(httpTask);
+    }
+
+    @Override
+    public void makeRequest(String httpMethod, String url, byte[] data, int length,
+                            String contentType, String contentEncoding,
+                            int timeoutMs, ICallbackInterface callback) {
+        HTTPTask httpTask = new HTTPTask();
+        httpTask.setState(httpMethod, url, data, length, contentType, contentEncoding, timeoutMs, callback);
+        httpTask.setUserAgent(_userAgent);
+        execute(httpTask);
+    }
+
+    @Override
+    public void release() {
+        if (_taskPool != null) {
+            _taskPool.release();
+        }
+        // The executor may be shared, it belongs to the application
+    }
+
+    private void execute(final HTTPTask httpTask) {
+        if (_executor == null) {
+            _taskPool.execute(httpTask);
+            return;
+        }
+        _executor.submit(httpTask, new Runnable() {
+            @Override
+            public void run() {
+                httpTask.reject("http request cancelled");
+            }
+        });
+    }
+}
@@ -0,0 +1,56 @@
+package com.conviva.platforms.jvm;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.conviva.api.SystemSettings.LogLevel;
+import com.conviva.api.system.ILoggingInterface;
+
+/**
+ * Conviva provided helper class which implements {@link ILoggingInterface} for
+ * plain Java runtimes with a named java.util.logging logger.<br>
+ * Applications logging with SLF4J can route these messages to their backend with
+ * the jul-to-slf4j bridge, the level mapping is the one of that bridge:
+ * DEBUG to FINE, INFO to INFO, WARNING to WARNING and ERROR to SEVERE.
+ */
+public class JvmLoggingInterface implements ILoggingInterface {
+    public static final String DEFAULT_LOGGER_NAME = "com.conviva";
+
+    private final Logger _logger;
+
+    public JvmLoggingInterface() {
+        this(DEFAULT_LOGGER_NAME);
+    }
+
+    /**
+     * @param loggerName Name of the java.util.logging logger receiving the messages.
+     */
+    public JvmLoggingInterface(String loggerName) {
+        _logger = Logger.getLogger(loggerName);
+    }
+
+    @Override
+    public void consoleLog(String message, LogLevel logLevel) {
+        Level level = toLevel(logLevel);
+        if (level != null && _logger.isLoggable(level)) {
+            _logger.log(level, message);
+        }
+    }
+
+    @Override
+    public void release() {
+        // nothing to release
+    }
+
+    private static Level toLevel(LogLevel logLevel) {
+        if (logLevel == LogLevel.DEBUG)
+            return Level.FINE;
+        else if (logLevel == LogLevel.INFO)
+            return Level.INFO;
+        else if (logLevel == LogLevel.WARNING)
+            return Level.WARNING;
+        else if (logLevel == LogLevel.ERROR)
+            return Level.SEVERE;
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+package com.conviva.platforms.jvm;
+
+import com.conviva.api.Client.DeviceType;
+import com.conviva.api.system.IMetadataInterface;
+
+/**
+ * Conviva provided helper class which implements {@link IMetadataInterface} for
+ * plain Java runtimes, from the system properties of the JVM.<br>
+ * The device type and the framework are given by the application, for instance
+ * the player emulated by a load generator.
+ */
+public class JvmMetadataInterface implements IMetadataInterface {
+    private final DeviceType _deviceType;
+    private final String _frameworkName;
+    private final String _frameworkVersion;
+
+    public JvmMetadataInterface() {
+        this(DeviceType.DESKTOP, null, null);
+    }
+
+    /**
+     * @param deviceType The device type reported.
+     * @param frameworkName Name of the player framework, can be null.
+     * @param frameworkVersion Version of the player framework, can be null.
+     */
+    public JvmMetadataInterface(DeviceType deviceType, String frameworkName, String frameworkVersion) {
+        _deviceType = deviceType != null ? deviceType : DeviceType.UNKNOWN;
+        _frameworkName = frameworkName;
+        _frameworkVersion = frameworkVersion;
+    }
+
+    @Override
+    public String getAndroidBuildModel() {
+        return null;
+    }
+
+    @Override
+    public DeviceType getDeviceType() {
+        return _deviceType;
+    }
+
+    @Override
+    public String getDeviceVersion() {
+        return System.getProperty("os.arch");
+    }
+
+    @Override
+    public String getDeviceModel() {
+        return System.getProperty("java.vm.name");
+    }
+
+    @Override
+    public String getDeviceManufacturer() {
+        return System.getProperty("java.vendor");
+    }
+
+    @Override
+    public String getDeviceBrand() {
+        return System.getProperty("os.name");
+    }
+
+    @Override
+    public String getOperatingSystemVersion() {
+        return System.getProperty("os.name") + " " + System.getProperty("os.version");
+    }
+
+    @Override
+    public String getFrameworkName() {
+        return _frameworkName;
+    }
+
+    @Override
+    public String getFrameworkVersion() {
+        return _frameworkVersion;
+    }
+
+    @Override
+    public void release() {
+        // nothing to release
+    }
+}
@@ -0,0 +1,227 @@
+package com.conviva.platforms.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.conviva.api.system.ICallbackInterface;
+import com.conviva.api.system.IStorageInterface;
+
+/**
+ * Conviva provided helper class which implements {@link IStorageInterface} for
+ * plain Java runtimes with one file per storage key.<br>
+ * Files are named after the storage space and key, escaped to be valid on any file
+ * system, in a directory given by the application. Data is written to a temporary
+ * file which then replaces the previous one, so a crash never leaves a partial value.
+ * Calls are synchronous and complete before returning, unless a {@link JvmExecutor} is
+ * given: the file I/O then runs on virtual threads, in call order, and the callbacks are
+ * called from there.
+ */
+public class JvmStorageInterface implements IStorageInterface {
+    private static final String CHARSET = "UTF-8";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File _directory;
+    private final JvmExecutor _executor;
+    // Operations waiting for the executor, run one at a time in call order
+    private final Queue<Runnable> _pending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean _draining = new AtomicBoolean(false);
+    private final Runnable _drain = new Runnable() {
+        @Override
+        public void run() {
+            Runnable operation;
+            while ((operation = _pending.poll()) != null) {
+                try {
+                    operation.run();
+                } catch (RuntimeException e) {
+                    // Thrown by a callback, keep serving the next operations
+                }
+            }
+            _draining.set(false);
+            if (!_pending.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    };
+
+    /**
+     * @param directory Directory of the storage files, created if needed.
+     */
+    public JvmStorageInterface(File directory) {
+        this(directory, null);
+    }
+
+    /**
+     * @param directory Directory of the storage files, created if needed.
+     * @param executor Executor running the file I/O on virtual threads, null to run it on the calling thread.
+     */
+    public JvmStorageInterface(File directory, JvmExecutor executor) {
+        _directory = directory;
+        _executor = executor;
+    }
+
+    @Override
+    public void saveData(final String storageSpace, final String storageKey, final String data,
+                         final ICallbackInterface callback) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                save(storageSpace, storageKey, data, callback);
+            }
+        });
+    }
+
+    @Override
+    public void loadData(final String storageSpace, final String storageKey,
+                         final ICallbackInterface callback) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                load(storageSpace, storageKey, callback);
+            }
+        });
+    }
+
+    @Override
+    public void deleteData(final String storageSpace, final String storageKey,
+                           final ICallbackInterface callback) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                delete(storageSpace, storageKey, callback);
+            }
+        });
+    }
+
+    @Override
+    public void release() {
+        // nothing to release
+    }
+
+    private void run(Runnable operation) {
+        if (_executor == null) {
+            operation.run();
+            return;
+        }
+        _pending.add(operation);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (_draining.compareAndSet(false, true)) {
+            // Not bound to the scope of the caller: writes always complete
+            _executor.execute(_drain);
+        }
+    }
+
+    private synchronized void save(String storageSpace, String storageKey, String data,
+                                   ICallbackInterface callback) {
+        if (data == null) {
+            delete(storageSpace, storageKey, callback);
+            return;
+        }
+        File file = getFile(storageSpace, storageKey);
+        File temporaryFile = new File(file.getPath() + TEMPORARY_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            if (!_directory.isDirectory() && !_directory.mkdirs()) {
+                callback.done(false, "Failed to create " + _directory);
+                return;
+            }
+            out = new FileOutputStream(temporaryFile);
+            out.write(data.getBytes(CHARSET));
+            out.getFD().sync();
+            out.close();
+            out = null;
+            // renameTo does not replace an existing file on every platform
+            if (!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file))) {
+                callback.done(false, "Failed to write data");
+                return;
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            temporaryFile.delete();
+            callback.done(false, e.toString());
+            return;
+        }
+        callback.done(true, data);
+    }
+
+    private synchronized void load(String storageSpace, String storageKey,
+                                   ICallbackInterface callback) {
+        File file = getFile(storageSpace, storageKey);
+        if (!file.exists()) {
+            // Not an error, this happens the first time
+            callback.done(true, null);
+            return;
+        }
+        InputStream in = null;
+        String data;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, count);
+            }
+            data = bytes.toString(CHARSET);
+        } catch (IOException e) {
+            callback.done(false, e.toString());
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+        callback.done(true, data);
+    }
+
+    private synchronized void delete(String storageSpace, String storageKey,
+                                     ICallbackInterface callback) {
+        File file = getFile(storageSpace, storageKey);
+        if (file.exists() && !file.delete()) {
+            callback.done(false, "Failed to delete data");
+            return;
+        }
+        callback.done(true, null);
+    }
+
+    private File getFile(String storageSpace, String storageKey) {
+        return new File(_directory, escape(storageSpace) + "." + escape(storageKey));
+    }
+
+    /// Letters, digits and '-' are kept, any other character is written as _XXXX
+    private static String escape(String name) {
+        StringBuilder escaped = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-') {
+                escaped.append(c);
+            } else {
+                escaped.append('_');
+                String hex = Integer.toHexString(c);
+                for (int pad = hex.length(); pad < 4; pad++) {
+                    escaped.append('0');
+                }
+                escaped.append(hex);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do
+            }
+        }
+    }
+}
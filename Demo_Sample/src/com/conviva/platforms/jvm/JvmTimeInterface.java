@@ -0,0 +1,30 @@
+package com.conviva.platforms.jvm;
+
+import com.conviva.api.system.ITimeInterface;
+
+/**
+ * Conviva provided helper class which implements {@link ITimeInterface} for
+ * plain Java runtimes.<br>
+ * The epoch time is read once and then advanced with {@link System#nanoTime()},
+ * so durations measured by the library are monotonic and unaffected by wall
+ * clock adjustments, and reading the time does not allocate.
+ */
+public class JvmTimeInterface implements ITimeInterface {
+    private final long _startEpochMs;
+    private final long _startNanos;
+
+    public JvmTimeInterface() {
+        _startEpochMs = System.currentTimeMillis();
+        _startNanos = System.nanoTime();
+    }
+
+    @Override
+    public double getEpochTimeMs() {
+        return _startEpochMs + (System.nanoTime() - _startNanos) / 1e6;
+    }
+
+    @Override
+    public void release() {
+        // Nothing to do
+    }
+}
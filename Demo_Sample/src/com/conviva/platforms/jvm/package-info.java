@@ -0,0 +1,5 @@
+/**
+ * Contains implementation of System interfaces for plain Java (non Android)
+ * runtimes.
+ */
+package com.conviva.platforms.jvm;
@@ -0,0 +1,177 @@
+package com.conviva.platforms.spool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.conviva.api.system.ISpoolInterface;
+
+/**
+ * Conviva provided helper class which implements {@link ISpoolInterface} with a
+ * single memory-mapped segment file of fixed size.<br>
+ * Records are appended after the newest one. When the end of the file is reached,
+ * live records are moved back to the start, and the oldest ones are dropped if
+ * there is still not enough room. Only uses java.nio, so it runs on Android too.
+ */
+public class MappedFileSpoolInterface implements ISpoolInterface {
+    /// Default size of the segment file, in bytes.
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private static final int MAGIC = 0x43565350; // "CVSP"
+    // magic, head, tail, count
+    private static final int HEADER_SIZE = 16;
+    // length, timestamp
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private RandomAccessFile _file = null;
+    private MappedByteBuffer _buffer = null;
+    private int _capacity;
+    private int _head = HEADER_SIZE;
+    private int _tail = HEADER_SIZE;
+    private int _count = 0;
+    private long _droppedCount = 0;
+
+    /**
+     * Opens the spool file, records left by a previous run are kept.
+     * @param file The segment file, created if needed.
+     * @param capacity Size of the segment file, in bytes.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    public MappedFileSpoolInterface(File file, int capacity) throws IOException {
+        _capacity = capacity > HEADER_SIZE + RECORD_HEADER_SIZE ? capacity : DEFAULT_CAPACITY;
+        _file = new RandomAccessFile(file, "rw");
+        try {
+            if (_file.length() != _capacity) {
+                _file.setLength(_capacity);
+            }
+            _buffer = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _capacity);
+        } catch (IOException e) {
+            _file.close();
+            throw e;
+        }
+
+        int head = _buffer.getInt(4);
+        int tail = _buffer.getInt(8);
+        int count = _buffer.getInt(12);
+        if (_buffer.getInt(0) == MAGIC && head >= HEADER_SIZE && head <= tail
+                && tail <= _capacity && count >= 0) {
+            _head = head;
+            _tail = tail;
+            _count = count;
+        } else {
+            // New or corrupted file, start empty
+            _buffer.putInt(0, MAGIC);
+            writeHeader();
+        }
+    }
+
+    @Override
+    public synchronized boolean append(byte[] data, int length, long timestampMs) {
+        int recordSize = RECORD_HEADER_SIZE + length;
+        if (_buffer == null || recordSize > _capacity - HEADER_SIZE) {
+            return false;
+        }
+        while (_tail + recordSize > _capacity) {
+            if (_head > HEADER_SIZE) {
+                compact();
+            } else {
+                dropOldest();
+            }
+        }
+        _buffer.putInt(_tail, length);
+        _buffer.putLong(_tail + 4, timestampMs);
+        _buffer.position(_tail + RECORD_HEADER_SIZE);
+        _buffer.put(data, 0, length);
+        _tail += recordSize;
+        _count++;
+        writeHeader();
+        return true;
+    }
+
+    @Override
+    public synchronized byte[] peek() {
+        if (_buffer == null || _count == 0) {
+            return null;
+        }
+        byte[] data = new byte[_buffer.getInt(_head)];
+        _buffer.position(_head + RECORD_HEADER_SIZE);
+        _buffer.get(data);
+        return data;
+    }
+
+    @Override
+    public synchronized long peekTimestamp() {
+        if (_buffer == null || _count == 0) {
+            return -1;
+        }
+        return _buffer.getLong(_head + 4);
+    }
+
+    @Override
+    public synchronized void remove() {
+        if (_buffer == null || _count == 0) {
+            return;
+        }
+        _head += RECORD_HEADER_SIZE + _buffer.getInt(_head);
+        _count--;
+        if (_count == 0) {
+            _head = HEADER_SIZE;
+            _tail = HEADER_SIZE;
+        }
+        writeHeader();
+    }
+
+    @Override
+    public synchronized int count() {
+        return _count;
+    }
+
+    /**
+     * Number of records dropped because the spool was full.
+     * @return The number of dropped records since the spool was opened.
+     */
+    public synchronized long getDroppedCount() {
+        return _droppedCount;
+    }
+
+    @Override
+    public synchronized void release() {
+        if (_buffer != null) {
+            _buffer.force();
+            _buffer = null;
+        }
+        if (_file != null) {
+            try {
+                _file.close();
+            } catch (IOException e) {
+            }
+            _file = null;
+        }
+    }
+
+    private void dropOldest() {
+        remove();
+        _droppedCount++;
+    }
+
+    /// Move live records to the start of the segment
+    private void compact() {
+        int size = _tail - _head;
+        byte[] live = new byte[size];
+        _buffer.position(_head);
+        _buffer.get(live);
+        _buffer.position(HEADER_SIZE);
+        _buffer.put(live);
+        _head = HEADER_SIZE;
+        _tail = HEADER_SIZE + size;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        _buffer.putInt(4, _head);
+        _buffer.putInt(8, _tail);
+        _buffer.putInt(12, _count);
+    }
+}
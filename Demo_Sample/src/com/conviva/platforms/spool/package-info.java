@@ -0,0 +1,5 @@
+/**
+ * Contains the file backed spool shared by the Android and plain Java
+ * implementations of the System interfaces.
+ */
+package com.conviva.platforms.spool;
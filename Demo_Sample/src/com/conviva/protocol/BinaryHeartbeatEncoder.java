@@ -0,0 +1,364 @@
+package com.conviva.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+
+import com.conviva.json.IJsonWritable;
+import com.conviva.json.IJsonWriter;
+
+/**
+ * Encodes the heartbeats of one session in the compact binary format.<br>
+ * <br>
+ * Heartbeat := 'C' 'H' version:u8 keyCount:varint (keyId:varint keyLength:varint utf8)* value<br>
+ * value := tag:u8 payload, integers are zigzag varints, doubles are 8 bytes big endian.<br>
+ * <br>
+ * Map keys are interned: each key gets an id and is defined in the key table of
+ * every heartbeat until one of them is acknowledged, afterwards only its id is sent.
+ * Platform metadata ("pm") is handled the same way as a whole, once acknowledged
+ * it is replaced by a reference until it changes.<br>
+ * Heartbeats that fail are simply not committed, so the definitions they carried
+ * are sent again with the next heartbeat.<br>
+ * The output buffer is reused by the next heartbeat once the request using it is released.
+ */
+public class BinaryHeartbeatEncoder {
+    public static final int TAG_NULL = 0;
+    public static final int TAG_FALSE = 1;
+    public static final int TAG_TRUE = 2;
+    public static final int TAG_INT = 3;
+    public static final int TAG_DOUBLE = 4;
+    public static final int TAG_STRING = 5;
+    public static final int TAG_MAP = 6;
+    public static final int TAG_LIST = 7;
+    /// Integral double sent as a varint
+    public static final int TAG_DOUBLE_INT = 8;
+    /// Platform metadata map with its id: id:varint map
+    public static final int TAG_PM_DEF = 9;
+    /// Platform metadata already acknowledged: id:varint
+    public static final int TAG_PM_REF = 10;
+    /// Value serialized as JSON text by a JSONAware object
+    public static final int TAG_JSON = 11;
+
+    private static final String PLATFORM_METADATA_KEY = "pm";
+    private static final double MAX_EXACT_DOUBLE = 9007199254740992.0; // 2^53
+
+    private List<String> _keys = new ArrayList<String>();
+    private Map<String, Integer> _keyIds = new HashMap<String, Integer>();
+    private int _ackedKeyCount = 0;
+
+    private Object _lastPlatformMetadata = null;
+    private int _lastPlatformMetadataId = 0;
+    private int _ackedPlatformMetadataId = 0;
+
+    private ByteSink _body = new ByteSink();
+    // Output buffer, null while a request is using it
+    private ByteSink _idleOut = new ByteSink();
+    private IJsonWriter _bodyWriter = new BodyWriter();
+
+    /**
+     * The bytes of an encoded heartbeat, with what it defines for the session.
+     */
+    public static class EncodedHeartbeat {
+        /// Backing buffer, only the first length bytes are part of the heartbeat
+        public final byte[] data;
+        public final int length;
+        private final ByteSink _out;
+        private final int _keyCount;
+        private final int _platformMetadataId;
+
+        private EncodedHeartbeat(ByteSink out, int keyCount, int platformMetadataId) {
+            this.data = out._buffer;
+            this.length = out._length;
+            _out = out;
+            _keyCount = keyCount;
+            _platformMetadataId = platformMetadataId;
+        }
+    }
+
+    /**
+     * Encode a heartbeat.
+     * @param heartbeat The heartbeat map, as built for JSON.
+     * @return The encoded heartbeat, to be passed to commit() once acknowledged
+     * and to release() once its request is done.
+     */
+    public synchronized EncodedHeartbeat encode(Map<String, Object> heartbeat) {
+        _body.reset();
+        int platformMetadataId = 0;
+
+        // Body first, it interns the keys the key table must define
+        _body.writeByte(TAG_MAP);
+        _body.writeVarint(heartbeat.size());
+        for (Map.Entry<String, Object> entry : heartbeat.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            writeKey(key);
+            if (PLATFORM_METADATA_KEY.equals(key) && entry.getValue() instanceof Map) {
+                platformMetadataId = writePlatformMetadata(entry.getValue());
+            } else {
+                writeValue(entry.getValue());
+            }
+        }
+
+        // Reuse the buffer of the previous heartbeat unless its request is still in flight
+        ByteSink out = _idleOut;
+        _idleOut = null;
+        if (out == null) {
+            out = new ByteSink();
+        }
+        out.reset();
+        out.writeByte('C');
+        out.writeByte('H');
+        out.writeByte(Protocol.BINARY_HEARTBEAT_VERSION);
+        int keyCount = _keys.size();
+        out.writeVarint(keyCount - _ackedKeyCount);
+        for (int id = _ackedKeyCount; id < keyCount; id++) {
+            out.writeVarint(id);
+            out.writeString(_keys.get(id));
+        }
+        out.write(_body);
+        return new EncodedHeartbeat(out, keyCount, platformMetadataId);
+    }
+
+    /**
+     * Give back the buffer of a heartbeat whose request is done, succeeded or not.
+     * @param heartbeat A heartbeat returned by encode(), its data must not be used afterwards.
+     */
+    public synchronized void release(EncodedHeartbeat heartbeat) {
+        _idleOut = heartbeat._out;
+    }
+
+    /**
+     * Mark the definitions sent with a heartbeat as known by the server.
+     * @param heartbeat A heartbeat that got a successful response.
+     */
+    public synchronized void commit(EncodedHeartbeat heartbeat) {
+        if (heartbeat._keyCount > _ackedKeyCount) {
+            _ackedKeyCount = heartbeat._keyCount;
+        }
+        if (heartbeat._platformMetadataId > _ackedPlatformMetadataId) {
+            _ackedPlatformMetadataId = heartbeat._platformMetadataId;
+        }
+    }
+
+    private int writePlatformMetadata(Object platformMetadata) {
+        if (!platformMetadata.equals(_lastPlatformMetadata)) {
+            _lastPlatformMetadata = platformMetadata;
+            _lastPlatformMetadataId++;
+        }
+        if (_lastPlatformMetadataId == _ackedPlatformMetadataId) {
+            _body.writeByte(TAG_PM_REF);
+            _body.writeVarint(_lastPlatformMetadataId);
+            return 0;
+        }
+        _body.writeByte(TAG_PM_DEF);
+        _body.writeVarint(_lastPlatformMetadataId);
+        writeValue(platformMetadata);
+        return _lastPlatformMetadataId;
+    }
+
+    private void writeKey(String key) {
+        Integer id = _keyIds.get(key);
+        if (id == null) {
+            id = _keys.size();
+            _keys.add(key);
+            _keyIds.put(key, id);
+        }
+        _body.writeVarint(id);
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            _body.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            _body.writeByte(TAG_STRING);
+            _body.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            _body.writeByte(TAG_INT);
+            _body.writeSignedVarint(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            _body.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof IJsonWritable) {
+            ((IJsonWritable) value).writeJson(_bodyWriter);
+        } else if (value instanceof JSONAware) {
+            _body.writeByte(TAG_JSON);
+            _body.writeString(((JSONAware) value).toJSONString());
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            _body.writeByte(TAG_MAP);
+            _body.writeVarint(map.size());
+            Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<?, ?> entry = it.next();
+                writeKey(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            _body.writeByte(TAG_LIST);
+            _body.writeVarint(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                writeValue(list.get(i));
+            }
+        } else {
+            _body.writeByte(TAG_STRING);
+            _body.writeString(value.toString());
+        }
+    }
+
+    private void writeDouble(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            // Same as JSON
+            _body.writeByte(TAG_NULL);
+        } else if (d == Math.rint(d) && Math.abs(d) < MAX_EXACT_DOUBLE) {
+            // Timestamps and most durations are integral
+            _body.writeByte(TAG_DOUBLE_INT);
+            _body.writeSignedVarint((long) d);
+        } else {
+            _body.writeByte(TAG_DOUBLE);
+            _body.writeLong(Double.doubleToLongBits(d));
+        }
+    }
+
+    /// Writes typed objects to the body with the same tags and interned keys as maps
+    private class BodyWriter implements IJsonWriter {
+        @Override
+        public void beginObject(int fieldCount) {
+            _body.writeByte(TAG_MAP);
+            _body.writeVarint(fieldCount);
+        }
+
+        @Override
+        public void name(String name) {
+            writeKey(name);
+        }
+
+        @Override
+        public void value(long value) {
+            _body.writeByte(TAG_INT);
+            _body.writeSignedVarint(value);
+        }
+
+        @Override
+        public void value(boolean value) {
+            _body.writeByte(value ? TAG_TRUE : TAG_FALSE);
+        }
+
+        @Override
+        public void value(String value) {
+            if (value == null) {
+                _body.writeByte(TAG_NULL);
+            } else {
+                _body.writeByte(TAG_STRING);
+                _body.writeString(value);
+            }
+        }
+
+        @Override
+        public void endObject() {
+        }
+    }
+
+    /// Growable byte array, reused between heartbeats
+    private static class ByteSink {
+        private byte[] _buffer = new byte[512];
+        private int _length = 0;
+
+        void reset() {
+            _length = 0;
+        }
+
+        void write(ByteSink other) {
+            ensureCapacity(other._length);
+            System.arraycopy(other._buffer, 0, _buffer, _length, other._length);
+            _length += other._length;
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            _buffer[_length++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                _buffer[_length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            _buffer[_length++] = (byte) value;
+        }
+
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                _buffer[_length++] = (byte) (value >>> shift);
+            }
+        }
+
+        /// Length prefixed UTF-8, unpaired surrogates are replaced by '?'
+        void writeString(String s) {
+            int length = s.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char ch = s.charAt(i);
+                if (ch < 0x80) {
+                    utf8Length += 1;
+                } else if (ch < 0x800) {
+                    utf8Length += 2;
+                } else if (isSurrogatePair(s, i)) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+                    utf8Length += 1;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+            writeVarint(utf8Length);
+            ensureCapacity(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char ch = s.charAt(i);
+                if (ch < 0x80) {
+                    _buffer[_length++] = (byte) ch;
+                } else if (ch < 0x800) {
+                    _buffer[_length++] = (byte) (0xC0 | (ch >> 6));
+                    _buffer[_length++] = (byte) (0x80 | (ch & 0x3F));
+                } else if (isSurrogatePair(s, i)) {
+                    int cp = Character.toCodePoint(ch, s.charAt(++i));
+                    _buffer[_length++] = (byte) (0xF0 | (cp >> 18));
+                    _buffer[_length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    _buffer[_length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    _buffer[_length++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isHighSurrogate(ch) || Character.isLowSurrogate(ch)) {
+                    _buffer[_length++] = '?';
+                } else {
+                    _buffer[_length++] = (byte) (0xE0 | (ch >> 12));
+                    _buffer[_length++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                    _buffer[_length++] = (byte) (0x80 | (ch & 0x3F));
+                }
+            }
+        }
+
+        private static boolean isSurrogatePair(String s, int i) {
+            return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1));
+        }
+
+        private void ensureCapacity(int extra) {
+            if (_length + extra > _buffer.length) {
+                byte[] buffer = new byte[Math.max(_buffer.length * 2, _length + extra)];
+                System.arraycopy(_buffer, 0, buffer, 0, _length);
+                _buffer = buffer;
+            }
+        }
+    }
+}
@@ -14,6 +14,14 @@ public class Protocol {
 	public static String version = "2.4";
 
 	public static String  gatewayPath = "/0/wsg"; 
+	// Envelope type and key of heartbeats posted together, see HeartbeatBatcher
+	public static String  BATCH_HEARTBEAT_TYPE = "CwsSessionHbBatch";
+	public static String  BATCH_HEARTBEAT_KEY = "hbs";
+	// Content type and format version of heartbeats posted in binary, see BinaryHeartbeatEncoder
+	public static String  BINARY_HEARTBEAT_CONTENT_TYPE = "application/vnd.conviva.hb";
+	public static final int BINARY_HEARTBEAT_VERSION = 1;
+	public static String  DELTA_HEARTBEAT_KEY = "dlt";
+	public static String  FULL_HEARTBEAT_REQUEST_KEY = "fhb";
 	public static String  DEFAULT_CLIENT_ID = "0";
 	public static String BACKEND_RESPONSE_NO_ERRORS = "ok";
 	public static String SDK_METADATA_SCHEMA = "sdk.android.1";
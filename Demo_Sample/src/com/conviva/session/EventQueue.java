@@ -4,19 +4,38 @@ package com.conviva.session;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.conviva.utils.RingBuffer;
 
 /**
- * Stores arriving events in a queue to send them together.
+ * Stores arriving events in a queue to send them together.<br>
+ * Events can be enqueued from any thread without locking. When more events
+ * arrive between two heartbeats than the queue can hold, the oldest ones are dropped.
  */
 public class EventQueue {
-    private List<Map<String, Object>> _events = null;
-    private int _nextSeqNumber = 0;
+    /// Default maximum number of events kept between two heartbeats
+    public static final int DEFAULT_CAPACITY = 512;
+    /// Number of recycled EventRecords kept for reuse
+    private static final int RECORD_POOL_SIZE = 64;
+
+    // Either maps or EventRecords
+    private RingBuffer<Object> _events = null;
+    private AtomicReferenceArray<EventRecord> _recordPool = new AtomicReferenceArray<EventRecord>(RECORD_POOL_SIZE);
 
     /**
      * Create an event queue
      */
     public EventQueue() {
-        _events = new ArrayList<Map<String, Object>>();
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an event queue
+     * @param capacity maximum number of events kept between two flushes
+     */
+    public EventQueue(int capacity) {
+        _events = new RingBuffer<Object>(capacity);
     }
 
     /**
@@ -27,11 +46,87 @@ public class EventQueue {
      */
     public void enqueueEvent(String type, Map<String, Object> data,
             int timeSinceSessionStart) {
-        data.put("t", type);
-        data.put("st", timeSinceSessionStart);
-        data.put("seq", _nextSeqNumber);
-        _nextSeqNumber++;
-        _events.add(data);
+        // The position in the ring orders the events, use it as sequence number
+        long seqNumber = _events.claim();
+        try {
+            data.put("t", type);
+            data.put("st", timeSinceSessionStart);
+            data.put("seq", (int) seqNumber);
+        } finally {
+            // Even if the data could not be filled, a claimed position left unpublished would stall the queue
+            _events.publish(seqNumber, data);
+        }
+    }
+
+    /**
+     * Append a typed event into the queue
+     * @param type event type
+     * @param record Event data, obtained with obtainRecord()
+     * @param timeSinceSessionStart time since session started.
+     */
+    public void enqueueEvent(String type, EventRecord record,
+            int timeSinceSessionStart) {
+        long seqNumber = _events.claim();
+        try {
+            record.setQueueInfo(type, timeSinceSessionStart, (int) seqNumber);
+        } finally {
+            _events.publish(seqNumber, record);
+        }
+    }
+
+    /**
+     * Take an EventRecord from the pool, or create one if the pool is empty.
+     * Lock free, can be called from any thread.
+     * @return A cleared EventRecord
+     */
+    public EventRecord obtainRecord() {
+        for (int i = 0; i < RECORD_POOL_SIZE; i++) {
+            if (_recordPool.get(i) != null) {
+                EventRecord record = _recordPool.getAndSet(i, null);
+                if (record != null) {
+                    return record;
+                }
+            }
+        }
+        return new EventRecord();
+    }
+
+    /**
+     * Give back the EventRecords of flushed events once they are encoded.
+     * Maps are ignored. Records must not be used afterwards.
+     * @param events Events returned by flushEvents()
+     */
+    public void recycle(List<?> events) {
+        int slot = 0;
+        for (int e = 0; e < events.size(); e++) {
+            if (!(events.get(e) instanceof EventRecord)) {
+                continue;
+            }
+            slot = offer((EventRecord) events.get(e), slot);
+            if (slot == RECORD_POOL_SIZE) {
+                // Pool is full, leave the rest to the GC
+                return;
+            }
+        }
+    }
+
+    /**
+     * Give back an EventRecord obtained with obtainRecord() but not enqueued.
+     * The record must not be used afterwards.
+     * @param record Unused record
+     */
+    public void recycle(EventRecord record) {
+        offer(record, 0);
+    }
+
+    /// @brief Put a cleared record in the first free slot of the pool from slot on
+    /// \return The slot taken, RECORD_POOL_SIZE if the pool is full
+    private int offer(EventRecord record, int slot) {
+        record.reset();
+        while (slot < RECORD_POOL_SIZE && !_recordPool.compareAndSet(slot, null, record)) {
+            slot++;
+        }
+        return slot;
     }
 
     /**
@@ -42,13 +137,22 @@ public class EventQueue {
         return _events.size();
     }
 
+    /**
+     *  Returns number of events dropped because the queue was full
+     * @return number of dropped events since the queue was created
+     */
+    public long getDroppedCount() {
+        return _events.getDroppedCount();
+    }
+
     /**
      * Return all the events currently queued, and empty out the queue
-     * @return List of all queued events
+     * Must not be called concurrently.
+     * @return List of all queued events, maps or EventRecords
      */
-    public List<Map<String, Object>> flushEvents() {
-        List<Map<String, Object>> currentEvents = _events;
-        _events = new ArrayList<Map<String, Object>>();
+    public List<Object> flushEvents() {
+        List<Object> currentEvents = new ArrayList<Object>(_events.size());
+        _events.drain(currentEvents);
         return currentEvents;
     }
 }
@@ -0,0 +1,273 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.util.Arrays;
+
+import org.json.simple.JSONAware;
+
+import com.conviva.json.IJsonWritable;
+import com.conviva.json.IJsonWriter;
+import com.conviva.json.Utf8JsonWriter;
+
+/**
+ * A state change, seek or error event with primitive fields.<br>
+ * Records are obtained from and recycled to the {@link EventQueue} of the session,
+ * and written directly by the heartbeat encoder instead of being built as maps.
+ * A state change may carry several keys, which are then reported in a single event.
+ */
+public class EventRecord implements IJsonWritable, JSONAware {
+    static final int KIND_STATE_CHANGE = 0;
+    static final int KIND_SEEK = 1;
+    static final int KIND_ERROR = 2;
+
+    private static final int VALUE_NONE = 0;
+    private static final int VALUE_INT = 1;
+    private static final int VALUE_STRING = 2;
+    private static final int VALUE_BOOLEAN = 3;
+
+    /// Keys of a state change before the arrays grow, enough for a player update
+    private static final int INITIAL_STATE_CAPACITY = 6;
+
+    private int _kind = KIND_STATE_CHANGE;
+    private String _type = null;
+    private int _sessionTimeMs = 0;
+    private int _seq = 0;
+
+    private boolean _hasPlayerPosition = false;
+    private int _bufferLengthMs = 0;
+    private long _playheadTimeMs = 0;
+
+    // KIND_STATE_CHANGE, one entry per key, kept with the record when it is recycled
+    private int _stateCount = 0;
+    private String[] _stateKeys = new String[INITIAL_STATE_CAPACITY];
+    private int[] _oldValueTypes = new int[INITIAL_STATE_CAPACITY];
+    private long[] _oldLongs = new long[INITIAL_STATE_CAPACITY];
+    private String[] _oldStrings = new String[INITIAL_STATE_CAPACITY];
+    private int[] _newValueTypes = new int[INITIAL_STATE_CAPACITY];
+    private long[] _newLongs = new long[INITIAL_STATE_CAPACITY];
+    private String[] _newStrings = new String[INITIAL_STATE_CAPACITY];
+
+    // KIND_SEEK
+    private String _seekAction = null;
+    private boolean _hasSeekTo = false;
+    private int _seekToMs = 0;
+
+    // KIND_ERROR
+    private boolean _fatal = false;
+    private String _errorCode = null;
+
+    /// @brief Clear all the fields before going back to the pool
+    void reset() {
+        _type = null;
+        _hasPlayerPosition = false;
+        for (int i = 0; i < _stateCount; i++) {
+            _stateKeys[i] = null;
+            _oldStrings[i] = null;
+            _newStrings[i] = null;
+        }
+        _stateCount = 0;
+        _seekAction = null;
+        _hasSeekTo = false;
+        _errorCode = null;
+    }
+
+    /// @brief Fields added by the EventQueue
+    void setQueueInfo(String type, int sessionTimeMs, int seq) {
+        _type = type;
+        _sessionTimeMs = sessionTimeMs;
+        _seq = seq;
+    }
+
+    String getType() {
+        return _type;
+    }
+
+    void setPlayerPosition(int bufferLengthMs, long playheadTimeMs) {
+        _hasPlayerPosition = true;
+        _bufferLengthMs = bufferLengthMs;
+        _playheadTimeMs = playheadTimeMs;
+    }
+
+    /// @brief A state change of an integer field
+    /// \param hasOldState false when the old state is unknown, it is then omitted
+    void setStateChange(String key, boolean hasOldState, long oldState, long newState) {
+        _stateCount = 0;
+        addStateChange(key, hasOldState, oldState, newState);
+    }
+
+    /// @brief A state change of a string field, a null old state is omitted
+    void setStateChange(String key, String oldState, String newState) {
+        _stateCount = 0;
+        addStateChange(key, oldState, newState);
+    }
+
+    /// @brief A state change of a boolean field
+    void setStateChange(String key, boolean oldState, boolean newState) {
+        _stateCount = 0;
+        addStateChange(key, oldState, newState);
+    }
+
+    /// @brief Add an integer field to the state change
+    /// \param hasOldState false when the old state is unknown, it is then omitted
+    void addStateChange(String key, boolean hasOldState, long oldState, long newState) {
+        int i = addStateKey(key);
+        _oldValueTypes[i] = hasOldState ? VALUE_INT : VALUE_NONE;
+        _oldLongs[i] = oldState;
+        _newValueTypes[i] = VALUE_INT;
+        _newLongs[i] = newState;
+    }
+
+    /// @brief Add a string field to the state change, a null old state is omitted
+    void addStateChange(String key, String oldState, String newState) {
+        int i = addStateKey(key);
+        _oldValueTypes[i] = oldState != null ? VALUE_STRING : VALUE_NONE;
+        _oldStrings[i] = oldState;
+        _newValueTypes[i] = VALUE_STRING;
+        _newStrings[i] = newState;
+    }
+
+    /// @brief Add a boolean field to the state change
+    void addStateChange(String key, boolean oldState, boolean newState) {
+        int i = addStateKey(key);
+        _oldValueTypes[i] = VALUE_BOOLEAN;
+        _oldLongs[i] = oldState ? 1 : 0;
+        _newValueTypes[i] = VALUE_BOOLEAN;
+        _newLongs[i] = newState ? 1 : 0;
+    }
+
+    /// @brief Number of keys in the state change
+    int getStateCount() {
+        return _stateCount;
+    }
+
+    /// \return The index of the new key
+    private int addStateKey(String key) {
+        _kind = KIND_STATE_CHANGE;
+        if (_stateCount == _stateKeys.length) {
+            int capacity = _stateCount * 2;
+            _stateKeys = Arrays.copyOf(_stateKeys, capacity);
+            _oldStrings = Arrays.copyOf(_oldStrings, capacity);
+            _newStrings = Arrays.copyOf(_newStrings, capacity);
+            _oldValueTypes = Arrays.copyOf(_oldValueTypes, capacity);
+            _newValueTypes = Arrays.copyOf(_newValueTypes, capacity);
+            _oldLongs = Arrays.copyOf(_oldLongs, capacity);
+            _newLongs = Arrays.copyOf(_newLongs, capacity);
+        }
+        _stateKeys[_stateCount] = key;
+        return _stateCount++;
+    }
+
+    /// \param hasSeekTo false when the seek position is not reported
+    void setSeek(String action, boolean hasSeekTo, int seekToMs) {
+        _kind = KIND_SEEK;
+        _seekAction = action;
+        _hasSeekTo = hasSeekTo;
+        _seekToMs = seekToMs;
+    }
+
+    void setError(boolean fatal, String errorCode) {
+        _kind = KIND_ERROR;
+        _fatal = fatal;
+        _errorCode = errorCode;
+    }
+
+    @Override
+    public void writeJson(IJsonWriter writer) {
+        int fieldCount = 3; // t, st, seq
+        if (_hasPlayerPosition) {
+            fieldCount += 2;
+        }
+        switch (_kind) {
+        case KIND_STATE_CHANGE:
+            fieldCount += countOldStates() > 0 ? 2 : 1;
+            break;
+        case KIND_SEEK:
+            fieldCount += _hasSeekTo ? 2 : 1;
+            break;
+        default:
+            fieldCount += 2;
+            break;
+        }
+
+        writer.beginObject(fieldCount);
+        writer.name("t");
+        writer.value(_type);
+        writer.name("st");
+        writer.value(_sessionTimeMs);
+        writer.name("seq");
+        writer.value(_seq);
+        if (_hasPlayerPosition) {
+            writer.name("bl");
+            writer.value(_bufferLengthMs);
+            writer.name("pht");
+            writer.value(_playheadTimeMs);
+        }
+        switch (_kind) {
+        case KIND_STATE_CHANGE:
+            int oldCount = countOldStates();
+            if (oldCount > 0) {
+                writer.name("old");
+                writer.beginObject(oldCount);
+                for (int i = 0; i < _stateCount; i++) {
+                    if (_oldValueTypes[i] != VALUE_NONE) {
+                        writeState(writer, i, _oldValueTypes[i], _oldLongs[i], _oldStrings[i]);
+                    }
+                }
+                writer.endObject();
+            }
+            writer.name("new");
+            writer.beginObject(_stateCount);
+            for (int i = 0; i < _stateCount; i++) {
+                writeState(writer, i, _newValueTypes[i], _newLongs[i], _newStrings[i]);
+            }
+            writer.endObject();
+            break;
+        case KIND_SEEK:
+            writer.name("act");
+            writer.value(_seekAction);
+            if (_hasSeekTo) {
+                writer.name("skto");
+                writer.value(_seekToMs);
+            }
+            break;
+        default:
+            writer.name("ft");
+            writer.value(_fatal);
+            writer.name("err");
+            writer.value(_errorCode);
+            break;
+        }
+        writer.endObject();
+    }
+
+    /// Number of keys with a known old state
+    private int countOldStates() {
+        int count = 0;
+        for (int i = 0; i < _stateCount; i++) {
+            if (_oldValueTypes[i] != VALUE_NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /// Writes key: value of the old or new map, like the maps of CwsStateChangeEvent
+    private void writeState(IJsonWriter writer, int index, int valueType, long longValue, String stringValue) {
+        writer.name(_stateKeys[index]);
+        if (valueType == VALUE_INT) {
+            writer.value(longValue);
+        } else if (valueType == VALUE_BOOLEAN) {
+            writer.value(longValue != 0);
+        } else {
+            writer.value(stringValue);
+        }
+    }
+
+    /// Used when the heartbeat is encoded by a JSON library
+    @Override
+    public String toJSONString() {
+        Utf8JsonWriter writer = new Utf8JsonWriter(256);
+        writeJson(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,55 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.util.Map;
+
+/**
+ * Rendered frame rates observed while playing, reported with each heartbeat.<br>
+ * Not thread safe: a Monitor confined to the shard of its session uses it as is,
+ * other Monitors use {@link Synchronized}.
+ */
+class FrameRateTotals {
+    // Number of times the framerate has been checked while in playing state.
+    private int _count = 0;
+    // Total of all playing FPS observations
+    private long _total = 0;
+
+    void add(int fps) {
+        _total += fps;
+        _count++;
+    }
+
+    /// Average of the observations, -1 without any positive total
+    int getAverage() {
+        if (_total > 0 && _count > 0) {
+            return (int) _total / _count;
+        }
+        return -1;
+    }
+
+    /// Add the rfpscnt and rfpstot totals to a heartbeat, if any
+    void putInto(Map<String, Object> heartbeat) {
+        if (_count > 0 && _total > 0) {
+            heartbeat.put("rfpscnt", _count);
+            heartbeat.put("rfpstot", _total);
+        }
+    }
+
+    /// Totals updated by the player thread and read by the heartbeat timer
+    static final class Synchronized extends FrameRateTotals {
+        @Override
+        synchronized void add(int fps) {
+            super.add(fps);
+        }
+
+        @Override
+        synchronized int getAverage() {
+            return super.getAverage();
+        }
+
+        @Override
+        synchronized void putInto(Map<String, Object> heartbeat) {
+            super.putInto(heartbeat);
+        }
+    }
+}
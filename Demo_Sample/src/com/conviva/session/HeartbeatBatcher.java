@@ -0,0 +1,264 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.conviva.api.ClientSettings;
+import com.conviva.api.SystemFactory;
+import com.conviva.api.system.ICallbackInterface;
+import com.conviva.json.IJsonInterface;
+import com.conviva.protocol.Protocol;
+import com.conviva.utils.CommandLoop;
+import com.conviva.utils.HeartbeatSpool;
+import com.conviva.utils.HttpClient;
+import com.conviva.utils.Logger;
+import com.conviva.utils.Timer;
+
+/**
+ * Sends the heartbeats of all the sessions of a client on a single timer,
+ * in one request per heartbeat interval.<br>
+ * Responses are expected to hold one heartbeat response per session in the
+ * same envelope, they are dispatched back to each session.<br>
+ * When sessions are sharded, the heartbeats of the sessions of a shard are built
+ * on that shard, and the responses are processed there, so that the sessions stay
+ * confined to their shard. Only the batch itself is encoded on the batcher timer.
+ */
+public class HeartbeatBatcher {
+    private ClientSettings _clientSettings;
+    private Timer _timer;
+    private IJsonInterface _jsonInterface;
+    private HttpClient _httpClient;
+    // Compression state of the batches
+    private HttpClient.Sender _httpSender;
+    private Logger _logger;
+    private HeartbeatSpool _heartbeatSpool;
+
+    private List<Session> _sessions = new CopyOnWriteArrayList<Session>();
+    private HeartbeatScheduler _batchScheduler;
+    private int _intervalSec = -1;
+
+    /**
+     * @param heartbeatSpool Keeps the batches that failed to be posted, can be null.
+     */
+    public HeartbeatBatcher(ClientSettings clientSettings, SystemFactory systemFactory, HeartbeatSpool heartbeatSpool) {
+        _clientSettings = clientSettings;
+        _heartbeatSpool = heartbeatSpool;
+        _timer = systemFactory.buildTimer();
+        _jsonInterface = systemFactory.buildJsonInterface();
+        _httpClient = systemFactory.buildHttpClient();
+        _httpSender = _httpClient.buildSender();
+        _logger = systemFactory.buildLogger();
+        _logger.setModuleName("HeartbeatBatcher");
+        _batchScheduler = new HeartbeatScheduler(new HeartbeatScheduler.Target() {
+            @Override
+            public void sendHeartbeat() {
+                sendBatch();
+            }
+
+            @Override
+            public HeartbeatScheduler.Activity getHeartbeatActivity() {
+                return getBatchActivity();
+            }
+        }, _timer, _clientSettings, "sendHeartbeatBatch");
+    }
+
+    /// @brief Include a session in the next batches
+    ///
+    /// Also reschedules the batch timer when the heartbeat interval changed.
+    public synchronized void add(Session session) {
+        if (!_sessions.contains(session)) {
+            _sessions.add(session);
+        }
+        if (!_batchScheduler.isRunning() || _intervalSec != _clientSettings.heartbeatInterval) {
+            _intervalSec = _clientSettings.heartbeatInterval;
+            _batchScheduler.start();
+        }
+    }
+
+    /// @brief Stop including a session in the batches
+    public synchronized void remove(Session session) {
+        _sessions.remove(session);
+    }
+
+    /// @brief Stop sending batches
+    public synchronized void cleanup() {
+        _batchScheduler.stop();
+        _sessions.clear();
+        _httpSender.release();
+    }
+
+    /// @brief Outcome of a heartbeat or batch post, failures make the next batches back off
+    void onPostResult(boolean succeeded) {
+        _batchScheduler.onPostResult(succeeded);
+    }
+
+    /// The busiest session sets the pace, the batch is idle only when all the sessions are
+    private HeartbeatScheduler.Activity getBatchActivity() {
+        boolean idle = !_sessions.isEmpty();
+        boolean churning = false;
+        for (Session session : _sessions) {
+            HeartbeatScheduler.Activity activity = session.getHeartbeatActivity();
+            churning |= activity == HeartbeatScheduler.Activity.CHURNING;
+            idle &= activity == HeartbeatScheduler.Activity.IDLE;
+        }
+        if (churning) {
+            return HeartbeatScheduler.Activity.CHURNING;
+        }
+        return idle ? HeartbeatScheduler.Activity.IDLE : HeartbeatScheduler.Activity.STEADY;
+    }
+
+    private void sendBatch() {
+        final List<Session> senders = new ArrayList<Session>();
+        final List<Map<String, Object>> heartbeats = new ArrayList<Map<String, Object>>();
+        Map<CommandLoop, List<Session>> shardSessions = null;
+        for (Session session : _sessions) {
+            CommandLoop shard = session.getShard();
+            if (shard == null) {
+                prepareHeartbeat(session, senders, heartbeats);
+                continue;
+            }
+            if (shardSessions == null) {
+                shardSessions = new LinkedHashMap<CommandLoop, List<Session>>();
+            }
+            List<Session> sessions = shardSessions.get(shard);
+            if (sessions == null) {
+                sessions = new ArrayList<Session>();
+                shardSessions.put(shard, sessions);
+            }
+            sessions.add(session);
+        }
+        if (shardSessions != null) {
+            for (Map.Entry<CommandLoop, List<Session>> entry : shardSessions.entrySet()) {
+                final List<Session> sessions = entry.getValue();
+                // One shard at a time, each one appends to the lists once the previous one is done.
+                // A stopped shard has no session left to send.
+                entry.getKey().postAndWait(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Session session : sessions) {
+                            prepareHeartbeat(session, senders, heartbeats);
+                        }
+                    }
+                });
+            }
+        }
+
+        if (heartbeats.isEmpty()) {
+            return;
+        }
+        if (heartbeats.size() == 1) {
+            // Nothing to batch, keep the regular heartbeat format
+            final Session session = senders.get(0);
+            final Map<String, Object> heartbeat = heartbeats.get(0);
+            session.runOnShard(new Runnable() {
+                @Override
+                public void run() {
+                    session.encodeAndPostHeartbeat(heartbeat);
+                }
+            });
+            return;
+        }
+
+        // Deltas depend on the heartbeats acknowledged by the server, only full heartbeats are spooled
+        boolean spool = true;
+        for (Map<String, Object> heartbeat : heartbeats) {
+            spool &= !heartbeat.containsKey(Protocol.DELTA_HEARTBEAT_KEY);
+        }
+
+        Map<String, Object> batch = new HashMap<String, Object>();
+        batch.put("t", Protocol.BATCH_HEARTBEAT_TYPE);
+        batch.put(Protocol.BATCH_HEARTBEAT_KEY, heartbeats);
+        String jsonBatch = _jsonInterface.encode(batch);
+        for (int i = 0; i < senders.size(); i++) {
+            senders.get(i).releaseHeartbeat(heartbeats.get(i));
+        }
+        byte[] utf8Batch = null;
+        try {
+            utf8Batch = jsonBatch != null ? jsonBatch.getBytes("UTF-8") : null;
+        } catch (UnsupportedEncodingException e) {
+        }
+        if (utf8Batch == null) {
+            _logger.error("JSON encode error for heartbeat batch");
+            return;
+        }
+
+        String url = _clientSettings.gatewayUrl + Protocol.gatewayPath;
+        _logger.info("Send HB batch for " + senders.size() + " sessions");
+        final byte[] spoolData = spool ? utf8Batch : null;
+        _httpClient.request("POST", url, utf8Batch, utf8Batch.length, "application/json", _httpSender,
+                new ICallbackInterface() {
+                    @Override
+                    public void done(boolean succeeded, String data) {
+                        onPostResult(succeeded);
+                        if (_heartbeatSpool != null) {
+                            if (succeeded) {
+                                _heartbeatSpool.onGatewayReachable();
+                            } else if (spoolData != null && HeartbeatSpool.isRetryable(data)) {
+                                _heartbeatSpool.add(spoolData, spoolData.length);
+                            }
+                        }
+                        onBatchResponse(senders, succeeded, data);
+                    }
+                });
+    }
+
+    private static void prepareHeartbeat(Session session, List<Session> senders, List<Map<String, Object>> heartbeats) {
+        Map<String, Object> heartbeat = session.prepareHeartbeat();
+        if (heartbeat != null) {
+            senders.add(session);
+            heartbeats.add(heartbeat);
+        }
+    }
+
+    private void onBatchResponse(List<Session> senders, boolean success, String jsonResponse) {
+        List<?> responses = null;
+        if (success) {
+            Map<String, Object> decodedResponse = _jsonInterface.decode(jsonResponse);
+            if (decodedResponse != null && decodedResponse.get(Protocol.BATCH_HEARTBEAT_KEY) instanceof List) {
+                responses = (List<?>) decodedResponse.get(Protocol.BATCH_HEARTBEAT_KEY);
+            } else {
+                _logger.warning("onBatchResponse(): no heartbeat responses in batch response");
+            }
+        }
+
+        for (int i = 0; i < senders.size(); i++) {
+            final Session session = senders.get(i);
+            final boolean sessionSuccess = responses != null || success;
+            final Map<String, Object> response = responses != null ? findResponse(responses, session, i) : null;
+            session.runOnShard(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        session.onHeartbeatResponse(sessionSuccess, response);
+                    } catch (Exception e) {
+                        _logger.error("Exception in onBatchResponse for session " + session.getSessionId() + ": " + e.toString());
+                    }
+                }
+            });
+        }
+    }
+
+    /// Match a response to its session by session id, fallback to the position in the batch
+    // The responses are JSON objects, decoded with String keys
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> findResponse(List<?> responses, Session session, int position) {
+        for (Object response : responses) {
+            if (response instanceof Map) {
+                Object sid = ((Map<?, ?>) response).get("sid");
+                if (sid != null && sid.toString().equals(String.valueOf(session.getSessionId()))) {
+                    return (Map<String, Object>) response;
+                }
+            }
+        }
+        if (position < responses.size() && responses.get(position) instanceof Map) {
+            return (Map<String, Object>) responses.get(position);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.conviva.protocol.Protocol;
+
+/**
+ * Reduces the heartbeats of a session to the fields that changed since the last
+ * heartbeat acknowledged by the Conviva platform.<br>
+ * A delta heartbeat holds "dlt": {"base": seq of the acknowledged heartbeat, "rm": removed fields}
+ * and only the fields whose value differs from the acknowledged heartbeat, plus the fields
+ * sent in every heartbeat. Full heartbeats are sent until one is acknowledged, and again
+ * after requestFullHeartbeat().<br>
+ * Snapshots only keep the diffed fields, events are never retained.
+ */
+class HeartbeatDelta {
+    /// Fields sent in every heartbeat, never diffed nor kept in snapshots
+    private static final String[] ALWAYS_SENT = {
+        "t", "evs", "cid", "clid", "sid", "seq", "st", "sst", "iid", "lg", "lgd", "evd", "caps"
+    };
+    /// Maximum number of heartbeats waiting for an acknowledgement
+    private static final int MAX_PENDING = 8;
+
+    private Map<String, Object> _acked = null;
+    private long _ackedSeq = -1;
+    private final Map<Long, Map<String, Object>> _pending = new LinkedHashMap<Long, Map<String, Object>>();
+
+    /// @brief Remove the unchanged fields of a heartbeat about to be sent
+    /// \param seq Sequence number of the heartbeat
+    synchronized void apply(Map<String, Object> heartbeat, long seq) {
+        Map<String, Object> snapshot = new HashMap<String, Object>(heartbeat);
+        for (String key : ALWAYS_SENT) {
+            snapshot.remove(key);
+        }
+        if (_pending.size() >= MAX_PENDING) {
+            Iterator<Long> oldest = _pending.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        _pending.put(seq, snapshot);
+
+        if (_acked == null) {
+            // Full heartbeat
+            return;
+        }
+        for (Map.Entry<String, Object> field : snapshot.entrySet()) {
+            Object ackedValue = _acked.get(field.getKey());
+            if (ackedValue != null && ackedValue.equals(field.getValue())) {
+                heartbeat.remove(field.getKey());
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String key : _acked.keySet()) {
+            if (!snapshot.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        Map<String, Object> delta = new HashMap<String, Object>();
+        delta.put("base", _ackedSeq);
+        if (!removed.isEmpty()) {
+            delta.put("rm", removed);
+        }
+        heartbeat.put(Protocol.DELTA_HEARTBEAT_KEY, delta);
+    }
+
+    /// @brief The heartbeat with this sequence number was received, it becomes the base of the next deltas
+    synchronized void onAcknowledged(long seq) {
+        if (seq <= _ackedSeq) {
+            return;
+        }
+        Map<String, Object> snapshot = _pending.get(seq);
+        if (snapshot != null) {
+            _acked = snapshot;
+            _ackedSeq = seq;
+        }
+        Iterator<Long> iterator = _pending.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() <= seq) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /// @brief Send a full heartbeat next, deltas resume once it is acknowledged
+    synchronized void requestFullHeartbeat() {
+        _acked = null;
+        _ackedSeq = -1;
+        _pending.clear();
+    }
+}
@@ -0,0 +1,176 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.util.Random;
+
+import com.conviva.api.ClientSettings;
+import com.conviva.api.system.ICancelTimer;
+import com.conviva.utils.Timer;
+
+/**
+ * Schedules the heartbeats of a session, or of a batch of sessions, with chained one-shot timers.<br>
+ * Every interval can be randomized by the jitter of the ClientSettings, so that sessions started
+ * or reconfigured at the same time drift apart instead of posting in bursts. After failed
+ * posts the interval backs off exponentially, starting with the heartbeat after the failed one. With adaptive heartbeats, the interval is
+ * shortened while the player state keeps changing and lengthened while nothing is watched.
+ */
+public class HeartbeatScheduler {
+    /// @brief How busy the monitored player is, sampled before scheduling each heartbeat
+    public static enum Activity {
+        /// Paused, stopped or not visible, with no pending event
+        IDLE,
+        STEADY,
+        /// At least CHURN_STATE_CHANGES state changes since the previous heartbeat
+        CHURNING,
+    };
+
+    /// @brief What a scheduler sends heartbeats for
+    interface Target {
+        void sendHeartbeat();
+        Activity getHeartbeatActivity();
+    }
+
+    /// Number of state changes in an interval considered as churn
+    static final int CHURN_STATE_CHANGES = 3;
+    private static final double CHURNING_FACTOR = 0.5;
+    private static final double IDLE_FACTOR = 2.0;
+    /// Adaptive heartbeats never go below this interval
+    private static final long MIN_ADAPTIVE_INTERVAL_MS = 5 * 1000;
+    private static final int MAX_BACKOFF_SHIFT = 4;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    private final Target _target;
+    private final Timer _timer;
+    private final ClientSettings _clientSettings;
+    private final String _actionName;
+    private final Random _random = new Random();
+
+    private ICancelTimer _nextTimer = null;
+    // Incremented on every start/stop so that a timer firing concurrently is not chained
+    private int _generation = 0;
+    private boolean _running = false;
+    private int _consecutiveFailures = 0;
+    private long _lastDelayMs = 0;
+    // Set when a heartbeat was sent, until its outcome reschedules the next one
+    private boolean _awaitingResult = false;
+    private long _sentNanos = 0;
+    private Activity _sentActivity = Activity.STEADY;
+
+    HeartbeatScheduler(Target target, Timer timer, ClientSettings clientSettings, String actionName) {
+        _target = target;
+        _timer = timer;
+        _clientSettings = clientSettings;
+        _actionName = actionName;
+    }
+
+    /// @brief Schedule the next heartbeat one interval from now, replacing the pending one
+    ///
+    /// Also used when the heartbeat interval changed.
+    public synchronized void start() {
+        cancelTimer();
+        _running = true;
+        _awaitingResult = false;
+        _generation++;
+        scheduleNext(computeDelayMs(Activity.STEADY));
+    }
+
+    /// @brief Cancel the pending heartbeat
+    public synchronized void stop() {
+        _running = false;
+        _awaitingResult = false;
+        _generation++;
+        cancelTimer();
+    }
+
+    public synchronized boolean isRunning() {
+        return _running;
+    }
+
+    /// @brief Outcome of a heartbeat post, failures make the next intervals back off
+    ///
+    /// The heartbeat following the one sent last is rescheduled with the new backoff,
+    /// still counted from the time that one was sent.
+    public synchronized void onPostResult(boolean succeeded) {
+        if (succeeded) {
+            _consecutiveFailures = 0;
+        } else if (_consecutiveFailures < MAX_BACKOFF_SHIFT) {
+            _consecutiveFailures++;
+        }
+        if (!_awaitingResult || !_running) {
+            return;
+        }
+        _awaitingResult = false;
+        cancelTimer();
+        // A pending timer firing concurrently must not send a heartbeat as well
+        _generation++;
+        long elapsedMs = (System.nanoTime() - _sentNanos) / 1000000;
+        scheduleNext(Math.max(computeDelayMs(_sentActivity) - elapsedMs, 1));
+    }
+
+    /// @brief Delay used for the pending heartbeat, in milliseconds
+    public synchronized long getLastDelayMs() {
+        return _lastDelayMs;
+    }
+
+    private void cancelTimer() {
+        if (_nextTimer != null) {
+            _nextTimer.cancel();
+            _nextTimer = null;
+        }
+    }
+
+    private void scheduleNext(long delayMs) {
+        _lastDelayMs = delayMs;
+        final int generation = _generation;
+        _nextTimer = _timer.createOneShot(new Runnable() {
+            @Override
+            public void run() {
+                onTimer(generation);
+            }
+        }, (int) delayMs, _actionName);
+    }
+
+    private void onTimer(int generation) {
+        synchronized (this) {
+            if (!_running || generation != _generation) {
+                return;
+            }
+            _nextTimer = null;
+            _awaitingResult = false;
+            _sentNanos = System.nanoTime();
+        }
+        try {
+            _target.sendHeartbeat();
+        } finally {
+            Activity activity = _clientSettings.adaptiveHeartbeat ? _target.getHeartbeatActivity() : Activity.STEADY;
+            synchronized (this) {
+                if (_running && generation == _generation) {
+                    // Replaced by onPostResult() once the outcome of the heartbeat is known,
+                    // kept when no heartbeat was posted or its outcome never comes
+                    _awaitingResult = true;
+                    _sentActivity = activity;
+                    scheduleNext(computeDelayMs(activity));
+                }
+            }
+        }
+    }
+
+    private long computeDelayMs(Activity activity) {
+        long intervalMs = _clientSettings.heartbeatInterval * 1000L;
+        long delayMs = intervalMs;
+        if (_consecutiveFailures > 0) {
+            // Backing off takes precedence over the activity of the player
+            delayMs = Math.max(intervalMs, Math.min(intervalMs << _consecutiveFailures, MAX_BACKOFF_MS));
+        } else if (activity == Activity.CHURNING) {
+            delayMs = Math.max((long) (intervalMs * CHURNING_FACTOR), Math.min(intervalMs, MIN_ADAPTIVE_INTERVAL_MS));
+        } else if (activity == Activity.IDLE) {
+            delayMs = (long) (intervalMs * IDLE_FACTOR);
+        }
+        int jitterPercent = _clientSettings.heartbeatJitterPercent;
+        if (jitterPercent > 0) {
+            double maxJitterMs = delayMs * jitterPercent / 100.0;
+            delayMs += (long) ((_random.nextDouble() * 2 - 1) * maxJitterMs);
+        }
+        return Math.max(delayMs, 1);
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import com.conviva.session.Monitor.InternalPlayerState;
+
+/**
+ * Interface exposing batched player changes to the Monitor.<br>
+ * Optional for an IMonitorNotifier: the changes of a notifier not implementing it
+ * are signaled through the separate setters.
+ */
+public interface IBatchMonitorNotifier {
+    /// Fields of updatePlayerState(), combined in changedFields
+    int UPDATE_PLAYER_STATE = 1;
+    int UPDATE_BITRATE = 1 << 1;
+    int UPDATE_VIDEO_WIDTH = 1 << 2;
+    int UPDATE_VIDEO_HEIGHT = 1 << 3;
+    int UPDATE_CDN_SERVER_IP = 1 << 4;
+
+    /**
+     * Signal several changes at once, reported in a single state change event.
+     * @param changedFields UPDATE_* flags of the values to apply, the other values are ignored.
+     * @param newState to be set on a state change event.
+     * @param bitrateKbps bitrate to be set for the playback.
+     * @param videoWidth width of the video.
+     * @param videoHeight height of the video.
+     * @param cdnServerIp Updated CDN server IP.
+     */
+    void updatePlayerState(int changedFields, InternalPlayerState newState, int bitrateKbps,
+                           int videoWidth, int videoHeight, String cdnServerIp);
+}
@@ -5,11 +5,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.conviva.api.Client;
 import com.conviva.utils.Lang;
 import com.conviva.api.ConvivaException;
 import com.conviva.api.system.IGraphicalInterface;
+import com.conviva.api.system.INetworkInterface;
 import com.conviva.internal.StreamerError;
 import com.conviva.api.ContentMetadata;
 import com.conviva.api.Client.AdPlayer;
@@ -17,16 +19,19 @@ import com.conviva.api.Client.AdPosition;
 import com.conviva.api.Client.AdStream;
 import com.conviva.api.SystemFactory;
 import com.conviva.api.player.PlayerStateManager;
-import com.conviva.platforms.android.AndroidNetworkUtils;
 import com.conviva.protocol.Protocol;
+import com.conviva.utils.CommandLoop;
 import com.conviva.utils.ExceptionCatcher;
 import com.conviva.utils.Logger;
 import com.conviva.utils.Time;
 
 /**
- * This class polls the streamer via a proxy, maintains playing state.
+ * This class polls the streamer via a proxy, maintains playing state.<br>
+ * The player state is published as an immutable {@link State} after each change, which
+ * heartbeats read without locking. The application callbacks (play head time, buffer
+ * length, player type, signal strength) are called without holding any lock.
  */
-public class Monitor implements IMonitorNotifier {
+public class Monitor implements IMonitorNotifier, IBatchMonitorNotifier {
 
     /**
      * InternalPlayerState enum defines the player states internally used by Conviva.
@@ -40,11 +45,39 @@ public class Monitor implements IMonitorNotifier {
         NOT_MONITORED,
     };
 
+    /// @brief The player state sent with heartbeats, as of one change
+    static final class State {
+        /// Increases with every change, tells snapshots apart
+        final long version;
+        final InternalPlayerState playerState;
+        final boolean pauseJoin;
+        final int sessionFlags;
+        final int bitrateKbps;
+        final int videoWidth;
+        final int videoHeight;
+        final String cdnServerIp;
+        final String connectionType;
+        final String linkEncryption;
+
+        State(long version, Monitor monitor) {
+            this.version = version;
+            this.playerState = monitor._playerState;
+            this.pauseJoin = monitor._pauseJoin;
+            this.sessionFlags = monitor._sessionFlags;
+            this.bitrateKbps = monitor._bitrateKbps;
+            this.videoWidth = monitor._videoWidth;
+            this.videoHeight = monitor._videoHeight;
+            this.cdnServerIp = monitor._CDNServerIP;
+            this.connectionType = monitor._connectionType;
+            this.linkEncryption = monitor._linkEncryption;
+        }
+    }
+
 	private Logger _logger;
 	
     private int _sessionId = 0; // Used to identify the session in logs
     // @owner
-    private PlayerStateManager _playerStateManager = null;
+    private volatile PlayerStateManager _playerStateManager = null;
     private EventQueue _eventQueue = null;
     private ContentMetadata _contentMetadata = null;
     private SystemFactory _systemFactory = null;
@@ -91,9 +124,19 @@ public class Monitor implements IMonitorNotifier {
     private String _CDNServerIP = null;
 
     private IGraphicalInterface _graphicalInterface;
+    private INetworkInterface _networkInterface;
     private String _adID = null;
     private int _atiStatus = -999;
-    private final Object mObj = new Object();
+    // Rendered frame rates observed while playing, without lock once confined to a shard
+    private FrameRateTotals _frameRateTotals = new FrameRateTotals.Synchronized();
+    // Latest published state, replaced under _publishLock unless confined to a shard
+    private volatile State _state;
+    private final Object _publishLock = new Object();
+    // State changes since the last call to takeStateChangeCount()
+    private AtomicInteger _stateChangeCount = new AtomicInteger(0);
+    private QoeAggregator _qoeAggregator = null;
+    // Thread of the session when sessions are sharded, null otherwise
+    private CommandLoop _shard = null;
 
     private boolean _autoDurationUpdate = true;
     private boolean _autoFrameRateUpdate = true;
@@ -103,10 +146,6 @@ public class Monitor implements IMonitorNotifier {
     // SSID code is commented as this is a PII item.
     //private String _ssID = null;
 
-    // Number of times the framerate has been checked while in playing state.
-    private int _playingFpsObservationCount = 0;
-    // Total of all playing FPS observations
-    private long _playingFpsTotal = 0;
     private String _oldAssetName = null;
     private String  oldResource = null;
 
@@ -129,8 +168,8 @@ public class Monitor implements IMonitorNotifier {
         _logger.setSessionId(_sessionId);
         _exceptionCatcher = _systemFactory.buildExceptionCatcher();
         _time = _systemFactory.buildTime();
-        _systemFactory.buildTimer();
         _graphicalInterface = _systemFactory.buildGraphicalInterface();
+        _networkInterface = _systemFactory.getNetworkInterface();
 
         if(_contentMetadata.duration > 0)  {
              //Duration provided by customer so disable the automatic detection of duration
@@ -144,6 +183,24 @@ public class Monitor implements IMonitorNotifier {
             // through onMetadata()
             _autoFrameRateUpdate = false;
         }
+        publishState();
+    }
+
+    /// Publish the player state after a change, writers of different threads are serialized here
+    private void publishState() {
+        if (_shard != null) {
+            // The shard is the only writer
+            nextState();
+            return;
+        }
+        synchronized (_publishLock) {
+            nextState();
+        }
+    }
+
+    private void nextState() {
+        State previous = _state;
+        _state = new State(previous != null ? previous.version + 1 : 0, this);
     }
 
     /// @brief Start polling the streamer
@@ -154,6 +211,37 @@ public class Monitor implements IMonitorNotifier {
     	_logger.info("monitor starts");
 
         _startTimeMs = nowMs;
+        if (_qoeAggregator != null) {
+            _qoeAggregator.start(nowMs);
+        }
+    }
+
+    /// @brief Sample the buffer length and bitrate for the QoE summary
+    /// \note Called every POLL_STREAMER_INTERVAL_MS by the session, on its shard
+    void pollStreamer() {
+        QoeAggregator qoeAggregator = _qoeAggregator;
+        if (qoeAggregator == null || !InternalPlayerState.PLAYING.equals(_state.playerState)) {
+            return;
+        }
+        PlayerStateManager playerStateManager = _playerStateManager;
+        if (playerStateManager != null) {
+            qoeAggregator.onPoll(_time.current(), playerStateManager.getBufferLength());
+        }
+    }
+
+    /// @brief Compute the QoE summary sent with each heartbeat
+    /// \param qoeAggregator A QoeAggregator.Synchronized unless the monitor is confined to a shard
+    /// \note Must be called before start()
+    void setQoeAggregator(QoeAggregator qoeAggregator) {
+        _qoeAggregator = qoeAggregator;
+    }
+
+    /// @brief Run the timers and player notifications on the shard of the session
+    /// \note Must be called before start()
+    void setShard(CommandLoop shard) {
+        _shard = shard;
+        // Only used on the shard from now on
+        _frameRateTotals = new FrameRateTotals();
     }
 
     public void setDefaultBitrateAndResource() {
@@ -170,16 +258,10 @@ public class Monitor implements IMonitorNotifier {
     public void setBitrateKbps(int newBitrateKbps) {
         _logger.debug("setBitrateKbps()");
 
-        if (_ignoreBitrateAndResource) {
-            _logger.info("setBitrateKbps(): ignored");
-            return;
-        }
-
         int oldBitrateKbps = _bitrateKbps;
-        if (oldBitrateKbps != newBitrateKbps && newBitrateKbps >= -1) {
-            _logger.info("Change bitrate from " + oldBitrateKbps + " to " + newBitrateKbps);
+        if (applyBitrateKbps(newBitrateKbps)) {
             enqueueBitrateChangeEvent(oldBitrateKbps, newBitrateKbps);
-            _bitrateKbps = newBitrateKbps;
+            publishState();
         }
     }
 
@@ -188,10 +270,9 @@ public class Monitor implements IMonitorNotifier {
         _logger.debug("setVideoWidth()");
 
         int oldVideoWidth = _videoWidth;
-        if (oldVideoWidth != videoWidth && videoWidth >= -1) {
-            _logger.info("Change videoWidth from " + oldVideoWidth + " to " + videoWidth);
+        if (applyVideoWidth(videoWidth)) {
             enqueueVideoWidthChangeEvent(oldVideoWidth, videoWidth);
-            _videoWidth = videoWidth;
+            publishState();
         }
     }
 
@@ -201,10 +282,9 @@ public class Monitor implements IMonitorNotifier {
         _logger.debug("setVideoHeight()");
 
         int oldVideoHeight = _videoHeight;
-        if (oldVideoHeight != videoHeight && videoHeight >= -1) {
-            _logger.info("Change videoHeight from " + oldVideoHeight + " to " + videoHeight);
+        if (applyVideoHeight(videoHeight)) {
             enqueueVideoHeightChangeEvent(oldVideoHeight, videoHeight);
-            _videoHeight = videoHeight;
+            publishState();
         }
     }
 
@@ -212,15 +292,116 @@ public class Monitor implements IMonitorNotifier {
     public void setCDNServerIP(String newCDNServerIp) {
         _logger.debug("setCDNServerIP()");
 
+        String oldCDNServerIp = _CDNServerIP != null ? _CDNServerIP : "";
+        if (applyCDNServerIP(newCDNServerIp)) {
+            enqueueCDNServerIPChangeEvent(oldCDNServerIp, newCDNServerIp);
+            publishState();
+        }
+    }
+
+    /// @brief Apply several player changes, reported in one state change event and published once
+    @Override
+    public void updatePlayerState(int changedFields, InternalPlayerState newState, int bitrateKbps,
+                                  int videoWidth, int videoHeight, String cdnServerIp) {
+        _logger.debug("updatePlayerState()");
+
+        EventRecord record = obtainRecord();
+        if (record == null) {
+            // Cleaned up
+            return;
+        }
+        if ((changedFields & UPDATE_PLAYER_STATE) != 0) {
+            InternalPlayerState oldState = _playerState;
+            if (applyPlayerState(newState)) {
+                record.addStateChange("ps", true, Protocol.convertPlayerState(oldState), Protocol.convertPlayerState(newState));
+            }
+        }
+        if ((changedFields & UPDATE_BITRATE) != 0) {
+            int oldBitrateKbps = _bitrateKbps;
+            if (applyBitrateKbps(bitrateKbps)) {
+                // Unknown old bitrate is omitted
+                record.addStateChange("br", oldBitrateKbps > 0, oldBitrateKbps, bitrateKbps);
+            }
+        }
+        if ((changedFields & UPDATE_VIDEO_WIDTH) != 0) {
+            int oldVideoWidth = _videoWidth;
+            if (applyVideoWidth(videoWidth)) {
+                record.addStateChange("w", true, oldVideoWidth, videoWidth);
+            }
+        }
+        if ((changedFields & UPDATE_VIDEO_HEIGHT) != 0) {
+            int oldVideoHeight = _videoHeight;
+            if (applyVideoHeight(videoHeight)) {
+                record.addStateChange("h", true, oldVideoHeight, videoHeight);
+            }
+        }
+        if ((changedFields & UPDATE_CDN_SERVER_IP) != 0) {
+            String oldCDNServerIp = _CDNServerIP != null ? _CDNServerIP : "";
+            if (applyCDNServerIP(cdnServerIp)) {
+                record.addStateChange("csi", oldCDNServerIp, cdnServerIp);
+            }
+        }
+        if (record.getStateCount() > 0) {
+            publishState();
+            enqueueRecord("CwsStateChangeEvent", record);
+        } else {
+            recycleRecord(record);
+        }
+    }
+
+    /// \return Whether the bitrate changed, the caller reports it
+    private boolean applyBitrateKbps(int newBitrateKbps) {
+        if (_ignoreBitrateAndResource) {
+            _logger.info("setBitrateKbps(): ignored");
+            return false;
+        }
+
+        int oldBitrateKbps = _bitrateKbps;
+        if (oldBitrateKbps == newBitrateKbps || newBitrateKbps < -1) {
+            return false;
+        }
+        _logger.info("Change bitrate from " + oldBitrateKbps + " to " + newBitrateKbps);
+        _bitrateKbps = newBitrateKbps;
+        if (_qoeAggregator != null) {
+            _qoeAggregator.onBitrate(_time.current(), newBitrateKbps);
+        }
+        return true;
+    }
+
+    /// \return Whether the video width changed, the caller reports it
+    private boolean applyVideoWidth(int videoWidth) {
+        int oldVideoWidth = _videoWidth;
+        if (oldVideoWidth == videoWidth || videoWidth < -1) {
+            return false;
+        }
+        _logger.info("Change videoWidth from " + oldVideoWidth + " to " + videoWidth);
+        _videoWidth = videoWidth;
+        return true;
+    }
+
+    /// \return Whether the video height changed, the caller reports it
+    private boolean applyVideoHeight(int videoHeight) {
+        int oldVideoHeight = _videoHeight;
+        if (oldVideoHeight == videoHeight || videoHeight < -1) {
+            return false;
+        }
+        _logger.info("Change videoHeight from " + oldVideoHeight + " to " + videoHeight);
+        _videoHeight = videoHeight;
+        return true;
+    }
+
+    /// \return Whether the CDN server IP changed, the caller reports it
+    private boolean applyCDNServerIP(String newCDNServerIp) {
         String oldCDNServerIp = _CDNServerIP;
         if (oldCDNServerIp == null) {
             oldCDNServerIp = "";
         }
-        if (newCDNServerIp != null && (!oldCDNServerIp.equals(newCDNServerIp))) {
-            _logger.info("Change CDN Server IP from " + oldCDNServerIp + " to " + newCDNServerIp);
-            enqueueCDNServerIPChangeEvent(oldCDNServerIp, newCDNServerIp);
-            _CDNServerIP = newCDNServerIp;
+        if (newCDNServerIp == null || oldCDNServerIp.equals(newCDNServerIp)) {
+            return false;
         }
+        _logger.info("Change CDN Server IP from " + oldCDNServerIp + " to " + newCDNServerIp);
+        _CDNServerIP = newCDNServerIp;
+        return true;
     }
 
     private void setResource(String newResource) {
@@ -251,7 +432,7 @@ public class Monitor implements IMonitorNotifier {
             return;
     	}
         
-    	if (playerStateManager.setMonitoringNotifier(this, _sessionId)) {
+    	if (playerStateManager.setMonitoringNotifier(this, _sessionId, _shard)) {
         	_playerStateManager = playerStateManager;
 	    } else {
 	        _logger.error("attachPlayer(): instance of PlayerStateManager is already attached to a session");
@@ -263,18 +444,18 @@ public class Monitor implements IMonitorNotifier {
     /// Pause monitoring such that it can be restarted later and detach from current player
     public void detachPlayer() throws ConvivaException {
     	_logger.info("detachPlayer()");
-        synchronized (mObj) {
-            if(_playerStateManager != null) {
-                _exceptionCatcher.runProtected(new Callable<Void>() {
-                    @Override
-                    public Void call() throws Exception {
-                        _playerStateManager.removeMonitoringNotifier();
-                        setPlayerState(InternalPlayerState.NOT_MONITORED);
-                        _playerStateManager = null;
-                        return null;
-                    }
-                }, "detachPlayer");
-            }
+        final PlayerStateManager playerStateManager = _playerStateManager;
+        if(playerStateManager != null) {
+            // Not under a lock: the state change event reads the player position from the application
+            _exceptionCatcher.runProtected(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    playerStateManager.removeMonitoringNotifier();
+                    setPlayerState(InternalPlayerState.NOT_MONITORED);
+                    _playerStateManager = null;
+                    return null;
+                }
+            }, "detachPlayer");
         }
     }
     
@@ -386,8 +567,9 @@ public class Monitor implements IMonitorNotifier {
         	_logger.info("TogglePauseJoin(): same value ignoring");
         	return;
         }
-        enqueueStateChange("pj", Boolean.valueOf(_pauseJoin), Boolean.valueOf(paused));
+        enqueueStateChange("pj", _pauseJoin, paused);
         _pauseJoin = paused;        
+        publishState();
 	}
 
     
@@ -396,8 +578,17 @@ public class Monitor implements IMonitorNotifier {
     /// Must be one of the int constants in class PlayerStates
     @Override
     public void setPlayerState(final InternalPlayerState newState) {
+        InternalPlayerState oldState = _playerState;
+        if (applyPlayerState(newState)) {
+            enqueueStateChange("ps", Protocol.convertPlayerState(oldState), Protocol.convertPlayerState(newState));
+            publishState();
+        }
+    }
+
+    /// \return Whether the player state changed, the caller reports it. A join is reported here.
+    private boolean applyPlayerState(InternalPlayerState newState) {
         if (_playerState.equals(newState)) {
-            return;
+            return false;
         }
         
         if (_playerState.equals(InternalPlayerState.NOT_MONITORED) &&
@@ -407,7 +598,7 @@ public class Monitor implements IMonitorNotifier {
 
         if (_ignorePlayerState) {
             _logger.debug("OnPlayerStateChange(): " + newState + " (pooled, " + (_adPlaying ? "ad playing" : "preloading") + ")" );
-            return;
+            return false;
         }        
         _logger.debug("OnPlayerStateChange(): " + newState);
         
@@ -416,66 +607,36 @@ public class Monitor implements IMonitorNotifier {
         	_hasJoined = true;
         	togglePauseJoin(false);
         }
-        enqueueStateChange("ps", Protocol.convertPlayerState(_playerState), Protocol.convertPlayerState(newState));
         _logger.info("SetPlayerState(): changing player state from " + _playerState + " to " + newState);
         _playerState = newState;
+        if (_qoeAggregator != null) {
+            _qoeAggregator.onPlayerState(_time.current(), newState);
+        }
+        return true;
     }
 
     // Reports seek start via CwsSeekEvent.
     @Override
     public void onSeekStart(int seekToPos) {
-        Map<String, Object> data = new HashMap<String, Object>();
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                data.put("bl", _playerStateManager.getBufferLength());
-                data.put("pht", _playerStateManager.getPHT());
-            }
-        }
-        data.put("act","pss");
-        data.put("skto", seekToPos);
-        enqueueEvent("CwsSeekEvent", data);
+        enqueueSeekEvent("pss", true, seekToPos);
     }
 
     // Reports seek end via CwsSeekEvent.
     @Override
     public void onSeekEnd() {
-        Map<String, Object> data = new HashMap<String, Object>();
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                data.put("pht", _playerStateManager.getPHT());
-                data.put("bl", _playerStateManager.getBufferLength());
-            }
-        }
-        data.put("act","pse");
-        enqueueEvent("CwsSeekEvent", data);
+        enqueueSeekEvent("pse", false, 0);
     }
 
     // Reports Seek User Down via CwsSeekEvent
     @Override
     public void onSeekButtonDown() {
-        Map<String, Object> data = new HashMap<String, Object>();
-        data.put("act","bd");
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                data.put("pht", _playerStateManager.getPHT());
-                data.put("bl", _playerStateManager.getBufferLength());
-            }
-        }
-        enqueueEvent("CwsSeekEvent", data);
+        enqueueSeekEvent("bd", false, 0);
     }
 
     // Reports Seek User Up via CwsSeekEvent
     @Override
     public void onSeekButtonUp() {
-        Map<String, Object> data = new HashMap<String, Object>();
-        data.put("act","bu");
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                data.put("pht", _playerStateManager.getPHT());
-                data.put("bl", _playerStateManager.getBufferLength());
-            }
-        }
-        enqueueEvent("CwsSeekEvent", data);
+        enqueueSeekEvent("bu", false, 0);
     }
 
     /// Reports an error and changes via the CwsErrorEvent
@@ -500,16 +661,12 @@ public class Monitor implements IMonitorNotifier {
         	isFatal = true;
         else
         	isFatal = false;
-        Map<String, Object> data = new HashMap<String, Object>();
-        data.put("ft", isFatal);
-        data.put("err", e.getErrorCode().toString());
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                data.put("bl", _playerStateManager.getBufferLength());
-                data.put("pht", _playerStateManager.getPHT());
-            }
+        EventRecord record = obtainRecord();
+        if (record == null) {
+            return;
         }
-        enqueueEvent("CwsErrorEvent", data);
+        record.setError(isFatal, e.getErrorCode().toString());
+        enqueueRecord("CwsErrorEvent", record);
     }
 
     /// @brief Parse the string and return an integer.
@@ -581,17 +738,26 @@ public class Monitor implements IMonitorNotifier {
     }*/
 
 	public void getNetworkMetrics(){
+        if (_networkInterface == null) {
+            return;
+        }
 
-		String newConnectionType = AndroidNetworkUtils.getConnectionType();
+        boolean changed = false;
+		String newConnectionType = _networkInterface.getConnectionType();
         if(newConnectionType!= null && !newConnectionType.equals(_connectionType)){
             enqueueConnectionTypeChangeEvent(_connectionType,newConnectionType);
             _connectionType = newConnectionType;
+            changed = true;
         }
  
-        String newLinkEncryption = AndroidNetworkUtils.getLinkEncryption();
+        String newLinkEncryption = _networkInterface.getLinkEncryption();
         if(newLinkEncryption!= null && !newLinkEncryption.equals(_linkEncryption)){
             enqueueLinkEncryptionChangeEvent(_linkEncryption,newLinkEncryption);
             _linkEncryption = newLinkEncryption;
+            changed = true;
+        }
+        if (changed) {
+            publishState();
         }
 
         // SSID code is commented as this is a PII item.
@@ -603,6 +769,20 @@ public class Monitor implements IMonitorNotifier {
 
     }
 
+
+    /// Read the signal strength, null when there is no network interface to read it from
+    private Integer readSignalStrength() {
+        INetworkInterface networkInterface = _networkInterface;
+        return networkInterface != null ? Integer.valueOf(networkInterface.getSignalStrength()) : null;
+    }
+
+    /// Add the signal strength read by readSignalStrength(), if any
+    private static void putSignalStrength(Map<String, Object> samples, Integer signalStrength) {
+        if (signalStrength != null) {
+            samples.put("ss", signalStrength);
+        }
+    }
+
     public void enqueueDataSamples(HashMap<String, Object> dataSamples) {
         if ((_graphicalInterface != null && (_graphicalInterface.inSleepingMode() || _graphicalInterface.isDataSaverEnabled() || !_graphicalInterface.isVisible()))) {
             return;
@@ -614,9 +794,11 @@ public class Monitor implements IMonitorNotifier {
     /// Update heartbeat with current metrics
     public void updateHeartbeat(Map<String, Object> heartbeat) {
 
-        heartbeat.put("ps", Protocol.convertPlayerState(_playerState));
-        heartbeat.put("pj", _pauseJoin);
-        heartbeat.put("sf", _sessionFlags);
+        // One consistent snapshot of the player state, without locking the writers out
+        State state = _state;
+        heartbeat.put("ps", Protocol.convertPlayerState(state.playerState));
+        heartbeat.put("pj", state.pauseJoin);
+        heartbeat.put("sf", state.sessionFlags);
 
         // Commenting ADID related code.
         /*heartbeat.put("atistatus", _atiStatus);
@@ -626,23 +808,28 @@ public class Monitor implements IMonitorNotifier {
             }
         }*/
 
-        synchronized (mObj) {
-        if (_playerStateManager != null) {
+        // Read once, reported both in the data samples and in the heartbeat
+        Integer signalStrength = readSignalStrength();
+        // Called without a lock, the application may take its own locks here
+        final PlayerStateManager playerStateManager = _playerStateManager;
+        if (playerStateManager != null) {
 
+            long pht = playerStateManager.getPHT();
+            int bufferLength = playerStateManager.getBufferLength();
             HashMap<String, Object> dataSamples = new HashMap<String, Object>();
-            dataSamples.put("pht", _playerStateManager.getPHT());
-            dataSamples.put("bl", _playerStateManager.getBufferLength());
-            dataSamples.put("ss", AndroidNetworkUtils.getSignalStrength());
+            dataSamples.put("pht", pht);
+            dataSamples.put("bl", bufferLength);
+            putSignalStrength(dataSamples, signalStrength);
 
             enqueueDataSamples(dataSamples);
 
-            heartbeat.put("pht", _playerStateManager.getPHT());
-            heartbeat.put("bl", _playerStateManager.getBufferLength());
+            heartbeat.put("pht", pht);
+            heartbeat.put("bl", bufferLength);
 
-            heartbeat.put("ss", AndroidNetworkUtils.getSignalStrength());
+            putSignalStrength(heartbeat, signalStrength);
             // Add implementation information for player interface module
-            String moduleName = _playerStateManager.getModuleName();
-            String moduleVersion = _playerStateManager.getModuleVersion();
+            String moduleName = playerStateManager.getModuleName();
+            String moduleVersion = playerStateManager.getModuleVersion();
 
             Map<String, String> componentConfig = new HashMap<String, String>();
             if (moduleName != null) {
@@ -665,7 +852,7 @@ public class Monitor implements IMonitorNotifier {
 
                         @Override
                         public Void call() throws Exception {
-                            playerType = _playerStateManager.getPlayerType();
+                            playerType = playerStateManager.getPlayerType();
                             return null;
                         }
 
@@ -691,7 +878,7 @@ public class Monitor implements IMonitorNotifier {
 
                         @Override
                         public Void call() throws Exception {
-                            playerVersion = _playerStateManager.getPlayerVersion();
+                            playerVersion = playerStateManager.getPlayerVersion();
                             return null;
                         }
 
@@ -719,19 +906,18 @@ public class Monitor implements IMonitorNotifier {
             HashMap<String, Object> dataSamples = new HashMap<String, Object>();
             dataSamples.put("pht", -1);
             dataSamples.put("bl", -1);
-            dataSamples.put("ss", AndroidNetworkUtils.getSignalStrength());
+            putSignalStrength(dataSamples, signalStrength);
 
             enqueueDataSamples(dataSamples);
-            }
         }
 
         int averageFps = getAverageFrameRate();
         if (averageFps >= 0) {
             heartbeat.put("afps", averageFps);
         }
-        if(_playingFpsObservationCount > 0 && _playingFpsTotal > 0) {
-            heartbeat.put("rfpscnt", _playingFpsObservationCount);
-            heartbeat.put("rfpstot", _playingFpsTotal);
+        _frameRateTotals.putInto(heartbeat);
+        if (_qoeAggregator != null) {
+            _qoeAggregator.updateHeartbeat(_time.current(), heartbeat);
         }
 
         Map<String, String> sanitizedCustomMetadata = new HashMap<String, String>();
@@ -782,22 +968,22 @@ public class Monitor implements IMonitorNotifier {
             heartbeat.put("efps", _contentMetadata.encodedFrameRate);
         }
 
-        if (_bitrateKbps > 0) {
-            heartbeat.put("br", _bitrateKbps); // Not deprecated
+        if (state.bitrateKbps > 0) {
+            heartbeat.put("br", state.bitrateKbps); // Not deprecated
         }
 
-        if (_CDNServerIP != null) {
-            heartbeat.put("csi", _CDNServerIP);
+        if (state.cdnServerIp != null) {
+            heartbeat.put("csi", state.cdnServerIp);
         }
-        if (_videoWidth >= 0 && _videoHeight >= 0) {
-            heartbeat.put("w", _videoWidth);
-            heartbeat.put("h", _videoHeight);
+        if (state.videoWidth >= 0 && state.videoHeight >= 0) {
+            heartbeat.put("w", state.videoWidth);
+            heartbeat.put("h", state.videoHeight);
         }
-        if(_connectionType != null){
-            heartbeat.put("ct", _connectionType);
+        if(state.connectionType != null){
+            heartbeat.put("ct", state.connectionType);
         }
-        if(_linkEncryption != null){
-            heartbeat.put("le", _linkEncryption);
+        if(state.linkEncryption != null){
+            heartbeat.put("le", state.linkEncryption);
         }
 
         // SSID code is commented as this is a PII item.
@@ -810,14 +996,16 @@ public class Monitor implements IMonitorNotifier {
     /// Stops monitoring and resets internal state
     public void cleanup() {
         _logger.info("cleanup()");
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                try {
-                    detachPlayer();
-                } catch (Exception e) {
-                    _logger.error("Exception in cleanup: " + e.toString());
-                    e.printStackTrace();
-                }
+        QoeAggregator qoeAggregator = _qoeAggregator;
+        if (qoeAggregator != null) {
+            qoeAggregator.mergeSketchesInto(_systemFactory.getMetricsRegistry());
+        }
+        if (_playerStateManager != null) {
+            try {
+                detachPlayer();
+            } catch (Exception e) {
+                _logger.error("Exception in cleanup: " + e.toString());
+                e.printStackTrace();
             }
         }
         _eventQueue = null;
@@ -828,35 +1016,100 @@ public class Monitor implements IMonitorNotifier {
     	return (int) (_time.current() - _startTimeMs);
     }
     
+    /// @brief Number of state change events since the previous call, used to adapt the heartbeat interval
+    public int takeStateChangeCount() {
+        return _stateChangeCount.getAndSet(0);
+    }
+
+    /// @brief Whether the player is paused, stopped or not monitored
+    public boolean isIdle() {
+        InternalPlayerState playerState = _state.playerState;
+        return InternalPlayerState.PAUSED.equals(playerState) ||
+                InternalPlayerState.STOPPED.equals(playerState) ||
+                InternalPlayerState.NOT_MONITORED.equals(playerState);
+    }
+
     private void enqueueEvent(String type, Map<String, Object> eventData) {
+        countStateChange(type);
         if (_eventQueue != null) {
             _eventQueue.enqueueEvent(type, eventData,
                    (int)getSessionTime());
         }
     }
 
-    private void enqueueStateChange(String key, Object oldState, Object newState) {
+    /// @brief Take a record from the pool of the session event queue
+    /// \return null once the monitor is cleaned up
+    private EventRecord obtainRecord() {
+        EventQueue eventQueue = _eventQueue;
+        return eventQueue != null ? eventQueue.obtainRecord() : null;
+    }
 
-        HashMap<String, Object> eventData = new HashMap<String, Object>();
+    /// @brief Give back a record obtained with obtainRecord() but not enqueued
+    private void recycleRecord(EventRecord record) {
+        EventQueue eventQueue = _eventQueue;
+        if (eventQueue != null) {
+            eventQueue.recycle(record);
+        }
+    }
 
-        // If old state is not available, ignore
-        if (oldState != null) {
-            HashMap<String, Object> oldStateMap = new HashMap<String, Object>();
-            oldStateMap.put(key, oldState);
-            eventData.put("old", oldStateMap);
+    /// @brief Add the player position and enqueue a typed event
+    private void enqueueRecord(String type, EventRecord record) {
+        PlayerStateManager playerStateManager = _playerStateManager;
+        if (playerStateManager != null) {
+            record.setPlayerPosition(playerStateManager.getBufferLength(), playerStateManager.getPHT());
+        }
+        countStateChange(type);
+        EventQueue eventQueue = _eventQueue;
+        if (eventQueue != null) {
+            eventQueue.enqueueEvent(type, record, getSessionTime());
         }
-        HashMap<String, Object> newStateMap = new HashMap<String, Object>();
-        newStateMap.put(key, newState);
-        eventData.put("new", newStateMap);
+    }
 
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                eventData.put("bl", _playerStateManager.getBufferLength());
-                eventData.put("pht", _playerStateManager.getPHT());
-            }
+    private void countStateChange(String type) {
+        if ("CwsStateChangeEvent".equals(type)) {
+            _stateChangeCount.incrementAndGet();
         }
-        // Enqueue event
-        enqueueEvent("CwsStateChangeEvent", eventData);
+    }
+
+    private void enqueueSeekEvent(String action, boolean hasSeekTo, int seekToPos) {
+        EventRecord record = obtainRecord();
+        if (record == null) {
+            return;
+        }
+        record.setSeek(action, hasSeekTo, seekToPos);
+        enqueueRecord("CwsSeekEvent", record);
+    }
+
+    private void enqueueStateChange(String key, String oldState, String newState) {
+        EventRecord record = obtainRecord();
+        if (record == null) {
+            return;
+        }
+        // If old state is not available, it is omitted
+        record.setStateChange(key, oldState, newState);
+        enqueueRecord("CwsStateChangeEvent", record);
+    }
+
+    private void enqueueStateChange(String key, int oldState, int newState) {
+        enqueueStateChange(key, true, oldState, newState);
+    }
+
+    private void enqueueStateChange(String key, boolean hasOldState, int oldState, int newState) {
+        EventRecord record = obtainRecord();
+        if (record == null) {
+            return;
+        }
+        record.setStateChange(key, hasOldState, oldState, newState);
+        enqueueRecord("CwsStateChangeEvent", record);
+    }
+
+    private void enqueueStateChange(String key, boolean oldState, boolean newState) {
+        EventRecord record = obtainRecord();
+        if (record == null) {
+            return;
+        }
+        record.setStateChange(key, oldState, newState);
+        enqueueRecord("CwsStateChangeEvent", record);
     }
 
     private void enqueueMetadataChangeEvent(Map<String, Object> oldMetadata, Map<String, Object> newMetadata) {
@@ -870,22 +1123,18 @@ public class Monitor implements IMonitorNotifier {
         if(!_oldMetadata.isEmpty())
             eventData.put("old", _oldMetadata);
         eventData.put("new", _newMetadata);
-        synchronized (mObj) {
-            if (_playerStateManager != null) {
-                eventData.put("bl", _playerStateManager.getBufferLength());
-                eventData.put("pht", _playerStateManager.getPHT());
-            }
+        PlayerStateManager playerStateManager = _playerStateManager;
+        if (playerStateManager != null) {
+            eventData.put("bl", playerStateManager.getBufferLength());
+            eventData.put("pht", playerStateManager.getPHT());
         }
 
         enqueueEvent("CwsStateChangeEvent", eventData);
     }
 
     private void enqueueBitrateChangeEvent(int oldBitrateKbps, int newBitrateKbps) {
-        Integer oldValue = null;
-        if (oldBitrateKbps > 0) {
-            oldValue = oldBitrateKbps;
-        }
-        enqueueStateChange("br", oldValue, newBitrateKbps);
+        // Unknown old bitrate is omitted
+        enqueueStateChange("br", oldBitrateKbps > 0, oldBitrateKbps, newBitrateKbps);
     }
 
     private void enqueueVideoWidthChangeEvent(int oldVideoWidth, int newVideoWidth) {
@@ -935,11 +1184,7 @@ public class Monitor implements IMonitorNotifier {
     }
 
     private void enqueueFramerateChangeEvent(int oldFps, int newFps) {
-        Integer oldValue = null;
-        if (oldFps > 0) {
-            oldValue = oldFps;
-        }
-        enqueueStateChange("efps", oldValue, newFps);
+        enqueueStateChange("efps", oldFps > 0, oldFps, newFps);
     }
 
     private void enqueueAssetNameChangeEvent(String oldAssetName, String newAssetName) {
@@ -954,10 +1199,10 @@ public class Monitor implements IMonitorNotifier {
 
     @Override
     public void onRenderedFramerateUpdate(int renderedFps) {
-        if (renderedFps > 0 && _playerState.equals(InternalPlayerState.PLAYING)) {
-            synchronized (mObj) {
-                _playingFpsTotal += renderedFps;
-                _playingFpsObservationCount++;
+        if (renderedFps > 0 && _state.playerState.equals(InternalPlayerState.PLAYING)) {
+            _frameRateTotals.add(renderedFps);
+            if (_qoeAggregator != null) {
+                _qoeAggregator.onRenderedFps(_time.current(), renderedFps);
             }
         }
     }
@@ -967,19 +1212,18 @@ public class Monitor implements IMonitorNotifier {
      * @return averageFps - Average of Framerate over the session lifetime.
      */
     private int getAverageFrameRate() {
-        if (_playingFpsTotal > 0 && _playingFpsObservationCount > 0) {
-            return (int) _playingFpsTotal / _playingFpsObservationCount;
-        } else {
-            synchronized (mObj) {
-                if (_playerStateManager != null) {
-                    //this condition will execute only once when player frame rate is available and PSM misses out due to race condition
-                    _playingFpsTotal += _playerStateManager.getPlayerFramerate();
-                    _playingFpsObservationCount++;
-                    if (_playingFpsTotal > 0 && _playingFpsObservationCount > 0) {
-                        return (int) _playingFpsTotal / _playingFpsObservationCount;
-                    }
-                }
-            }
+        FrameRateTotals frameRateTotals = _frameRateTotals;
+        int averageFps = frameRateTotals.getAverage();
+        if (averageFps >= 0) {
+            return averageFps;
+        }
+        PlayerStateManager playerStateManager = _playerStateManager;
+        if (playerStateManager != null) {
+            // Asked outside the lock, the application may block here
+            int playerFramerate = playerStateManager.getPlayerFramerate();
+            //this condition will execute only once when player frame rate is available and PSM misses out due to race condition
+            frameRateTotals.add(playerFramerate);
+            return frameRateTotals.getAverage();
         }
         return -1;
     }
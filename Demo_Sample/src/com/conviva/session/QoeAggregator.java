@@ -0,0 +1,209 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.conviva.session.Monitor.InternalPlayerState;
+import com.conviva.utils.DoubleSlidingWindow;
+import com.conviva.utils.IntSlidingWindow;
+import com.conviva.utils.LongSlidingWindow;
+import com.conviva.utils.MetricsRegistry;
+import com.conviva.utils.QuantileSketch;
+
+/**
+ * Computes quality of experience metrics of a session as the player state changes,
+ * so that each heartbeat carries a compact summary in "qoe":<br>
+ * jt: join time, pt: playing time, rbt: rebuffering time, rbc: rebuffering count,
+ * rbr: rebuffering ratio in permille, abr: time weighted average bitrate while playing,
+ * brs: bitrate switch count, the rendered frame rate percentiles fps50/fps95/fps99
+ * with the min, max and average over the last POLL_STREAMER_WINDOW_SIZE_MS, and the
+ * buffer length percentiles bl50/bl95/bl99.<br>
+ * While playing, the buffer length and bitrate are also sampled every POLL_STREAMER_INTERVAL_MS,
+ * their min, max and average over the last POLL_STREAMER_WINDOW_SIZE_MS are blmin/blmax/blavg
+ * and brmin/brmax/bravg.<br>
+ * Percentiles come from fixed size {@link QuantileSketch}es, merged into the MetricsRegistry
+ * of the client when the session ends.
+ * Player updates are O(1) and do not allocate. Times are in milliseconds.<br>
+ * Not thread safe: the aggregator of a session confined to its shard is used as is,
+ * the other sessions use {@link Synchronized}.
+ */
+public class QoeAggregator {
+    private double _startTimeMs = 0;
+    private InternalPlayerState _playerState = InternalPlayerState.NOT_MONITORED;
+    private double _lastUpdateMs = 0;
+    private int _bitrateKbps = -1;
+
+    private boolean _joined = false;
+    private double _joinTimeMs = 0;
+    private double _playingMs = 0;
+    private double _rebufferingMs = 0;
+    private int _rebufferingCount = 0;
+    // Sum of bitrate * time while playing with a known bitrate, and that time
+    private double _bitrateTimeProduct = 0;
+    private double _bitrateTimeMs = 0;
+    private int _bitrateSwitchCount = 0;
+
+    private static final int RECENT_SAMPLES = Monitor.POLL_STREAMER_WINDOW_SIZE_MS / Monitor.POLL_STREAMER_INTERVAL_MS;
+    private final IntSlidingWindow _recentFps = new IntSlidingWindow(RECENT_SAMPLES, Monitor.POLL_STREAMER_WINDOW_SIZE_MS);
+    private final LongSlidingWindow _recentBufferLengthMs = new LongSlidingWindow(RECENT_SAMPLES, Monitor.POLL_STREAMER_WINDOW_SIZE_MS);
+    private final DoubleSlidingWindow _recentBitrateKbps = new DoubleSlidingWindow(RECENT_SAMPLES, Monitor.POLL_STREAMER_WINDOW_SIZE_MS);
+    private final QuantileSketch _fpsSketch = new QuantileSketch();
+    private final QuantileSketch _bufferLengthSketch = new QuantileSketch();
+
+    /// @brief Session start, join time is measured from there
+    public void start(double nowMs) {
+        _startTimeMs = nowMs;
+        _lastUpdateMs = nowMs;
+    }
+
+    public void onPlayerState(double nowMs, InternalPlayerState newState) {
+        accumulate(nowMs);
+        if (!_joined && InternalPlayerState.PLAYING.equals(newState)) {
+            _joined = true;
+            _joinTimeMs = nowMs - _startTimeMs;
+        } else if (_joined && InternalPlayerState.BUFFERING.equals(newState) &&
+                !InternalPlayerState.BUFFERING.equals(_playerState)) {
+            _rebufferingCount++;
+        }
+        _playerState = newState;
+    }
+
+    public void onBitrate(double nowMs, int bitrateKbps) {
+        accumulate(nowMs);
+        if (_bitrateKbps > 0 && bitrateKbps > 0 && bitrateKbps != _bitrateKbps) {
+            _bitrateSwitchCount++;
+        }
+        _bitrateKbps = bitrateKbps;
+    }
+
+    public void onRenderedFps(double nowMs, int renderedFps) {
+        if (renderedFps < 0) {
+            return;
+        }
+        _recentFps.add((long) nowMs, renderedFps);
+        _fpsSketch.add(renderedFps);
+    }
+
+    /// @brief Sample the buffer length, in milliseconds, and the current bitrate while playing
+    public void onPoll(double nowMs, int bufferLengthMs) {
+        if (bufferLengthMs >= 0) {
+            _bufferLengthSketch.add(bufferLengthMs);
+            _recentBufferLengthMs.add((long) nowMs, bufferLengthMs);
+        }
+        if (_bitrateKbps > 0) {
+            _recentBitrateKbps.add((long) nowMs, _bitrateKbps);
+        }
+    }
+
+    /// @brief Add the rendered frame rate and buffer length sketches of the session to the client level ones
+    public void mergeSketchesInto(MetricsRegistry metricsRegistry) {
+        metricsRegistry.mergeSketch(MetricsRegistry.QOE_FPS, _fpsSketch);
+        metricsRegistry.mergeSketch(MetricsRegistry.QOE_BUFFER_LENGTH_MS, _bufferLengthSketch);
+    }
+
+    /// @brief Add the "qoe" summary to a heartbeat
+    public void updateHeartbeat(double nowMs, Map<String, Object> heartbeat) {
+        accumulate(nowMs);
+        Map<String, Object> qoe = new HashMap<String, Object>();
+        if (_joined) {
+            qoe.put("jt", (int) _joinTimeMs);
+        }
+        qoe.put("pt", (long) _playingMs);
+        qoe.put("rbt", (long) _rebufferingMs);
+        qoe.put("rbc", _rebufferingCount);
+        double watchedMs = _playingMs + _rebufferingMs;
+        if (watchedMs > 0) {
+            qoe.put("rbr", (int) (_rebufferingMs * 1000 / watchedMs));
+        }
+        if (_bitrateTimeMs > 0) {
+            qoe.put("abr", (int) (_bitrateTimeProduct / _bitrateTimeMs));
+        }
+        qoe.put("brs", _bitrateSwitchCount);
+        putPercentiles(qoe, "fps", _fpsSketch);
+        putPercentiles(qoe, "bl", _bufferLengthSketch);
+        _recentFps.expire((long) nowMs);
+        if (!_recentFps.isEmpty()) {
+            qoe.put("fpsmin", _recentFps.getMin());
+            qoe.put("fpsmax", _recentFps.getMax());
+            qoe.put("fpsavg", (int) Math.round(_recentFps.getMean()));
+        }
+        _recentBufferLengthMs.expire((long) nowMs);
+        if (!_recentBufferLengthMs.isEmpty()) {
+            qoe.put("blmin", _recentBufferLengthMs.getMin());
+            qoe.put("blmax", _recentBufferLengthMs.getMax());
+            qoe.put("blavg", Math.round(_recentBufferLengthMs.getMean()));
+        }
+        _recentBitrateKbps.expire((long) nowMs);
+        if (!_recentBitrateKbps.isEmpty()) {
+            qoe.put("brmin", (int) _recentBitrateKbps.getMin());
+            qoe.put("brmax", (int) _recentBitrateKbps.getMax());
+            qoe.put("bravg", (int) Math.round(_recentBitrateKbps.getMean()));
+        }
+        heartbeat.put("qoe", qoe);
+    }
+
+    /// Add the time spent in the current state since the previous update
+    private void accumulate(double nowMs) {
+        double elapsedMs = nowMs - _lastUpdateMs;
+        _lastUpdateMs = nowMs;
+        if (elapsedMs <= 0) {
+            return;
+        }
+        if (InternalPlayerState.PLAYING.equals(_playerState)) {
+            _playingMs += elapsedMs;
+            if (_bitrateKbps > 0) {
+                _bitrateTimeProduct += _bitrateKbps * elapsedMs;
+                _bitrateTimeMs += elapsedMs;
+            }
+        } else if (_joined && InternalPlayerState.BUFFERING.equals(_playerState)) {
+            _rebufferingMs += elapsedMs;
+        }
+    }
+
+    /// An aggregator updated by the player thread and read by the heartbeat timer
+    public static final class Synchronized extends QoeAggregator {
+        @Override
+        public synchronized void start(double nowMs) {
+            super.start(nowMs);
+        }
+
+        @Override
+        public synchronized void onPlayerState(double nowMs, InternalPlayerState newState) {
+            super.onPlayerState(nowMs, newState);
+        }
+
+        @Override
+        public synchronized void onBitrate(double nowMs, int bitrateKbps) {
+            super.onBitrate(nowMs, bitrateKbps);
+        }
+
+        @Override
+        public synchronized void onRenderedFps(double nowMs, int renderedFps) {
+            super.onRenderedFps(nowMs, renderedFps);
+        }
+
+        @Override
+        public synchronized void onPoll(double nowMs, int bufferLengthMs) {
+            super.onPoll(nowMs, bufferLengthMs);
+        }
+
+        @Override
+        public synchronized void mergeSketchesInto(MetricsRegistry metricsRegistry) {
+            super.mergeSketchesInto(metricsRegistry);
+        }
+
+        @Override
+        public synchronized void updateHeartbeat(double nowMs, Map<String, Object> heartbeat) {
+            super.updateHeartbeat(nowMs, heartbeat);
+        }
+    }
+
+    private static void putPercentiles(Map<String, Object> qoe, String prefix, QuantileSketch sketch) {
+        if (sketch.getCount() > 0) {
+            qoe.put(prefix + "50", (int) Math.round(sketch.getQuantile(0.50)));
+            qoe.put(prefix + "95", (int) Math.round(sketch.getQuantile(0.95)));
+            qoe.put(prefix + "99", (int) Math.round(sketch.getQuantile(0.99)));
+        }
+    }
+}
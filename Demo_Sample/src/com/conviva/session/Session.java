@@ -1,10 +1,12 @@
 // Copyright (c) 2013, Conviva Inc.  All rights reserved.
 package com.conviva.session;
 
+import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.conviva.internal.StreamerError;
 import com.conviva.api.ConvivaException;
@@ -21,10 +23,17 @@ import com.conviva.api.system.ICallbackInterface;
 import com.conviva.api.system.ICancelTimer;
 import com.conviva.api.system.IGraphicalInterface;
 import com.conviva.json.IJsonInterface;
+import com.conviva.json.StreamingJsonInterface;
+import com.conviva.json.Utf8JsonWriter;
+import com.conviva.protocol.BinaryHeartbeatEncoder;
 import com.conviva.protocol.Protocol;
 import com.conviva.utils.CallableWithParameters;
+import com.conviva.utils.CommandLoop;
+import com.conviva.utils.ExecutionScope;
+import com.conviva.utils.HeartbeatSpool;
 import com.conviva.utils.HttpClient;
 import com.conviva.utils.Logger;
+import com.conviva.utils.MetricsRegistry;
 import com.conviva.utils.Config;
 import com.conviva.utils.SystemMetadata;
 import com.conviva.utils.Time;
@@ -52,14 +61,31 @@ public class Session {
     private IJsonInterface _jsonInterface;
     private Logger _logger;
     private HttpClient _httpClient;
+    // Compression state and body sizes of the heartbeats of this session
+    private HttpClient.Sender _httpSender;
     private SystemMetadata _systemMetadata;
     private IGraphicalInterface _graphicalInterface;
+    private MetricsRegistry.Histogram _buildTimeUs;
+    private MetricsRegistry.Histogram _encodeTimeUs;
+    private MetricsRegistry.Histogram _eventQueueDepth;
+    // Owns the requests of this session, cancelled on cleanup
+    private final ExecutionScope _executionScope = new ExecutionScope();
+    // Thread of the session when sessions are sharded, null otherwise
+    private CommandLoop _shard = null;
     private double _startTimeMs = 0;
     private int _heartbeatSequenceNumber = 0;
-    private ICancelTimer _hbTimer = null;
+    private HeartbeatScheduler _heartbeatScheduler = null;
+    // Samples the player for the QoE summary, null unless ClientSettings.qoeSummary
+    private ICancelTimer _pollStreamerTimer = null;
     private boolean _cleanedUp = false;
     private String _clv = Client.version;
     private SessionType _sessionType = SessionType.GLOBAL;
+    private HeartbeatBatcher _heartbeatBatcher = null;
+    private HeartbeatSpool _heartbeatSpool = null;
+    private HeartbeatDelta _heartbeatDelta = null;
+    private BinaryHeartbeatEncoder _binaryEncoder = null;
+    // Heartbeat encoding buffer, null while a request is using it
+    private AtomicReference<Utf8JsonWriter> _idleHeartbeatWriter = new AtomicReference<Utf8JsonWriter>(new Utf8JsonWriter());
 
     // test CWS 2.1+/2.2 usage
     private boolean _enableCWS22 = true;
@@ -80,17 +106,29 @@ public class Session {
         _time = _systemFactory.buildTime();
         _timer = _systemFactory.buildTimer();
         _jsonInterface = _systemFactory.buildJsonInterface();
-        _systemFactory.buildExceptionCatcher();
         _logger = _systemFactory.buildLogger();
         _logger.setModuleName("Session");
         _logger.setSessionId(_sessionId);
         _httpClient = _systemFactory.buildHttpClient();
+        _httpSender = _httpClient.buildSender();
         _systemMetadata = _systemFactory.buildSystemMetadata();
         _protocol = _systemFactory.buildProtocol();
         _graphicalInterface = _systemFactory.buildGraphicalInterface();
-        _systemFactory.buildCallbackWithTimeout();
-        _systemFactory.getSettings();
+        MetricsRegistry metricsRegistry = _systemFactory.getMetricsRegistry();
+        _buildTimeUs = metricsRegistry.histogram(MetricsRegistry.HEARTBEAT_BUILD_US);
+        _encodeTimeUs = metricsRegistry.histogram(MetricsRegistry.HEARTBEAT_ENCODE_US);
+        _eventQueueDepth = metricsRegistry.histogram(MetricsRegistry.EVENT_QUEUE_DEPTH);
         _sessionType = sessionType;
+        if (_clientSettings.binaryHeartbeats) {
+            if (_httpClient.acceptsBytes()) {
+                _binaryEncoder = new BinaryHeartbeatEncoder();
+            } else {
+                _logger.warning("binaryHeartbeats needs an IBytesHttpInterface, heartbeats are sent as JSON");
+            }
+        }
+        if (_clientSettings.deltaHeartbeats) {
+            _heartbeatDelta = new HeartbeatDelta();
+        }
 
         
         if(_contentMetadata!=null && _contentMetadata.custom == null) {
@@ -99,6 +137,58 @@ public class Session {
         
     }
 
+    /// @brief Send heartbeats through the batcher shared by the sessions of the client
+    /// \note Must be called before start()
+    void setHeartbeatBatcher(HeartbeatBatcher heartbeatBatcher) {
+        _heartbeatBatcher = heartbeatBatcher;
+    }
+
+    /// @brief Sample the player for the QoE summary, on the shard of the session
+    private void pollStreamer() {
+        Monitor monitor = _monitor;
+        if (monitor != null && !_cleanedUp) {
+            monitor.pollStreamer();
+        }
+    }
+
+    /// @brief Keep the heartbeats that failed to be posted in the spool shared by the sessions of the client
+    void setHeartbeatSpool(HeartbeatSpool heartbeatSpool) {
+        _heartbeatSpool = heartbeatSpool;
+    }
+
+    /// @brief Confine the session, its monitor and its timers to a shard
+    /// \note Must be called before start()
+    void setShard(CommandLoop shard) {
+        _shard = shard;
+        _timer = _timer.onLoop(shard);
+        if (_monitor != null) {
+            _monitor.setShard(shard);
+        }
+    }
+
+    /// @brief Thread of the session when sessions are sharded, null otherwise
+    CommandLoop getShard() {
+        return _shard;
+    }
+
+    /// Run on the shard of the session, right away when there is none or already there
+    void runOnShard(Runnable action) {
+        if (_shard == null || _shard.isLoopThread() || !_shard.post(action)) {
+            action.run();
+        }
+    }
+
+    public int getSessionId() {
+        return _sessionId;
+    }
+
+    /// @brief Send all the fields with the next heartbeat when delta heartbeats are enabled
+    public void requestFullHeartbeat() {
+        if (_heartbeatDelta != null) {
+            _heartbeatDelta.requestFullHeartbeat();
+        }
+    }
+
     public void start() {
         if (isVideoSession()) {
             if (_contentMetadata != null && _contentMetadata.assetName != null)
@@ -110,6 +200,15 @@ public class Session {
             // only start generating Monitor events after this line
             _monitor.start(_startTimeMs);
             _monitor.setDefaultBitrateAndResource();
+            if (_clientSettings.qoeSummary) {
+                // Each session polls its own player, a slow player only delays its own samples
+                _pollStreamerTimer = _timer.createRecurring(new Runnable() {
+                    @Override
+                    public void run() {
+                        pollStreamer();
+                    }
+                }, Monitor.POLL_STREAMER_INTERVAL_MS, "pollStreamer");
+            }
         }
         _heartbeatSequenceNumber = 0;
 
@@ -123,8 +222,13 @@ public class Session {
 
 				@Override
 				public void exec() {
-	                sendHeartbeat();
-	                createHBTimer();
+					runOnShard(new Runnable() {
+						@Override
+						public void run() {
+							sendHeartbeat();
+							createHBTimer();
+						}
+					});
 				}
         	}
         	ConfigLoaded configLoaded = new ConfigLoaded();
@@ -134,10 +238,14 @@ public class Session {
 
     public void cleanup() {
         _logger.info("Session.cleanup()" + sessionTypeTag());
-        if (_hbTimer != null) {
-        	_hbTimer.cancel();
-        	_hbTimer = null;
+        if (_heartbeatScheduler != null) {
+            _heartbeatScheduler.stop();
+        }
+        if (_heartbeatBatcher != null) {
+            _heartbeatBatcher.remove(this);
         }
+        // Requests still in flight are abandoned, the last heartbeat carries the latest state
+        _executionScope.close();
         _logger.debug("Schedule the last hb before session cleanup" + sessionTypeTag());
 
         if (!isGlobalSession()) {
@@ -150,6 +258,11 @@ public class Session {
 
     public void cleanupAll() {
         _cleanedUp = true;
+        _httpSender.release();
+        if (_pollStreamerTimer != null) {
+            _pollStreamerTimer.cancel();
+            _pollStreamerTimer = null;
+        }
         if (!isGlobalSession()) {
             _monitor.cleanup();
             _monitor = null;
@@ -234,8 +347,17 @@ public class Session {
     }
 
     private void sendHeartbeat() {
+        Map<String, Object> heartbeat = prepareHeartbeat();
+        if (heartbeat != null) {
+            encodeAndPostHeartbeat(heartbeat);
+        }
+    }
+
+    /// @brief Build the next heartbeat
+    /// \return null if no heartbeat should be sent for this interval
+    Map<String, Object> prepareHeartbeat() {
     	if (_cleanedUp)
-    		return;
+    		return null;
     	
         boolean urgent = false;
 
@@ -244,13 +366,13 @@ public class Session {
             urgent = true;
         } else if (_monitor == null) {
             // This is a global session with no events, skip sending HB
-            return;
+            return null;
         }
 
         // Unless heartbeat is urgent, do not send when sleeping
         if (!urgent && (_graphicalInterface.inSleepingMode() || !_graphicalInterface.isVisible()) || _graphicalInterface.isDataSaverEnabled()) {
             _logger.info("Do not send out heartbeat: player is sleeping or not visible");
-            return;
+            return null;
         }
         // Commenting ADID related code.
         /*if (_monitor != null) {
@@ -260,17 +382,18 @@ public class Session {
             _monitor.getNetworkMetrics();
 		}
 
+        long startNanos = System.nanoTime();
         Map<String, Object> heartbeat = makeHeartbeat();
-        if (heartbeat != null) {
-            encodeAndPostHeartbeat(heartbeat);
-        }
+        _buildTimeUs.record((System.nanoTime() - startNanos) / 1000);
+        return heartbeat;
     }
     
    
 
     private Map<String, Object> makeHeartbeat() {
 
-        List<Map<String, Object>> events = _eventQueue.flushEvents();
+        List<Object> events = _eventQueue.flushEvents();
+        _eventQueueDepth.record(events.size());
         Map<String, Object> heartbeat = new HashMap<String, Object>();
         Map<String, String> sanitizedCustomMetadata = null;
 
@@ -310,6 +433,24 @@ public class Session {
         if ((Boolean) _clientConfig.get("sendLogs")) {
         	List<String> lb = _systemFactory.getLogBuffer();
             heartbeat.put("lg", lb);
+            long droppedLogs = _systemFactory.getDroppedLogCount();
+            if (droppedLogs > 0) {
+                // Log lines dropped on overflow since the client started
+                heartbeat.put("lgd", droppedLogs);
+            }
+        }
+        long droppedEvents = _eventQueue.getDroppedCount();
+        if (droppedEvents > 0) {
+            // Events dropped on overflow since the session started
+            heartbeat.put("evd", droppedEvents);
+        }
+        if (_systemFactory.getSettings().httpCompression != SystemSettings.HttpCompression.NONE) {
+            long rawBytes = _httpSender.getRawBytes();
+            if (rawBytes > 0) {
+                // Body sizes of the previous heartbeats of the session, before and after compression
+                heartbeat.put("hrb", rawBytes);
+                heartbeat.put("hsb", _httpSender.getSentBytes());
+            }
         }
         // put the timestamps last
         double currentTimeMs = _time.current();
@@ -317,6 +458,9 @@ public class Session {
         heartbeat.put("sst", _startTimeMs);
         // precision caps field. set 0 for insights.
         heartbeat.put("caps", 0);
+        if (_heartbeatDelta != null) {
+            _heartbeatDelta.apply(heartbeat, _heartbeatSequenceNumber);
+        }
         _heartbeatSequenceNumber++;
         return heartbeat;
     }
@@ -337,18 +481,81 @@ public class Session {
     }
     
 
-    private void encodeAndPostHeartbeat(final Map<String, Object> heartbeat) {
+    void encodeAndPostHeartbeat(final Map<String, Object> heartbeat) {
+        // Once the scope is closed, the last heartbeat is sent outside of it
+        boolean scoped = !_executionScope.isClosed();
+        ExecutionScope previousScope = scoped ? _executionScope.enter() : null;
+        try {
+            encodeAndPostHeartbeatImpl(heartbeat);
+        } finally {
+            if (scoped) {
+                ExecutionScope.exit(previousScope);
+            }
+            releaseHeartbeat(heartbeat);
+        }
+    }
+
+    /// @brief Recycle the event records of a heartbeat once it is encoded
+    /// \note The events are removed from the heartbeat, the map must not be encoded again.
+    void releaseHeartbeat(Map<String, Object> heartbeat) {
+        EventQueue eventQueue = _eventQueue;
+        Object events = heartbeat.remove("evs");
+        if (eventQueue != null && events instanceof List) {
+            eventQueue.recycle((List<?>) events);
+        }
+    }
+
+    private void encodeAndPostHeartbeatImpl(Map<String, Object> heartbeat) {
+        if (_binaryEncoder != null) {
+            try {
+                long startNanos = System.nanoTime();
+                BinaryHeartbeatEncoder.EncodedHeartbeat binaryHeartbeat = _binaryEncoder.encode(heartbeat);
+                _encodeTimeUs.record((System.nanoTime() - startNanos) / 1000);
+                postHeartbeat(binaryHeartbeat);
+            } catch (Exception e) {
+                _logger.error("Binary heartbeat post error: " + e.toString());
+            }
+            return;
+        }
+
+        // Deltas depend on the heartbeats acknowledged by the server, only full heartbeats are spooled
+        boolean spool = !heartbeat.containsKey(Protocol.DELTA_HEARTBEAT_KEY);
+        if (_jsonInterface instanceof StreamingJsonInterface) {
+            // Encode straight to UTF-8 bytes, reusing the buffer of the previous heartbeat
+            // unless its request is still in flight
+            Utf8JsonWriter writer = _idleHeartbeatWriter.getAndSet(null);
+            if (writer == null) {
+                writer = new Utf8JsonWriter();
+            }
+            writer.reset();
+            long startNanos = System.nanoTime();
+            boolean encoded = ((StreamingJsonInterface) _jsonInterface).encode(heartbeat, writer);
+            _encodeTimeUs.record((System.nanoTime() - startNanos) / 1000);
+            if (encoded) {
+                try {
+                    postHeartbeat(writer, spool);
+                } catch (Exception e) {
+                    _logger.error("JSON post error: " + e.toString());
+                }
+            } else {
+                _idleHeartbeatWriter.set(writer);
+            }
+            return;
+        }
+
+        long startNanos = System.nanoTime();
         String jsonString = _jsonInterface.encode(heartbeat);
+        _encodeTimeUs.record((System.nanoTime() - startNanos) / 1000);
         if (jsonString != null) {
             try {
-                postHeartbeat(jsonString);
+                postHeartbeat(jsonString, spool);
             } catch (Exception e) {
                 _logger.error("JSON post error: " + e.toString());
             }
         }
     }
 
-    private void postHeartbeat(String jsonHeartbeat) {
+    private void postHeartbeat(String jsonHeartbeat, boolean spool) {
         String url = _clientSettings.gatewayUrl + Protocol.gatewayPath;
         String contentType = "application/json";
         _logger.info("Send HB[" +  (_heartbeatSequenceNumber-1) + "]" + sessionTypeTag());
@@ -357,22 +564,90 @@ public class Session {
         // then each send log will have previous logbuffer and exponentially increase.
         //_logger.log("heartbeat to be sent: " + jsonHeartbeat, SystemSettings.LogLevel.DEBUG);
 
-        _httpClient.request("POST", url, jsonHeartbeat, contentType,
-                new ICallbackInterface() {
-					@Override
-					public void done(boolean succeeded, String data) {
-				        //_logger.consoleLog("heartbeat response: " + data, SystemSettings.LogLevel.DEBUG);
-                        try {
-                            onHeartbeatResponse(succeeded, data);
-                        }catch(NullPointerException e){
-                            e.printStackTrace();
-                        }catch (Exception e){
-                           e.printStackTrace();
+        byte[] utf8Bytes = null;
+        try {
+            utf8Bytes = jsonHeartbeat.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            _logger.error("JSON post error: " + e.toString());
+            return;
+        }
+        _httpClient.request("POST", url, utf8Bytes, utf8Bytes.length, contentType, _httpSender, buildHeartbeatCallback(spool ? utf8Bytes : null, utf8Bytes.length, null));
+    }
+
+    private void postHeartbeat(Utf8JsonWriter jsonHeartbeat, boolean spool) {
+        String url = _clientSettings.gatewayUrl + Protocol.gatewayPath;
+        String contentType = "application/json";
+        _logger.info("Send HB[" +  (_heartbeatSequenceNumber-1) + "]" + sessionTypeTag());
+
+        int rawBytes = jsonHeartbeat.length();
+        _httpClient.request("POST", url, jsonHeartbeat.buffer(), rawBytes, contentType, _httpSender,
+                buildHeartbeatCallback(spool ? jsonHeartbeat.buffer() : null, rawBytes, jsonHeartbeat));
+    }
+
+    private void postHeartbeat(final BinaryHeartbeatEncoder.EncodedHeartbeat binaryHeartbeat) {
+        String url = _clientSettings.gatewayUrl + Protocol.gatewayPath;
+        _logger.info("Send HB[" +  (_heartbeatSequenceNumber-1) + "]" + sessionTypeTag());
+
+        // Binary heartbeats depend on the keys known by the server, they are not spooled
+        final ICallbackInterface callback = buildHeartbeatCallback(null, 0, null);
+        _httpClient.request("POST", url, binaryHeartbeat.data, binaryHeartbeat.length,
+                Protocol.BINARY_HEARTBEAT_CONTENT_TYPE, _httpSender, new ICallbackInterface() {
+                    @Override
+                    public void done(boolean succeeded, String data) {
+                        if (succeeded) {
+                            // Keys and platform metadata are known to the server from now on
+                            _binaryEncoder.commit(binaryHeartbeat);
                         }
-					}
+                        _binaryEncoder.release(binaryHeartbeat);
+                        callback.done(succeeded, data);
+                    }
                 });
     }
 
+    /// @brief Callback of a heartbeat request
+    /// \param spoolData Request body to spool if the request fails. Can be null.
+    /// \param writer Buffer holding the request body, reused once the request is done. Can be null.
+    private ICallbackInterface buildHeartbeatCallback(final byte[] spoolData, final int spoolLength, final Utf8JsonWriter writer) {
+        return new ICallbackInterface() {
+            @Override
+            public void done(final boolean succeeded, final String data) {
+                runOnShard(new Runnable() {
+                    @Override
+                    public void run() {
+                        onHeartbeatDone(succeeded, data, spoolData, spoolLength, writer);
+                    }
+                });
+            }
+        };
+    }
+
+    private void onHeartbeatDone(boolean succeeded, String data, byte[] spoolData, int spoolLength, Utf8JsonWriter writer) {
+        //_logger.consoleLog("heartbeat response: " + data, SystemSettings.LogLevel.DEBUG);
+        // Even after cleanup, the last heartbeats of the session are worth keeping
+        if (_heartbeatSpool != null) {
+            if (succeeded) {
+                _heartbeatSpool.onGatewayReachable();
+            } else if (spoolData != null && HeartbeatSpool.isRetryable(data)) {
+                _heartbeatSpool.add(spoolData, spoolLength);
+            }
+        }
+        if (writer != null) {
+            _idleHeartbeatWriter.set(writer);
+        }
+        if (_heartbeatBatcher != null) {
+            _heartbeatBatcher.onPostResult(succeeded);
+        } else if (_heartbeatScheduler != null) {
+            _heartbeatScheduler.onPostResult(succeeded);
+        }
+        try {
+            onHeartbeatResponse(succeeded, data);
+        }catch(NullPointerException e){
+            e.printStackTrace();
+        }catch (Exception e){
+           e.printStackTrace();
+        }
+    }
+
     //class HBTimerTask extends TimerTask {
 	//	@Override
 	//	public void run() {
@@ -381,14 +656,13 @@ public class Session {
     //}
     
     private void onHeartbeatResponse(Boolean success, final String jsonResponse) {
-        String seqNumStr = "-1";
     	if (_cleanedUp)
     		return;
 
-        if (!success && _logger != null) {
-            _logger.error("received no response (or a bad response) to heartbeat POST request.");
+        if (!success) {
             // uncomment following during testing if you want to see what's the reason for heartbeat failure
             //_logger.debug("onHeartbeatResponse: data = " + jsonResponse);
+            onHeartbeatResponse(false, (Map<String, Object>) null);
             return;
         }
 
@@ -396,7 +670,21 @@ public class Session {
         // PII/security concern, also huge overhead
         // _logger.debug("onHeartbeatResponse: data = " + jsonResponse);
 
-        Map<String, Object> decodedResponse = _jsonInterface.decode(jsonResponse);
+        onHeartbeatResponse(true, _jsonInterface.decode(jsonResponse));
+    }
+
+    /// @brief Process a decoded heartbeat response
+    /// \note Also used by the HeartbeatBatcher to dispatch the response of a batch
+    void onHeartbeatResponse(boolean success, Map<String, Object> decodedResponse) {
+        String seqNumStr = "-1";
+    	if (_cleanedUp)
+    		return;
+
+        if (!success && _logger != null) {
+            _logger.error("received no response (or a bad response) to heartbeat POST request.");
+            return;
+        }
+
         if (decodedResponse == null) {
             _logger.warning("JSON: Received null decoded response");
             return;
@@ -407,6 +695,19 @@ public class Session {
         }
     	_logger.debug("onHeartbeatResponse(): received valid response for HB[" + seqNumStr + "]");
 
+        if (_heartbeatDelta != null) {
+            if (Boolean.TRUE.equals(decodedResponse.get(Protocol.FULL_HEARTBEAT_REQUEST_KEY))) {
+                _logger.info("onHeartbeatResponse(): full heartbeat requested by server");
+                _heartbeatDelta.requestFullHeartbeat();
+            } else if (!"-1".equals(seqNumStr)) {
+                try {
+                    _heartbeatDelta.onAcknowledged(Long.parseLong(seqNumStr));
+                } catch (NumberFormatException e) {
+                    _logger.warning("onHeartbeatResponse(): invalid seq " + seqNumStr);
+                }
+            }
+        }
+
         // Unconditionally replace client id from server
         if (decodedResponse.containsKey("clid")) {
         	String newClientId = decodedResponse.get("clid").toString();
@@ -433,6 +734,7 @@ public class Session {
             if (newSendLogs != (Boolean) _clientConfig.get("sendLogs")) {
                 _logger.info("Turning " + (newSendLogs ? "on" : "off") + " sending of logs");
                 _clientConfig.set("sendLogs", newSendLogs);
+                _systemFactory.setSendLogs(newSendLogs);
             }
             if (cfgResponse.containsKey("hbi")) {
                 long heartbeatIntervalSec =
@@ -458,17 +760,45 @@ public class Session {
     }
     
     private void createHBTimer() {
-    	if (_hbTimer != null) {
-    		_hbTimer.cancel();
-    		_hbTimer = null;
-    	}
-    	        
-        _hbTimer = _timer.createRecurring(new Runnable() {
-            @Override
-            public void run() {
-            	sendHeartbeat();
-            }
-        }, _clientSettings.heartbeatInterval * 1000, "sendHeartbeat");
+        if (_heartbeatBatcher != null) {
+            // Heartbeats of all the sessions are sent on the batcher timer
+            _heartbeatBatcher.add(this);
+            return;
+        }
+
+        if (_heartbeatScheduler == null) {
+            _heartbeatScheduler = new HeartbeatScheduler(new HeartbeatScheduler.Target() {
+                @Override
+                public void sendHeartbeat() {
+                    Session.this.sendHeartbeat();
+                }
+
+                @Override
+                public HeartbeatScheduler.Activity getHeartbeatActivity() {
+                    return Session.this.getHeartbeatActivity();
+                }
+            }, _timer, _clientSettings, "sendHeartbeat");
+        }
+        // Restarting also picks a new jitter, sessions reconfigured together do not stay aligned
+        _heartbeatScheduler.start();
+    }
+
+    /// @brief How busy the player of the session is, used to adapt the heartbeat interval
+    HeartbeatScheduler.Activity getHeartbeatActivity() {
+        Monitor monitor = _monitor;
+        EventQueue eventQueue = _eventQueue;
+        if (_cleanedUp || monitor == null || eventQueue == null) {
+            return HeartbeatScheduler.Activity.STEADY;
+        }
+        if (monitor.takeStateChangeCount() >= HeartbeatScheduler.CHURN_STATE_CHANGES) {
+            return HeartbeatScheduler.Activity.CHURNING;
+        }
+        // Pending events are not delayed
+        if (eventQueue.size() == 0 &&
+                (monitor.isIdle() || _graphicalInterface.inSleepingMode() || !_graphicalInterface.isVisible())) {
+            return HeartbeatScheduler.Activity.IDLE;
+        }
+        return HeartbeatScheduler.Activity.STEADY;
     }
 
     public void updateContentMetadata(ContentMetadata contentMetadata) {
@@ -5,13 +5,15 @@ import com.conviva.api.Client;
 import com.conviva.api.ClientSettings;
 import com.conviva.api.ContentMetadata;
 import com.conviva.api.SystemFactory;
+import com.conviva.api.system.ICancelTimer;
+import com.conviva.api.system.IMetricsInterface;
+import com.conviva.utils.CommandLoop;
 import com.conviva.utils.Config;
+import com.conviva.utils.HeartbeatSpool;
 import com.conviva.utils.Lang;
 import com.conviva.utils.Logger;
 
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
 /**
  * A factory for Session objects.
@@ -35,10 +37,21 @@ public class SessionFactory {
 	private Config _clientConfig; 
 	private SystemFactory _systemFactory;
 	private Logger _logger;
+	private HeartbeatBatcher _heartbeatBatcher = null;
+	private HeartbeatSpool _heartbeatSpool = null;
+	private ICancelTimer _metricsTimer = null;
+	// Threads the sessions are spread over by key, null when sessions are not sharded
+	private CommandLoop[] _shards = null;
 	
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
     private int _nextSessionKey = 0; // should be positive
-    private Map<Integer, Session> _sessionsByKey = null;
-    private Map<Integer, Integer> _internalSessionIdByKey = null;
+    // Read by the API calls of any thread, sessions of different shards are created and cleaned up at the same time
+    private final SessionRegistry _sessions = new SessionRegistry();
 
     public SessionFactory(Client client, ClientSettings clientSettings,
     		Config clientConfig, SystemFactory systemFactory ) {
@@ -51,54 +64,108 @@ public class SessionFactory {
     	_logger.setModuleName("SessionFactory");
     	
         _nextSessionKey= 0;
-        _sessionsByKey = new HashMap<Integer, Session>();
-        _internalSessionIdByKey = new HashMap<Integer, Integer>();
+        _shards = _systemFactory.buildSessionShards();
+
+        _heartbeatSpool = _systemFactory.buildHeartbeatSpool();
+        if (_clientSettings.batchHeartbeats) {
+            _heartbeatBatcher = new HeartbeatBatcher(_clientSettings, _systemFactory, _heartbeatSpool);
+        }
+        final IMetricsInterface metricsInterface = _systemFactory.getMetricsInterface();
+        if (metricsInterface != null && metricsInterface.getReportIntervalMs() > 0) {
+            _metricsTimer = _systemFactory.buildTimer().createRecurring(new Runnable() {
+                @Override
+                public void run() {
+                    metricsInterface.report(_systemFactory.getMetricsSnapshot());
+                }
+            }, metricsInterface.getReportIntervalMs(), "reportMetrics");
+        }
     }
 
     /// @brief Cleanup all the sessions owned by the factory
     public void cleanup() {
-        if (_sessionsByKey != null) {
-        	for(Iterator<Map.Entry<Integer, Session>> it = _sessionsByKey.entrySet().iterator(); it.hasNext(); ) {
-        		Map.Entry<Integer, Session> entry = it.next();
-        		
-                cleanupSession(entry.getKey(), false);  // When deleting from map need to use it.remove, otherwise exception
-        		
-        		it.remove();
-            }
-        	/*
-            for(Map.Entry<Integer, Session> entry : _sessionsById.entrySet()) {
-                cleanupSession(entry.getKey());
+        CommandLoop[] shards = _shards;
+        if (shards != null) {
+            // Sessions whose creation is still queued are added before being cleaned up below
+            for (CommandLoop shard : shards) {
+                shard.postAndWait(NO_OP);
             }
-            */
         }
-        _sessionsByKey = null;
-        _internalSessionIdByKey = null;
+        for (SessionRegistry.Entry entry : _sessions.snapshot()) {
+            cleanupSession(entry.getKey(), true);
+        }
+        if (_heartbeatBatcher != null) {
+            _heartbeatBatcher.cleanup();
+            _heartbeatBatcher = null;
+        }
+        if (_heartbeatSpool != null) {
+            _heartbeatSpool.cleanup();
+            _heartbeatSpool = null;
+        }
+        if (_metricsTimer != null) {
+            _metricsTimer.cancel();
+            _metricsTimer = null;
+        }
+        _sessions.clear();
+        _shards = null;
         _nextSessionKey = 0;
         _logger = null;
     }
 
     // Generate a new session id
-    private int newSessionKey() {
+    private synchronized int newSessionKey() {
         int sessionKey = _nextSessionKey;
         _nextSessionKey++;
         return sessionKey;
     }
 
+    /// @brief Take the key of a session created later, so that the key can be returned before the session exists
+    public int reserveSessionKey() {
+        return newSessionKey();
+    }
+
+    /// @brief Take the key of a session created later on the shard of another session, skipping the keys of the other shards
+    /// \param shardSessionKey Key of the session whose shard runs the new session, e.g. the content session of an ad
+    public synchronized int reserveSessionKey(int shardSessionKey) {
+        CommandLoop[] shards = _shards;
+        if (shards == null) {
+            return newSessionKey();
+        }
+        int target = (shardSessionKey & Integer.MAX_VALUE) % shards.length;
+        int next = (_nextSessionKey & Integer.MAX_VALUE) % shards.length;
+        int sessionKey = _nextSessionKey + (target - next + shards.length) % shards.length;
+        _nextSessionKey = sessionKey + 1;
+        return sessionKey;
+    }
+
+    /// @brief Thread running a session when sessions are sharded, null otherwise
+    public CommandLoop getShard(int sessionKey) {
+        CommandLoop[] shards = _shards;
+        if (shards == null) {
+            return null;
+        }
+        return shards[(sessionKey & Integer.MAX_VALUE) % shards.length];
+    }
+
     public int makeAdSession( int contentSessionKey, ContentMetadata adMetadata) {
+        return makeAdSession(contentSessionKey, adMetadata, newSessionKey());
+    }
+
+    /// \param sessionKey Key given by reserveSessionKey()
+    public int makeAdSession(int contentSessionKey, ContentMetadata adMetadata, int sessionKey) {
 
         if(contentSessionKey == Client.NO_SESSION_KEY)
             return Client.NO_SESSION_KEY;
 
-        Session contentSession = getSession(contentSessionKey);
+        SessionRegistry.Entry contentEntry = getEntry(contentSessionKey);
         ContentMetadata internalAdMetadata = new ContentMetadata(adMetadata); // To make sure we create a copy as we need to add content sessionKey
 
-        if (contentSession != null) {
-            ContentMetadata contentMetadata = contentSession.getContentMetadata();
+        if (contentEntry != null) {
+            ContentMetadata contentMetadata = contentEntry.getSession().getContentMetadata();
 
             if (internalAdMetadata.custom == null) {
                 internalAdMetadata.custom = new HashMap<String, String>();
             }
-            internalAdMetadata.custom.put("c3.csid", String.valueOf(_internalSessionIdByKey.get(contentSessionKey)));
+            internalAdMetadata.custom.put("c3.csid", String.valueOf(contentEntry.getInternalId()));
 
             if((!Lang.isValidString(internalAdMetadata.applicationName)) && contentMetadata != null && Lang.isValidString(contentMetadata.applicationName)) {
                 internalAdMetadata.applicationName = contentMetadata.applicationName;
@@ -108,18 +175,23 @@ public class SessionFactory {
                 internalAdMetadata.viewerId = contentMetadata.viewerId;
             }
 
-            return makeSession(internalAdMetadata, SessionType.AD);
+            return makeSession(internalAdMetadata, SessionType.AD, sessionKey);
         }
 
         return Client.NO_SESSION_KEY;
     }
 
     public int makeVideoSession(ContentMetadata contentMetadata) /* throws Exception */{
-        return makeSession(contentMetadata, SessionType.VIDEO);
+        return makeVideoSession(contentMetadata, newSessionKey());
+    }
+
+    /// \param sessionKey Key given by reserveSessionKey()
+    public int makeVideoSession(ContentMetadata contentMetadata, int sessionKey) {
+        return makeSession(contentMetadata, SessionType.VIDEO, sessionKey);
     }
 
     public int makeGlobalSession(ContentMetadata contentMetadata) /* throws Exception */ {
-        return makeSession(contentMetadata, SessionType.GLOBAL);
+        return makeSession(contentMetadata, SessionType.GLOBAL, newSessionKey());
     }
     
     private Session buildVideoSession(int sid, EventQueue eventQueue, ContentMetadata contentMetadata, Monitor monitor, SessionType sessionType) /* throws Exception*/ {
@@ -135,10 +207,15 @@ public class SessionFactory {
     }
     
     private Monitor buildMonitor(int sid, EventQueue eventQueue, ContentMetadata contentMetadata)/* throws Exception */ {
-    	return new Monitor(sid, eventQueue, contentMetadata, _systemFactory);
+    	Monitor monitor = new Monitor(sid, eventQueue, contentMetadata, _systemFactory);
+        if (_clientSettings.qoeSummary) {
+            // The monitor of a sharded session is only called on its shard
+            monitor.setQoeAggregator(_shards != null ? new QoeAggregator() : new QoeAggregator.Synchronized());
+        }
+        return monitor;
     }
     
-    private int makeSession(ContentMetadata contentMetadata, SessionType sessionType) /* throws Exception */ {
+    private int makeSession(ContentMetadata contentMetadata, SessionType sessionType, int externalSessionId) /* throws Exception */ {
         Session session = null;
     	int internalSessionId = generateSessionId();
     	EventQueue eventQueue = buildEventQueue();
@@ -156,10 +233,23 @@ public class SessionFactory {
             }
         }
 
-        int externalSessionId = newSessionKey();
-        addSession(externalSessionId, session);
-        addInternalSessionKey(externalSessionId, internalSessionId);
+        if (!_sessions.put(externalSessionId, session, internalSessionId)) {
+            _logger.error("Client: session key " + externalSessionId + " is already in use");
+            // Never started: release it without the session end event and last heartbeat of cleanup()
+            session.cleanupAll();
+            return Client.NO_SESSION_KEY;
+        }
 
+        if (_heartbeatBatcher != null) {
+            session.setHeartbeatBatcher(_heartbeatBatcher);
+        }
+        if (_heartbeatSpool != null) {
+            session.setHeartbeatSpool(_heartbeatSpool);
+        }
+        CommandLoop shard = getShard(externalSessionId);
+        if (shard != null) {
+            session.setShard(shard);
+        }
         session.start();
 
         return externalSessionId;
@@ -167,15 +257,20 @@ public class SessionFactory {
 
     /// @brief Return a session that is associated with session id
     public Session getSession(int sessionKey) {
-    	Session s = _sessionsByKey.get(sessionKey);
-    	if (s != null)
-    		return s;
-        _logger.error("Client: invalid sessionId. Did you cleanup that session previously?");
-    	return s;
+        SessionRegistry.Entry entry = getEntry(sessionKey);
+        return entry != null ? entry.getSession() : null;
+    }
+
+    private SessionRegistry.Entry getEntry(int sessionKey) {
+        SessionRegistry.Entry entry = _sessions.get(sessionKey);
+        if (entry == null) {
+            _logger.error("Client: invalid sessionId. Did you cleanup that session previously?");
+        }
+        return entry;
     }
 
     public Session getVideoSession(int sessionKey) {
-    	Session s = _sessionsByKey.get(sessionKey);
+    	Session s = _sessions.getSession(sessionKey);
     	if (s != null) {
             if (!s.isGlobalSession())
     			return s;
@@ -184,29 +279,24 @@ public class SessionFactory {
         return null;
     }
 
-    private void addSession(int sessionKey, Session session) {
-        _sessionsByKey.put(sessionKey, session);
-    }
-
-    private void addInternalSessionKey(int sessionKey, int internalSessionKey) {
-        _internalSessionIdByKey.put(sessionKey, internalSessionKey);
-    }
-    
-    private void removeSession(int sessionKey) {
-        _internalSessionIdByKey.remove(sessionKey);
-        _sessionsByKey.remove(sessionKey);
-    }
-    
     /// @brief Cleanup a single session
     public void cleanupSession(int sessionKey, boolean deleteFromMap) {
-        Session session = _sessionsByKey.get(sessionKey);
-        if (session != null) {
-            if (deleteFromMap) {
-                _sessionsByKey.remove(sessionKey);
-                _internalSessionIdByKey.remove(sessionKey);
-            }
+        // Removing is atomic, a session cleaned up from two threads at once is only cleaned up once
+        SessionRegistry.Entry entry = deleteFromMap ? _sessions.remove(sessionKey) : _sessions.get(sessionKey);
+        if (entry != null) {
+            final Session session = entry.getSession();
             _logger.info("session id(" + sessionKey + ") is cleaned up and removed from sessionFactory");
-            session.cleanup();
+            CommandLoop shard = getShard(sessionKey);
+            Runnable cleanup = new Runnable() {
+                @Override
+                public void run() {
+                    session.cleanup();
+                }
+            };
+            // Cleaned up once done with the calls queued on its shard, in particular its creation
+            if (shard == null || !shard.postAndWait(cleanup)) {
+                cleanup.run();
+            }
         }
     }
 }
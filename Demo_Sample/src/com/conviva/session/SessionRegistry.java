@@ -0,0 +1,171 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.session;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The sessions of a SessionFactory by session key, with their internal session id.<br>
+ * An open addressing hash table on int keys with linear probing. Lookups take no lock
+ * and do not allocate, so API calls can find their session from any thread while other
+ * sessions are created or cleaned up. Changes are serialized on the registry.<br>
+ * Removed entries leave a tombstone behind so that lookups keep probing past them, the
+ * table is rebuilt without tombstones when it grows or when they pile up.
+ */
+class SessionRegistry {
+    private static final int MIN_CAPACITY = 16;
+
+    /// A registered session, immutable
+    static final class Entry {
+        private final int _key;
+        private final Session _session;
+        private final int _internalId;
+
+        Entry(int key, Session session, int internalId) {
+            _key = key;
+            _session = session;
+            _internalId = internalId;
+        }
+
+        int getKey() {
+            return _key;
+        }
+
+        Session getSession() {
+            return _session;
+        }
+
+        int getInternalId() {
+            return _internalId;
+        }
+    }
+
+    private static final Entry TOMBSTONE = new Entry(0, null, 0);
+
+    // Replaced as a whole when rebuilt, lookups in progress finish on the previous table
+    private volatile AtomicReferenceArray<Entry> _table = new AtomicReferenceArray<Entry>(MIN_CAPACITY);
+    // Guarded by this
+    private int _size = 0;
+    private int _tombstones = 0;
+
+    /// @brief The entry of a session key, null if there is none
+    Entry get(int key) {
+        AtomicReferenceArray<Entry> table = _table;
+        int mask = table.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Entry entry = table.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != TOMBSTONE && entry._key == key) {
+                return entry;
+            }
+        }
+    }
+
+    /// @brief The session of a key, null if there is none
+    Session getSession(int key) {
+        Entry entry = get(key);
+        return entry != null ? entry._session : null;
+    }
+
+    /// \return False if the key is already registered, the registry is then unchanged
+    synchronized boolean put(int key, Session session, int internalId) {
+        if (get(key) != null) {
+            return false;
+        }
+        // Keep at least half of the slots empty so that probe sequences stay short and end
+        if ((_size + _tombstones + 1) * 2 > _table.length()) {
+            rebuild(_size + 1);
+        }
+        AtomicReferenceArray<Entry> table = _table;
+        int mask = table.length() - 1;
+        int i = slot(key, mask);
+        Entry current;
+        while ((current = table.get(i)) != null && current != TOMBSTONE) {
+            i = (i + 1) & mask;
+        }
+        if (current == TOMBSTONE) {
+            _tombstones--;
+        }
+        table.set(i, new Entry(key, session, internalId));
+        _size++;
+        return true;
+    }
+
+    /// \return The entry removed, null if the key was not registered
+    synchronized Entry remove(int key) {
+        AtomicReferenceArray<Entry> table = _table;
+        int mask = table.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Entry entry = table.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != TOMBSTONE && entry._key == key) {
+                table.set(i, TOMBSTONE);
+                _size--;
+                _tombstones++;
+                return entry;
+            }
+        }
+    }
+
+    /// @brief The entries registered at the time of the call, safe to iterate while the registry changes
+    Entry[] snapshot() {
+        AtomicReferenceArray<Entry> table = _table;
+        Entry[] entries = new Entry[size()];
+        int count = 0;
+        for (int i = 0; i < table.length() && count < entries.length; i++) {
+            Entry entry = table.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                entries[count++] = entry;
+            }
+        }
+        if (count < entries.length) {
+            // Removed while scanning
+            Entry[] trimmed = new Entry[count];
+            System.arraycopy(entries, 0, trimmed, 0, count);
+            return trimmed;
+        }
+        return entries;
+    }
+
+    synchronized int size() {
+        return _size;
+    }
+
+    synchronized void clear() {
+        _table = new AtomicReferenceArray<Entry>(MIN_CAPACITY);
+        _size = 0;
+        _tombstones = 0;
+    }
+
+    /// Copy the entries to a table sized for expectedSize entries, dropping the tombstones
+    private void rebuild(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        AtomicReferenceArray<Entry> previous = _table;
+        AtomicReferenceArray<Entry> table = new AtomicReferenceArray<Entry>(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < previous.length(); i++) {
+            Entry entry = previous.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                int j = slot(entry._key, mask);
+                while (table.get(j) != null) {
+                    j = (j + 1) & mask;
+                }
+                table.set(j, entry);
+            }
+        }
+        _tombstones = 0;
+        _table = table;
+    }
+
+    /// Spread the keys, which are usually consecutive, over the table
+    private static int slot(int key, int mask) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -1,10 +1,12 @@
 package com.conviva.utils;
 
 import com.conviva.api.system.ICallbackInterface;
+import com.conviva.api.system.ICancelTimer;
 
 /**
  * CallbackWithTimeout is Used by the Conviva library to create system timer.
  * Only handles callbacks with the signature callback(isSuccess, data/errorMsg).
+ * The timeout is cancelled as soon as the wrapped callback is called.
  */
 
 public class CallbackWithTimeout {
@@ -21,33 +23,62 @@ public class CallbackWithTimeout {
 			private int _timeoutMs;
 			private String _timeoutMessage;
 			private boolean _calledBack;
+			private ICancelTimer _cancelTimer;
 			
 			public WrapperCallback(ICallbackInterface callback, int timeoutMs, String timeoutMessage) {
 				_callback = callback;
 				_timeoutMs = timeoutMs;
 				_timeoutMessage = timeoutMessage;
 				_calledBack = false;
+				_cancelTimer = null;
+			}
+
+			public void setCancelTimer(ICancelTimer cancelTimer) {
+				boolean calledBack;
+				synchronized (this) {
+					calledBack = _calledBack;
+					_cancelTimer = calledBack ? null : cancelTimer;
+				}
+				if (calledBack && cancelTimer != null) {
+					// The callback happened before the timeout was even registered
+					cancelTimer.cancel();
+				}
+			}
+
+			/// @brief Returns true for the first call only, cancelling the timeout
+			private boolean callBack() {
+				ICancelTimer cancelTimer;
+				synchronized (this) {
+					if (_calledBack) {
+						return false;
+					}
+					_calledBack = true;
+					cancelTimer = _cancelTimer;
+					_cancelTimer = null;
+				}
+				if (cancelTimer != null) {
+					cancelTimer.cancel();
+				}
+				return true;
 			}
 						
 			@Override
 			public void done(boolean succeeded, String data) {
-				if (!_calledBack) {
-					_calledBack = true;
+				if (callBack()) {
 					_callback.done(succeeded, data);
 				}
 			}
 
 			@Override
 			public void run() {
-				if (!_calledBack) {
-					_calledBack = true;
+				if (callBack()) {
 					_callback.done(false, _timeoutMessage + " (" + _timeoutMs + " ms)");
 				}
 			}
 		}
 		
 		WrapperCallback wrapperCallback = new WrapperCallback(callback, timeoutMs, timeoutMessage);
-		_timer.createOneShot(wrapperCallback, timeoutMs, "CallbackWithTimeout.wrap");
+		wrapperCallback.setCancelTimer(_timer.createOneShot(wrapperCallback, timeoutMs, "CallbackWithTimeout.wrap"));
 		
 		return wrapperCallback;
 	}
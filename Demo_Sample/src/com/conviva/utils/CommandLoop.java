@@ -0,0 +1,169 @@
+package com.conviva.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * CommandLoop
+ * Runs the calls of the Client and PlayerStateManager on a dedicated SDK thread, in call order.
+ * Also runs the sessions of a shard, see SystemSettings.sessionShards.<br>
+ * Callers only append a command to a lock-free queue and wake the SDK thread when it sleeps,
+ * so the application threads never encode nor send anything themselves. The time commands
+ * wait in the queue is recorded in the sdk.queue_wait_us histogram.
+ */
+
+public class CommandLoop {
+	public static final String THREAD_NAME = "ConvivaSDK";
+
+	private static final class Command {
+		final Runnable action;
+		final long enqueuedNs;
+		final CountDownLatch done;
+
+		Command(Runnable action, CountDownLatch done) {
+			this.action = action;
+			this.enqueuedNs = System.nanoTime();
+			this.done = done;
+		}
+	}
+
+	private final Logger _logger;
+	// Many application threads add commands, only the SDK thread removes them
+	private final Queue<Command> _commands = new ConcurrentLinkedQueue<Command>();
+	private final AtomicBoolean _parked = new AtomicBoolean(false);
+	private volatile boolean _stopped = false;
+	private final Thread _thread;
+	private final MetricsRegistry.Histogram _queueWait;
+	private final MetricsRegistry.Counter _commandCount;
+
+	public CommandLoop(Logger logger, MetricsRegistry metricsRegistry) {
+		this(logger, metricsRegistry, THREAD_NAME);
+	}
+
+	public CommandLoop(Logger logger, MetricsRegistry metricsRegistry, String threadName) {
+		_logger = logger;
+		_logger.setModuleName("CommandLoop");
+		_queueWait = metricsRegistry.histogram(MetricsRegistry.SDK_QUEUE_WAIT_US);
+		_commandCount = metricsRegistry.counter(MetricsRegistry.SDK_COMMANDS);
+		_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, threadName);
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/// @brief Whether the calling thread is the SDK thread
+	public boolean isLoopThread() {
+		return Thread.currentThread() == _thread;
+	}
+
+	/**
+	 * Queue a command for the SDK thread.
+	 * \param command Run on the SDK thread after the commands queued before.
+	 * \return False when the loop is stopped, the command is dropped.
+	 */
+	public boolean post(Runnable command) {
+		return enqueue(new Command(command, null));
+	}
+
+	/**
+	 * Queue a command for the SDK thread and wait until it has run.
+	 * Runs it right away when called from the SDK thread.
+	 * \param command Run on the SDK thread after the commands queued before.
+	 * \return False when the loop is stopped, the command is dropped.
+	 */
+	public boolean postAndWait(Runnable command) {
+		if (isLoopThread()) {
+			command.run();
+			return true;
+		}
+		CountDownLatch done = new CountDownLatch(1);
+		if (!enqueue(new Command(command, done))) {
+			return false;
+		}
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	/// @brief Run the commands already queued then end the SDK thread, waiting for it unless called from there
+	public void stop() {
+		_stopped = true;
+		wake();
+		if (isLoopThread()) {
+			return;
+		}
+		try {
+			_thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean enqueue(Command command) {
+		if (_stopped) {
+			return false;
+		}
+		_commands.offer(command);
+		// The loop may have stopped since the check above, and ended before seeing the command.
+		// Either the command is taken back here, or the loop has taken it and runs it.
+		if (_stopped && _commands.remove(command)) {
+			return false;
+		}
+		wake();
+		return true;
+	}
+
+	private void wake() {
+		if (_parked.get()) {
+			LockSupport.unpark(_thread);
+		}
+	}
+
+	private void loop() {
+		while (true) {
+			Command command = _commands.poll();
+			if (command != null) {
+				run(command);
+			} else if (_stopped) {
+				// Commands queued before stop() but after the poll above are still run
+				while ((command = _commands.poll()) != null) {
+					run(command);
+				}
+				return;
+			} else {
+				// Callers check _parked after adding their command: either they see it set and
+				// unpark, or the command is already visible to the check below
+				_parked.set(true);
+				if (_commands.isEmpty() && !_stopped) {
+					LockSupport.park(this);
+				}
+				_parked.set(false);
+			}
+		}
+	}
+
+	private void run(Command command) {
+		_queueWait.record((System.nanoTime() - command.enqueuedNs) / 1000);
+		_commandCount.increment();
+		try {
+			command.action.run();
+		} catch (RuntimeException e) {
+			// Commands come from ExceptionCatcher and catch their failures, keep the loop alive anyway
+			_logger.error("Command failed: " + e.toString());
+		} finally {
+			if (command.done != null) {
+				command.done.countDown();
+			}
+		}
+	}
+}
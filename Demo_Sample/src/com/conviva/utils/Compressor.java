@@ -0,0 +1,97 @@
+package com.conviva.utils;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses HTTP request bodies.<br>
+ * A Compressor keeps its Deflater and output buffer between calls, so that its owner can
+ * compress many heartbeats without allocating native zlib state every time. The owner
+ * must call release() once done, the native memory is not freed before.
+ * Not thread safe.
+ */
+public class Compressor {
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final boolean _gzip;
+    private final Deflater _deflater;
+    private final CRC32 _crc;
+    private byte[] _buffer = new byte[4096];
+
+    /**
+     * @param gzip true for the gzip format (RFC 1952), false for the zlib format (RFC 1950)
+     * expected with "Content-Encoding: deflate".
+     */
+    public Compressor(boolean gzip) {
+        _gzip = gzip;
+        // gzip carries its own header and trailer around raw deflate data
+        _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        _crc = gzip ? new CRC32() : null;
+    }
+
+    public boolean isGzip() {
+        return _gzip;
+    }
+
+    /**
+     * Free the native zlib state. The Compressor must not be used afterwards.
+     */
+    public void release() {
+        _deflater.end();
+    }
+
+    /**
+     * Compress data in the format of this Compressor.
+     * @param data Buffer holding the data.
+     * @param length Number of bytes of data, starting at index 0.
+     * @return A new array holding the compressed data.
+     */
+    public byte[] compress(byte[] data, int length) {
+        _deflater.reset();
+        _deflater.setInput(data, 0, length);
+        _deflater.finish();
+
+        int size = 0;
+        if (_gzip) {
+            ensureCapacity(GZIP_HEADER_SIZE);
+            // magic, CM=deflate, no flags, no mtime, no extra flags, OS=unknown
+            byte[] header = { (byte) 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+            System.arraycopy(header, 0, _buffer, 0, GZIP_HEADER_SIZE);
+            size = GZIP_HEADER_SIZE;
+        }
+        while (!_deflater.finished()) {
+            if (size == _buffer.length) {
+                ensureCapacity(size + 1);
+            }
+            size += _deflater.deflate(_buffer, size, _buffer.length - size);
+        }
+        if (_gzip) {
+            _crc.reset();
+            _crc.update(data, 0, length);
+            ensureCapacity(size + GZIP_TRAILER_SIZE);
+            size = writeIntLE(size, (int) _crc.getValue());
+            size = writeIntLE(size, length);
+        }
+
+        byte[] compressed = new byte[size];
+        System.arraycopy(_buffer, 0, compressed, 0, size);
+        return compressed;
+    }
+
+    private int writeIntLE(int offset, int value) {
+        _buffer[offset++] = (byte) value;
+        _buffer[offset++] = (byte) (value >> 8);
+        _buffer[offset++] = (byte) (value >> 16);
+        _buffer[offset++] = (byte) (value >> 24);
+        return offset;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > _buffer.length) {
+            byte[] buffer = new byte[Math.max(_buffer.length * 2, capacity)];
+            System.arraycopy(_buffer, 0, buffer, 0, _buffer.length);
+            _buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.utils;
+
+/**
+ * Sliding window of double samples with a running sum, minimum, maximum and mean.
+ * See {@link PrimitiveSlidingWindow}.<br>
+ * The running sum is compensated (Kahan-Babuska-Neumaier), so that adding and removing
+ * samples for a long time does not accumulate rounding errors. It restarts from 0 whenever
+ * the window is empty.
+ */
+public class DoubleSlidingWindow extends PrimitiveSlidingWindow {
+    private final double[] _values;
+    private double _sum = 0;
+    // Low order bits lost by _sum, added back when read
+    private double _compensation = 0;
+
+    /**
+     * @param capacity Maximum number of samples kept.
+     * @param windowMs Samples older than this duration expire. No expiry if 0.
+     */
+    public DoubleSlidingWindow(int capacity, long windowMs) {
+        super(capacity, windowMs);
+        _values = new double[capacity];
+    }
+
+    /**
+     * Add a sample, expiring the old ones and dropping the oldest one if the window is full.
+     * @param timeMs Time of the sample, never decreasing.
+     * @param value The sample.
+     */
+    public void add(long timeMs, double value) {
+        int index = beginAdd(timeMs);
+        _values[index] = value;
+        accumulate(value);
+        endAdd(timeMs);
+    }
+
+    /// Sum of the samples, 0 if empty
+    public double getSum() {
+        return _sum + _compensation;
+    }
+
+    /// Smallest sample, 0 if empty
+    public double getMin() {
+        int index = minIndex();
+        return index >= 0 ? _values[index] : 0;
+    }
+
+    /// Largest sample, 0 if empty
+    public double getMax() {
+        int index = maxIndex();
+        return index >= 0 ? _values[index] : 0;
+    }
+
+    /// Average of the samples, 0 if empty
+    public double getMean() {
+        int size = size();
+        return size > 0 ? getSum() / size : 0;
+    }
+
+    @Override
+    protected int compare(int indexA, int indexB) {
+        return Double.compare(_values[indexA], _values[indexB]);
+    }
+
+    @Override
+    protected void onRemove(int index) {
+        accumulate(-_values[index]);
+    }
+
+    @Override
+    protected void onClear() {
+        _sum = 0;
+        _compensation = 0;
+    }
+
+    private void accumulate(double value) {
+        double sum = _sum + value;
+        if (Math.abs(_sum) >= Math.abs(value)) {
+            _compensation += (_sum - sum) + value;
+        } else {
+            _compensation += (value - sum) + _sum;
+        }
+        _sum = sum;
+    }
+}
@@ -14,18 +14,34 @@ public class ExceptionCatcher {
 	private Logger _logger;
 	private Ping _ping;
 	private SystemSettings _systemSettings;
+	private MetricsRegistry.Counter _failures;
+	private CommandLoop _commandLoop;
 	
-	public ExceptionCatcher(Logger logger, Ping ping, SystemSettings systemSettings) {
+	public ExceptionCatcher(Logger logger, Ping ping, SystemSettings systemSettings, MetricsRegistry metricsRegistry) {
+	    this(logger, ping, systemSettings, metricsRegistry, null);
+	}
+
+	/// \param commandLoop Runs the calls of runProtectedAsync, null to run them on the calling thread
+	public ExceptionCatcher(Logger logger, Ping ping, SystemSettings systemSettings, MetricsRegistry metricsRegistry,
+	                        CommandLoop commandLoop) {
 	    this._logger = logger;
 	    this._logger.setModuleName("ExceptionCatcher");
 	    this._ping = ping;
 	    this._systemSettings = systemSettings;
+	    this._failures = metricsRegistry.counter(MetricsRegistry.PROTECTED_FAILURES);
+	    this._commandLoop = commandLoop;
+	}
+
+	/// @brief Whether runProtectedAsync queues its calls for the SDK thread
+	public boolean isAsync() {
+	    return _commandLoop != null;
 	}
 	
     public <V> void runProtected(Callable<V> func, String message) throws ConvivaException {
         try {
             func.call();
         } catch (Exception e) {
+        	_failures.increment();
         	if (this._systemSettings.allowUncaughtExceptions) {
                 // rethrow with exception chain
         		throw new ConvivaException("Conviva Internal Failure " + message, e);
@@ -35,6 +51,53 @@ public class ExceptionCatcher {
         }
     }
 
+    /**
+     * Like runProtected, but on the SDK thread when there is a CommandLoop: returns once the call is queued.
+     * Failures of queued calls cannot reach the caller, they are always caught, logged and pinged.
+     */
+    public <V> void runProtectedAsync(final Callable<V> func, final String message) throws ConvivaException {
+        if (_commandLoop == null || _commandLoop.isLoopThread()) {
+            runProtected(func, message);
+            return;
+        }
+        if (!_commandLoop.post(catching(func, message))) {
+            // Loop already stopped, the library is being released
+            runProtected(func, message);
+        }
+    }
+
+    /// @brief Like runProtectedAsync, but on the given loop, such as the shard of a session
+    /// \param commandLoop Loop running the call, null for the default of runProtectedAsync
+    public <V> void runProtectedAsync(CommandLoop commandLoop, final Callable<V> func, final String message) throws ConvivaException {
+        if (commandLoop == null) {
+            runProtectedAsync(func, message);
+        } else if (commandLoop.isLoopThread() || !commandLoop.post(catching(func, message))) {
+            runProtected(func, message);
+        }
+    }
+
+    /// @brief Like runProtectedAsync, but waits until the call has run
+    public <V> void runProtectedAndWait(final Callable<V> func, final String message) throws ConvivaException {
+        if (_commandLoop == null || _commandLoop.isLoopThread() || !_commandLoop.postAndWait(catching(func, message))) {
+            runProtected(func, message);
+        }
+    }
+
+    private <V> Runnable catching(final Callable<V> func, final String message) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    func.call();
+                } catch (Exception e) {
+                    _failures.increment();
+                    _logger.error("Uncaught exception in " + message + ": " + e.toString());
+                    onUncaughtException(message, e);
+                }
+            }
+        };
+    }
+
     private void onUncaughtException(String msg, Exception e) {
         try {
             this._ping.send("Uncaught exception: " + msg+ ": " + e.toString());
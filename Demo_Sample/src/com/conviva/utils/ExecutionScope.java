@@ -0,0 +1,85 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Owner of the blocking I/O started on behalf of a session.<br>
+ * While a thread runs inside a scope, between enter() and exit(), the executors of the
+ * platform that support scopes register the tasks they start with it. close() cancels the
+ * tasks still running, interrupting their threads, and the tasks started afterwards are
+ * cancelled right away, so that no request of a session outlives its cleanup.
+ */
+public class ExecutionScope {
+    private static final ThreadLocal<ExecutionScope> CURRENT = new ThreadLocal<ExecutionScope>();
+
+    private final Set<Future<?>> _tasks = new HashSet<Future<?>>();
+    private boolean _closed = false;
+
+    /// @brief The scope the calling thread runs in, null if none
+    public static ExecutionScope current() {
+        return CURRENT.get();
+    }
+
+    /// @brief Run the calling thread in this scope until exit()
+    /// \return The previous scope of the thread, to give back to exit()
+    public ExecutionScope enter() {
+        ExecutionScope previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /// @brief Leave the scope entered with enter()
+    /// \param previous The value returned by enter()
+    public static void exit(ExecutionScope previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /// @brief Register a task started in this scope
+    /// \return false if the scope is closed, the task must then be cancelled
+    public synchronized boolean track(Future<?> task) {
+        if (_closed) {
+            return false;
+        }
+        _tasks.add(task);
+        return true;
+    }
+
+    /// @brief Forget a task that completed
+    public synchronized void untrack(Future<?> task) {
+        _tasks.remove(task);
+    }
+
+    /// Number of tasks of this scope still running
+    public synchronized int getTaskCount() {
+        return _tasks.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return _closed;
+    }
+
+    /// @brief Cancel the running tasks and the ones started from now on
+    public void close() {
+        List<Future<?>> tasks;
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            tasks = new ArrayList<Future<?>>(_tasks);
+            _tasks.clear();
+        }
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.conviva.utils;
+
+import com.conviva.api.system.ICallbackInterface;
+import com.conviva.api.system.ICancelTimer;
+import com.conviva.api.system.IHttpInterface;
+import com.conviva.api.system.ISpoolInterface;
+
+/**
+ * HeartbeatSpool
+ * Keeps the heartbeats that failed to be posted in the SpoolInterface, and
+ * replays them in order once the Conviva platform responds again.<br>
+ * Only full heartbeats that failed on a network error or a 5xx status are worth
+ * keeping, see isRetryable().<br>
+ * Only one replayed heartbeat is in flight at a time, failures back off
+ * exponentially, and heartbeats older than the maximum age are dropped.
+ */
+
+public class HeartbeatSpool {
+	public static final int DEFAULT_MAX_AGE_MS = 60 * 60 * 1000;
+	private static final int INITIAL_BACKOFF_MS = 5 * 1000;
+	private static final int MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+	private Logger _logger;
+	private ISpoolInterface _spoolInterface;
+	private HttpClient _httpClient;
+	private Timer _timer;
+	private Time _time;
+	private String _url;
+	private int _maxAgeMs;
+
+	private boolean _replaying = false;
+	private boolean _cleanedUp = false;
+	private int _backoffMs = INITIAL_BACKOFF_MS;
+	private ICancelTimer _retryTimer = null;
+
+	public HeartbeatSpool(Logger logger, ISpoolInterface spoolInterface, HttpClient httpClient,
+			Timer timer, Time time, String url, int maxAgeMs) {
+		_logger = logger;
+		_spoolInterface = spoolInterface;
+		_httpClient = httpClient;
+		_timer = timer;
+		_time = time;
+		_url = url;
+		_maxAgeMs = maxAgeMs;
+	}
+
+	/**
+	 * Whether a failed post may succeed later with the same body.
+	 * @param error Message passed to the callback of the failed request.
+	 * @return False when the server rejected the request with a status other than 5xx.
+	 */
+	public static boolean isRetryable(String error) {
+		if (error == null || !error.startsWith(IHttpInterface.STATUS_ERROR_PREFIX)) {
+			// Network error
+			return true;
+		}
+		try {
+			int code = Integer.parseInt(error.substring(IHttpInterface.STATUS_ERROR_PREFIX.length()).trim());
+			return code >= 500;
+		} catch (NumberFormatException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Keep a heartbeat that failed to be posted.
+	 * @param data Buffer holding the JSON heartbeat, copied before returning.
+	 * @param length Number of bytes of data, starting at index 0.
+	 */
+	public void add(byte[] data, int length) {
+		if (_spoolInterface.append(data, length, (long) _time.current())) {
+			_logger.debug("add(): spooled heartbeat of " + length + " bytes");
+		} else {
+			_logger.warning("add(): heartbeat of " + length + " bytes does not fit in the spool");
+		}
+	}
+
+	/**
+	 * Notification that a heartbeat was successfully posted.
+	 * Starts replaying the spooled heartbeats unless already doing so.
+	 */
+	public synchronized void onGatewayReachable() {
+		if (_cleanedUp || _replaying || _spoolInterface.count() == 0) {
+			return;
+		}
+		_logger.info("onGatewayReachable(): replaying " + _spoolInterface.count() + " spooled heartbeats");
+		_replaying = true;
+		replayNext();
+	}
+
+	/// @brief Stop replaying, spooled heartbeats are kept for the next run
+	public synchronized void cleanup() {
+		_cleanedUp = true;
+		_replaying = false;
+		if (_retryTimer != null) {
+			_retryTimer.cancel();
+			_retryTimer = null;
+		}
+	}
+
+	private synchronized void replayNext() {
+		_retryTimer = null;
+		if (_cleanedUp) {
+			return;
+		}
+		// Age based eviction, the oldest records come first
+		long oldestAllowed = (long) _time.current() - _maxAgeMs;
+		long timestamp = _spoolInterface.peekTimestamp();
+		while (timestamp >= 0 && timestamp < oldestAllowed) {
+			_spoolInterface.remove();
+			timestamp = _spoolInterface.peekTimestamp();
+		}
+		byte[] data = _spoolInterface.peek();
+		if (data == null) {
+			_logger.info("replayNext(): spool is empty");
+			_replaying = false;
+			_backoffMs = INITIAL_BACKOFF_MS;
+			return;
+		}
+
+		final long sentTimestamp = timestamp;
+		_httpClient.request("POST", _url, data, data.length, "application/json",
+				new ICallbackInterface() {
+					@Override
+					public void done(boolean succeeded, String response) {
+						onReplayResponse(succeeded, response, sentTimestamp);
+					}
+				});
+	}
+
+	private synchronized void onReplayResponse(boolean succeeded, String response, long sentTimestamp) {
+		if (_cleanedUp) {
+			return;
+		}
+		// A rejected heartbeat would be rejected the same way when replayed again
+		boolean rejected = !succeeded && !isRetryable(response);
+		if (rejected) {
+			_logger.warning("onReplayResponse(): spooled heartbeat rejected, dropping it: " + response);
+		}
+		if (succeeded || rejected) {
+			// The record may have been evicted while in flight to make room
+			if (_spoolInterface.peekTimestamp() == sentTimestamp) {
+				_spoolInterface.remove();
+			}
+			_backoffMs = INITIAL_BACKOFF_MS;
+			replayNext();
+			return;
+		}
+
+		_logger.info("onReplayResponse(): replay failed, retrying in " + _backoffMs + "ms");
+		_retryTimer = _timer.createOneShot(new Runnable() {
+			@Override
+			public void run() {
+				replayNext();
+			}
+		}, _backoffMs, "replaySpooledHeartbeat");
+		_backoffMs = Math.min(_backoffMs * 2, MAX_BACKOFF_MS);
+	}
+}
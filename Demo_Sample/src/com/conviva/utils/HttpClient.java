@@ -1,6 +1,9 @@
 package com.conviva.utils;
 
+import java.io.UnsupportedEncodingException;
+
 import com.conviva.api.SystemSettings;
+import com.conviva.api.system.IBytesHttpInterface;
 import com.conviva.api.system.ICallbackInterface;
 import com.conviva.api.system.IHttpInterface;
 
@@ -11,16 +14,190 @@ public class HttpClient implements IHttpClient {
 	private IHttpInterface _httpInterface;
 	private SystemSettings _systemSettings;
 	private Logger _logger;
+	private MetricsRegistry.Histogram _rttMs;
+	private MetricsRegistry.Counter _requests;
+	private MetricsRegistry.Counter _failures;
+	private MetricsRegistry.Counter _rawBytes;
+	private MetricsRegistry.Counter _sentBytes;
+
+	/**
+	 * Compression state and body sizes of one sender of requests, such as a session.<br>
+	 * Keeps its Compressor between requests when SystemSettings.reuseHttpCompressor is set,
+	 * so that senders on different threads never wait for each other. The lock of a sender
+	 * is only taken by the threads sending its own requests.
+	 */
+	public static final class Sender {
+		private Compressor _compressor = null;
+		private boolean _released = false;
+		private long _rawBytes = 0;
+		private long _sentBytes = 0;
+
+		private Sender() {
+		}
+
+		/// Size of the request bodies before compression, in bytes
+		public synchronized long getRawBytes() {
+			return _rawBytes;
+		}
+
+		/// Size of the request bodies actually sent, in bytes
+		public synchronized long getSentBytes() {
+			return _sentBytes;
+		}
+
+		/**
+		 * Free the compression state kept between requests. Later requests still work,
+		 * with a Compressor released right away.
+		 */
+		public synchronized void release() {
+			_released = true;
+			if (_compressor != null) {
+				_compressor.release();
+				_compressor = null;
+			}
+		}
+
+		private synchronized void count(int rawBytes, int sentBytes) {
+			_rawBytes += rawBytes;
+			_sentBytes += sentBytes;
+		}
+
+		private synchronized byte[] compress(byte[] data, int length, boolean gzip) {
+			if (_released) {
+				return compressOnce(data, length, gzip);
+			}
+			if (_compressor == null || _compressor.isGzip() != gzip) {
+				if (_compressor != null) {
+					_compressor.release();
+				}
+				_compressor = new Compressor(gzip);
+			}
+			return _compressor.compress(data, length);
+		}
+	}
 	
-	public HttpClient(Logger logger, IHttpInterface httpInterface, SystemSettings systemSettings) {
+	public HttpClient(Logger logger, IHttpInterface httpInterface, SystemSettings systemSettings, MetricsRegistry metricsRegistry) {
 		_logger = logger;
+		// Shared by the modules of a client, logs under its own name
+		_logger.setModuleName("HttpClient");
 		_httpInterface = httpInterface;
 		_systemSettings = systemSettings;
+		_rttMs = metricsRegistry.histogram(MetricsRegistry.HTTP_RTT_MS);
+		_requests = metricsRegistry.counter(MetricsRegistry.HTTP_REQUESTS);
+		_failures = metricsRegistry.counter(MetricsRegistry.HTTP_FAILURES);
+		_rawBytes = metricsRegistry.counter(MetricsRegistry.HTTP_RAW_BYTES);
+		_sentBytes = metricsRegistry.counter(MetricsRegistry.HTTP_SENT_BYTES);
+	}
+
+	/**
+	 * @return A new Sender, to be released by its owner.
+	 */
+	public Sender buildSender() {
+		return new Sender();
 	}
 	
 	public void request(String httpMethod, String url, String data, String contentType, ICallbackInterface callback) {
 		_logger.debug("request(): calling IHttpInterface:makeRequest");
-		_httpInterface.makeRequest(httpMethod, url, data, contentType, this._systemSettings.httpTimeout * 1000, callback);
+		_httpInterface.makeRequest(httpMethod, url, data, contentType, this._systemSettings.httpTimeout * 1000, measured(callback));
+	}
+
+	/// Wrap a callback to measure the round trip time and count failures
+	private ICallbackInterface measured(final ICallbackInterface callback) {
+		_requests.increment();
+		final long startNanos = System.nanoTime();
+		return new ICallbackInterface() {
+			@Override
+			public void done(boolean succeeded, String data) {
+				_rttMs.record((System.nanoTime() - startNanos) / 1000000);
+				if (!succeeded) {
+					_failures.increment();
+				}
+				if (callback != null) {
+					callback.done(succeeded, data);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return Whether the HttpInterface sends byte bodies as they are. Otherwise byte bodies
+	 * must be UTF-8 text, they are sent as a String.
+	 */
+	public boolean acceptsBytes() {
+		return _httpInterface instanceof IBytesHttpInterface;
+	}
+
+	/**
+	 * Send a request with a body already encoded in UTF-8, compressed without keeping any state.
+	 * See {@link #request(String, String, byte[], int, String, Sender, ICallbackInterface)}.
+	 * @return The number of body bytes actually sent.
+	 */
+	public int request(String httpMethod, String url, byte[] data, int length, String contentType, ICallbackInterface callback) {
+		return request(httpMethod, url, data, length, contentType, null, callback);
+	}
+
+	/**
+	 * Send a request with a body already encoded in UTF-8.
+	 * The body is compressed according to SystemSettings when the HttpInterface accepts bytes,
+	 * otherwise it falls back to an uncompressed String body.
+	 * @param sender Compression state and body sizes of the caller. Can be null.
+	 * @return The number of body bytes actually sent.
+	 */
+	public int request(String httpMethod, String url, byte[] data, int length, String contentType, Sender sender, ICallbackInterface callback) {
+		int rawLength = length;
+		_rawBytes.add(length);
+		if (acceptsBytes()) {
+			String contentEncoding = null;
+			if (_systemSettings.httpCompression != SystemSettings.HttpCompression.NONE
+					&& length >= _systemSettings.httpCompressionThreshold) {
+				byte[] compressed = null;
+				boolean gzip = _systemSettings.httpCompression == SystemSettings.HttpCompression.GZIP;
+				try {
+					compressed = sender != null && _systemSettings.reuseHttpCompressor ?
+							sender.compress(data, length, gzip) : compressOnce(data, length, gzip);
+					contentEncoding = gzip ? "gzip" : "deflate";
+				} catch (Exception e) {
+					_logger.error("request(): compression failed: " + e.toString());
+				}
+				if (compressed != null && compressed.length < length) {
+					data = compressed;
+					length = compressed.length;
+				} else {
+					contentEncoding = null;
+				}
+			}
+			_logger.debug("request(): calling IBytesHttpInterface:makeRequest");
+			_sentBytes.add(length);
+			if (sender != null) {
+				sender.count(rawLength, length);
+			}
+			((IBytesHttpInterface) _httpInterface).makeRequest(httpMethod, url, data, length, contentType, contentEncoding, this._systemSettings.httpTimeout * 1000, measured(callback));
+			return length;
+		}
+		String stringData = null;
+		try {
+			stringData = new String(data, 0, length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			_logger.error("request(): cannot decode request body: " + e.toString());
+			if (callback != null) callback.done(false, e.toString());
+			return 0;
+		}
+		_sentBytes.add(length);
+		if (sender != null) {
+			sender.count(rawLength, length);
+		}
+		request(httpMethod, url, stringData, contentType, callback);
+		return length;
+	}
+
+	/// Compress with a new Compressor released right away
+	private static byte[] compressOnce(byte[] data, int length, boolean gzip) {
+		Compressor compressor = new Compressor(gzip);
+		try {
+			return compressor.compress(data, length);
+		} finally {
+			compressor.release();
+		}
 	}
 
 }
@@ -0,0 +1,110 @@
+package com.conviva.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.conviva.api.SystemSettings;
+
+/**
+ * LogBuffer
+ * Fixed-capacity buffer of the log lines sent with heartbeats when "sendLogs" is enabled.<br>
+ * Loggers append raw records without locking nor formatting, lines are only
+ * formatted when taken with snapshot(). When full, the oldest lines are dropped.<br>
+ * Lines are only kept while the buffer is enabled.
+ */
+
+public class LogBuffer {
+	/// Default maximum number of lines kept between two snapshots
+	public static final int DEFAULT_CAPACITY = 512;
+
+	private final RingBuffer<Record> _records;
+	private final List<Record> _drained = new ArrayList<Record>();
+	private volatile boolean _enabled = false;
+
+	/// A log line before formatting
+	private static final class Record {
+		final String message;
+		final SystemSettings.LogLevel logLevel;
+		final double timeMs;
+		final String packageName;
+		final String moduleName;
+		final int sessionId;
+
+		Record(String message, SystemSettings.LogLevel logLevel, double timeMs,
+				String packageName, String moduleName, int sessionId) {
+			this.message = message;
+			this.logLevel = logLevel;
+			this.timeMs = timeMs;
+			this.packageName = packageName;
+			this.moduleName = moduleName;
+			this.sessionId = sessionId;
+		}
+	}
+
+	public LogBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Maximum number of lines kept between two snapshots.
+	 */
+	public LogBuffer(int capacity) {
+		_records = new RingBuffer<Record>(capacity);
+	}
+
+	/**
+	 * Whether log lines are kept, as set by the "sendLogs" config.
+	 * @return true when log lines are sent with the heartbeats.
+	 */
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * Start or stop keeping log lines. Lines kept so far are discarded when disabled.
+	 * @param enabled true to keep the log lines added from now on.
+	 */
+	public void setEnabled(boolean enabled) {
+		_enabled = enabled;
+		if (!enabled) {
+			discard();
+		}
+	}
+
+	private synchronized void discard() {
+		_records.drain(_drained);
+		_drained.clear();
+	}
+
+	/**
+	 * Append a log line. Lock free, can be called from any thread.
+	 */
+	public void add(String message, SystemSettings.LogLevel logLevel, double timeMs,
+			String packageName, String moduleName, int sessionId) {
+		_records.offer(new Record(message, logLevel, timeMs, packageName, moduleName, sessionId));
+	}
+
+	/**
+	 * Format and remove the lines added since the previous snapshot.
+	 * @return The formatted lines, oldest first.
+	 */
+	public synchronized List<String> snapshot() {
+		_records.drain(_drained);
+		List<String> lines = new ArrayList<String>(_drained.size());
+		for (int i = 0; i < _drained.size(); i++) {
+			Record record = _drained.get(i);
+			lines.add(Logger.formatMessage(record.message, record.logLevel, record.timeMs,
+					record.packageName, record.moduleName, record.sessionId));
+		}
+		_drained.clear();
+		return lines;
+	}
+
+	/**
+	 * Number of lines dropped because the buffer was full.
+	 * @return The number of dropped lines since the buffer was created.
+	 */
+	public long getDroppedCount() {
+		return _records.getDroppedCount();
+	}
+}
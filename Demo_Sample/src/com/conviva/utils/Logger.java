@@ -1,20 +1,20 @@
 package com.conviva.utils;
 
-import java.util.List;
-
 import com.conviva.api.SystemSettings;
 import com.conviva.api.system.ILoggingInterface;
 import com.conviva.api.system.ITimeInterface;
 
 /**
  * Conviva provided helper class which implements {@link ILogger} required
- * methods.
+ * methods.<br>
+ * Messages are only formatted when printed to the console, the ones kept
+ * for the heartbeats are stored raw in the {@link LogBuffer}.
  */
 public class Logger implements ILogger {
     ILoggingInterface _consoleInterface;
     ITimeInterface _timeInterface;
     SystemSettings _settings;
-    List<String> _logBuffer;
+    LogBuffer _logBuffer;
     String _packageName;
     String _moduleName;
     int _sessionId;
@@ -22,7 +22,7 @@ public class Logger implements ILogger {
     public Logger(ILoggingInterface consoleInterface,
                   ITimeInterface timeInterface,
                   SystemSettings settings,
-                  List<String> logBuffer,
+                  LogBuffer logBuffer,
                   String packageName) {
         _consoleInterface = consoleInterface;
         _timeInterface = timeInterface;
@@ -69,44 +69,34 @@ public class Logger implements ILogger {
      * @param logLevel The log level.
      */
     public void log(String message, SystemSettings.LogLevel logLevel) {
-        boolean doLog = false;
-        String formattedMessage = this.formatMessage(message, logLevel);
-        this._logBuffer.add(formattedMessage);
-        switch(logLevel) {
-            case DEBUG:
-                if (this._settings.logLevel == SystemSettings.LogLevel.DEBUG)
-                {
-                    doLog = true;
-                }
-                break;
-
-            case INFO:
-                if (this._settings.logLevel == SystemSettings.LogLevel.DEBUG ||
-                        this._settings.logLevel == SystemSettings.LogLevel.INFO	)
-                {
-                    doLog = true;
-                }
-                break;
-
-            case WARNING:
-                if (this._settings.logLevel == SystemSettings.LogLevel.DEBUG ||
-                        this._settings.logLevel == SystemSettings.LogLevel.INFO	||
-                        this._settings.logLevel == SystemSettings.LogLevel.WARNING) {
-                    doLog = true;
-                }
-                break;
-
-            case ERROR:
-                if (this._settings.logLevel == SystemSettings.LogLevel.DEBUG ||
-                        this._settings.logLevel == SystemSettings.LogLevel.INFO	||
-                        this._settings.logLevel == SystemSettings.LogLevel.WARNING ||
-                        this._settings.logLevel == SystemSettings.LogLevel.ERROR) {
-                    doLog = true;
-                }
-                break;
+        // Filtered out messages cost neither a clock read nor an allocation
+        boolean buffered = this._logBuffer != null && this._logBuffer.isEnabled();
+        boolean printed = isConsoleEnabled(logLevel);
+        if (!buffered && !printed) {
+            return;
         }
-        if (doLog)
+        double timeMs = this._timeInterface.getEpochTimeMs();
+        if (buffered) {
+            this._logBuffer.add(message, logLevel, timeMs, this._packageName, this._moduleName, this._sessionId);
+        }
+        if (printed) {
+            String formattedMessage = Logger.formatMessage(message, logLevel, timeMs,
+                    this._packageName, this._moduleName, this._sessionId);
             this._consoleInterface.consoleLog(formattedMessage, logLevel);
+        }
+    }
+
+    /**
+     * Whether messages of a log level are printed to the console.
+     * @param logLevel The log level.
+     * @return true if the configured SystemSettings.logLevel lets them through.
+     */
+    public boolean isConsoleEnabled(SystemSettings.LogLevel logLevel) {
+        if (logLevel == SystemSettings.LogLevel.NONE) {
+            return false;
+        }
+        // LogLevel values are declared from the most to the least verbose
+        return this._settings.logLevel.ordinal() <= logLevel.ordinal();
     }
 
     /**
@@ -114,10 +104,10 @@ public class Logger implements ILogger {
      * @param message The original message.
      * @return the module name with the message.
      */
-    private String prependModuleName(String message) {
+    private static String prependModuleName(String message, String moduleName) {
         String tmp = message;
-        if (this._moduleName != null && !this._moduleName.isEmpty()) {
-            tmp = "["+this._moduleName+"] "+tmp;
+        if (moduleName != null && !moduleName.isEmpty()) {
+            tmp = "["+moduleName+"] "+tmp;
         }
         return tmp;
     }
@@ -128,9 +118,13 @@ public class Logger implements ILogger {
      * @return the packageName with the message.
      */
     public String prependPackageName(String message) {
+        return Logger.prependPackageName(message, this._packageName);
+    };
+
+    private static String prependPackageName(String message, String packageName) {
         String tmp = message;
-        if (this._packageName != null && !this._packageName.isEmpty()) {
-            tmp = "["+this._packageName+"] "+tmp;
+        if (packageName != null && !packageName.isEmpty()) {
+            tmp = "["+packageName+"] "+tmp;
         }
         return tmp;
     };
@@ -139,20 +133,19 @@ public class Logger implements ILogger {
      * Prepends Conviva namespace to the message.
      * @param message The original message.
      */
-    private String prependConvivaNamespace(String message) {
+    private static String prependConvivaNamespace(String message, String packageName) {
         String tmp = message;
-        if (this._packageName != null && !this._packageName.isEmpty()) {
+        if (packageName != null && !packageName.isEmpty()) {
             tmp = "[Conviva] "+tmp;
         }
         return tmp;
     };
 
     /**
-     * Prepends the name of the module to the message.
+     * Prepends the time to the message.
      * @param message The original message.
      */
-    private String prependTime(String message) {
-        double timeMsec = this._timeInterface.getEpochTimeMs();
+    private static String prependTime(String message, double timeMsec) {
         String theTime = String.format("%.2f", (timeMsec / 1000.0));
         return "["+theTime+"] "+message;
     };
@@ -162,11 +155,11 @@ public class Logger implements ILogger {
      * @param {string} message The original message.
      * @param {SystemSettings.LogLevel} logLevel The log level.
      */
-    private String prependLogLevel(String message, SystemSettings.LogLevel logLevel) {
+    private static String prependLogLevel(String message, SystemSettings.LogLevel logLevel, String packageName) {
         String logLevelString = Logger.getLogLevelString(logLevel);
         String tmp = message;
         /* istanbul ignore else */
-        if (this._packageName != null && !this._packageName.isEmpty()) {
+        if (packageName != null && !packageName.isEmpty()) {
             tmp = "["+logLevelString+"] "+tmp;
         }
         return tmp;
@@ -177,10 +170,10 @@ public class Logger implements ILogger {
      * Prepends the ID of the current session to the message.
      * @param message The original message.
      */
-    private String prependSessionId(String message) {
+    private static String prependSessionId(String message, int sessionId) {
         String tmp = message;
-        if (this._sessionId > 0) {
-            tmp = "sid=" + this._sessionId + " " + tmp;
+        if (sessionId > 0) {
+            tmp = "sid=" + sessionId + " " + tmp;
         }
         return tmp;
     };
@@ -204,15 +197,19 @@ public class Logger implements ILogger {
     /**
      * Formats a message for write to the console.
      * @param message The original message.
+     * @param timeMs Time the message was logged, in milliseconds since epoch.
      */
-    private String formatMessage(String message, SystemSettings.LogLevel logLevel) {
-        return this.prependConvivaNamespace(this.prependTime(
-                this.prependLogLevel(this.prependPackageName(this.prependModuleName(this.prependSessionId(message))), logLevel)));
+    static String formatMessage(String message, SystemSettings.LogLevel logLevel, double timeMs,
+                                String packageName, String moduleName, int sessionId) {
+        return prependConvivaNamespace(prependTime(
+                prependLogLevel(prependPackageName(prependModuleName(prependSessionId(message, sessionId), moduleName),
+                        packageName), logLevel, packageName), timeMs), packageName);
     }
 
     @Override
     public void consoleLog(String message, SystemSettings.LogLevel logLevel) {
-        String formattedMessage = this.formatMessage(message, logLevel);
+        String formattedMessage = Logger.formatMessage(message, logLevel, this._timeInterface.getEpochTimeMs(),
+                this._packageName, this._moduleName, this._sessionId);
         this._consoleInterface.consoleLog(formattedMessage, logLevel);
     }
 
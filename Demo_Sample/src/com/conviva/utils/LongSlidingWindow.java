@@ -0,0 +1,74 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.utils;
+
+/**
+ * Sliding window of long samples with a running sum, minimum, maximum and mean.
+ * See {@link PrimitiveSlidingWindow}.
+ */
+public class LongSlidingWindow extends PrimitiveSlidingWindow {
+    private final long[] _values;
+    private long _sum = 0;
+
+    /**
+     * @param capacity Maximum number of samples kept.
+     * @param windowMs Samples older than this duration expire. No expiry if 0.
+     */
+    public LongSlidingWindow(int capacity, long windowMs) {
+        super(capacity, windowMs);
+        _values = new long[capacity];
+    }
+
+    /**
+     * Add a sample, expiring the old ones and dropping the oldest one if the window is full.
+     * @param timeMs Time of the sample, never decreasing.
+     * @param value The sample.
+     */
+    public void add(long timeMs, long value) {
+        int index = beginAdd(timeMs);
+        _values[index] = value;
+        _sum += value;
+        endAdd(timeMs);
+    }
+
+    /// Sum of the samples, 0 if empty
+    public long getSum() {
+        return _sum;
+    }
+
+    /// Smallest sample, 0 if empty
+    public long getMin() {
+        int index = minIndex();
+        return index >= 0 ? _values[index] : 0;
+    }
+
+    /// Largest sample, 0 if empty
+    public long getMax() {
+        int index = maxIndex();
+        return index >= 0 ? _values[index] : 0;
+    }
+
+    /// Average of the samples, 0 if empty
+    public double getMean() {
+        int size = size();
+        return size > 0 ? (double) _sum / size : 0;
+    }
+
+    @Override
+    protected int compare(int indexA, int indexB) {
+        // Long.compare needs Android API 19
+        if (_values[indexA] == _values[indexB]) {
+            return 0;
+        }
+        return _values[indexA] < _values[indexB] ? -1 : 1;
+    }
+
+    @Override
+    protected void onRemove(int index) {
+        _sum -= _values[index];
+    }
+
+    @Override
+    protected void onClear() {
+        _sum = 0;
+    }
+}
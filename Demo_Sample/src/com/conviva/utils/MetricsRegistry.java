@@ -0,0 +1,262 @@
+package com.conviva.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MetricsRegistry
+ * Counters, gauges and latency histograms measuring the library itself, and quantile
+ * sketches rolling up the QoE summaries of the ended sessions.<br>
+ * Metrics are created on first use and updated with atomic operations only, without
+ * locking nor allocating, so they can stay enabled in production. snapshot() reads all
+ * the metrics at once, for the IMetricsInterface of the SystemInterface or for the application.
+ */
+
+public class MetricsRegistry {
+	/// Time to build a heartbeat, in microseconds
+	public static final String HEARTBEAT_BUILD_US = "hb.build_us";
+	/// Time to encode a heartbeat, in microseconds
+	public static final String HEARTBEAT_ENCODE_US = "hb.encode_us";
+	/// Number of events flushed with each heartbeat
+	public static final String EVENT_QUEUE_DEPTH = "eq.depth";
+	/// Round trip time of the HTTP requests, in milliseconds
+	public static final String HTTP_RTT_MS = "http.rtt_ms";
+	public static final String HTTP_REQUESTS = "http.requests";
+	public static final String HTTP_FAILURES = "http.failures";
+	/// Size of the request bodies before and after compression, in bytes, see SystemSettings.httpCompression
+	public static final String HTTP_RAW_BYTES = "http.raw_bytes";
+	public static final String HTTP_SENT_BYTES = "http.sent_bytes";
+	/// Exceptions caught by ExceptionCatcher.runProtected
+	public static final String PROTECTED_FAILURES = "exc.caught";
+	/// Delay of the recurring timers behind their interval, in milliseconds
+	public static final String TIMER_LAG_MS = "timer.lag_ms";
+	/// Time the API calls wait for the SDK thread, in microseconds, see SystemSettings.asyncApiCalls
+	public static final String SDK_QUEUE_WAIT_US = "sdk.queue_wait_us";
+	public static final String SDK_COMMANDS = "sdk.commands";
+	/// Rendered frame rate and buffer length in milliseconds of the ended sessions, see ClientSettings.qoeSummary
+	public static final String QOE_FPS = "qoe.fps";
+	public static final String QOE_BUFFER_LENGTH_MS = "qoe.bl_ms";
+
+	private final ConcurrentMap<String, Counter> _counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Gauge> _gauges = new ConcurrentHashMap<String, Gauge>();
+	private final ConcurrentMap<String, Histogram> _histograms = new ConcurrentHashMap<String, Histogram>();
+	// Each sketch is guarded by itself
+	private final ConcurrentMap<String, QuantileSketch> _sketches = new ConcurrentHashMap<String, QuantileSketch>();
+
+	/// A value that only increases
+	public static final class Counter {
+		private final AtomicLong _value = new AtomicLong(0);
+
+		public void increment() {
+			_value.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			_value.addAndGet(delta);
+		}
+
+		public long get() {
+			return _value.get();
+		}
+	}
+
+	/// The last value set
+	public static final class Gauge {
+		private final AtomicLong _value = new AtomicLong(0);
+
+		public void set(long value) {
+			_value.set(value);
+		}
+
+		public long get() {
+			return _value.get();
+		}
+	}
+
+	/**
+	 * Histogram of non-negative values with log-linear buckets, in the style of HdrHistogram:
+	 * values below 16 are exact, larger values fall in 8 buckets per power of 2, a 12.5%
+	 * precision over the whole range of long.
+	 */
+	public static final class Histogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int EXACT_VALUES = SUB_BUCKETS * 2;
+		private static final int BUCKET_COUNT = EXACT_VALUES + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+		private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+		private final AtomicLong _count = new AtomicLong(0);
+		private final AtomicLong _sum = new AtomicLong(0);
+		private final AtomicLong _max = new AtomicLong(0);
+
+		public void record(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			_buckets.incrementAndGet(bucketIndex(value));
+			_count.incrementAndGet();
+			_sum.addAndGet(value);
+			long max = _max.get();
+			while (value > max && !_max.compareAndSet(max, value)) {
+				max = _max.get();
+			}
+		}
+
+		public long getCount() {
+			return _count.get();
+		}
+
+		/**
+		 * Estimate a percentile.
+		 * @param percentile Between 0 and 100.
+		 * @return The middle of the bucket holding the percentile, 0 if empty.
+		 */
+		public long getPercentile(double percentile) {
+			long count = _count.get();
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+			long cumulated = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				cumulated += _buckets.get(i);
+				if (cumulated >= rank) {
+					return Math.min(bucketMiddle(i), _max.get());
+				}
+			}
+			return _max.get();
+		}
+
+		/// Summary with the count, mean, p50, p90, p99 and max
+		Map<String, Object> snapshot() {
+			Map<String, Object> snapshot = new HashMap<String, Object>();
+			long count = _count.get();
+			snapshot.put("count", count);
+			if (count > 0) {
+				snapshot.put("mean", _sum.get() / count);
+				snapshot.put("p50", getPercentile(50));
+				snapshot.put("p90", getPercentile(90));
+				snapshot.put("p99", getPercentile(99));
+				snapshot.put("max", _max.get());
+			}
+			return snapshot;
+		}
+
+		private static int bucketIndex(long value) {
+			if (value < EXACT_VALUES) {
+				return (int) value;
+			}
+			int magnitude = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) ((value >> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+			return EXACT_VALUES + (magnitude - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS + subBucket;
+		}
+
+		private static long bucketMiddle(int index) {
+			if (index < EXACT_VALUES) {
+				return index;
+			}
+			int magnitude = (index - EXACT_VALUES) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+			int subBucket = (index - EXACT_VALUES) % SUB_BUCKETS;
+			long width = 1L << (magnitude - SUB_BUCKET_BITS);
+			long lowest = (SUB_BUCKETS + subBucket) * width;
+			return lowest + width / 2;
+		}
+	}
+
+	public Counter counter(String name) {
+		Counter counter = _counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter();
+			counter = _counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	public Gauge gauge(String name) {
+		Gauge gauge = _gauges.get(name);
+		if (gauge == null) {
+			Gauge created = new Gauge();
+			gauge = _gauges.putIfAbsent(name, created);
+			if (gauge == null) {
+				gauge = created;
+			}
+		}
+		return gauge;
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = _histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = _histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Add the values of a sketch to the one registered under a name.
+	 * @param name Name of the sketch, created on first use with the settings of the added one.
+	 * @param sketch The values to add, left unchanged. Must not be modified concurrently.
+	 */
+	public void mergeSketch(String name, QuantileSketch sketch) {
+		QuantileSketch rollup = _sketches.get(name);
+		if (rollup == null) {
+			QuantileSketch created = new QuantileSketch(sketch.getRelativeAccuracy(), sketch.getMaxBuckets());
+			rollup = _sketches.putIfAbsent(name, created);
+			if (rollup == null) {
+				rollup = created;
+			}
+		}
+		synchronized (rollup) {
+			rollup.merge(sketch);
+		}
+	}
+
+	/**
+	 * Read all the metrics.
+	 * @return Counters and gauges by name as Long, histograms by name as maps with count, mean, p50, p90, p99 and max,
+	 * sketches by name as maps with count, min, p50, p95, p99 and max.
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> snapshot = new HashMap<String, Object>();
+		for (Map.Entry<String, Counter> entry : _counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> entry : _gauges.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Histogram> entry : _histograms.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		for (Map.Entry<String, QuantileSketch> entry : _sketches.entrySet()) {
+			snapshot.put(entry.getKey(), snapshot(entry.getValue()));
+		}
+		return snapshot;
+	}
+
+	private static Map<String, Object> snapshot(QuantileSketch sketch) {
+		Map<String, Object> snapshot = new HashMap<String, Object>();
+		synchronized (sketch) {
+			long count = sketch.getCount();
+			snapshot.put("count", count);
+			if (count > 0) {
+				snapshot.put("min", sketch.getMin());
+				snapshot.put("p50", sketch.getQuantile(0.50));
+				snapshot.put("p95", sketch.getQuantile(0.95));
+				snapshot.put("p99", sketch.getQuantile(0.99));
+				snapshot.put("max", sketch.getMax());
+			}
+		}
+		return snapshot;
+	}
+}
@@ -2,6 +2,7 @@ package com.conviva.utils;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.conviva.api.Client;
 import com.conviva.api.ClientSettings;
@@ -15,7 +16,8 @@ import com.conviva.protocol.Protocol;
 public class Ping {
 	private ILogger _logger;
 	private IHttpClient _httpClient;
-    private boolean _isSendingPing;
+    // Shared by the modules of a client, only one thread builds and sends a ping at a time
+    private final AtomicBoolean _isSendingPing = new AtomicBoolean(false);
     private boolean _cachedPingUrl;
     private String _basePingUrl;
     private ClientSettings _clientSettings;
@@ -24,7 +26,6 @@ public class Ping {
     public static String serviceUrl = "https://pings.conviva.com/ping.ping";
 
 	public Ping(ILogger logger, IHttpClient httpClient, ClientSettings clientSettings) {
-		this._isSendingPing = false;
 		this._cachedPingUrl = false;
 		this._basePingUrl = null;
 		this._logger = logger;
@@ -35,22 +36,21 @@ public class Ping {
 	}
 
 	public void send(String errorMessage) {
-        if (this._isSendingPing) {
+        if (!this._isSendingPing.compareAndSet(false, true)) {
             // If an error occurs in the process of sending a ping, don't try to send a ping for it.
             // Should not happen unless runProtected methods are used in ping/initPing methods.
             return;
         }
         try {
-            this._isSendingPing = true;
             this.init();
             String pingUrl = this._basePingUrl + "&d=" + urlEncodeString(errorMessage);
             this._logger.error("send(): " + pingUrl);
             this._httpClient.request("GET", pingUrl, null, null, null);
-            this._isSendingPing = false;
         } catch(Exception e) {
-        	_isSendingPing = false;
         	this._logger.error("failed to send ping");
-        }    
+        } finally {
+            this._isSendingPing.set(false);
+        }
 	}
 
     private String urlEncodeString(String rawString)
@@ -0,0 +1,137 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.utils;
+
+/**
+ * Base of the sliding windows of primitive samples.<br>
+ * Samples are kept in fixed arrays used as a ring, together with the time they were added.
+ * Samples older than the window duration expire, and the oldest sample is dropped when
+ * the capacity is reached. Minimum and maximum are tracked with monotonic deques of sample
+ * positions, so that adding a sample and reading an aggregate are O(1) amortized and never allocate.
+ * Not thread safe.
+ */
+public abstract class PrimitiveSlidingWindow {
+    private final int _capacity;
+    private final long _windowMs;
+    private final long[] _times;
+    // Positions of the oldest and next samples, increasing forever
+    private long _head = 0;
+    private long _tail = 0;
+    // Positions of the candidates for minimum and maximum, ascending values for _minDeque
+    private final long[] _minDeque;
+    private long _minFront = 0;
+    private long _minBack = 0;
+    private final long[] _maxDeque;
+    private long _maxFront = 0;
+    private long _maxBack = 0;
+
+    /**
+     * @param capacity Maximum number of samples kept.
+     * @param windowMs Samples older than this duration expire. No expiry if 0.
+     */
+    protected PrimitiveSlidingWindow(int capacity, long windowMs) {
+        if (capacity <= 0 || windowMs < 0) {
+            throw new IllegalArgumentException("invalid sliding window settings");
+        }
+        _capacity = capacity;
+        _windowMs = windowMs;
+        _times = new long[capacity];
+        _minDeque = new long[capacity];
+        _maxDeque = new long[capacity];
+    }
+
+    /// Number of samples in the window
+    public int size() {
+        return (int) (_tail - _head);
+    }
+
+    public boolean isEmpty() {
+        return _tail == _head;
+    }
+
+    public int capacity() {
+        return _capacity;
+    }
+
+    /// Remove all the samples
+    public void clear() {
+        _head = _tail;
+        _minFront = _minBack;
+        _maxFront = _maxBack;
+        onClear();
+    }
+
+    /**
+     * Remove the samples older than the window duration.
+     * @param nowMs Current time, in the time base of the samples.
+     */
+    public void expire(long nowMs) {
+        if (_windowMs == 0) {
+            return;
+        }
+        long oldestAllowedMs = nowMs - _windowMs;
+        while (_head < _tail && _times[index(_head)] <= oldestAllowedMs) {
+            removeOldest();
+        }
+    }
+
+    /// Ring index of the slot receiving the next sample, making room for it
+    protected final int beginAdd(long timeMs) {
+        expire(timeMs);
+        if (size() == _capacity) {
+            removeOldest();
+        }
+        return index(_tail);
+    }
+
+    /// Makes the sample stored at the index returned by beginAdd() part of the window
+    protected final void endAdd(long timeMs) {
+        int index = index(_tail);
+        _times[index] = timeMs;
+        while (_minBack > _minFront && compare(index(_minDeque[index(_minBack - 1)]), index) >= 0) {
+            _minBack--;
+        }
+        _minDeque[index(_minBack++)] = _tail;
+        while (_maxBack > _maxFront && compare(index(_maxDeque[index(_maxBack - 1)]), index) <= 0) {
+            _maxBack--;
+        }
+        _maxDeque[index(_maxBack++)] = _tail;
+        _tail++;
+    }
+
+    /// Ring index of the minimum sample, -1 if empty
+    protected final int minIndex() {
+        return _minBack > _minFront ? index(_minDeque[index(_minFront)]) : -1;
+    }
+
+    /// Ring index of the maximum sample, -1 if empty
+    protected final int maxIndex() {
+        return _maxBack > _maxFront ? index(_maxDeque[index(_maxFront)]) : -1;
+    }
+
+    /// Compare the samples at two ring indexes
+    protected abstract int compare(int indexA, int indexB);
+
+    /// Called before the sample at this ring index leaves the window
+    protected abstract void onRemove(int index);
+
+    /// Called when all the samples are removed
+    protected abstract void onClear();
+
+    private void removeOldest() {
+        onRemove(index(_head));
+        if (_minBack > _minFront && _minDeque[index(_minFront)] == _head) {
+            _minFront++;
+        }
+        if (_maxBack > _maxFront && _maxDeque[index(_maxFront)] == _head) {
+            _maxFront++;
+        }
+        _head++;
+        if (_head == _tail) {
+            onClear();
+        }
+    }
+
+    private int index(long position) {
+        return (int) (position % _capacity);
+    }
+}
@@ -0,0 +1,214 @@
+// Copyright (c) 2013, Conviva Inc.  All rights reserved.
+package com.conviva.utils;
+
+/**
+ * Mergeable quantile sketch with relative accuracy guarantees, in the style of DDSketch.<br>
+ * Positive values are counted in logarithmic buckets: bucket k holds the values in
+ * (gamma^(k-1), gamma^k] with gamma = (1 + a) / (1 - a), so any quantile is estimated within
+ * a relative error a. Values lower than or equal to 0 are counted apart as 0.<br>
+ * The number of buckets is fixed. When the values span more buckets than available, the
+ * lowest buckets are collapsed together, which keeps the high quantiles accurate.
+ * Sketches with the same settings can be merged. Not thread safe.
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.02;
+    public static final int DEFAULT_MAX_BUCKETS = 512;
+
+    private final double _relativeAccuracy;
+    private final double _gamma;
+    private final double _logGamma;
+    private final int[] _counts;
+    // Bucket index held by _counts[0]
+    private int _offset = 0;
+    private boolean _hasBuckets = false;
+    private long _zeroCount = 0;
+    private long _count = 0;
+    private double _min = 0;
+    private double _max = 0;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * @param relativeAccuracy Maximum relative error of the estimated quantiles, between 0 and 1.
+     * @param maxBuckets Number of buckets, the footprint of the sketch.
+     */
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1 || maxBuckets <= 0) {
+            throw new IllegalArgumentException("invalid quantile sketch settings");
+        }
+        _relativeAccuracy = relativeAccuracy;
+        _gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        _logGamma = Math.log(_gamma);
+        _counts = new int[maxBuckets];
+    }
+
+    /**
+     * Count a value.
+     * @param value The value, negative values are counted as 0.
+     */
+    public void add(double value) {
+        if (value != value) {
+            // NaN
+            return;
+        }
+        if (_count == 0 || value < _min) {
+            _min = value;
+        }
+        if (_count == 0 || value > _max) {
+            _max = value;
+        }
+        _count++;
+        if (value <= 0) {
+            _zeroCount++;
+        } else {
+            addToBucket(bucketIndex(value), 1);
+        }
+    }
+
+    /**
+     * Add the values counted by another sketch, for instance to roll up the sketches of several sessions.
+     * @param other A sketch built with the same relative accuracy and number of buckets.
+     */
+    public void merge(QuantileSketch other) {
+        if (other._relativeAccuracy != _relativeAccuracy || other._counts.length != _counts.length) {
+            throw new IllegalArgumentException("cannot merge quantile sketches with different settings");
+        }
+        if (other._count == 0) {
+            return;
+        }
+        if (_count == 0 || other._min < _min) {
+            _min = other._min;
+        }
+        if (_count == 0 || other._max > _max) {
+            _max = other._max;
+        }
+        _count += other._count;
+        _zeroCount += other._zeroCount;
+        if (other._hasBuckets) {
+            for (int i = 0; i < other._counts.length; i++) {
+                if (other._counts[i] > 0) {
+                    addToBucket(other._offset + i, other._counts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimate a quantile.
+     * @param quantile Between 0 and 1, 0.5 for the median.
+     * @return The estimated value, 0 if the sketch is empty.
+     */
+    public double getQuantile(double quantile) {
+        if (_count == 0) {
+            return 0;
+        }
+        if (quantile <= 0) {
+            return _min;
+        }
+        if (quantile >= 1) {
+            return _max;
+        }
+        long rank = (long) (quantile * (_count - 1));
+        long cumulated = _zeroCount;
+        if (cumulated > rank) {
+            return Math.max(_min, 0);
+        }
+        for (int i = 0; i < _counts.length; i++) {
+            cumulated += _counts[i];
+            if (cumulated > rank) {
+                double estimate = 2 * Math.pow(_gamma, _offset + i) / (_gamma + 1);
+                return Math.min(Math.max(estimate, _min), _max);
+            }
+        }
+        return _max;
+    }
+
+    /// Number of values counted
+    public long getCount() {
+        return _count;
+    }
+
+    /// Smallest value counted, 0 if empty
+    public double getMin() {
+        return _count > 0 ? _min : 0;
+    }
+
+    /// Largest value counted, 0 if empty
+    public double getMax() {
+        return _count > 0 ? _max : 0;
+    }
+
+    public double getRelativeAccuracy() {
+        return _relativeAccuracy;
+    }
+
+    public int getMaxBuckets() {
+        return _counts.length;
+    }
+
+    /// Forget all the values
+    public void clear() {
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] = 0;
+        }
+        _hasBuckets = false;
+        _offset = 0;
+        _zeroCount = 0;
+        _count = 0;
+        _min = 0;
+        _max = 0;
+    }
+
+    private int bucketIndex(double value) {
+        return (int) Math.ceil(Math.log(value) / _logGamma);
+    }
+
+    private void addToBucket(int index, int count) {
+        int size = _counts.length;
+        if (!_hasBuckets) {
+            // Room for values both lower and higher than the first one
+            _offset = index - size / 2;
+            _hasBuckets = true;
+        }
+        if (index >= _offset + size) {
+            // Slide up, collapsing the lowest buckets into the new lowest one
+            int shift = index - (_offset + size - 1);
+            int collapsed = 0;
+            for (int i = 0; i < Math.min(shift + 1, size); i++) {
+                collapsed += _counts[i];
+            }
+            if (shift < size) {
+                System.arraycopy(_counts, shift, _counts, 0, size - shift);
+                for (int i = size - shift; i < size; i++) {
+                    _counts[i] = 0;
+                }
+                _counts[0] = collapsed;
+            } else {
+                for (int i = 1; i < size; i++) {
+                    _counts[i] = 0;
+                }
+                _counts[0] = collapsed;
+            }
+            _offset += shift;
+        } else if (index < _offset) {
+            // Slide down as far as the highest used bucket allows
+            int highest = size - 1;
+            while (highest >= 0 && _counts[highest] == 0) {
+                highest--;
+            }
+            int shift = Math.min(_offset - index, size - 1 - highest);
+            if (shift > 0) {
+                System.arraycopy(_counts, 0, _counts, shift, highest + 1);
+                for (int i = 0; i < shift; i++) {
+                    _counts[i] = 0;
+                }
+                _offset -= shift;
+            }
+            // Still too low: counted in the lowest bucket
+            index = Math.max(index, _offset);
+        }
+        _counts[index - _offset] += count;
+    }
+}
@@ -0,0 +1,161 @@
+package com.conviva.utils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RingBuffer
+ * Bounded multi-producer/single-consumer queue, overwriting the oldest items when full.<br>
+ * Producers never block nor lock: they claim a position with a single atomic increment
+ * and publish into the slot of that position. Items overwritten before being drained
+ * are counted as dropped.<br>
+ * Slots are preallocated, publishing does not allocate.
+ * @param <T> Type of the items.
+ */
+
+public class RingBuffer<T> {
+	/// Sequence of a slot never published
+	private static final long EMPTY = -1;
+
+	private final int _mask;
+	private final AtomicReferenceArray<T> _items;
+	// Per slot, the position of its item, EMPTY, or writing(position) while it is being written
+	private final AtomicLongArray _sequences;
+	private final AtomicLong _tail = new AtomicLong(0);
+	private final AtomicLong _droppedCount = new AtomicLong(0);
+	// Only written by the consumer
+	private volatile long _head = 0;
+
+	/**
+	 * @param capacity Maximum number of items kept, rounded up to a power of 2.
+	 */
+	public RingBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		_mask = size - 1;
+		_items = new AtomicReferenceArray<T>(size);
+		_sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			_sequences.set(i, EMPTY);
+		}
+	}
+
+	/// Sequence marking a slot while the item of a position is written into it
+	private static long writing(long position) {
+		return -2 - position;
+	}
+
+	/// Position of the item of a slot, even while it is being written
+	private static long positionOf(long sequence) {
+		return sequence >= 0 ? sequence : -2 - sequence;
+	}
+
+	/**
+	 * Reserve the next position. Must be followed by publish() with that position,
+	 * even if building the item failed, or drain() stops at that position.
+	 * @return The position, increasing by one with every call.
+	 */
+	public long claim() {
+		return _tail.getAndIncrement();
+	}
+
+	/**
+	 * Make an item visible to the consumer, overwriting the oldest item if the buffer is full.
+	 * @param position A position returned by claim().
+	 * @param item The item.
+	 */
+	public void publish(long position, T item) {
+		int index = (int) (position & _mask);
+		while (true) {
+			long sequence = _sequences.get(index);
+			if (sequence != EMPTY && positionOf(sequence) > position) {
+				// A newer item already took the slot, this one is dropped
+				return;
+			}
+			if (sequence < EMPTY) {
+				// An older item is being written or released, it only takes a few instructions
+				Thread.yield();
+				continue;
+			}
+			if (_sequences.compareAndSet(index, sequence, writing(position))) {
+				_items.set(index, item);
+				_sequences.set(index, position);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Append an item.
+	 * @param item The item.
+	 * @return The position of the item.
+	 */
+	public long offer(T item) {
+		long position = claim();
+		publish(position, item);
+		return position;
+	}
+
+	/**
+	 * Move the published items to a list, oldest first. Only one thread may drain at a time.
+	 * Stops at the first claimed position not published yet.
+	 * @param out List receiving the items.
+	 * @return The number of items added to the list.
+	 */
+	public int drain(List<T> out) {
+		long tail = _tail.get();
+		long position = _head;
+		long oldestKept = tail - (_mask + 1);
+		if (position < oldestKept) {
+			_droppedCount.addAndGet(oldestKept - position);
+			position = oldestKept;
+		}
+		int drained = 0;
+		for (; position < tail; position++) {
+			int index = (int) (position & _mask);
+			long sequence = _sequences.get(index);
+			if (sequence == EMPTY || positionOf(sequence) < position
+					|| sequence == writing(position)) {
+				// Claimed but not published yet, the rest goes with the next drain
+				break;
+			}
+			if (positionOf(sequence) > position) {
+				_droppedCount.incrementAndGet();
+				continue;
+			}
+			// Take the slot while reading the item, so that a producer cannot overwrite it meanwhile
+			if (!_sequences.compareAndSet(index, position, writing(position))) {
+				_droppedCount.incrementAndGet();
+				continue;
+			}
+			out.add(_items.get(index));
+			drained++;
+			// Release the item
+			_items.set(index, null);
+			_sequences.set(index, position);
+		}
+		_head = position;
+		return drained;
+	}
+
+	/**
+	 * Number of items claimed and not drained yet, at most the capacity.
+	 * @return The number of pending items.
+	 */
+	public int size() {
+		long size = _tail.get() - _head;
+		return (int) Math.min(size, _mask + 1);
+	}
+
+	/**
+	 * Number of items overwritten before being drained.
+	 * @return The number of dropped items since the buffer was created.
+	 */
+	public long getDroppedCount() {
+		return _droppedCount.get();
+	}
+}
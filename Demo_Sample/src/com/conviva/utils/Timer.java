@@ -1,7 +1,9 @@
 package com.conviva.utils;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.conviva.api.ConvivaException;
 import com.conviva.api.system.ICancelTimer;
 import com.conviva.api.system.ITimerInterface;
 
@@ -14,11 +16,50 @@ public class Timer {
 	private ITimerInterface _timerInterface;
 	private ExceptionCatcher _exceptionCatcher;
 	private Logger _logger;
+	private MetricsRegistry.Histogram _lagMs;
+	// Runs the actions instead of the timer thread, null to run them there
+	private CommandLoop _actionLoop = null;
 	
-	public Timer(Logger logger, ITimerInterface timerInterface, ExceptionCatcher exceptionCatcher) {
+	public Timer(Logger logger, ITimerInterface timerInterface, ExceptionCatcher exceptionCatcher, MetricsRegistry metricsRegistry) {
 		_timerInterface = timerInterface;
 		_exceptionCatcher = exceptionCatcher;
 		_logger = logger;
+		// Shared by the modules of a client, logs under its own name
+		_logger.setModuleName("Timer");
+		_lagMs = metricsRegistry.histogram(MetricsRegistry.TIMER_LAG_MS);
+	}
+
+	/**
+	 * A timer sharing the same system timers, but running its actions on a CommandLoop.
+	 * @param actionLoop Loop running the timer actions, such as the shard of a session.
+	 * @return A new Timer, this one is unchanged.
+	 */
+	public Timer onLoop(CommandLoop actionLoop) {
+		Timer timer = new Timer(_logger, _timerInterface, _exceptionCatcher, _lagMs);
+		timer._actionLoop = actionLoop;
+		return timer;
+	}
+
+	private Timer(Logger logger, ITimerInterface timerInterface, ExceptionCatcher exceptionCatcher, MetricsRegistry.Histogram lagMs) {
+		_timerInterface = timerInterface;
+		_exceptionCatcher = exceptionCatcher;
+		_logger = logger;
+		_lagMs = lagMs;
+	}
+
+	private void runAction(Callable<Void> action, String actionName) throws ConvivaException {
+		if (_actionLoop != null) {
+			_exceptionCatcher.runProtectedAsync(_actionLoop, action, actionName);
+		} else {
+			_exceptionCatcher.runProtected(action, actionName);
+		}
+	}
+
+	/// Record how late a timer fired, returns the time it fired
+	private long recordLag(long expectedNanos) {
+		long nowNanos = System.nanoTime();
+		_lagMs.record(Math.max(0, nowNanos - expectedNanos) / 1000000);
+		return nowNanos;
 	}
 	
     /** 
@@ -29,23 +70,26 @@ public class Timer {
      * @return Optional. A function that can be called to cancel the timer.
      */
 
-	public ICancelTimer createRecurring(Runnable timerAction, int intervalMs,
+	public ICancelTimer createRecurring(Runnable timerAction, final int intervalMs,
 			String actionName) {
 		ICancelTimer cancelTimer;
 		
 		class WrappedTimerAction implements Runnable {
 			private String _actionName;
 			private Runnable _timerAction;
+			private long _expectedNanos;
 			public WrappedTimerAction(String actionName, Runnable timerAction) {
 				_actionName = actionName;
 				_timerAction = timerAction;
+				_expectedNanos = System.nanoTime() + intervalMs * 1000000L;
 			}
 			
 			@Override
 			public void run() {
+				_expectedNanos = recordLag(_expectedNanos) + intervalMs * 1000000L;
 				if (_exceptionCatcher != null) {
 					try {
-						_exceptionCatcher.runProtected(new Callable<Void>() {
+						runAction(new Callable<Void>() {
 						    public Void call() throws Exception {
 						    	_timerAction.run();
 						        return null;
@@ -71,7 +115,7 @@ public class Timer {
      * @return Optional. A function that can be called to cancel the timer.
      */
 
-	public ICancelTimer createOneShot(Runnable timerAction, int intervalMs,
+	public ICancelTimer createOneShot(Runnable timerAction, final int intervalMs,
 			String actionName) {
 		ICancelTimer cancelTimer = null;
 		
@@ -79,13 +123,16 @@ public class Timer {
 			private String _actionName;
 			private Runnable _timerAction;
 			private ICancelTimer _cancelTimer;
-			private boolean _timerActionHappened;
+			// Set by the timer thread when it first fires: the recurring system timer may fire again
+			// before the action queued on the action loop cancels it
+			private final AtomicBoolean _fired = new AtomicBoolean(false);
+			private long _expectedNanos;
 			
 			public WrappedTimerAction(String actionName, Runnable timerAction) {
 				_actionName = actionName;
 				_timerAction = timerAction;
 				_cancelTimer = null;
-				_timerActionHappened = false;
+				_expectedNanos = System.nanoTime() + intervalMs * 1000000L;
 			}
 			
 			public void setCancelTimer(ICancelTimer cancelTimer) {
@@ -93,21 +140,24 @@ public class Timer {
 			}
 			
 			public boolean getTimerActionHappened() {
-				return _timerActionHappened;
+				return _fired.get();
 			}
 			
 			@Override
 			public void run() {
+				if (!_fired.compareAndSet(false, true)) {
+					return;
+				}
+				recordLag(_expectedNanos);
 				if (_exceptionCatcher != null) {
 					try {
-						_exceptionCatcher.runProtected(new Callable<Void>() {
+						runAction(new Callable<Void>() {
 						    public Void call() throws Exception {
 						    	if (_cancelTimer != null) {
 						    		_cancelTimer.cancel();
 						    		_cancelTimer = null;
 						    	}
 						    	_timerAction.run();
-						    	_timerActionHappened = true;
 						        return null;
 						    }
 						}, _actionName);